@@ -0,0 +1,175 @@
+package com.simonharms.zhenghe;
+
+/**
+ * Settings for {@link DeepSeekService#completeAll(Iterable, BatchOptions)}.
+ *
+ * <pre>{@code
+ * BatchOptions options = BatchOptions.builder("deepseek-chat")
+ *         .maxTokens(64)
+ *         .temperature(0)
+ *         .maxConcurrency(32)
+ *         .build();
+ * }</pre>
+ */
+public final class BatchOptions {
+
+    private final String model;
+    private final int maxTokens;
+    private final double temperature;
+    private final int maxConcurrency;
+    private final int maxBuffered;
+
+    private BatchOptions(Builder builder) {
+        this.model = builder.model;
+        this.maxTokens = builder.maxTokens;
+        this.temperature = builder.temperature;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.maxBuffered = builder.maxBuffered > 0 ? builder.maxBuffered : 4 * builder.maxConcurrency;
+    }
+
+    /**
+     * Returns a builder for batches sent to {@code model}, preset to the service's default token
+     * limit, temperature 1.0, 8 requests in flight and up to 32 results buffered.
+     *
+     * @param model the model to use, e.g. {@code "deepseek-chat"}
+     * @return a new builder
+     */
+    public static Builder builder(String model) {
+        if (model == null || model.isEmpty()) {
+            throw new IllegalArgumentException("model must not be empty: " + model);
+        }
+        return new Builder(model);
+    }
+
+    /**
+     * Returns the model every prompt is sent to.
+     *
+     * @return the model id
+     */
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Returns the token limit per response, or 0 for the service's default.
+     *
+     * @return the token limit
+     */
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * Returns the sampling temperature.
+     *
+     * @return the temperature
+     */
+    public double getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns the maximum number of requests in flight.
+     *
+     * @return the concurrency bound
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the maximum number of prompts started but not yet returned to the caller, in
+     * flight or finished out of order.
+     *
+     * @return the buffer bound
+     */
+    public int getMaxBuffered() {
+        return maxBuffered;
+    }
+
+    /**
+     * Builder for {@link BatchOptions}.
+     */
+    public static final class Builder {
+
+        private final String model;
+        private int maxTokens;
+        private double temperature = 1.0;
+        private int maxConcurrency = 8;
+        private int maxBuffered;
+
+        private Builder(String model) {
+            this.model = model;
+        }
+
+        /**
+         * Sets the token limit per response.
+         *
+         * @param maxTokens the limit, positive, or 0 for the service's default
+         * @return this builder
+         */
+        public Builder maxTokens(int maxTokens) {
+            if (maxTokens < 0) {
+                throw new IllegalArgumentException("maxTokens must not be negative: " + maxTokens);
+            }
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * Sets the sampling temperature. With 0, identical prompts can be coalesced and cached.
+         *
+         * @param temperature the temperature, default 1.0
+         * @return this builder
+         */
+        public Builder temperature(double temperature) {
+            this.temperature = temperature;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests in flight. A client {@link ConcurrencyLimiter}
+         * lowers this further while its limit is smaller.
+         *
+         * @param maxConcurrency the bound, positive
+         * @return this builder
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Sets how many prompts may be started ahead of the result the caller is waiting for.
+         * Results are returned in input order, so a slow prompt holds back those after it; this
+         * bounds how many of them are kept in memory. Defaults to four times
+         * {@code maxConcurrency}.
+         *
+         * @param maxBuffered the bound, at least {@code maxConcurrency}
+         * @return this builder
+         */
+        public Builder maxBuffered(int maxBuffered) {
+            if (maxBuffered <= 0) {
+                throw new IllegalArgumentException("maxBuffered must be positive: " + maxBuffered);
+            }
+            this.maxBuffered = maxBuffered;
+            return this;
+        }
+
+        /**
+         * Builds the options.
+         *
+         * @return the options
+         */
+        public BatchOptions build() {
+            if (maxBuffered > 0 && maxBuffered < maxConcurrency) {
+                throw new IllegalArgumentException(
+                        "maxBuffered " + maxBuffered + " is smaller than maxConcurrency " + maxConcurrency);
+            }
+            return new BatchOptions(this);
+        }
+    }
+}
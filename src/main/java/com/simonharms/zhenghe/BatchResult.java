@@ -0,0 +1,32 @@
+package com.simonharms.zhenghe;
+
+/**
+ * The outcome of one prompt in {@link DeepSeekService#completeAll(Iterable, BatchOptions)}:
+ * either a response or the error that prevented it.
+ *
+ * @param index    the prompt's position in the input, from 0
+ * @param prompt   the prompt
+ * @param response the response, or {@code null} if the request failed
+ * @param error    the failure, or {@code null} if the request succeeded
+ */
+public record BatchResult(long index, String prompt, DeepSeekModels.ChatResponse response,
+                          DeepSeekAPIException error) {
+
+    /**
+     * Returns whether the request succeeded.
+     *
+     * @return {@code true} if there is a response
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the response's text, or {@code null} if the request failed.
+     *
+     * @return the assistant message content
+     */
+    public String getMessage() {
+        return response == null ? null : response.getMessage();
+    }
+}
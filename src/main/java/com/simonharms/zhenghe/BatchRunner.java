@@ -0,0 +1,223 @@
+package com.simonharms.zhenghe;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs the prompts of a batch through an async completion call, returning results in input
+ * order. Backs {@link DeepSeekService#completeAll(Iterable, BatchOptions)}.
+ *
+ * <p>Prompts are pulled from the source only when there is room: at most
+ * {@code maxConcurrency} requests are in flight (lowered to the concurrency limiter's current
+ * limit, if any), and at most {@code maxBuffered} prompts are started ahead of the result the
+ * caller will read next. A slow caller therefore stops the batch rather than growing memory.
+ * The source and the call are only invoked on the caller's thread, from {@link #hasNext()} and
+ * {@link #next()}, so a lazy or blocking source never ties up the threads that complete
+ * requests. While the caller waits in {@code next()} for the result at the head, each request
+ * that completes wakes it to refill the window, so requests keep flowing meanwhile.
+ */
+final class BatchRunner implements Iterator<BatchResult>, AutoCloseable {
+
+    private final Iterator<String> source;
+    private final Function<String, CompletableFuture<DeepSeekModels.ChatResponse>> call;
+    private final int maxConcurrency;
+    private final int maxBuffered;
+    private final IntSupplier concurrencyLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition completed = lock.newCondition();
+    private final ArrayDeque<Item> pending = new ArrayDeque<>();
+    private int inFlight;
+    private long nextIndex;
+    private boolean closed;
+
+    private record Item(CompletableFuture<DeepSeekModels.ChatResponse> upstream,
+                        CompletableFuture<BatchResult> result) {
+    }
+
+    BatchRunner(Iterator<String> source,
+                Function<String, CompletableFuture<DeepSeekModels.ChatResponse>> call,
+                int maxConcurrency, int maxBuffered, IntSupplier concurrencyLimit) {
+        this.source = source;
+        this.call = call;
+        this.maxConcurrency = maxConcurrency;
+        this.maxBuffered = maxBuffered;
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * Returns whether another result follows. After {@link #pump()}, the queue can only be empty
+     * once the source is exhausted or the runner closed, since nothing else holds a slot.
+     */
+    @Override
+    public boolean hasNext() {
+        pump();
+        lock.lock();
+        try {
+            return !pending.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BatchResult next() {
+        Item head;
+        do {
+            pump();
+            head = awaitHead();
+        } while (head == null);
+        pump();
+        return head.result().join(); // results are never completed exceptionally
+    }
+
+    /**
+     * Removes and returns the head if its result is ready; otherwise waits until some request
+     * completes and returns {@code null}, so that the caller refills the window and checks again.
+     */
+    private Item awaitHead() {
+        lock.lock();
+        try {
+            Item head = pending.peek();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            if (head.result().isDone()) {
+                return pending.poll();
+            }
+            completed.await();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new CancellationException("Interrupted while waiting for a batch result");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops starting prompts and cancels the requests in flight.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (Item item : pending) {
+                item.upstream().cancel(true);
+            }
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts prompts until the window is full or the source is exhausted. Runs on the caller's
+     * thread only, and reads the source and starts calls without holding the lock.
+     */
+    private void pump() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || pending.size() >= maxBuffered
+                        || inFlight >= Math.min(maxConcurrency, Math.max(1, concurrencyLimit.getAsInt()))) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!source.hasNext()) {
+                return;
+            }
+            String prompt = source.next();
+            lock.lock();
+            try {
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+            Item item = start(nextIndex++, prompt);
+            lock.lock();
+            try {
+                if (closed) {
+                    item.upstream().cancel(true);
+                    return;
+                }
+                pending.add(item);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Item start(long index, String prompt) {
+        CompletableFuture<DeepSeekModels.ChatResponse> upstream;
+        try {
+            upstream = call.apply(prompt);
+        } catch (RuntimeException e) {
+            upstream = CompletableFuture.failedFuture(e);
+        }
+        // the slot is freed before the result completes, so a caller that has just taken the
+        // result always finds room to start the next prompt
+        CompletableFuture<BatchResult> result = upstream.handle((response, error) -> {
+            release();
+            return error == null
+                    ? new BatchResult(index, prompt, response, null)
+                    : new BatchResult(index, prompt, null, toApiException(error));
+        });
+        result.whenComplete((r, e) -> signal());
+        return new Item(upstream, result);
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            completed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static DeepSeekAPIException toApiException(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof DeepSeekAPIException api) {
+            return api;
+        }
+        if (error instanceof CancellationException) {
+            return new DeepSeekAPIException("Batch request was cancelled", error);
+        }
+        return new DeepSeekAPIException("Failed to generate completion", error);
+    }
+}
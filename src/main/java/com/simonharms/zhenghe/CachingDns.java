@@ -0,0 +1,67 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.Dns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link Dns} that remembers lookups for a fixed time-to-live.
+ *
+ * <p>Every new connection OkHttp opens starts with a DNS lookup; after a deploy or an idle
+ * period those lookups land on the critical path of the first requests. Cached entries are
+ * served without a lookup until they expire. If a refresh fails, the expired addresses are
+ * served instead of failing the request, since the API's addresses rarely change.
+ */
+final class CachingDns implements Dns {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingDns.class);
+
+    private final Dns delegate;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    CachingDns(Dns delegate, Duration ttl) {
+        this(delegate, ttl, System::nanoTime);
+    }
+
+    /**
+     * Package-private constructor for testing — accepts a clock.
+     */
+    CachingDns(Dns delegate, Duration ttl, LongSupplier nanoClock) {
+        this.delegate = delegate;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = nanoClock.getAsLong();
+        Entry cached = cache.get(hostname);
+        if (cached != null && now - cached.resolvedAt < ttlNanos) {
+            return cached.addresses;
+        }
+
+        try {
+            List<InetAddress> addresses = List.copyOf(delegate.lookup(hostname));
+            cache.put(hostname, new Entry(addresses, now));
+            return addresses;
+        } catch (UnknownHostException e) {
+            if (cached != null) {
+                logger.warn("DNS lookup for {} failed; serving expired addresses {}", hostname, cached.addresses);
+                return cached.addresses;
+            }
+            throw e;
+        }
+    }
+
+    private record Entry(List<InetAddress> addresses, long resolvedAt) {}
+}
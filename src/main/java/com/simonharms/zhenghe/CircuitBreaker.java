@@ -0,0 +1,494 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Fails requests immediately while the API is unhealthy instead of letting each one wait out
+ * its connect and read timeouts.
+ *
+ * <p>The breaker records the outcome of the last {@code windowSize} calls. A call fails if it
+ * throws an {@link IOException} or receives a 500, 502, 503 or 504 response. Once at least
+ * {@code minimumCalls} have been recorded and the failure rate reaches its threshold, the
+ * breaker opens.
+ *
+ * <p>Slow calls can open the breaker too, if {@link Builder#slowCallDuration(Duration)} is set:
+ * a call is then slow if its response headers take longer than that, and the breaker also opens
+ * when the slow-call rate reaches its threshold. This is off by default because a
+ * non-streaming completion sends its headers only after the whole answer has been generated,
+ * so long answers from a healthy API would look slow. Set it for streaming traffic, where the
+ * headers arrive before the first token, or above the longest completion you expect.
+ *
+ * <p>While {@linkplain State#OPEN open}, requests are rejected with a
+ * {@link CircuitBreakerOpenException} without being sent; {@link DeepSeekService} reports
+ * them as a {@link DeepSeekAPIException}. After {@code openDuration} the breaker becomes
+ * {@linkplain State#HALF_OPEN half-open} and lets {@code halfOpenProbes} requests through.
+ * When they have all completed, the breaker closes if their failure and slow-call rates are
+ * below the thresholds and opens again otherwise. Other requests are rejected while the probes
+ * are in flight.
+ *
+ * <p>Configure with {@link DeepSeekAPIClient.Builder#circuitBreaker(CircuitBreaker)}. The
+ * breaker checks each attempt separately, so a {@link RetryPolicy} stops retrying as soon as
+ * the breaker opens.
+ *
+ * <pre>{@code
+ * CircuitBreaker breaker = CircuitBreaker.builder()
+ *         .failureRateThreshold(50)
+ *         .slowCallDuration(Duration.ofSeconds(20)) // optional: time to headers of a slow call
+ *         .openDuration(Duration.ofSeconds(30))
+ *         .listener((from, to) -> log.warn("DeepSeek circuit {} -> {}", from, to))
+ *         .build();
+ * }</pre>
+ */
+public final class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /** States of a {@link CircuitBreaker}. */
+    public enum State {
+        /** Requests flow normally and outcomes are recorded. */
+        CLOSED,
+        /** Requests are rejected without being sent. */
+        OPEN,
+        /** A limited number of probe requests are let through to test recovery. */
+        HALF_OPEN
+    }
+
+    /**
+     * Receives state transitions. Called on the thread that caused the transition, after the
+     * breaker's internal lock has been released.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Called when the breaker changes state.
+         *
+         * @param from the previous state
+         * @param to   the new state
+         */
+        void onStateChange(State from, State to);
+    }
+
+    private static final byte OK = 0;
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final LongSupplier nanoClock;
+    private final List<Listener> listeners;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] window;
+    private int windowStart;
+    private int windowCount;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesStarted;
+    private int probesFinished;
+    private int generation;
+
+    private CircuitBreaker(Builder builder, LongSupplier nanoClock) {
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallNanos = builder.slowCallDuration == null ? Long.MAX_VALUE : builder.slowCallDuration.toNanos();
+        this.openNanos = builder.openDuration.toNanos();
+        this.halfOpenProbes = builder.halfOpenProbes;
+        this.nanoClock = nanoClock;
+        this.listeners = new CopyOnWriteArrayList<>(builder.listeners);
+        this.window = new byte[Math.max(windowSize, halfOpenProbes)];
+    }
+
+    /**
+     * Returns a builder preset to a window of 100 calls, at least 20 calls before the rates are
+     * evaluated, 50% failure and slow-call rate thresholds, no slow-call duration (so slow calls
+     * are not counted), 30 seconds open and 3 half-open probes.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the current state. An open breaker whose open duration has elapsed is reported
+     * as open until the next request moves it to half-open.
+     *
+     * @return the state
+     */
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a listener for state transitions.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the failure rate over the current window, as a percentage.
+     *
+     * @return the failure rate, or {@code 0} if no calls have been recorded
+     */
+    public double getFailureRate() {
+        lock.lock();
+        try {
+            return windowCount == 0 ? 0 : 100.0 * failures / windowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the slow-call rate over the current window, as a percentage.
+     *
+     * @return the slow-call rate, or {@code 0} if no calls have been recorded
+     */
+    public double getSlowCallRate() {
+        lock.lock();
+        try {
+            return windowCount == 0 ? 0 : 100.0 * slowCalls / windowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the request if the breaker permits it and records the outcome.
+     */
+    Response intercept(Interceptor.Chain chain) throws IOException {
+        int permit = acquirePermission();
+        long start = nanoClock.getAsLong();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                release(permit);
+            } else {
+                record(permit, true, nanoClock.getAsLong() - start);
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            release(permit);
+            throw e;
+        }
+        record(permit, isFailureStatus(response.code()), nanoClock.getAsLong() - start);
+        return response;
+    }
+
+    private static boolean isFailureStatus(int statusCode) {
+        return statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Admits a call or throws if the breaker is open or its half-open probes are all taken.
+     * Returns the state generation the call was admitted in, to be passed to {@link #record}
+     * or {@link #release}.
+     */
+    int acquirePermission() throws CircuitBreakerOpenException {
+        State from = null;
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                long remaining = openedAt + openNanos - nanoClock.getAsLong();
+                if (remaining > 0) {
+                    throw new CircuitBreakerOpenException(
+                            "Circuit breaker is open; DeepSeek API calls are suspended", Duration.ofNanos(remaining));
+                }
+                from = transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesStarted >= halfOpenProbes) {
+                    throw new CircuitBreakerOpenException(
+                            "Circuit breaker is half-open and its probe calls are in flight", null);
+                }
+                probesStarted++;
+            }
+            return generation;
+        } finally {
+            lock.unlock();
+            notifyListeners(from, State.HALF_OPEN);
+        }
+    }
+
+    /**
+     * Records the outcome of an admitted call. Calls admitted before the last state change
+     * are ignored, so that stragglers from the closed state do not count as probes.
+     */
+    void record(int permit, boolean failed, long durationNanos) {
+        byte outcome = (byte) ((failed ? FAILED : OK) | (durationNanos > slowCallNanos ? SLOW : OK));
+        State from = null;
+        State to = null;
+        lock.lock();
+        try {
+            if (permit != generation) {
+                return;
+            }
+            add(outcome);
+            if (state == State.HALF_OPEN) {
+                probesFinished++;
+                if (probesFinished >= halfOpenProbes) {
+                    to = exceedsThresholds() ? State.OPEN : State.CLOSED;
+                    from = transition(to);
+                }
+            } else if (state == State.CLOSED && windowCount >= minimumCalls && exceedsThresholds()) {
+                to = State.OPEN;
+                from = transition(to);
+            }
+        } finally {
+            lock.unlock();
+            notifyListeners(from, to);
+        }
+    }
+
+    /**
+     * Releases an admitted call without recording an outcome, e.g. because it was cancelled.
+     */
+    void release(int permit) {
+        lock.lock();
+        try {
+            if (permit == generation && state == State.HALF_OPEN && probesStarted > probesFinished) {
+                probesStarted--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(byte outcome) {
+        int capacity = state == State.HALF_OPEN ? halfOpenProbes : windowSize;
+        if (windowCount == capacity) {
+            byte evicted = window[windowStart];
+            if ((evicted & FAILED) != 0) failures--;
+            if ((evicted & SLOW) != 0) slowCalls--;
+            window[windowStart] = outcome;
+            windowStart = (windowStart + 1) % capacity;
+        } else {
+            window[(windowStart + windowCount) % capacity] = outcome;
+            windowCount++;
+        }
+        if ((outcome & FAILED) != 0) failures++;
+        if ((outcome & SLOW) != 0) slowCalls++;
+    }
+
+    private boolean exceedsThresholds() {
+        return 100.0 * failures / windowCount >= failureRateThreshold
+                || 100.0 * slowCalls / windowCount >= slowCallRateThreshold;
+    }
+
+    /**
+     * Moves to {@code to}, resetting the window. Must hold the lock. Returns the previous state.
+     */
+    private State transition(State to) {
+        State from = state;
+        state = to;
+        generation++;
+        windowStart = 0;
+        windowCount = 0;
+        failures = 0;
+        slowCalls = 0;
+        probesStarted = 0;
+        probesFinished = 0;
+        if (to == State.OPEN) {
+            openedAt = nanoClock.getAsLong();
+        }
+        return from;
+    }
+
+    private void notifyListeners(State from, State to) {
+        if (from == null) {
+            return;
+        }
+        if (to == State.OPEN) {
+            logger.warn("Circuit breaker {} -> {}; rejecting calls for {} ms",
+                    from, to, TimeUnit.NANOSECONDS.toMillis(openNanos));
+        } else {
+            logger.info("Circuit breaker {} -> {}", from, to);
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(from, to);
+            } catch (RuntimeException e) {
+                logger.warn("Circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link CircuitBreaker}.
+     */
+    public static final class Builder {
+
+        private int windowSize = 100;
+        private int minimumCalls = 20;
+        private double failureRateThreshold = 50;
+        private double slowCallRateThreshold = 50;
+        private Duration slowCallDuration;
+        private Duration openDuration = Duration.ofSeconds(30);
+        private int halfOpenProbes = 3;
+        private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets how many of the most recent calls the rates are computed over.
+         *
+         * @param windowSize the window size, at least 1
+         * @return this builder
+         */
+        public Builder windowSize(int windowSize) {
+            this.windowSize = requireAtLeastOne(windowSize, "windowSize");
+            return this;
+        }
+
+        /**
+         * Sets how many calls must be recorded before the breaker may open.
+         *
+         * @param minimumCalls the minimum, at least 1
+         * @return this builder
+         */
+        public Builder minimumCalls(int minimumCalls) {
+            this.minimumCalls = requireAtLeastOne(minimumCalls, "minimumCalls");
+            return this;
+        }
+
+        /**
+         * Sets the failure rate, in percent, at which the breaker opens.
+         *
+         * @param percent the threshold, greater than 0 and at most 100
+         * @return this builder
+         */
+        public Builder failureRateThreshold(double percent) {
+            this.failureRateThreshold = requirePercent(percent, "failureRateThreshold");
+            return this;
+        }
+
+        /**
+         * Sets the slow-call rate, in percent, at which the breaker opens. Only applies when a
+         * {@linkplain #slowCallDuration(Duration) slow-call duration} is set.
+         *
+         * @param percent the threshold, greater than 0 and at most 100
+         * @return this builder
+         */
+        public Builder slowCallRateThreshold(double percent) {
+            this.slowCallRateThreshold = requirePercent(percent, "slowCallRateThreshold");
+            return this;
+        }
+
+        /**
+         * Sets the time to response headers above which a call counts as slow. Off by default;
+         * see the class documentation for why.
+         *
+         * @param duration the slow-call duration, positive, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder slowCallDuration(Duration duration) {
+            this.slowCallDuration = duration == null ? null : requirePositive(duration, "slowCallDuration");
+            return this;
+        }
+
+        /**
+         * Sets how long the breaker stays open before letting probe calls through.
+         *
+         * @param duration the open duration, positive
+         * @return this builder
+         */
+        public Builder openDuration(Duration duration) {
+            this.openDuration = requirePositive(duration, "openDuration");
+            return this;
+        }
+
+        /**
+         * Sets how many probe calls are let through while half-open.
+         *
+         * @param probes the probe count, at least 1
+         * @return this builder
+         */
+        public Builder halfOpenProbes(int probes) {
+            this.halfOpenProbes = requireAtLeastOne(probes, "halfOpenProbes");
+            return this;
+        }
+
+        /**
+         * Adds a listener for state transitions.
+         *
+         * @param listener the listener
+         * @return this builder
+         */
+        public Builder listener(Listener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener must not be null");
+            }
+            this.listeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Builds the circuit breaker.
+         *
+         * @return a new circuit breaker
+         */
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this, System::nanoTime);
+        }
+
+        /**
+         * Builds the circuit breaker with a custom clock. Package-private for testing.
+         */
+        CircuitBreaker build(LongSupplier nanoClock) {
+            return new CircuitBreaker(this, nanoClock);
+        }
+
+        private static int requireAtLeastOne(int value, String name) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be at least 1: " + value);
+            }
+            return value;
+        }
+
+        private static double requirePercent(double value, String name) {
+            if (!(value > 0 && value <= 100)) {
+                throw new IllegalArgumentException(name + " must be in (0, 100]: " + value);
+            }
+            return value;
+        }
+
+        private static Duration requirePositive(Duration duration, String name) {
+            if (duration == null || duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException(name + " must be positive: " + duration);
+            }
+            return duration;
+        }
+    }
+}
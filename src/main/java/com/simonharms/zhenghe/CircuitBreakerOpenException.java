@@ -0,0 +1,33 @@
+package com.simonharms.zhenghe;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown by {@link DeepSeekAPIClient} when a {@link CircuitBreaker} rejects a request because
+ * the API has recently been failing. The request was not sent.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a new exception.
+     *
+     * @param message    the detail message
+     * @param retryAfter how long until the breaker lets probe calls through, or {@code null} if unknown
+     */
+    public CircuitBreakerOpenException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns how long until the breaker lets probe calls through.
+     *
+     * @return the remaining open time, or {@code null} if unknown
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,476 @@
+package com.simonharms.zhenghe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on the number of requests in flight, using additive-increase /
+ * multiplicative-decrease (AIMD).
+ *
+ * <p>Each completed request is a sample. A request answered with 429, 500, 502, 503 or 504,
+ * one that timed out, or (if {@link Builder#latencyThreshold(Duration) configured}) one whose
+ * response took longer than the threshold, signals overload: the limit is multiplied by the
+ * backoff ratio. Only one decrease is applied per round of requests — a request sent
+ * before the last decrease cannot trigger another — so a burst of 429s from the same
+ * overload does not collapse the limit. A successful request that was sent while at least
+ * half the limit was in use raises the limit by {@code 1 / limit}, so a fully used limit
+ * grows by about one per round trip. The limit therefore settles just below
+ * the point where the API starts pushing back, and follows that point when it moves.
+ *
+ * <p>Requests above the limit wait in a FIFO queue for at most {@code maxWait}; if the wait
+ * expires or the queue is full, the request fails with a {@link RateLimitExceededException}
+ * without being sent. Async requests wait without blocking a thread.
+ *
+ * <p>Latency is measured to the arrival of the response headers, so a long stream does not
+ * count as a slow response. Non-streaming chat responses arrive only after the whole
+ * completion has been generated, which is why the latency signal is off by default. With a
+ * {@link RetryPolicy} installed, every attempt is classified as it completes: an overloaded
+ * attempt shrinks the limit straight away, even if a later retry of the same call succeeds,
+ * and the call then counts as an overload rather than a success when its slot is freed.
+ *
+ * <pre>{@code
+ * ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+ *         .initialLimit(16)
+ *         .maxLimit(128)
+ *         .maxWait(Duration.ofSeconds(30))
+ *         .build();
+ * DeepSeekAPIClient client = DeepSeekAPIClient.builder(apiKey, baseUrl)
+ *         .concurrencyLimiter(limiter)
+ *         .build();
+ * // ...
+ * metrics.gauge("deepseek.concurrency.limit", limiter::getLimit);
+ * }</pre>
+ */
+public final class ConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final long maxWaitNanos;
+    private final int maxQueued;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<CompletableFuture<Slot>> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos = Long.MIN_VALUE;
+
+    private final LongAdder overloads = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private ConcurrencyLimiter(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.backoffRatio = builder.backoffRatio;
+        this.latencyThresholdNanos = builder.latencyThreshold == null ? 0 : builder.latencyThreshold.toNanos();
+        this.maxWaitNanos = builder.maxWait.toNanos();
+        this.maxQueued = builder.maxQueued;
+        this.limit = builder.initialLimit;
+    }
+
+    /**
+     * Returns a builder preset to an initial limit of 20 within [1, 200], a backoff ratio of
+     * 0.9, a 60 second maximum wait and room for 1,000 queued requests.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the current concurrency limit.
+     *
+     * @return the number of requests allowed in flight
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests currently in flight.
+     *
+     * @return the in-flight count
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a slot.
+     *
+     * @return the queue length
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many requests or retry attempts signalled overload.
+     *
+     * @return the overload sample count
+     */
+    public long getOverloadCount() {
+        return overloads.sum();
+    }
+
+    /**
+     * Returns how many requests were rejected because the queue was full or the wait expired.
+     *
+     * @return the rejected request count
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Waits up to {@code maxWait} for a slot on the calling thread.
+     */
+    Slot acquire() throws IOException {
+        CompletableFuture<Slot> future = acquireAsync();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (!future.cancel(false) && !future.isCompletedExceptionally()) {
+                future.join().release(); // granted just before the interrupt
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a concurrency slot");
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    /**
+     * Returns a future completed with a slot once one is free, or failed with a
+     * {@link RateLimitExceededException} if none frees up within {@code maxWait}. Cancelling
+     * the future gives up its place in the queue.
+     */
+    CompletableFuture<Slot> acquireAsync() {
+        CompletableFuture<Slot> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Slot(inFlight));
+            }
+            if (waiters.size() >= maxQueued) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(new RateLimitExceededException(
+                        "Concurrency limit of " + (int) limit + " reached and " + maxQueued + " requests queued", null));
+            }
+            waiters.addLast(future);
+        } finally {
+            lock.unlock();
+        }
+
+        CompletableFuture.delayedExecutor(maxWaitNanos, TimeUnit.NANOSECONDS).execute(() ->
+                future.completeExceptionally(new RateLimitExceededException("Timed out after "
+                        + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms waiting for a concurrency slot", null)));
+        future.whenComplete((slot, error) -> {
+            if (error == null) {
+                return;
+            }
+            boolean removed;
+            lock.lock();
+            try {
+                removed = waiters.remove(future);
+            } finally {
+                lock.unlock();
+            }
+            if (removed && error instanceof RateLimitExceededException) {
+                rejected.increment();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Applies the multiplicative decrease for an overloaded attempt, unless the attempt was
+     * sent before the last decrease.
+     */
+    private void backOff(long attemptNanos) {
+        overloads.increment();
+        lock.lock();
+        try {
+            if (attemptNanos >= lastDecreaseNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = System.nanoTime();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Slot slot, Outcome outcome) {
+        lock.lock();
+        try {
+            inFlight--;
+            switch (outcome) {
+                case OVERLOAD -> { }
+                case SUCCESS -> {
+                    if (slot.inFlightAtGrant * 2 >= (int) limit) {
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                case IGNORE -> { }
+            }
+        } finally {
+            lock.unlock();
+        }
+        grantWaiters();
+    }
+
+    /**
+     * Hands free slots to queued requests. Futures are completed outside the lock, since
+     * completion runs the caller's continuation.
+     */
+    private void grantWaiters() {
+        while (true) {
+            CompletableFuture<Slot> waiter;
+            Slot slot;
+            lock.lock();
+            try {
+                if (inFlight >= (int) limit || waiters.isEmpty()) {
+                    return;
+                }
+                waiter = waiters.pollFirst();
+                inFlight++;
+                slot = new Slot(inFlight);
+            } finally {
+                lock.unlock();
+            }
+            if (!waiter.complete(slot)) {
+                // timed out or cancelled between polling and completing
+                slot.release();
+            }
+        }
+    }
+
+    private enum Outcome { SUCCESS, OVERLOAD, IGNORE }
+
+    /**
+     * One granted unit of concurrency. The client reports each attempt through
+     * {@link #onAttempt}, {@link #onResponse} and {@link #onFailure} and frees the slot with
+     * {@link #release}.
+     */
+    final class Slot {
+
+        private final int inFlightAtGrant;
+        private volatile long attemptNanos = System.nanoTime();
+        private volatile Outcome outcome = Outcome.IGNORE;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot(int inFlightAtGrant) {
+            this.inFlightAtGrant = inFlightAtGrant;
+        }
+
+        /**
+         * Marks the start of an attempt; latency is measured from here, or from the grant if
+         * no attempt was marked.
+         */
+        void onAttempt() {
+            attemptNanos = System.nanoTime();
+        }
+
+        /**
+         * Classifies the attempt by its status code and the time to its response headers.
+         */
+        void onResponse(int statusCode) {
+            long latency = System.nanoTime() - attemptNanos;
+            if (RetryPolicy.isRetryableStatus(statusCode) && statusCode != 408) {
+                overloaded();
+            } else if (statusCode >= 200 && statusCode < 300) {
+                if (latencyThresholdNanos > 0 && latency > latencyThresholdNanos) {
+                    overloaded();
+                } else if (outcome != Outcome.OVERLOAD) {
+                    outcome = Outcome.SUCCESS;
+                }
+            }
+        }
+
+        /**
+         * Classifies an attempt that failed without a response: timeouts signal overload, other
+         * failures are ignored.
+         */
+        void onFailure(IOException e) {
+            if (e instanceof SocketTimeoutException) {
+                overloaded();
+            }
+        }
+
+        /**
+         * Backs off for an overloaded attempt. The outcome stays an overload, so a retry that
+         * succeeds afterwards does not count as a success.
+         */
+        private void overloaded() {
+            outcome = Outcome.OVERLOAD;
+            backOff(attemptNanos);
+        }
+
+        /**
+         * Frees the slot and feeds the outcome into the limit. Only the first call has an effect.
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release(this, outcome);
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link ConcurrencyLimiter}.
+     */
+    public static final class Builder {
+
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;
+        private Duration latencyThreshold;
+        private Duration maxWait = Duration.ofSeconds(60);
+        private int maxQueued = 1_000;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the limit used before any samples have been observed.
+         *
+         * @param initialLimit the starting limit, at least 1
+         * @return this builder
+         */
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = requireAtLeastOne(initialLimit, "initialLimit");
+            return this;
+        }
+
+        /**
+         * Sets the lowest value the limit can shrink to.
+         *
+         * @param minLimit the floor, at least 1
+         * @return this builder
+         */
+        public Builder minLimit(int minLimit) {
+            this.minLimit = requireAtLeastOne(minLimit, "minLimit");
+            return this;
+        }
+
+        /**
+         * Sets the highest value the limit can grow to.
+         *
+         * @param maxLimit the ceiling, at least 1
+         * @return this builder
+         */
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = requireAtLeastOne(maxLimit, "maxLimit");
+            return this;
+        }
+
+        /**
+         * Sets the factor the limit is multiplied by on overload.
+         *
+         * @param backoffRatio the ratio, greater than 0 and less than 1
+         * @return this builder
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            if (!(backoffRatio > 0 && backoffRatio < 1)) {
+                throw new IllegalArgumentException("backoffRatio must be between 0 and 1: " + backoffRatio);
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Treats successful responses slower than {@code threshold} (measured to the response
+         * headers) as overload. Off by default.
+         *
+         * @param threshold the latency threshold, positive, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder latencyThreshold(Duration threshold) {
+            if (threshold != null && (threshold.isNegative() || threshold.isZero())) {
+                throw new IllegalArgumentException("latencyThreshold must be positive: " + threshold);
+            }
+            this.latencyThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Sets how long a request may wait for a slot before it is rejected.
+         *
+         * @param maxWait the longest wait, not negative
+         * @return this builder
+         */
+        public Builder maxWait(Duration maxWait) {
+            if (maxWait == null || maxWait.isNegative()) {
+                throw new IllegalArgumentException("maxWait must not be negative: " + maxWait);
+            }
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Sets how many requests may wait for a slot at once; further requests are rejected
+         * immediately.
+         *
+         * @param maxQueued the queue capacity, at least 0
+         * @return this builder
+         */
+        public Builder maxQueued(int maxQueued) {
+            if (maxQueued < 0) {
+                throw new IllegalArgumentException("maxQueued must not be negative: " + maxQueued);
+            }
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        /**
+         * Builds the limiter.
+         *
+         * @return a new concurrency limiter
+         */
+        public ConcurrencyLimiter build() {
+            if (minLimit > maxLimit) {
+                throw new IllegalArgumentException("minLimit " + minLimit + " exceeds maxLimit " + maxLimit);
+            }
+            if (initialLimit < minLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("initialLimit " + initialLimit
+                        + " is outside [" + minLimit + ", " + maxLimit + "]");
+            }
+            return new ConcurrencyLimiter(this);
+        }
+
+        private static int requireAtLeastOne(int value, String name) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be at least 1: " + value);
+            }
+            return value;
+        }
+    }
+}
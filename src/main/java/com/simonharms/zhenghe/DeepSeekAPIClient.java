@@ -1,36 +1,132 @@
 package com.simonharms.zhenghe;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import okhttp3.*;
+import okio.BufferedSource;
+import okio.ByteString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
 /**
  * Low-level HTTP client for the DeepSeek API.
  * Handles authentication, JSON serialization, and response parsing.
  *
+ * <p>Successful responses are decoded by Jackson straight from the response byte stream,
+ * without first materializing the body as a {@code String}. Only error bodies are buffered,
+ * and those are capped at {@value #MAX_ERROR_BODY_BYTES} bytes. Request bodies are likewise
+ * serialized straight into the socket by {@link JsonRequestBody}.
+ *
+ * <p>Every request can be issued either blocking ({@code sendGetRequest},
+ * {@code sendPostRequest}, {@code sendStreamingPostRequest}) or non-blocking
+ * ({@link #sendPostRequestAsync}), and streams can also be consumed with backpressure through
+ * {@link #publishStreamingPostRequest}, or in the background with a cancellable
+ * {@link StreamHandle} from {@link #openStreamingPostRequest}. Async requests are queued on OkHttp's {@link Dispatcher},
+ * whose concurrency limits can be tuned through {@link #builder(String, String)}.
+ *
+ * <p>The blocking methods run entirely on the calling thread, so they can be called from
+ * virtual threads; socket reads then unmount the virtual thread instead of holding a
+ * platform thread. {@link Builder#virtualThreads(boolean)} additionally runs async calls on
+ * virtual threads.
+ *
+ * <p>Connection setup (DNS, TCP, TLS) can be moved off the first request's critical path with
+ * {@link #warmUp(int)}, {@link Builder#keepWarm(Duration)} and {@link Builder#dnsCacheTtl(Duration)}.
+ *
+ * <p>Non-2xx responses are reported as {@link DeepSeekHttpException}, which carries the status
+ * code and {@code Retry-After} delay. Transient failures can be retried automatically with
+ * {@link Builder#retryPolicy(RetryPolicy)}, and account-wide quotas enforced ahead of time with
+ * {@link Builder#rateLimiter(RateLimiter)}. {@link Builder#concurrencyLimiter(ConcurrencyLimiter)}
+ * adapts the number of requests in flight to the capacity the API actually offers, and
+ * {@link Builder#circuitBreaker(CircuitBreaker)} fails fast while the API is unhealthy.
+ * {@link Builder#hedgingPolicy(HedgingPolicy)} trims tail latency by duplicating slow POSTs, and
+ * {@link Builder#responseCache(ResponseCache)} answers repeated deterministic requests locally.
+ * {@link Builder#streamMetrics(StreamMetrics)} records time to first token and token cadence, and
+ * {@link Builder#networkMetrics(NetworkMetrics)} splits every call into its network phases.
+ * {@link Builder#usageAccountant(UsageAccountant)} aggregates billed token usage for spend and quota tracking.
+ *
  * <p>Implements {@link Closeable} — call {@link #close()} when done to release
  * the underlying connection pool and executor service.
  */
 public class DeepSeekAPIClient implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(DeepSeekAPIClient.class);
+    private static final ByteString SSE_DONE = ByteString.encodeUtf8("[DONE]");
+
+    /** Default cap on concurrently executing async requests. */
+    static final int DEFAULT_MAX_REQUESTS = 64;
+
+    /**
+     * Default cap on concurrently executing async requests per host. Every request goes to
+     * the same host, so this matches {@link #DEFAULT_MAX_REQUESTS} rather than OkHttp's default of 5.
+     */
+    static final int DEFAULT_MAX_REQUESTS_PER_HOST = 64;
+
+    /** Maximum number of bytes of an error response body included in exception messages. */
+    static final long MAX_ERROR_BODY_BYTES = 16 * 1024;
+
+    /** Maximum number of bytes of a request payload written to the debug log. */
+    static final int MAX_LOGGED_PAYLOAD_BYTES = 4 * 1024;
+
+    /** Default number of idle connections kept in the pool (OkHttp's default). */
+    static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+
+    /** Default time an idle pooled connection is kept open (OkHttp's default). */
+    static final Duration DEFAULT_KEEP_ALIVE = Duration.ofMinutes(5);
+
+    /** Endpoint whose responses may be served from a {@link ResponseCache}. */
+    private static final String CHAT_COMPLETIONS_ENDPOINT = "/chat/completions";
+
+    /** Endpoint requested by {@link #warmUp(int)} and the keep-warm pinger. */
+    private static final String WARM_UP_ENDPOINT = "/models";
 
     private final String apiKey;
     private final String baseUrl;
     private final OkHttpClient httpClient;
     private final ObjectMapper objectMapper;
+    private final RateLimiter rateLimiter;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final HedgingPolicy hedgingPolicy;
+    private final ResponseCache responseCache;
+    private final StreamMetrics streamMetrics;
+    private final NetworkMetrics networkMetrics;
+    private final UsageAccountant usageAccountant;
+    private final String apiKeyId;
+    private final ObjectMapper cacheKeyMapper;
+    private final ScheduledExecutorService keepWarmExecutor;
 
     /**
      * Constructs a new client with the given credentials.
@@ -39,17 +135,25 @@ public class DeepSeekAPIClient implements Closeable {
      * @param baseUrl the base URL of the API (e.g., {@code "https://api.deepseek.com"})
      */
     public DeepSeekAPIClient(String apiKey, String baseUrl) {
-        this(apiKey, baseUrl,
-                new OkHttpClient.Builder()
-                        .connectTimeout(60, TimeUnit.SECONDS)
-                        .readTimeout(90, TimeUnit.SECONDS)
-                        .writeTimeout(60, TimeUnit.SECONDS)
-                        .retryOnConnectionFailure(true)
-                        .build(),
-                new ObjectMapper()
-                        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-                        .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false)
-                        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY));
+        this(builder(apiKey, baseUrl));
+    }
+
+    private DeepSeekAPIClient(Builder builder) {
+        this.apiKey = builder.apiKey;
+        this.baseUrl = builder.baseUrl;
+        this.httpClient = builder.buildHttpClient();
+        this.objectMapper = defaultObjectMapper();
+        this.rateLimiter = builder.rateLimiter;
+        this.concurrencyLimiter = builder.concurrencyLimiter;
+        this.hedgingPolicy = builder.hedgingPolicy;
+        this.responseCache = builder.responseCache;
+        this.streamMetrics = builder.streamMetrics;
+        this.networkMetrics = builder.networkMetrics;
+        this.usageAccountant = builder.usageAccountant;
+        this.apiKeyId = usageAccountant == null ? null : UsageAccountant.maskApiKey(apiKey);
+        this.cacheKeyMapper = responseCache == null ? null
+                : objectMapper.copy().addMixIn(DeepSeekModels.ChatRequest.class, CacheKeyMixin.class);
+        this.keepWarmExecutor = builder.keepWarmInterval == null ? null : startKeepWarm(builder.keepWarmInterval);
     }
 
     /**
@@ -60,6 +164,34 @@ public class DeepSeekAPIClient implements Closeable {
         this.baseUrl = baseUrl;
         this.httpClient = httpClient;
         this.objectMapper = objectMapper;
+        this.rateLimiter = null;
+        this.concurrencyLimiter = null;
+        this.hedgingPolicy = null;
+        this.responseCache = null;
+        this.streamMetrics = null;
+        this.networkMetrics = null;
+        this.usageAccountant = null;
+        this.apiKeyId = null;
+        this.cacheKeyMapper = null;
+        this.keepWarmExecutor = null;
+    }
+
+    /**
+     * Returns a builder for a client with non-default settings.
+     *
+     * @param apiKey  the DeepSeek API key for Bearer authentication
+     * @param baseUrl the base URL of the API (e.g., {@code "https://api.deepseek.com"})
+     * @return a new builder
+     */
+    public static Builder builder(String apiKey, String baseUrl) {
+        return new Builder(apiKey, baseUrl);
+    }
+
+    private static ObjectMapper defaultObjectMapper() {
+        return new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
     }
 
     /**
@@ -69,30 +201,119 @@ public class DeepSeekAPIClient implements Closeable {
      * @param endpoint     the API endpoint path (appended to baseUrl)
      * @param responseType the class to deserialize the response into
      * @return the deserialized response object
+     * @throws DeepSeekHttpException if the API responds with a non-2xx status
      * @throws IOException if the request fails or the response cannot be processed
      */
     public <T> T sendGetRequest(String endpoint, Class<T> responseType) throws IOException {
         String url = baseUrl + endpoint;
         logger.debug("GET {}", url);
+        acquirePermit(null);
 
-        Request request = new Request.Builder()
-                .url(url)
-                .header("Authorization", "Bearer " + apiKey)
-                .header("Accept", "application/json")
-                .get()
-                .build();
-
-        try (Response response = httpClient.newCall(request).execute()) {
+        ConcurrencyLimiter.Slot slot = acquireSlot();
+        try (Response response = execute(httpClient.newCall(buildGetRequest(url)), slot)) {
             if (response.isSuccessful() && response.body() != null) {
-                String body = response.body().string();
                 logger.debug("GET {} -> {}", url, response.code());
-                return objectMapper.readValue(body, responseType);
+                return objectMapper.readValue(response.body().byteStream(), responseType);
             } else {
-                String body = response.body() != null ? response.body().string() : "(empty)";
                 logger.error("GET {} failed: {} {}", url, response.code(), response.message());
-                throw new IOException("GET request failed [" + response.code() + "]: " + body);
+                throw httpFailure("GET request failed", response);
+            }
+        } finally {
+            release(slot);
+        }
+    }
+
+    private Request buildGetRequest(String url) {
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Accept", "application/json")
+                .get();
+        return tagAttempts(tagTarget(builder, url, null), null).build();
+    }
+
+    /**
+     * Opens connections ahead of time by issuing {@code connections} concurrent
+     * {@code GET /models} requests and waiting for them to finish.
+     *
+     * <p>Each request pays for DNS, TCP and TLS on a fresh connection, which then returns to
+     * the pool for later calls to reuse. Over HTTP/2 the requests share one multiplexed
+     * connection, so a single warm-up request is enough. Over HTTP/1.1 the number of
+     * connections kept is bounded by the pool's idle limit
+     * ({@link Builder#connectionPool(int, Duration)}) and the number opened at once by
+     * {@link Builder#maxRequestsPerHost(int)}.
+     *
+     * <p>Failures are logged and counted, not thrown, so warming up never prevents startup.
+     *
+     * @param connections the number of concurrent requests to issue, at least 1
+     * @return the number of requests that received a successful response
+     */
+    public int warmUp(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be at least 1: " + connections);
+        }
+        String url = baseUrl + WARM_UP_ENDPOINT;
+        CountDownLatch done = new CountDownLatch(connections);
+        AtomicInteger succeeded = new AtomicInteger();
+        Call[] calls = new Call[connections];
+
+        for (int i = 0; i < connections; i++) {
+            calls[i] = httpClient.newCall(buildGetRequest(url));
+            calls[i].enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    logger.debug("Warm-up GET {} failed: {}", url, e.toString());
+                    done.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (response) {
+                        if (response.isSuccessful()) {
+                            succeeded.incrementAndGet();
+                        } else {
+                            logger.debug("Warm-up GET {} -> {}", url, response.code());
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Call call : calls) {
+                call.cancel();
             }
         }
+        logger.debug("Warm-up: {}/{} requests succeeded, {} pooled connections", succeeded.get(), connections,
+                httpClient.connectionPool().connectionCount());
+        return succeeded.get();
+    }
+
+    private ScheduledExecutorService startKeepWarm(Duration interval) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "zhenghe-keep-warm");
+            thread.setDaemon(true);
+            return thread;
+        });
+        String url = baseUrl + WARM_UP_ENDPOINT;
+        long millis = interval.toMillis();
+        executor.scheduleWithFixedDelay(() -> httpClient.newCall(buildGetRequest(url)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.debug("Keep-warm GET {} failed: {}", url, e.toString());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        }), millis, millis, TimeUnit.MILLISECONDS);
+        return executor;
     }
 
     /**
@@ -104,101 +325,1456 @@ public class DeepSeekAPIClient implements Closeable {
      * @param requestBody  the object to serialize as the JSON request body
      * @param responseType the class to deserialize the response into
      * @return the deserialized response object
+     * @throws DeepSeekHttpException if the API responds with a non-2xx status
      * @throws IOException if the request fails or the response cannot be processed
      */
     public <T, R> T sendPostRequest(String endpoint, R requestBody, Class<T> responseType) throws IOException {
+        String cacheKey = cacheKey(endpoint, requestBody, responseType);
+        if (cacheKey != null) {
+            DeepSeekModels.ChatResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                logger.debug("POST {}{} served from cache", baseUrl, endpoint);
+                return responseType.cast(cached);
+            }
+        }
+        T result = hedges(requestBody)
+                ? await(sendHedgedPostRequestAsync(endpoint, requestBody, responseType))
+                : sendPostAttempt(endpoint, requestBody, responseType);
+        if (cacheKey != null) {
+            cacheResponse(cacheKey, requestBody, result);
+        }
+        return result;
+    }
+
+    private <T, R> T sendPostAttempt(String endpoint, R requestBody, Class<T> responseType) throws IOException {
         String url = baseUrl + endpoint;
-        String jsonPayload = objectMapper.writeValueAsString(requestBody);
-        logger.debug("POST {} payload: {}", url, jsonPayload);
+        Request request = buildPostRequest(url, requestBody, "application/json");
+        RateLimiter.Permit permit = acquirePermit(requestBody);
 
-        RequestBody body = RequestBody.create(jsonPayload, MediaType.parse("application/json"));
-        Request request = new Request.Builder()
+        T result = null;
+        ConcurrencyLimiter.Slot slot = null;
+        try {
+            slot = acquireSlot();
+            try (Response response = execute(httpClient.newCall(request), slot)) {
+                result = readPostResponse(url, response, responseType);
+                return result;
+            }
+        } finally {
+            settle(permit, result);
+            recordUsage(requestBody, result);
+            release(slot);
+        }
+    }
+
+    /**
+     * Sends a POST request without blocking the calling thread.
+     *
+     * <p>The call is queued on the OkHttp {@link Dispatcher} and the returned future is completed
+     * on a dispatcher thread. Failures complete the future exceptionally with the same
+     * {@link IOException} the blocking variant would throw. Cancelling the future cancels the
+     * underlying HTTP call.
+     *
+     * @param <T>          the expected response type
+     * @param <R>          the request body type
+     * @param endpoint     the API endpoint path (appended to baseUrl)
+     * @param requestBody  the object to serialize as the JSON request body
+     * @param responseType the class to deserialize the response into
+     * @return a future completed with the deserialized response object
+     */
+    public <T, R> CompletableFuture<T> sendPostRequestAsync(String endpoint, R requestBody, Class<T> responseType) {
+        String cacheKey;
+        try {
+            cacheKey = cacheKey(endpoint, requestBody, responseType);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (cacheKey != null) {
+            DeepSeekModels.ChatResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                logger.debug("POST {}{} served from cache", baseUrl, endpoint);
+                return CompletableFuture.completedFuture(responseType.cast(cached));
+            }
+        }
+        CompletableFuture<T> future = hedges(requestBody)
+                ? sendHedgedPostRequestAsync(endpoint, requestBody, responseType)
+                : sendPostAttemptAsync(endpoint, requestBody, responseType);
+        if (cacheKey != null) {
+            future.thenAccept(result -> cacheResponse(cacheKey, requestBody, result));
+        }
+        return future;
+    }
+
+    private <T, R> CompletableFuture<T> sendPostAttemptAsync(String endpoint, R requestBody, Class<T> responseType) {
+        String url = baseUrl + endpoint;
+        Request request;
+        try {
+            request = buildPostRequest(url, requestBody, "application/json");
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Call call = httpClient.newCall(request);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<RateLimiter.Permit> permitFuture = acquirePermitAsync(requestBody);
+        AtomicReference<CompletableFuture<?>> admission = new AtomicReference<>(permitFuture);
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                admission.get().cancel(false);
+                call.cancel();
+            }
+        });
+
+        permitFuture.whenComplete((permit, permitError) -> {
+            if (permitError != null) {
+                future.completeExceptionally(permitError);
+                return;
+            }
+            CompletableFuture<ConcurrencyLimiter.Slot> slotFuture = acquireSlotAsync();
+            admission.set(slotFuture);
+            if (future.isCancelled()) {
+                slotFuture.cancel(false);
+            }
+            slotFuture.whenComplete((slot, slotError) -> {
+                if (slotError != null || future.isDone()) {
+                    release(slot);
+                    settle(permit, null);
+                    if (slotError != null) {
+                        future.completeExceptionally(slotError);
+                    }
+                    return;
+                }
+                attach(call, slot);
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        logger.debug("POST {} failed: {}", url, e.toString());
+                        release(slot);
+                        settle(permit, null);
+                        future.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        T result = null;
+                        try (response) {
+                            result = readPostResponse(url, response, responseType);
+                            future.complete(result);
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        } finally {
+                            release(slot);
+                            settle(permit, result);
+                            recordUsage(requestBody, result);
+                        }
+                    }
+                });
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Sends a POST request, and a duplicate of it if the first has not completed within the
+     * {@link HedgingPolicy}'s delay and its hedge budget allows. The first successful response
+     * completes the returned future and the other attempt is cancelled. If an attempt fails,
+     * the future waits for the other one; it fails only when every attempt has failed, with the
+     * first failure.
+     */
+    private <T, R> CompletableFuture<T> sendHedgedPostRequestAsync(String endpoint, R requestBody,
+                                                                   Class<T> responseType) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReferenceArray<CompletableFuture<T>> attempts = new AtomicReferenceArray<>(2);
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        result.whenComplete((value, error) -> {
+            for (int i = 0; i < attempts.length(); i++) {
+                CompletableFuture<T> attempt = attempts.get(i);
+                if (attempt != null) attempt.cancel(false);
+            }
+        });
+
+        IntConsumer startAttempt = index -> {
+            long start = System.nanoTime();
+            CompletableFuture<T> attempt = sendPostAttemptAsync(endpoint, requestBody, responseType);
+            attempts.set(index, attempt);
+            if (result.isDone()) {
+                attempt.cancel(false);
+            }
+            attempt.whenComplete((value, error) -> {
+                if (error == null) {
+                    if (result.complete(value)) {
+                        hedgingPolicy.recordResponse(System.nanoTime() - start);
+                        if (index > 0) hedgingPolicy.onHedgeWon();
+                    }
+                } else {
+                    firstFailure.compareAndSet(null, error);
+                    if (pending.decrementAndGet() == 0) {
+                        result.completeExceptionally(firstFailure.get());
+                    }
+                }
+            });
+        };
+
+        hedgingPolicy.onRequest();
+        startAttempt.accept(0);
+        long delayNanos = hedgingPolicy.responseDelayNanos();
+        CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            if (!result.isDone() && hedgingPolicy.tryHedge() && incrementIfPositive(pending)) {
+                logger.debug("Hedging POST {}{} after {} ms", baseUrl, endpoint,
+                        TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                startAttempt.accept(1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Adds one to {@code counter} unless it has already dropped to zero, i.e. unless every
+     * attempt of a hedged request has already failed.
+     */
+    private static boolean incrementIfPositive(AtomicInteger counter) {
+        while (true) {
+            int current = counter.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns whether {@code requestBody} is sent with hedging: a policy is configured and the
+     * request has not opted out with {@link DeepSeekModels.ChatRequest#setHedgeable(boolean)}.
+     */
+    private boolean hedges(Object requestBody) {
+        return hedgingPolicy != null
+                && !(requestBody instanceof DeepSeekModels.ChatRequest request && !request.isHedgeable());
+    }
+
+    /**
+     * Waits for a hedged request on the calling thread, rethrowing its failure as the blocking
+     * variant would. Interrupting the thread cancels the request.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Returns the {@link IOException} behind a future's failure, rethrowing unchecked causes.
+     */
+    private static IOException unwrap(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Executes {@code call} with its attempts reported to {@code slot} (if any).
+     */
+    private static Response execute(Call call, ConcurrencyLimiter.Slot slot) throws IOException {
+        attach(call, slot);
+        return call.execute();
+    }
+
+    /**
+     * Hands {@code slot} to {@link #interceptAttempt} for every attempt of {@code call}.
+     */
+    private static void attach(Call call, ConcurrencyLimiter.Slot slot) {
+        Attempts attempts = call.request().tag(Attempts.class);
+        if (attempts != null) {
+            attempts.slot = slot;
+        }
+    }
+
+    /**
+     * Waits for a concurrency slot if a {@link ConcurrencyLimiter} is configured.
+     */
+    private ConcurrencyLimiter.Slot acquireSlot() throws IOException {
+        return concurrencyLimiter == null ? null : concurrencyLimiter.acquire();
+    }
+
+    private CompletableFuture<ConcurrencyLimiter.Slot> acquireSlotAsync() {
+        return concurrencyLimiter == null
+                ? CompletableFuture.completedFuture(null)
+                : concurrencyLimiter.acquireAsync();
+    }
+
+    private static void release(ConcurrencyLimiter.Slot slot) {
+        if (slot != null) {
+            slot.release();
+        }
+    }
+
+    /**
+     * Charges a request against the rate limiter, waiting or failing according to its
+     * {@link RateLimiter.OnLimit} setting. Returns {@code null} when no limiter is configured.
+     */
+    private RateLimiter.Permit acquirePermit(Object requestBody) throws IOException {
+        return acquirePermit(rateLimiter, requestBody);
+    }
+
+    private static RateLimiter.Permit acquirePermit(RateLimiter rateLimiter, Object requestBody) throws IOException {
+        if (rateLimiter == null) {
+            return null;
+        }
+        long estimate = RateLimiter.estimateTokens(requestBody);
+        if (rateLimiter.getOnLimit() == RateLimiter.OnLimit.FAIL_FAST) {
+            RateLimiter.Permit permit = rateLimiter.tryAcquire(estimate);
+            if (permit == null) {
+                throw rateLimitExceeded(rateLimiter, estimate);
+            }
+            return permit;
+        }
+        try {
+            return rateLimiter.acquire(estimate);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #acquirePermit}: the future completes once the request
+     * may be sent.
+     */
+    private CompletableFuture<RateLimiter.Permit> acquirePermitAsync(Object requestBody) {
+        if (rateLimiter == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long estimate = RateLimiter.estimateTokens(requestBody);
+        if (rateLimiter.getOnLimit() == RateLimiter.OnLimit.FAIL_FAST) {
+            RateLimiter.Permit permit = rateLimiter.tryAcquire(estimate);
+            return permit != null
+                    ? CompletableFuture.completedFuture(permit)
+                    : CompletableFuture.failedFuture(rateLimitExceeded(rateLimiter, estimate));
+        }
+        return rateLimiter.acquireAsync(estimate);
+    }
+
+    private static RateLimitExceededException rateLimitExceeded(RateLimiter rateLimiter, long estimatedTokens) {
+        Duration wait = rateLimiter.timeUntilAvailable(estimatedTokens);
+        return new RateLimitExceededException("Client-side rate limit reached (" + estimatedTokens
+                + " estimated tokens); retry in " + wait.toMillis() + " ms", wait);
+    }
+
+    /**
+     * Corrects a permit's token charge: to the reported usage for a chat response, to zero for a
+     * failed request ({@code response == null}), and otherwise leaves the estimate in place.
+     */
+    private static void settle(RateLimiter.Permit permit, Object response) {
+        if (permit == null) {
+            return;
+        }
+        if (response == null) {
+            permit.settle(0);
+        } else if (response instanceof DeepSeekModels.ChatResponse chat && chat.getUsage() != null) {
+            permit.settle(chat.getUsage().getTotalTokens());
+        } else if (response instanceof DeepSeekModels.ChatResponse.Usage usage) {
+            permit.settle(usage.getTotalTokens());
+        }
+    }
+
+    /**
+     * Feeds a billed response's usage to the {@link UsageAccountant}, if one is configured.
+     */
+    private void recordUsage(Object requestBody, Object response) {
+        if (usageAccountant == null) {
+            return;
+        }
+        DeepSeekModels.ChatResponse.Usage usage = null;
+        String model = null;
+        if (response instanceof DeepSeekModels.ChatResponse chat) {
+            usage = chat.getUsage();
+            model = chat.getModel();
+        } else if (response instanceof DeepSeekModels.ChatResponse.Usage streamed) {
+            usage = streamed;
+        }
+        String tag = null;
+        if (requestBody instanceof DeepSeekModels.ChatRequest request) {
+            model = model != null ? model : request.getModel();
+            tag = request.getUsageTag();
+        }
+        usageAccountant.record(model, apiKeyId, tag, usage);
+    }
+
+    /**
+     * Asks the API to end a stream with a usage chunk when something consumes it: the rate
+     * limiter, to settle the permit with the real count, or the usage accountant.
+     */
+    private void requestStreamUsage(Object requestBody) {
+        if ((rateLimiter != null || usageAccountant != null)
+                && requestBody instanceof DeepSeekModels.ChatRequest request
+                && request.getStreamOptions() == null) {
+            request.setStreamOptions(new DeepSeekModels.ChatRequest.StreamOptions(true));
+        }
+    }
+
+    /**
+     * Returns the configured {@link ConcurrencyLimiter}, or {@code null}.
+     */
+    ConcurrencyLimiter concurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Returns a stable key for {@code requestBody}: the hex SHA-256 of its JSON serialization,
+     * computed as the JSON is written rather than from a materialized copy. Requests that would
+     * be sent as the same bytes have the same key.
+     */
+    String requestFingerprint(Object requestBody) throws IOException {
+        return fingerprint(objectMapper, requestBody);
+    }
+
+    private static String fingerprint(ObjectMapper mapper, Object value) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            mapper.writeValue(out, value);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Request buildPostRequest(String url, Object requestBody, String accept) throws IOException {
+        JsonRequestBody body = new JsonRequestBody(objectMapper, requestBody);
+        if (logger.isDebugEnabled()) {
+            logger.debug("POST {} payload: {}", url, body.preview(MAX_LOGGED_PAYLOAD_BYTES));
+        }
+
+        Request.Builder builder = new Request.Builder()
                 .url(url)
                 .header("Authorization", "Bearer " + apiKey)
                 .header("Content-Type", "application/json")
-                .header("Accept", "application/json")
-                .post(body)
-                .build();
+                .header("Accept", accept)
+                .post(body);
+        String model = requestBody instanceof DeepSeekModels.ChatRequest request ? request.getModel() : null;
+        return tagAttempts(tagTarget(builder, url, model), requestBody).build();
+    }
+
+    /**
+     * Tags a request with the {@link Attempts} that {@link #interceptAttempt} uses to charge
+     * retries to the {@link RateLimiter} and to report each attempt to the
+     * {@link ConcurrencyLimiter}.
+     */
+    private Request.Builder tagAttempts(Request.Builder builder, Object requestBody) {
+        if (rateLimiter != null || concurrencyLimiter != null) {
+            builder.tag(Attempts.class, new Attempts(requestBody));
+        }
+        return builder;
+    }
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            String responseBody = response.body() != null ? response.body().string() : null;
-            logger.debug("POST {} -> {}", url, response.code());
+    /**
+     * Per-request state shared between the client and {@link #interceptAttempt}. The slot is
+     * set once it has been granted, before the call is executed.
+     */
+    private static final class Attempts {
+        final Object requestBody;
+        volatile ConcurrencyLimiter.Slot slot;
+        int started;
 
-            if (response.isSuccessful() && responseBody != null) {
-                return objectMapper.readValue(responseBody, responseType);
-            } else {
-                logger.error("POST {} failed: {} {}\n{}", url, response.code(), response.message(), responseBody);
-                throw new IOException("POST request failed [" + response.code() + "]: " + responseBody);
-            }
+        Attempts(Object requestBody) {
+            this.requestBody = requestBody;
+        }
+    }
+
+    /**
+     * Interceptor installed inside the retry interceptor, so it runs once per attempt. The
+     * first attempt is covered by the permit the client took before sending the call; each
+     * retry takes its own, which keeps its request charge but returns its tokens once the
+     * response headers arrive (the call's permit is settled to the reported usage). The
+     * outcome of every attempt is reported to the request's concurrency slot.
+     */
+    private static Response interceptAttempt(Interceptor.Chain chain, RateLimiter rateLimiter) throws IOException {
+        Attempts attempts = chain.request().tag(Attempts.class);
+        if (attempts == null) {
+            return chain.proceed(chain.request());
+        }
+        RateLimiter.Permit permit = attempts.started++ > 0
+                ? acquirePermit(rateLimiter, attempts.requestBody)
+                : null;
+        ConcurrencyLimiter.Slot slot = attempts.slot;
+        if (slot != null) {
+            slot.onAttempt();
+        }
+        try {
+            Response response = chain.proceed(chain.request());
+            if (slot != null) slot.onResponse(response.code());
+            return response;
+        } catch (IOException e) {
+            if (slot != null) slot.onFailure(e);
+            throw e;
+        } finally {
+            settle(permit, null);
+        }
+    }
+
+    /**
+     * Tags a request with the endpoint and model that {@link NetworkMetrics} counts it under.
+     */
+    private Request.Builder tagTarget(Request.Builder builder, String url, String model) {
+        if (networkMetrics != null) {
+            String endpoint = url.startsWith(baseUrl) ? url.substring(baseUrl.length()) : url;
+            builder.tag(NetworkMetrics.Target.class, new NetworkMetrics.Target(endpoint, model));
+        }
+        return builder;
+    }
+
+    private <T> T readPostResponse(String url, Response response, Class<T> responseType) throws IOException {
+        logger.debug("POST {} -> {}", url, response.code());
+
+        if (response.isSuccessful() && response.body() != null) {
+            return objectMapper.readValue(response.body().byteStream(), responseType);
+        } else {
+            DeepSeekHttpException failure = httpFailure("POST request failed", response);
+            logger.error("POST {} failed: {} {}\n{}", url, response.code(), response.message(), failure.getMessage());
+            throw failure;
         }
     }
 
+    /**
+     * Builds the exception for a non-2xx response, including the (capped) error body and any
+     * {@code Retry-After} delay.
+     */
+    static DeepSeekHttpException httpFailure(String prefix, Response response) throws IOException {
+        String body = readErrorBody(response.body());
+        return new DeepSeekHttpException(prefix + " [" + response.code() + "]: " + body, response.code(),
+                RetryPolicy.parseRetryAfter(response.header("Retry-After")));
+    }
+
+    /**
+     * Reads an error response body as UTF-8 text, keeping at most {@value #MAX_ERROR_BODY_BYTES}
+     * bytes so that a large or never-ending error body cannot exhaust memory.
+     */
+    static String readErrorBody(ResponseBody body) throws IOException {
+        if (body == null) {
+            return "(empty)";
+        }
+        BufferedSource source = body.source();
+        boolean truncated = source.request(MAX_ERROR_BODY_BYTES + 1);
+        if (!truncated) {
+            return source.getBuffer().readUtf8();
+        }
+        return source.getBuffer().readUtf8(MAX_ERROR_BODY_BYTES) + "... (truncated)";
+    }
+
     /**
      * Sends a streaming POST request and delivers content tokens to the provided consumer as they arrive.
      *
      * <p>The request body must have {@code "stream": true} set. Each non-empty content delta
-     * from the server-sent event stream is passed to {@code onToken}. The consumer is called
+     * from the server-sent event stream is passed to {@code onToken}. The stream is parsed as
+     * UTF-8 bytes by {@link ServerSentEventReader}, independent of the platform charset, and
+     * each chunk's delta is extracted by {@link StreamChunkParser} without binding a POJO. The consumer is called
      * on the calling thread and may be invoked many times before this method returns.
      *
+     * <p>With a {@link HedgingPolicy} configured, unless the request is not
+     * {@linkplain DeepSeekModels.ChatRequest#isHedgeable() hedgeable}, a duplicate stream is started if no token has
+     * arrived within the policy's delay, and the stream that produces the first token is
+     * delivered while the other is cancelled. The consumer is then called on a dispatcher
+     * thread, still one token at a time, and this method still returns only when the stream ends.
+     *
+     * <p>With a {@link ResponseCache} configured, a cached answer to the same request is replayed
+     * to the consumer word by word without contacting the API, and a completed stream's text is
+     * cached for later callers.
+     *
      * @param endpoint    the API endpoint path (appended to baseUrl)
      * @param requestBody the object to serialize as the JSON request body (should have stream=true)
      * @param onToken     called once per content token as it arrives from the API
+     * @throws DeepSeekHttpException if the API responds with a non-2xx status
      * @throws IOException if the request fails or the stream cannot be read
      */
     public void sendStreamingPostRequest(String endpoint, Object requestBody, Consumer<String> onToken)
             throws IOException {
+        String cacheKey = cacheKey(endpoint, requestBody, null);
+        if (cacheKey == null) {
+            sendStreamingPostRequestUncached(endpoint, requestBody, onToken);
+            return;
+        }
+        DeepSeekModels.ChatResponse cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            logger.debug("POST (streaming) {}{} served from cache", baseUrl, endpoint);
+            replayTokens(cached, onToken);
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        sendStreamingPostRequestUncached(endpoint, requestBody, token -> {
+            content.append(token);
+            onToken.accept(token);
+        });
+        if (!content.isEmpty()) {
+            DeepSeekModels.ChatRequest request = (DeepSeekModels.ChatRequest) requestBody;
+            cacheResponse(cacheKey, request, streamedResponse(request.getModel(), content.toString()));
+        }
+    }
+
+    private void sendStreamingPostRequestUncached(String endpoint, Object requestBody, Consumer<String> onToken)
+            throws IOException {
+        if (hedges(requestBody)) {
+            sendHedgedStreamingPostRequest(endpoint, requestBody, onToken);
+        } else {
+            streamAttempt(endpoint, requestBody, onToken, null);
+        }
+    }
+
+    /**
+     * Starts a streaming POST request in the background and returns a handle that can cancel it.
+     *
+     * <p>The request body must have {@code "stream": true} set. Tokens are passed to
+     * {@code onToken} on a dispatcher thread. After each token, {@code stopWhen} (if given) is
+     * evaluated on the text received so far; once it returns {@code true} the HTTP call is
+     * cancelled immediately and the handle completes with outcome
+     * {@link StreamHandle.Outcome#STOPPED}. {@link StreamHandle#cancel()} does the same from any
+     * thread. The predicate sees a live view of the text that is only valid during the call.
+     *
+     * <p>Cached responses are replayed through the same callbacks, and only streams that completed
+     * are cached. Hedging does not apply.
+     *
+     * @param endpoint    the API endpoint path (appended to baseUrl)
+     * @param requestBody the object to serialize as the JSON request body (should have stream=true)
+     * @param onToken     called once per content token as it arrives
+     * @param stopWhen    stops the stream when it matches the accumulated text, or {@code null}
+     * @return a handle on the running stream; its future fails with an {@link IOException}
+     */
+    public StreamHandle openStreamingPostRequest(String endpoint, Object requestBody, Consumer<String> onToken,
+                                                 Predicate<CharSequence> stopWhen) {
+        StreamHandle handle = new StreamHandle(onToken, stopWhen, null);
+        startStream(endpoint, requestBody, handle);
+        return handle;
+    }
+
+    /**
+     * Runs a stream for {@code handle} on a dispatcher thread.
+     */
+    void startStream(String endpoint, Object requestBody, StreamHandle handle) {
+        try {
+            httpClient.dispatcher().executorService().execute(() -> runStream(endpoint, requestBody, handle));
+        } catch (RejectedExecutionException e) {
+            handle.finish(new IOException("Client is closed", e));
+        }
+    }
+
+    private void runStream(String endpoint, Object requestBody, StreamHandle handle) {
+        Throwable failure = null;
+        try {
+            String cacheKey = cacheKey(endpoint, requestBody, null);
+            DeepSeekModels.ChatResponse cached = cacheKey == null ? null : responseCache.get(cacheKey);
+            if (cached != null) {
+                logger.debug("POST (streaming) {}{} served from cache", baseUrl, endpoint);
+                replayTokens(cached, handle::accept);
+            } else if (!handle.isStopping()) {
+                streamAttempt(endpoint, requestBody, handle::accept, handle::bind);
+                String content = handle.getText();
+                if (cacheKey != null && !handle.isStopping() && !content.isEmpty()) {
+                    DeepSeekModels.ChatRequest request = (DeepSeekModels.ChatRequest) requestBody;
+                    cacheResponse(cacheKey, request, streamedResponse(request.getModel(), content));
+                }
+            }
+        } catch (StreamHandle.Interrupted e) {
+            // stopped or cancelled between tokens
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        handle.finish(failure);
+    }
+
+    /**
+     * Returns a {@link Flow.Publisher} that streams a chat completion as {@link StreamEvent}s.
+     *
+     * <p>The request body must have {@code "stream": true} set. The publisher is cold: every
+     * subscriber sends its own request, once it first requests an event. The response is read
+     * only as far as the subscriber's demand, on a dispatcher thread; while demand is zero the
+     * rest of the stream is left in the socket. Cancelling the subscription cancels the HTTP
+     * call. A non-2xx response is signalled as a {@link DeepSeekHttpException} through
+     * {@code onError}.
+     *
+     * <p>Events carry content deltas, the finish reason and, if the server reports it, the
+     * token usage. With a {@link ResponseCache} configured, a cached answer is replayed word by
+     * word followed by a {@code "stop"} event, and a stream read to the end is cached. Hedging
+     * does not apply to published streams.
+     *
+     * @param endpoint    the API endpoint path (appended to baseUrl)
+     * @param requestBody the object to serialize as the JSON request body (should have stream=true)
+     * @return a publisher of the stream's events
+     */
+    public Flow.Publisher<StreamEvent> publishStreamingPostRequest(String endpoint, Object requestBody) {
+        return new StreamEventPublisher(httpClient.dispatcher().executorService(), () -> {
+            String cacheKey = cacheKey(endpoint, requestBody, null);
+            if (cacheKey != null) {
+                DeepSeekModels.ChatResponse cached = responseCache.get(cacheKey);
+                if (cached != null) {
+                    logger.debug("POST (streaming) {}{} served from cache", baseUrl, endpoint);
+                    return new ReplaySource(cached);
+                }
+            }
+            return new EventStreamSource(baseUrl + endpoint, requestBody, cacheKey);
+        });
+    }
+
+    /**
+     * Returns the {@link ResponseCache} key for a request, or {@code null} if the request is not
+     * a cacheable {@code /chat/completions} call: the hex SHA-256 of its JSON without the
+     * {@code stream} flag.
+     */
+    private String cacheKey(String endpoint, Object requestBody, Class<?> responseType) throws IOException {
+        if (responseCache == null
+                || !CHAT_COMPLETIONS_ENDPOINT.equals(endpoint)
+                || !(requestBody instanceof DeepSeekModels.ChatRequest request)
+                || (responseType != null && !responseType.isAssignableFrom(DeepSeekModels.ChatResponse.class))
+                || !responseCache.isCacheable(request)) {
+            return null;
+        }
+        return fingerprint(cacheKeyMapper, request);
+    }
+
+    private void cacheResponse(String cacheKey, Object requestBody, Object response) {
+        if (response instanceof DeepSeekModels.ChatResponse chat) {
+            responseCache.put(cacheKey, chat, ((DeepSeekModels.ChatRequest) requestBody).getCacheTtl());
+        }
+    }
+
+    /**
+     * Builds the response cached for a completed stream, which has no response object of its own.
+     */
+    private static DeepSeekModels.ChatResponse streamedResponse(String model, String content) {
+        DeepSeekModels.ChatResponse.Choice choice = new DeepSeekModels.ChatResponse.Choice();
+        choice.setFinishReason("stop");
+        choice.setMessage(new DeepSeekModels.ChatMessage("assistant", content));
+        DeepSeekModels.ChatResponse response = new DeepSeekModels.ChatResponse();
+        response.setObject("chat.completion");
+        response.setModel(model);
+        response.setChoices(List.of(choice));
+        return response;
+    }
+
+    /**
+     * Delivers a cached response's content as a stream of word-sized tokens, each word together
+     * with the whitespace that follows it.
+     */
+    static void replayTokens(DeepSeekModels.ChatResponse response, Consumer<String> onToken) {
+        if (response.getChoices() == null || response.getChoices().isEmpty()
+                || response.getChoices().get(0).getMessage() == null) {
+            return;
+        }
+        String content = response.getChoices().get(0).getMessage().getContent();
+        int length = content == null ? 0 : content.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && !Character.isWhitespace(content.charAt(end))) end++;
+            while (end < length && Character.isWhitespace(content.charAt(end))) end++;
+            onToken.accept(content.substring(start, end));
+            start = end;
+        }
+    }
+
+    /**
+     * Sends one streaming request on the calling thread, passing its {@link Call} to
+     * {@code onCall} (if given) before it is executed so that it can be cancelled.
+     */
+    private void streamAttempt(String endpoint, Object requestBody, Consumer<String> onToken, Consumer<Call> onCall)
+            throws IOException {
         String url = baseUrl + endpoint;
-        String jsonPayload = objectMapper.writeValueAsString(requestBody);
         logger.debug("POST (streaming) {}", url);
+        requestStreamUsage(requestBody);
+        Request request = buildPostRequest(url, requestBody, "text/event-stream");
+        RateLimiter.Permit permit = acquirePermit(requestBody);
 
-        RequestBody body = RequestBody.create(jsonPayload, MediaType.parse("application/json"));
-        Request request = new Request.Builder()
-                .url(url)
-                .header("Authorization", "Bearer " + apiKey)
-                .header("Content-Type", "application/json")
-                .header("Accept", "text/event-stream")
-                .post(body)
-                .build();
+        StreamMetrics.Stream timer = streamMetrics == null ? null : streamMetrics.start(requestBody);
+        boolean started = false;
+        boolean completed = false;
+        DeepSeekModels.ChatResponse.Usage usage = null;
+        ConcurrencyLimiter.Slot slot = null;
+        try {
+            slot = acquireSlot();
+            Call call = httpClient.newCall(request);
+            if (onCall != null) {
+                onCall.accept(call);
+            }
+            Response response = execute(call, slot);
+            started = response.isSuccessful();
+            if (timer == null) {
+                usage = streamEvents(url, response, onToken);
+            } else {
+                if (started) timer.headers();
+                usage = streamEvents(url, response, token -> {
+                    long at = timer.now();
+                    onToken.accept(token);
+                    timer.token(at);
+                });
+            }
+            completed = true;
+        } finally {
+            if (!started) {
+                settle(permit, null);
+            } else if (usage != null) {
+                settle(permit, usage);
+                recordUsage(requestBody, usage);
+            }
+            release(slot);
+            if (timer != null) {
+                timer.finish(completed);
+            }
+        }
+    }
 
-        try (Response response = httpClient.newCall(request).execute()) {
+    /**
+     * Streams with hedging: each attempt runs on a dispatcher thread, the first to produce a token
+     * (or to finish without any) claims the stream and cancels the other, and a losing attempt
+     * that reaches its first token afterwards aborts before delivering it.
+     */
+    private void sendHedgedStreamingPostRequest(String endpoint, Object requestBody, Consumer<String> onToken)
+            throws IOException {
+        AtomicInteger winner = new AtomicInteger(-1);
+        CompletableFuture<Integer> claimed = new CompletableFuture<>();
+        AtomicReferenceArray<Call> calls = new AtomicReferenceArray<>(2);
+        AtomicReferenceArray<CompletableFuture<Void>> attempts = new AtomicReferenceArray<>(2);
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        IntPredicate claim = index -> {
+            if (!winner.compareAndSet(-1, index)) {
+                return winner.get() == index;
+            }
+            Call other = calls.get(1 - index);
+            if (other != null) other.cancel();
+            if (index > 0) hedgingPolicy.onHedgeWon();
+            claimed.complete(index);
+            return true;
+        };
+
+        IntConsumer startAttempt = index -> {
+            long start = System.nanoTime();
+            Consumer<String> relay = token -> {
+                if (winner.get() != index) {
+                    if (!claim.test(index)) throw new HedgeLostException();
+                    hedgingPolicy.recordFirstToken(System.nanoTime() - start);
+                }
+                onToken.accept(token);
+            };
+            Consumer<Call> register = call -> {
+                calls.set(index, call);
+                int current = winner.get();
+                if (current >= 0 && current != index) call.cancel();
+            };
+            CompletableFuture<Void> attempt = CompletableFuture.runAsync(() -> {
+                try {
+                    streamAttempt(endpoint, requestBody, relay, register);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                claim.test(index);
+            }, httpClient.dispatcher().executorService());
+            attempts.set(index, attempt);
+            attempt.whenComplete((ignored, error) -> {
+                if (error != null && winner.get() != index) {
+                    firstFailure.compareAndSet(null, error);
+                    if (pending.decrementAndGet() == 0) {
+                        claimed.completeExceptionally(firstFailure.get());
+                    }
+                }
+            });
+        };
+
+        hedgingPolicy.onRequest();
+        startAttempt.accept(0);
+        long delayNanos = hedgingPolicy.firstTokenDelayNanos();
+        try {
+            int index;
+            try {
+                index = claimed.get(delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (hedgingPolicy.tryHedge() && incrementIfPositive(pending)) {
+                    logger.debug("Hedging POST (streaming) {}{} after {} ms", baseUrl, endpoint,
+                            TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                    startAttempt.accept(1);
+                }
+                index = claimed.get();
+            }
+            attempts.get(index).get();
+        } catch (InterruptedException e) {
+            for (int i = 0; i < calls.length(); i++) {
+                Call call = calls.get(i);
+                if (call != null) call.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Aborts a hedged stream attempt that produced its first token after the other attempt.
+     */
+    private static final class HedgeLostException extends RuntimeException {
+        HedgeLostException() {
+            super("Lost the hedge race", null, false, false);
+        }
+    }
+
+    /**
+     * Delivers the content tokens of an event-stream response, closing the response when done.
+     * Returns the usage reported by the final chunk, or {@code null} if there was none.
+     */
+    private DeepSeekModels.ChatResponse.Usage streamEvents(String url, Response streamResponse,
+                                                           Consumer<String> onToken) throws IOException {
+        try (Response response = streamResponse) {
             if (!response.isSuccessful() || response.body() == null) {
-                String errorBody = response.body() != null ? response.body().string() : "(empty)";
                 logger.error("POST (streaming) {} failed: {} {}", url, response.code(), response.message());
-                throw new IOException("Streaming request failed [" + response.code() + "]: " + errorBody);
+                throw httpFailure("Streaming request failed", response);
             }
 
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(response.body().byteStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.isEmpty()) continue;
-                    if (!line.startsWith("data: ")) continue;
+            ServerSentEventReader events = new ServerSentEventReader(response.body().source());
+            StreamChunkParser chunks = new StreamChunkParser(objectMapper);
+            DeepSeekModels.ChatResponse.Usage usage = null;
+            while (events.next()) {
+                if (events.eventType() != null && !"message".equals(events.eventType())) {
+                    logger.debug("Skipping SSE event of type {}", events.eventType());
+                    continue;
+                }
+                if (events.dataEquals(SSE_DONE)) break;
 
-                    String data = line.substring(6).trim();
-                    if ("[DONE]".equals(data)) break;
+                if (!chunks.parse(events.data(), events.dataLength())) {
+                    logger.debug("Skipping unparseable SSE chunk: {}", events.dataAsString());
+                    continue;
+                }
+                if (chunks.usage() != null) {
+                    usage = chunks.usage();
+                }
+                String content = chunks.content();
+                if (content != null && !content.isEmpty()) {
+                    onToken.accept(content);
+                }
+            }
+            return usage;
+        }
+    }
 
-                    try {
-                        DeepSeekModels.ChatStreamChunk chunk =
-                                objectMapper.readValue(data, DeepSeekModels.ChatStreamChunk.class);
-                        String content = chunk.getContent();
-                        if (content != null && !content.isEmpty()) {
-                            onToken.accept(content);
-                        }
-                    } catch (Exception e) {
-                        logger.debug("Skipping unparseable SSE chunk: {}", data);
-                    }
+    /**
+     * Reads one event-stream response on demand for {@link StreamEventPublisher}. The call is
+     * created up front so that it can be cancelled while it is still connecting.
+     */
+    private final class EventStreamSource implements StreamEventPublisher.Source {
+
+        private final String url;
+        private final Object requestBody;
+        private final String cacheKey;
+        private final Call call;
+        private final StringBuilder content;
+        private RateLimiter.Permit permit;
+        private ConcurrencyLimiter.Slot slot;
+        private Response response;
+        private ServerSentEventReader events;
+        private StreamChunkParser chunks;
+        private StreamMetrics.Stream timer;
+        private DeepSeekModels.ChatResponse.Usage usage;
+
+        EventStreamSource(String url, Object requestBody, String cacheKey) throws IOException {
+            this.url = url;
+            this.requestBody = requestBody;
+            this.cacheKey = cacheKey;
+            requestStreamUsage(requestBody);
+            this.call = httpClient.newCall(buildPostRequest(url, requestBody, "text/event-stream"));
+            this.content = cacheKey == null ? null : new StringBuilder();
+        }
+
+        @Override
+        public StreamEvent next() throws IOException {
+            if (events == null) {
+                open();
+            }
+            while (events.next()) {
+                if (events.eventType() != null && !"message".equals(events.eventType())) {
+                    logger.debug("Skipping SSE event of type {}", events.eventType());
+                    continue;
+                }
+                if (events.dataEquals(SSE_DONE)) return null;
+
+                if (!chunks.parse(events.data(), events.dataLength())) {
+                    logger.debug("Skipping unparseable SSE chunk: {}", events.dataAsString());
+                    continue;
+                }
+                String delta = chunks.content();
+                if ((delta == null || delta.isEmpty()) && chunks.finishReason() == null && chunks.usage() == null) {
+                    continue;
+                }
+                if (content != null && delta != null) {
+                    content.append(delta);
+                }
+                if (chunks.usage() != null) {
+                    usage = chunks.usage();
+                }
+                if (timer != null && delta != null && !delta.isEmpty()) {
+                    timer.token(timer.now());
                 }
+                return new StreamEvent(delta, chunks.finishReason(), chunks.usage());
+            }
+            return null;
+        }
+
+        private void open() throws IOException {
+            logger.debug("POST (streaming) {}", url);
+            permit = acquirePermit(requestBody);
+            timer = streamMetrics == null ? null : streamMetrics.start(requestBody);
+            slot = acquireSlot();
+            Response opened = execute(call, slot);
+            if (!opened.isSuccessful() || opened.body() == null) {
+                try (opened) {
+                    logger.error("POST (streaming) {} failed: {} {}", url, opened.code(), opened.message());
+                    throw httpFailure("Streaming request failed", opened);
+                }
+            }
+            response = opened;
+            if (timer != null) {
+                timer.headers();
+            }
+            events = new ServerSentEventReader(opened.body().source());
+            chunks = new StreamChunkParser(objectMapper);
+        }
+
+        @Override
+        public void abort() {
+            call.cancel();
+        }
+
+        @Override
+        public void close(boolean completed) {
+            if (response == null) {
+                settle(permit, null);
+            } else {
+                response.close();
+                if (usage != null) {
+                    settle(permit, usage);
+                    recordUsage(requestBody, usage);
+                }
+            }
+            release(slot);
+            if (timer != null) {
+                timer.finish(completed);
+            }
+            if (completed && content != null && !content.isEmpty()) {
+                DeepSeekModels.ChatRequest request = (DeepSeekModels.ChatRequest) requestBody;
+                cacheResponse(cacheKey, request, streamedResponse(request.getModel(), content.toString()));
             }
         }
     }
 
     /**
-     * Releases the underlying connection pool and thread pool.
+     * Replays a cached response for {@link StreamEventPublisher} as {@link #replayTokens} would,
+     * ending with a {@code "stop"} event that carries the cached usage.
+     */
+    private static final class ReplaySource implements StreamEventPublisher.Source {
+
+        private final Iterator<StreamEvent> events;
+
+        ReplaySource(DeepSeekModels.ChatResponse response) {
+            List<StreamEvent> replay = new ArrayList<>();
+            replayTokens(response, token -> replay.add(new StreamEvent(token, null, null)));
+            replay.add(new StreamEvent(null, "stop", response.getUsage()));
+            this.events = replay.iterator();
+        }
+
+        @Override
+        public StreamEvent next() {
+            return events.hasNext() ? events.next() : null;
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        @Override
+        public void close(boolean completed) {
+        }
+    }
+
+    /**
+     * Releases the underlying connection pool and thread pool, and stops the keep-warm pinger.
      * Call this when the client is no longer needed.
      */
     @Override
     public void close() {
+        if (keepWarmExecutor != null) {
+            keepWarmExecutor.shutdownNow();
+        }
         httpClient.dispatcher().executorService().shutdown();
         httpClient.connectionPool().evictAll();
     }
+
+    /**
+     * Leaves the {@code stream} flag and options out of cache keys, so that streamed and non-streamed
+     * requests for the same completion share a cache entry.
+     */
+    @JsonIgnoreProperties({"stream", "stream_options"})
+    private abstract static class CacheKeyMixin {
+    }
+
+    /**
+     * Returns the underlying OkHttp client. Package-private for testing.
+     */
+    OkHttpClient httpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Builder for {@link DeepSeekAPIClient} instances with non-default settings.
+     */
+    public static final class Builder {
+
+        private final String apiKey;
+        private final String baseUrl;
+        private int maxRequests = DEFAULT_MAX_REQUESTS;
+        private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+        private boolean virtualThreads;
+        private RequestCompression requestCompression;
+        private RetryPolicy retryPolicy;
+        private RateLimiter rateLimiter;
+        private ConcurrencyLimiter concurrencyLimiter;
+        private CircuitBreaker circuitBreaker;
+        private HedgingPolicy hedgingPolicy;
+        private ResponseCache responseCache;
+        private StreamMetrics streamMetrics;
+        private NetworkMetrics networkMetrics;
+        private UsageAccountant usageAccountant;
+        private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        private Duration keepAlive = DEFAULT_KEEP_ALIVE;
+        private boolean preferHttp2 = true;
+        private Duration pingInterval;
+        private Duration keepWarmInterval;
+        private Duration dnsCacheTtl;
+
+        private Builder(String apiKey, String baseUrl) {
+            this.apiKey = apiKey;
+            this.baseUrl = baseUrl;
+        }
+
+        /**
+         * Sets the maximum number of async requests executing at once. Requests above the
+         * limit wait in the dispatcher queue. Defaults to {@value DeepSeekAPIClient#DEFAULT_MAX_REQUESTS}.
+         *
+         * @param maxRequests the limit, at least 1
+         * @return this builder
+         */
+        public Builder maxRequests(int maxRequests) {
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests must be at least 1: " + maxRequests);
+            }
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of async requests executing at once against a single host.
+         * Defaults to {@value DeepSeekAPIClient#DEFAULT_MAX_REQUESTS_PER_HOST}.
+         *
+         * @param maxRequestsPerHost the limit, at least 1
+         * @return this builder
+         */
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            if (maxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("maxRequestsPerHost must be at least 1: " + maxRequestsPerHost);
+            }
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Runs dispatcher work (async calls and their callbacks) on a virtual-thread-per-task
+         * executor instead of OkHttp's cached platform thread pool. Disabled by default.
+         *
+         * <p>Blocking calls always run on the calling thread; issue them from virtual threads
+         * to get the same benefit for the blocking API.
+         *
+         * @param virtualThreads whether to use virtual threads
+         * @return this builder
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Enables compression of large {@code /chat/completions} request bodies.
+         * Disabled by default. Keep a reference to {@code compression} to read its byte counters.
+         *
+         * @param compression the compression setting, e.g. {@code RequestCompression.gzip(16384, 6)},
+         *                    or {@code null} to disable
+         * @return this builder
+         */
+        public Builder requestCompression(RequestCompression compression) {
+            this.requestCompression = compression;
+            return this;
+        }
+
+        /**
+         * Retries transient failures (connection errors, 408, 429 and 5xx gateway statuses) with
+         * full-jitter exponential backoff, honouring {@code Retry-After}. Disabled by default.
+         * Streaming requests are only retried before their first token is delivered.
+         *
+         * @param retryPolicy the policy, e.g. {@code RetryPolicy.builder().build()}, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Enforces client-side requests-per-minute and tokens-per-minute limits before requests
+         * are sent. Disabled by default. One limiter may be shared by several clients to enforce
+         * a common quota.
+         *
+         * @param rateLimiter the limiter, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder rateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * Adapts the number of requests in flight to the API's observed capacity, queueing the
+         * excess for a bounded time. Applies to blocking, async and streaming calls together;
+         * unlike {@link #maxRequests(int)}, the limit moves with the API's 429 and 5xx responses.
+         * Disabled by default.
+         *
+         * @param concurrencyLimiter the limiter, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder concurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * Rejects requests immediately with a {@link CircuitBreakerOpenException} while the API's
+         * recent failure or slow-call rate is above the breaker's thresholds, instead of letting
+         * each request wait out its timeouts. Disabled by default.
+         *
+         * @param circuitBreaker the breaker, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Sends a duplicate of any POST request that has not answered (or, for a stream, has not
+         * produced its first token) within the policy's percentile-based delay, keeping whichever
+         * finishes first and cancelling the other. Disabled by default.
+         *
+         * @param hedgingPolicy the policy, e.g. {@code HedgingPolicy.builder().build()}, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder hedgingPolicy(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
+        /**
+         * Serves repeated {@code /chat/completions} requests from {@code responseCache} instead of
+         * the API, including replaying a cached answer to streaming callers. By default only
+         * {@code temperature} 0 requests are cached. Disabled by default.
+         *
+         * @param responseCache the cache, e.g. {@code InMemoryResponseCache.builder().build()}, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder responseCache(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+            return this;
+        }
+
+        /**
+         * Records time to first token, inter-token gaps, tokens per second and other per-stream
+         * latencies into {@code streamMetrics}, aggregated per model. Disabled by default.
+         *
+         * @param streamMetrics the metrics, e.g. {@code StreamMetrics.builder().build()}, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder streamMetrics(StreamMetrics streamMetrics) {
+            this.streamMetrics = streamMetrics;
+            return this;
+        }
+
+        /**
+         * Records DNS, connect, TLS, upload, server-wait and download timings, connection reuse
+         * and body sizes of every call into {@code networkMetrics}, per endpoint and model.
+         * Disabled by default, in which case OkHttp's no-op event listener is used.
+         *
+         * @param networkMetrics the metrics, e.g. {@code NetworkMetrics.create()}, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder networkMetrics(NetworkMetrics networkMetrics) {
+            this.networkMetrics = networkMetrics;
+            return this;
+        }
+
+        /**
+         * Records the token usage of every billed response into {@code usageAccountant}, per model,
+         * API key and {@linkplain DeepSeekModels.ChatRequest#setUsageTag usage tag}. Streams ask
+         * the API for a final usage chunk so that they are counted too. Disabled by default.
+         *
+         * @param usageAccountant the accountant, e.g. {@code UsageAccountant.builder().build()}, or {@code null} to disable
+         * @return this builder
+         */
+        public Builder usageAccountant(UsageAccountant usageAccountant) {
+            this.usageAccountant = usageAccountant;
+            return this;
+        }
+
+        /**
+         * Sets the size of the idle connection pool and how long idle connections stay open.
+         * Defaults to {@value DeepSeekAPIClient#DEFAULT_MAX_IDLE_CONNECTIONS} connections kept
+         * for 5 minutes. Raise {@code maxIdleConnections} to at least the count passed to
+         * {@link DeepSeekAPIClient#warmUp(int)} so warmed connections are not evicted.
+         *
+         * @param maxIdleConnections idle connections to keep, at least 0
+         * @param keepAlive          how long an idle connection is kept, positive
+         * @return this builder
+         */
+        public Builder connectionPool(int maxIdleConnections, Duration keepAlive) {
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("maxIdleConnections must not be negative: " + maxIdleConnections);
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAlive = requirePositive(keepAlive, "keepAlive");
+            return this;
+        }
+
+        /**
+         * Sets whether HTTP/2 is offered during the TLS handshake. Enabled by default, in which
+         * case all requests share one multiplexed connection when the server supports it.
+         * When disabled, only HTTP/1.1 is used and each concurrent request needs its own connection.
+         *
+         * @param preferHttp2 whether to negotiate HTTP/2
+         * @return this builder
+         */
+        public Builder preferHttp2(boolean preferHttp2) {
+            this.preferHttp2 = preferHttp2;
+            return this;
+        }
+
+        /**
+         * Sends HTTP/2 and WebSocket pings at this interval, so that a dead connection is
+         * detected (and replaced) before a request is sent on it. Disabled by default.
+         *
+         * @param interval the ping interval, positive
+         * @return this builder
+         */
+        public Builder pingInterval(Duration interval) {
+            this.pingInterval = requirePositive(interval, "pingInterval");
+            return this;
+        }
+
+        /**
+         * Issues a background {@code GET /models} at this interval so that pooled connections
+         * are not closed for being idle. Use an interval shorter than the keep-alive time of the
+         * pool and of any proxy or load balancer in between. Disabled by default; the pinger
+         * runs on a daemon thread and stops on {@link DeepSeekAPIClient#close()}.
+         *
+         * @param interval the ping interval, positive
+         * @return this builder
+         */
+        public Builder keepWarm(Duration interval) {
+            this.keepWarmInterval = requirePositive(interval, "keepWarm");
+            return this;
+        }
+
+        /**
+         * Caches DNS lookups for {@code ttl} instead of resolving the host for every new
+         * connection. If a lookup fails after the entry expires, the previous addresses are
+         * reused. Disabled by default.
+         *
+         * @param ttl how long a lookup is reused, positive
+         * @return this builder
+         */
+        public Builder dnsCacheTtl(Duration ttl) {
+            this.dnsCacheTtl = requirePositive(ttl, "dnsCacheTtl");
+            return this;
+        }
+
+        private static Duration requirePositive(Duration duration, String name) {
+            if (duration == null || duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException(name + " must be positive: " + duration);
+            }
+            return duration;
+        }
+
+        /**
+         * Builds the client.
+         *
+         * @return a new client
+         */
+        public DeepSeekAPIClient build() {
+            return new DeepSeekAPIClient(this);
+        }
+
+        private OkHttpClient buildHttpClient() {
+            Dispatcher dispatcher = virtualThreads
+                    ? new Dispatcher(Executors.newVirtualThreadPerTaskExecutor())
+                    : new Dispatcher();
+            dispatcher.setMaxRequests(maxRequests);
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+            OkHttpClient.Builder builder = new OkHttpClient.Builder();
+            if (retryPolicy != null) {
+                builder.addInterceptor(retryPolicy::intercept);
+            }
+            if (circuitBreaker != null) {
+                builder.addInterceptor(circuitBreaker::intercept);
+            }
+            if (rateLimiter != null || concurrencyLimiter != null) {
+                RateLimiter limiter = rateLimiter;
+                builder.addInterceptor(chain -> interceptAttempt(chain, limiter));
+            }
+            if (requestCompression != null) {
+                builder.addInterceptor(requestCompression::intercept);
+            }
+            if (!preferHttp2) {
+                builder.protocols(List.of(Protocol.HTTP_1_1));
+            }
+            if (pingInterval != null) {
+                builder.pingInterval(pingInterval);
+            }
+            if (dnsCacheTtl != null) {
+                builder.dns(new CachingDns(Dns.SYSTEM, dnsCacheTtl));
+            }
+            if (networkMetrics != null) {
+                builder.eventListenerFactory(networkMetrics::listenerFor);
+            }
+            return builder
+                    .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                    .dispatcher(dispatcher)
+                    .connectTimeout(60, TimeUnit.SECONDS)
+                    .readTimeout(90, TimeUnit.SECONDS)
+                    .writeTimeout(60, TimeUnit.SECONDS)
+                    .retryOnConnectionFailure(true)
+                    .build();
+        }
+    }
 }
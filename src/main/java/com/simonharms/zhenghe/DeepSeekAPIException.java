@@ -40,6 +40,18 @@ public class DeepSeekAPIException extends Exception {
         this.statusCode = -1;
     }
 
+    /**
+     * Constructs a new DeepSeek API exception with an HTTP status code and cause.
+     *
+     * @param message    the detail message explaining the error
+     * @param statusCode the HTTP status code returned by the API
+     * @param cause      the underlying cause of the error
+     */
+    public DeepSeekAPIException(String message, int statusCode, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+
     /**
      * Returns the HTTP status code associated with this exception, or {@code -1} if not applicable.
      *
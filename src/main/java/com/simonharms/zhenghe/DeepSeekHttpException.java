@@ -0,0 +1,58 @@
+package com.simonharms.zhenghe;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown by {@link DeepSeekAPIClient} when the API answers with a non-2xx status.
+ *
+ * <p>Carries the status code and, when the server sent one, the {@code Retry-After} delay, so
+ * callers can tell a throttled or unavailable API (429, 503) from a bad request (400).
+ * {@link DeepSeekService} copies the status code into {@link DeepSeekAPIException#getStatusCode()}.
+ */
+public class DeepSeekHttpException extends IOException {
+
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a new exception for an HTTP error response.
+     *
+     * @param message    the detail message, including the (possibly truncated) error body
+     * @param statusCode the HTTP status code returned by the API
+     * @param retryAfter the delay requested by the {@code Retry-After} header, or {@code null}
+     */
+    public DeepSeekHttpException(String message, int statusCode, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the HTTP status code of the failed response.
+     *
+     * @return the HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the delay requested by the response's {@code Retry-After} header.
+     *
+     * @return the requested delay, or {@code null} if the header was absent or unparseable
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Returns whether the status indicates a transient condition worth retrying
+     * (408, 429, 500, 502, 503 or 504).
+     *
+     * @return {@code true} for retryable statuses
+     */
+    public boolean isRetryable() {
+        return RetryPolicy.isRetryableStatus(statusCode);
+    }
+}
@@ -1,8 +1,11 @@
 package com.simonharms.zhenghe;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.Duration;
 import java.util.List;
 
 /**
@@ -144,6 +147,22 @@ public class DeepSeekModels {
         @JsonProperty("top_logprobs")
         private Object topLogprobs = null;
 
+        @JsonProperty("stream_options")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private StreamOptions streamOptions;
+
+        @JsonIgnore
+        private boolean cacheBypass;
+
+        @JsonIgnore
+        private Duration cacheTtl;
+
+        @JsonIgnore
+        private String usageTag;
+
+        @JsonIgnore
+        private boolean hedgeable = true;
+
         /**
          * Represents the response format specification.
          */
@@ -155,6 +174,23 @@ public class DeepSeekModels {
             public void setType(String type) { this.type = type; }
         }
 
+        /**
+         * Options for streamed responses.
+         */
+        public static class StreamOptions {
+            @JsonProperty("include_usage")
+            private boolean includeUsage;
+
+            public StreamOptions() {}
+
+            public StreamOptions(boolean includeUsage) { this.includeUsage = includeUsage; }
+
+            public boolean isIncludeUsage() { return includeUsage; }
+            public void setIncludeUsage(boolean includeUsage) { this.includeUsage = includeUsage; }
+        }
+
+        public ChatRequest() {}
+
         /**
          * Creates a chat request with the given messages exactly as provided.
          *
@@ -196,6 +232,71 @@ public class DeepSeekModels {
         public void setLogprobs(boolean logprobs) { this.logprobs = logprobs; }
         public Object getTopLogprobs() { return topLogprobs; }
         public void setTopLogprobs(Object topLogprobs) { this.topLogprobs = topLogprobs; }
+        public StreamOptions getStreamOptions() { return streamOptions; }
+        public void setStreamOptions(StreamOptions streamOptions) { this.streamOptions = streamOptions; }
+
+        /**
+         * Returns whether this request skips the client's {@link ResponseCache}. Not sent to the API.
+         *
+         * @return {@code true} if the cache is neither read nor written for this request
+         */
+        public boolean isCacheBypass() { return cacheBypass; }
+
+        /**
+         * Makes this request skip the client's {@link ResponseCache}, e.g. to force a fresh answer.
+         * Not sent to the API.
+         *
+         * @param cacheBypass {@code true} to neither read nor write the cache
+         */
+        public void setCacheBypass(boolean cacheBypass) { this.cacheBypass = cacheBypass; }
+
+        /**
+         * Returns how long this request's response stays cached, or {@code null} for the
+         * cache's default. Not sent to the API.
+         *
+         * @return the time-to-live, or {@code null}
+         */
+        public Duration getCacheTtl() { return cacheTtl; }
+
+        /**
+         * Sets how long this request's response stays cached, overriding the cache's default.
+         * Not sent to the API.
+         *
+         * @param cacheTtl the time-to-live, or {@code null} for the cache's default
+         */
+        public void setCacheTtl(Duration cacheTtl) { this.cacheTtl = cacheTtl; }
+
+        /**
+         * Returns the tag this request's usage is attributed to by a {@link UsageAccountant}, or
+         * {@code null}. Not sent to the API.
+         *
+         * @return the usage tag
+         */
+        public String getUsageTag() { return usageTag; }
+
+        /**
+         * Attributes this request's token usage to {@code usageTag} (a tenant, feature or job) in
+         * the client's {@link UsageAccountant}. Not sent to the API.
+         *
+         * @param usageTag the tag, or {@code null} for none
+         */
+        public void setUsageTag(String usageTag) { this.usageTag = usageTag; }
+
+        /**
+         * Returns whether the client's {@link HedgingPolicy} may duplicate this request. Not sent
+         * to the API.
+         *
+         * @return {@code true} unless hedging was turned off for this request
+         */
+        public boolean isHedgeable() { return hedgeable; }
+
+        /**
+         * Allows or forbids hedging this request. {@link DeepSeekService} turns it off for chat
+         * turns, which are stateful. Not sent to the API.
+         *
+         * @param hedgeable {@code false} to always send this request once
+         */
+        public void setHedgeable(boolean hedgeable) { this.hedgeable = hedgeable; }
 
         @Override
         public String toString() {
@@ -266,12 +367,29 @@ public class DeepSeekModels {
             @JsonProperty("total_tokens")
             private int totalTokens;
 
+            @JsonProperty("prompt_cache_hit_tokens")
+            private int promptCacheHitTokens;
+
+            @JsonProperty("prompt_cache_miss_tokens")
+            private int promptCacheMissTokens;
+
             public int getCompletionTokens() { return completionTokens; }
             public void setCompletionTokens(int completionTokens) { this.completionTokens = completionTokens; }
             public int getPromptTokens() { return promptTokens; }
             public void setPromptTokens(int promptTokens) { this.promptTokens = promptTokens; }
             public int getTotalTokens() { return totalTokens; }
             public void setTotalTokens(int totalTokens) { this.totalTokens = totalTokens; }
+
+            /**
+             * Returns the prompt tokens served from the API's context cache, which are billed at
+             * a lower rate.
+             *
+             * @return the cached prompt tokens, or 0 if not reported
+             */
+            public int getPromptCacheHitTokens() { return promptCacheHitTokens; }
+            public void setPromptCacheHitTokens(int promptCacheHitTokens) { this.promptCacheHitTokens = promptCacheHitTokens; }
+            public int getPromptCacheMissTokens() { return promptCacheMissTokens; }
+            public void setPromptCacheMissTokens(int promptCacheMissTokens) { this.promptCacheMissTokens = promptCacheMissTokens; }
         }
 
         /**
@@ -340,6 +458,9 @@ public class DeepSeekModels {
         @JsonProperty("choices")
         private List<StreamChoice> choices;
 
+        @JsonProperty("usage")
+        private ChatResponse.Usage usage;
+
         /**
          * A single streaming choice containing the delta content.
          */
@@ -397,5 +518,13 @@ public class DeepSeekModels {
         public String getId() { return id; }
         public String getModel() { return model; }
         public List<StreamChoice> getChoices() { return choices; }
+
+        /**
+         * Returns the token usage of the whole stream, which the API sends on the final chunk,
+         * or {@code null} on every other chunk.
+         *
+         * @return the usage, or null
+         */
+        public ChatResponse.Usage getUsage() { return usage; }
     }
 }
@@ -8,7 +8,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * High-level service for interacting with the DeepSeek API.
@@ -23,13 +33,55 @@ import java.util.function.Consumer;
  * {@value DEFAULT_SYSTEM_PROMPT}. Override it with {@link #setSystemPrompt(String)}.
  * Pass {@code null} or an empty string to send no system message.
  *
+ * <h3>History encoding</h3>
+ * <p>History messages and the system prompt are kept in their JSON-encoded form (see
+ * {@link EncodedChatMessage}). Each message is encoded once when it joins the conversation;
+ * later turns splice the cached bytes into the request body, so the encoding work per turn
+ * does not grow with the length of the conversation.
+ *
  * <h3>Thread safety</h3>
- * <p>All methods that read or modify the chat history are {@code synchronized}. A single
+ * <p>All methods that read or modify the chat history are guarded by a {@link ReentrantLock}
+ * rather than {@code synchronized}, so a virtual thread blocked on network I/O while holding it
+ * unmounts from its carrier instead of pinning it. A single
  * {@code DeepSeekService} instance is safe to share across threads, but note that
  * concurrent calls to {@link #sendChatRequest} or {@link #streamChatRequest} will be
  * serialized — messages will be sent one at a time in the order the calls arrived.
  * This is usually the desired behaviour for a chat session.
  *
+ * <h3>Virtual threads</h3>
+ * <p>The blocking methods scale to thousands of concurrent callers when those callers run on
+ * virtual threads. Pair this with a client built with
+ * {@link DeepSeekAPIClient.Builder#virtualThreads(boolean)} so that async work runs on virtual
+ * threads too.
+ *
+ * <h3>Coalescing</h3>
+ * <p>Identical stateless requests in flight at the same time can share one upstream call; see
+ * {@link #setCoalescing(Coalescing)}. Streaming callers attach to an identical stream in progress.
+ *
+ * <h3>Batches</h3>
+ * <p>{@link #completeAll(Iterable, BatchOptions)} completes many independent prompts with
+ * bounded parallelism and returns the results in input order.
+ *
+ * <h3>Model catalogue</h3>
+ * <p>{@link #getModels()} is served from a {@link ModelRegistry} that refreshes in the
+ * background, so it does not make a request on every call.
+ *
+ * <h3>Cancellable streams</h3>
+ * <p>{@link #streamCompletionAsync(DeepSeekModels.ChatRequest, Consumer, Predicate)} and
+ * {@link #streamChatRequestAsync(String, String, Consumer, Predicate)} stream in the background
+ * and return a {@link StreamHandle} that cancels the HTTP call, either on demand or as soon as a
+ * stop condition matches the text received so far.
+ *
+ * <h3>Reactive streams</h3>
+ * <p>{@link #publishCompletion(DeepSeekModels.ChatRequest)} returns a {@link Flow.Publisher} of
+ * {@link StreamEvent}s that reads the response only as fast as the subscriber requests events.
+ *
+ * <h3>Async calls</h3>
+ * <p>{@link #generateCompletionAsync} and {@link #sendChatRequestAsync} return immediately with a
+ * {@link CompletableFuture} and do not hold a thread while the request is in flight. Futures fail
+ * with a {@link DeepSeekAPIException} (wrapped in a {@link CompletionException} by {@code join()}).
+ * Async chat turns are queued behind one another, so each turn sees the history of the previous one.
+ *
  * <h3>Resource management</h3>
  * <p>Implements {@link Closeable}. Call {@link #close()} when the service is no longer
  * needed to release the underlying HTTP connection pool.
@@ -43,7 +95,34 @@ public class DeepSeekService implements Closeable {
     private final DeepSeekAPIClient client;
     private int defaultMaxTokens;
     private volatile String systemPrompt = DEFAULT_SYSTEM_PROMPT;
+    private volatile EncodedChatMessage systemMessage;
     private final List<DeepSeekModels.ChatMessage> chatHistory = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock asyncTurnLock = new ReentrantLock();
+    private CompletableFuture<?> lastAsyncTurn = CompletableFuture.completedFuture(null);
+    private final RequestCoalescer<DeepSeekModels.ChatResponse> completions = new RequestCoalescer<>();
+    private volatile Coalescing coalescing = Coalescing.DETERMINISTIC;
+    private final ReentrantLock registryLock = new ReentrantLock();
+    private volatile ModelRegistry modelRegistry;
+    private boolean ownsModelRegistry;
+
+    /**
+     * Which stateless requests {@link #generateCompletion}, {@link #generateCompletionAsync} and
+     * {@link #streamCompletion} coalesce with an identical request already in flight.
+     */
+    public enum Coalescing {
+        /** Every request is sent. */
+        OFF,
+        /**
+         * Only requests with {@code temperature} 0, whose answer would be (nearly) the same if
+         * sent twice, are coalesced.
+         */
+        DETERMINISTIC,
+        /**
+         * Every identical request is coalesced, so concurrent callers share one sampled answer.
+         */
+        ALL
+    }
 
     /**
      * Constructs a new service with a custom default token limit.
@@ -67,9 +146,14 @@ public class DeepSeekService implements Closeable {
     }
 
     /**
-     * Package-private constructor for testing — accepts a pre-configured client.
+     * Constructs a new service on top of a pre-configured client, e.g. one created with
+     * {@link DeepSeekAPIClient#builder(String, String)}. The service takes ownership of the
+     * client and closes it in {@link #close()}.
+     *
+     * @param client           the client to send requests through
+     * @param defaultMaxTokens the default maximum tokens for each response
      */
-    DeepSeekService(DeepSeekAPIClient client, int defaultMaxTokens) {
+    public DeepSeekService(DeepSeekAPIClient client, int defaultMaxTokens) {
         this.client = client;
         this.defaultMaxTokens = defaultMaxTokens;
     }
@@ -79,18 +163,59 @@ public class DeepSeekService implements Closeable {
     // -------------------------------------------------------------------------
 
     /**
-     * Retrieves the list of models available through the API.
+     * Retrieves the list of models available through the API. The list comes from the
+     * service's {@link ModelRegistry}: only the first call waits for {@code GET /models}, and the
+     * catalogue is refreshed in the background after that.
      *
-     * @return a list of {@link DeepSeekModels.ModelData} objects
-     * @throws DeepSeekAPIException if the request fails
+     * @return an unmodifiable list of {@link DeepSeekModels.ModelData} objects
+     * @throws DeepSeekAPIException if the catalogue has never been fetched and fetching it fails
      */
     public List<DeepSeekModels.ModelData> getModels() throws DeepSeekAPIException {
+        return getModelRegistry().getModels();
+    }
+
+    /**
+     * Returns the registry that caches the model catalogue, creating one that refreshes every
+     * 10 minutes on first use.
+     *
+     * @return the model registry
+     */
+    public ModelRegistry getModelRegistry() {
+        ModelRegistry registry = modelRegistry;
+        if (registry == null) {
+            registryLock.lock(); // not the history lock, which a chat turn holds across its request
+            try {
+                if (modelRegistry == null) {
+                    modelRegistry = ModelRegistry.builder(client).build();
+                    ownsModelRegistry = true;
+                }
+                registry = modelRegistry;
+            } finally {
+                registryLock.unlock();
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Replaces the registry used by {@link #getModels()}, e.g. with one that has a different
+     * refresh interval. The caller remains responsible for closing it.
+     *
+     * @param modelRegistry the registry to use
+     */
+    public void setModelRegistry(ModelRegistry modelRegistry) {
+        if (modelRegistry == null) {
+            throw new IllegalArgumentException("modelRegistry must not be null");
+        }
+        registryLock.lock();
         try {
-            DeepSeekModels.ModelResponse response =
-                    client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class);
-            return response.getData();
-        } catch (IOException e) {
-            throw new DeepSeekAPIException("Failed to fetch models", e);
+            if (ownsModelRegistry) {
+                this.modelRegistry.close();
+                ownsModelRegistry = false;
+            }
+            this.modelRegistry = modelRegistry;
+        } finally {
+            registryLock.unlock();
         }
     }
 
@@ -109,13 +234,33 @@ public class DeepSeekService implements Closeable {
      */
     public DeepSeekModels.ChatResponse generateCompletion(String prompt, String model, int maxTokens)
             throws DeepSeekAPIException {
+        return generateCompletion(buildCompletionRequest(prompt, model, maxTokens));
+    }
+
+    /**
+     * Sends a caller-built stateless request, e.g. one with {@code temperature} set to 0.
+     * Does not modify or consult chat history, and sends no system message beyond those in
+     * {@code request}. The request's {@code stream} flag is cleared.
+     *
+     * <p>Identical concurrent requests are coalesced into one upstream call according to
+     * {@link #setCoalescing(Coalescing)}.
+     *
+     * @param request the request to send
+     * @return the API response
+     * @throws DeepSeekAPIException if the request fails
+     */
+    public DeepSeekModels.ChatResponse generateCompletion(DeepSeekModels.ChatRequest request)
+            throws DeepSeekAPIException {
+        request.setStream(false);
         try {
-            List<DeepSeekModels.ChatMessage> messages = buildSystemMessages();
-            messages.add(new DeepSeekModels.ChatMessage("user", prompt));
-            DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest(model, messages, maxTokens);
-            return client.sendPostRequest("/chat/completions", request, DeepSeekModels.ChatResponse.class);
+            String key = coalescingKey(request);
+            if (key == null) {
+                return client.sendPostRequest("/chat/completions", request, DeepSeekModels.ChatResponse.class);
+            }
+            return completions.execute(key, () ->
+                    client.sendPostRequest("/chat/completions", request, DeepSeekModels.ChatResponse.class));
         } catch (IOException e) {
-            throw new DeepSeekAPIException("Failed to generate completion", e);
+            throw apiException("Failed to generate completion", e);
         }
     }
 
@@ -132,6 +277,221 @@ public class DeepSeekService implements Closeable {
         return generateCompletion(prompt, model, defaultMaxTokens);
     }
 
+    /**
+     * Sends a stateless single-turn request without blocking the calling thread.
+     * Does not modify or consult chat history.
+     *
+     * @param prompt    the prompt to complete
+     * @param model     the model to use (e.g., {@code "deepseek-chat"})
+     * @param maxTokens the maximum number of tokens to generate
+     * @return a future completed with the API response, or failed with a {@link DeepSeekAPIException}
+     */
+    public CompletableFuture<DeepSeekModels.ChatResponse> generateCompletionAsync(
+            String prompt, String model, int maxTokens) {
+        return generateCompletionAsync(buildCompletionRequest(prompt, model, maxTokens));
+    }
+
+    /**
+     * Sends a caller-built stateless request without blocking the calling thread. The request's
+     * {@code stream} flag is cleared. Identical concurrent requests are coalesced according to
+     * {@link #setCoalescing(Coalescing)}; cancelling the returned future cancels the upstream
+     * call only once no other caller is waiting for it.
+     *
+     * @param request the request to send
+     * @return a future completed with the API response, or failed with a {@link DeepSeekAPIException}
+     */
+    public CompletableFuture<DeepSeekModels.ChatResponse> generateCompletionAsync(DeepSeekModels.ChatRequest request) {
+        request.setStream(false);
+        String key;
+        try {
+            key = coalescingKey(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(apiException("Failed to generate completion", e));
+        }
+        CompletableFuture<DeepSeekModels.ChatResponse> source = key == null
+                ? client.sendPostRequestAsync("/chat/completions", request, DeepSeekModels.ChatResponse.class)
+                : completions.executeAsync(key, () ->
+                        client.sendPostRequestAsync("/chat/completions", request, DeepSeekModels.ChatResponse.class));
+        return wrapFailure(source, "Failed to generate completion");
+    }
+
+    /**
+     * Sends a stateless single-turn request without blocking, using the default token limit.
+     *
+     * @param prompt the prompt to complete
+     * @param model  the model to use
+     * @return a future completed with the API response, or failed with a {@link DeepSeekAPIException}
+     */
+    public CompletableFuture<DeepSeekModels.ChatResponse> generateCompletionAsync(String prompt, String model) {
+        return generateCompletionAsync(prompt, model, defaultMaxTokens);
+    }
+
+    /**
+     * Streams a stateless single-turn response token by token. Does not modify or consult chat
+     * history.
+     *
+     * @param prompt    the prompt to complete
+     * @param model     the model to use (e.g., {@code "deepseek-chat"})
+     * @param maxTokens the maximum number of tokens to generate
+     * @param onToken   called on the calling thread once for each content token as it arrives
+     * @throws DeepSeekAPIException if the request fails
+     */
+    public void streamCompletion(String prompt, String model, int maxTokens, Consumer<String> onToken)
+            throws DeepSeekAPIException {
+        streamCompletion(buildCompletionRequest(prompt, model, maxTokens), onToken);
+    }
+
+    /**
+     * Streams a stateless single-turn response using the default token limit.
+     *
+     * @param prompt  the prompt to complete
+     * @param model   the model to use
+     * @param onToken called once per content token as it arrives
+     * @throws DeepSeekAPIException if the request fails
+     */
+    public void streamCompletion(String prompt, String model, Consumer<String> onToken)
+            throws DeepSeekAPIException {
+        streamCompletion(prompt, model, defaultMaxTokens, onToken);
+    }
+
+    /**
+     * Streams a caller-built stateless request. The request's {@code stream} flag is set.
+     *
+     * <p>If an identical stream is already in progress and coalescing applies (see
+     * {@link #setCoalescing(Coalescing)}), this call attaches to it instead of starting another:
+     * {@code onToken} first receives the tokens produced so far and then follows the live stream.
+     *
+     * @param request the request to send
+     * @param onToken called on the calling thread once for each content token as it arrives
+     * @throws DeepSeekAPIException if the request fails
+     */
+    public void streamCompletion(DeepSeekModels.ChatRequest request, Consumer<String> onToken)
+            throws DeepSeekAPIException {
+        request.setStream(true);
+        try {
+            String key = coalescingKey(request);
+            if (key == null) {
+                client.sendStreamingPostRequest("/chat/completions", request, onToken);
+            } else {
+                completions.stream(key, tokens ->
+                        client.sendStreamingPostRequest("/chat/completions", request, tokens), onToken);
+            }
+        } catch (IOException e) {
+            throw apiException("Failed to stream completion", e);
+        }
+    }
+
+    /**
+     * Streams a stateless single-turn response in the background, using the default token limit.
+     *
+     * @param prompt   the prompt to complete
+     * @param model    the model to use
+     * @param onToken  called on a dispatcher thread once for each content token as it arrives
+     * @param stopWhen stops the stream once it matches the text received so far, or {@code null}
+     * @return a handle that can cancel the stream
+     * @see #streamCompletionAsync(DeepSeekModels.ChatRequest, Consumer, Predicate)
+     */
+    public StreamHandle streamCompletionAsync(String prompt, String model, Consumer<String> onToken,
+                                              Predicate<CharSequence> stopWhen) {
+        return streamCompletionAsync(buildCompletionRequest(prompt, model, defaultMaxTokens), onToken, stopWhen);
+    }
+
+    /**
+     * Streams a caller-built stateless request in the background. The request's {@code stream}
+     * flag is set.
+     *
+     * <p>The stream can be ended early with {@link StreamHandle#cancel()}, or by a stop condition
+     * evaluated on the accumulated text after every token (for example a regex match or a closed
+     * JSON object); either cancels the HTTP call at once. Cancellable streams are not coalesced.
+     *
+     * @param request  the request to send
+     * @param onToken  called on a dispatcher thread once for each content token as it arrives
+     * @param stopWhen stops the stream once it matches the text received so far, or {@code null}
+     * @return a handle whose future fails with a {@link DeepSeekAPIException} if the request fails
+     */
+    public StreamHandle streamCompletionAsync(DeepSeekModels.ChatRequest request, Consumer<String> onToken,
+                                              Predicate<CharSequence> stopWhen) {
+        request.setStream(true);
+        StreamHandle handle = new StreamHandle(onToken, stopWhen,
+                error -> apiException("Failed to stream completion", error));
+        client.startStream("/chat/completions", request, handle);
+        return handle;
+    }
+
+    /**
+     * Returns a publisher that streams a stateless single-turn response with backpressure, using
+     * the default token limit. Does not modify or consult chat history.
+     *
+     * @param prompt the prompt to complete
+     * @param model  the model to use
+     * @return a cold publisher; each subscriber sends its own request
+     * @see #publishCompletion(DeepSeekModels.ChatRequest)
+     */
+    public Flow.Publisher<StreamEvent> publishCompletion(String prompt, String model) {
+        return publishCompletion(buildCompletionRequest(prompt, model, defaultMaxTokens));
+    }
+
+    /**
+     * Returns a publisher that streams a caller-built stateless request with backpressure. The
+     * request's {@code stream} flag is set.
+     *
+     * <p>The response is read only as far as the subscriber has requested events, and cancelling
+     * the subscription cancels the HTTP call. Failures reach {@code onError} as a
+     * {@link DeepSeekAPIException}. Published streams are not coalesced.
+     *
+     * @param request the request to send
+     * @return a cold publisher; each subscriber sends its own request
+     */
+    public Flow.Publisher<StreamEvent> publishCompletion(DeepSeekModels.ChatRequest request) {
+        request.setStream(true);
+        return wrapFailure(client.publishStreamingPostRequest("/chat/completions", request),
+                "Failed to stream completion");
+    }
+
+    // -------------------------------------------------------------------------
+    // Batch completion (stateless)
+    // -------------------------------------------------------------------------
+
+    /**
+     * Completes many independent prompts with bounded parallelism, returning one
+     * {@link BatchResult} per prompt in input order. Each prompt is sent like
+     * {@link #generateCompletionAsync(DeepSeekModels.ChatRequest)}, with the system prompt and
+     * no history, so the client's rate limiter, concurrency limiter, retries, cache and
+     * coalescing all apply.
+     *
+     * <p>The stream is lazy: prompts are read from {@code prompts} only as room frees up in the
+     * window set by {@link BatchOptions#getMaxConcurrency()} and
+     * {@link BatchOptions#getMaxBuffered()}, so memory stays bounded however long the input is,
+     * and nothing is sent until the stream is consumed. {@code prompts} is only iterated on the
+     * consuming thread, never on HTTP threads, so it may be lazy or blocking. A failed prompt yields a result with
+     * {@link BatchResult#error()} set; the rest of the batch carries on. Closing the stream
+     * before the end cancels the requests in flight.
+     *
+     * <pre>{@code
+     * try (Stream<BatchResult> results = service.completeAll(prompts, options)) {
+     *     results.forEach(r -> System.out.println(r.index() + ": "
+     *             + (r.isSuccess() ? r.getMessage() : r.error().getMessage())));
+     * }
+     * }</pre>
+     *
+     * @param prompts the prompts, read once in order
+     * @param options the model and limits for the batch
+     * @return an ordered stream of results
+     */
+    public Stream<BatchResult> completeAll(Iterable<String> prompts, BatchOptions options) {
+        int maxTokens = options.getMaxTokens() > 0 ? options.getMaxTokens() : defaultMaxTokens;
+        ConcurrencyLimiter limiter = client.concurrencyLimiter();
+        BatchRunner runner = new BatchRunner(prompts.iterator(), prompt -> {
+            DeepSeekModels.ChatRequest request = buildCompletionRequest(prompt, options.getModel(), maxTokens);
+            request.setTemperature(options.getTemperature());
+            return generateCompletionAsync(request);
+        }, options.getMaxConcurrency(), options.getMaxBuffered(),
+                limiter == null ? () -> Integer.MAX_VALUE : limiter::getLimit);
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(runner, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(runner::close);
+    }
+
     // -------------------------------------------------------------------------
     // Stateful chat
     // -------------------------------------------------------------------------
@@ -141,7 +501,7 @@ public class DeepSeekService implements Closeable {
      *
      * <p>The user message is appended to history before the request is sent.
      * The assistant reply is appended after a successful response. This method
-     * is {@code synchronized} — see class-level docs on thread safety.
+     * holds the history lock for the whole turn — see class-level docs on thread safety.
      *
      * @param message   the user's message
      * @param model     the model to use (e.g., {@code "deepseek-chat"})
@@ -149,29 +509,26 @@ public class DeepSeekService implements Closeable {
      * @return the API response
      * @throws DeepSeekAPIException if the request fails
      */
-    public synchronized DeepSeekModels.ChatResponse sendChatRequest(
+    public DeepSeekModels.ChatResponse sendChatRequest(
             String message, String model, int maxTokens) throws DeepSeekAPIException {
 
-        logger.info("Sending chat request — model: {}, maxTokens: {}", model, maxTokens);
-        chatHistory.add(new DeepSeekModels.ChatMessage("user", message));
-        List<DeepSeekModels.ChatMessage> messages = buildMessagesSnapshot();
-
+        lock.lock();
         try {
-            DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest(model, messages, maxTokens);
+            logger.info("Sending chat request — model: {}, maxTokens: {}", model, maxTokens);
+            chatHistory.add(new EncodedChatMessage("user", message));
+            List<DeepSeekModels.ChatMessage> messages = buildMessagesSnapshot();
+
+            DeepSeekModels.ChatRequest request = chatTurnRequest(model, messages, maxTokens);
             DeepSeekModels.ChatResponse response =
                     client.sendPostRequest("/chat/completions", request, DeepSeekModels.ChatResponse.class);
 
-            if (response != null
-                    && response.getChoices() != null
-                    && !response.getChoices().isEmpty()
-                    && response.getChoices().get(0).getMessage() != null) {
-                chatHistory.add(response.getChoices().get(0).getMessage());
-                logger.debug("Chat history size: {}", chatHistory.size());
-            }
+            appendAssistantReply(response);
             return response;
         } catch (IOException e) {
             logger.error("Chat request failed for model {}", model, e);
-            throw new DeepSeekAPIException("Failed to send chat request", e);
+            throw apiException("Failed to send chat request", e);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -188,46 +545,97 @@ public class DeepSeekService implements Closeable {
         return sendChatRequest(message, model, defaultMaxTokens);
     }
 
+    /**
+     * Sends a message in the ongoing conversation without blocking the calling thread.
+     *
+     * <p>The turn starts once every previously submitted async turn has completed (successfully
+     * or not): the user message is then appended to history and the request is sent. The
+     * assistant reply is appended when the response arrives.
+     *
+     * <p>Cancelling the returned future cancels the HTTP call and lets the next queued turn
+     * start. A turn cancelled while queued leaves history unchanged; one cancelled in flight
+     * keeps its user message but never appends its reply, even if the response was already
+     * on its way.
+     *
+     * @param message   the user's message
+     * @param model     the model to use (e.g., {@code "deepseek-chat"})
+     * @param maxTokens the maximum number of tokens to generate
+     * @return a future completed with the API response, or failed with a {@link DeepSeekAPIException}
+     */
+    public CompletableFuture<DeepSeekModels.ChatResponse> sendChatRequestAsync(
+            String message, String model, int maxTokens) {
+        asyncTurnLock.lock();
+        try {
+            CompletableFuture<DeepSeekModels.ChatResponse> turn = new CompletableFuture<>();
+            lastAsyncTurn.whenComplete((result, error) -> {
+                if (!turn.isDone()) {
+                    startChatTurnAsync(message, model, maxTokens, turn);
+                }
+            });
+            lastAsyncTurn = turn;
+            return turn;
+        } finally {
+            asyncTurnLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message without blocking, using the default token limit.
+     *
+     * @param message the user's message
+     * @param model   the model to use
+     * @return a future completed with the API response, or failed with a {@link DeepSeekAPIException}
+     */
+    public CompletableFuture<DeepSeekModels.ChatResponse> sendChatRequestAsync(String message, String model) {
+        return sendChatRequestAsync(message, model, defaultMaxTokens);
+    }
+
     /**
      * Sends a message in the ongoing conversation and streams the response token by token.
      *
      * <p>The user message is added to history before streaming begins. Once the full
      * response has been received the complete assistant message is appended to history.
-     * This method is {@code synchronized} — see class-level docs on thread safety.
+     * This method holds the history lock for the whole stream — see class-level docs on thread safety.
      *
      * @param message   the user's message
      * @param model     the model to use (e.g., {@code "deepseek-chat"})
      * @param maxTokens the maximum number of tokens to generate
      * @param onToken   called once for each content token as it arrives; invoked on the
-     *                  calling thread while the lock is held — do not call other
-     *                  synchronized methods on this service from within the callback
+     *                  calling thread while the lock is held — calling other history
+     *                  methods from within the callback is safe (the lock is reentrant)
+     *                  but will observe the turn in progress
      * @throws DeepSeekAPIException if the request fails
      */
-    public synchronized void streamChatRequest(
+    public void streamChatRequest(
             String message, String model, int maxTokens, Consumer<String> onToken)
             throws DeepSeekAPIException {
 
-        logger.info("Streaming chat request — model: {}, maxTokens: {}", model, maxTokens);
-        chatHistory.add(new DeepSeekModels.ChatMessage("user", message));
-        List<DeepSeekModels.ChatMessage> messages = buildMessagesSnapshot();
+        lock.lock();
+        try {
+            logger.info("Streaming chat request — model: {}, maxTokens: {}", model, maxTokens);
+            chatHistory.add(new EncodedChatMessage("user", message));
+            List<DeepSeekModels.ChatMessage> messages = buildMessagesSnapshot();
 
-        DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest(model, messages, maxTokens);
-        request.setStream(true);
+            DeepSeekModels.ChatRequest request = chatTurnRequest(model, messages, maxTokens);
+            request.setStream(true);
 
-        StringBuilder fullResponse = new StringBuilder();
-        try {
-            client.sendStreamingPostRequest("/chat/completions", request, token -> {
-                onToken.accept(token);
-                fullResponse.append(token);
-            });
-        } catch (IOException e) {
-            logger.error("Streaming chat request failed for model {}", model, e);
-            throw new DeepSeekAPIException("Failed to stream chat request", e);
-        }
+            StringBuilder fullResponse = new StringBuilder();
+            try {
+                client.sendStreamingPostRequest("/chat/completions", request, token -> {
+                    onToken.accept(token);
+                    fullResponse.append(token);
+                });
+            } catch (IOException e) {
+                logger.error("Streaming chat request failed for model {}", model, e);
+                throw apiException("Failed to stream chat request", e);
+            }
 
-        if (!fullResponse.isEmpty()) {
-            chatHistory.add(new DeepSeekModels.ChatMessage("assistant", fullResponse.toString()));
-            logger.debug("Chat history size after stream: {}", chatHistory.size());
+            if (!fullResponse.isEmpty()) {
+                chatHistory.add(new EncodedChatMessage("assistant", fullResponse.toString()));
+                logger.debug("Chat history size after stream: {}", chatHistory.size());
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -244,6 +652,54 @@ public class DeepSeekService implements Closeable {
         streamChatRequest(message, model, defaultMaxTokens, onToken);
     }
 
+    /**
+     * Streams a response in the ongoing conversation in the background, returning a handle that
+     * can cut it short.
+     *
+     * <p>Turns are queued behind earlier async turns like {@link #sendChatRequestAsync}. When the
+     * turn starts, the user message is appended to history. When the stream ends, the text
+     * received so far is appended as the assistant message — all of it if the stream completed,
+     * the partial text if it was stopped or cancelled — so history matches what the caller saw.
+     * History is updated before the handle's future completes. A turn that received no text, or
+     * whose request failed, leaves only the user message (as {@link #streamChatRequest} does),
+     * and a turn cancelled before it started leaves history unchanged.
+     *
+     * @param message   the user's message
+     * @param model     the model to use (e.g., {@code "deepseek-chat"})
+     * @param maxTokens the maximum number of tokens to generate
+     * @param onToken   called on a dispatcher thread once for each content token as it arrives
+     * @param stopWhen  stops the stream once it matches the text received so far, or {@code null}
+     * @return a handle whose future fails with a {@link DeepSeekAPIException} if the request fails
+     */
+    public StreamHandle streamChatRequestAsync(String message, String model, int maxTokens,
+                                               Consumer<String> onToken, Predicate<CharSequence> stopWhen) {
+        StreamHandle handle = new StreamHandle(onToken, stopWhen,
+                error -> apiException("Failed to stream chat request", error));
+        asyncTurnLock.lock();
+        try {
+            lastAsyncTurn = lastAsyncTurn
+                    .handle((result, error) -> null)
+                    .thenCompose(ignored -> startChatStream(message, model, maxTokens, handle));
+            return handle;
+        } finally {
+            asyncTurnLock.unlock();
+        }
+    }
+
+    /**
+     * Streams a response in the background using the default token limit.
+     *
+     * @param message  the user's message
+     * @param model    the model to use
+     * @param onToken  called once per content token as it arrives
+     * @param stopWhen stops the stream once it matches the text received so far, or {@code null}
+     * @return a handle that can cancel the stream
+     */
+    public StreamHandle streamChatRequestAsync(String message, String model, Consumer<String> onToken,
+                                               Predicate<CharSequence> stopWhen) {
+        return streamChatRequestAsync(message, model, defaultMaxTokens, onToken, stopWhen);
+    }
+
     // -------------------------------------------------------------------------
     // History management
     // -------------------------------------------------------------------------
@@ -254,17 +710,27 @@ public class DeepSeekService implements Closeable {
      *
      * @return the chat history
      */
-    public synchronized List<DeepSeekModels.ChatMessage> getChatHistory() {
-        return Collections.unmodifiableList(new ArrayList<>(chatHistory));
+    public List<DeepSeekModels.ChatMessage> getChatHistory() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(chatHistory));
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Clears the chat history, starting a fresh conversation session.
      * The system prompt is not affected.
      */
-    public synchronized void clearChatHistory() {
-        chatHistory.clear();
-        logger.debug("Chat history cleared");
+    public void clearChatHistory() {
+        lock.lock();
+        try {
+            chatHistory.clear();
+            logger.debug("Chat history cleared");
+        } finally {
+            lock.unlock();
+        }
     }
 
     // -------------------------------------------------------------------------
@@ -290,6 +756,37 @@ public class DeepSeekService implements Closeable {
         return systemPrompt;
     }
 
+    /**
+     * Sets which stateless requests are coalesced: while a request is in flight, identical
+     * requests (same model, messages and parameters, compared by a SHA-256 of the serialized
+     * body) wait for its result instead of being sent again. Defaults to
+     * {@link Coalescing#DETERMINISTIC}. Chat turns are never coalesced.
+     *
+     * @param coalescing the coalescing mode
+     */
+    public void setCoalescing(Coalescing coalescing) {
+        this.coalescing = coalescing == null ? Coalescing.OFF : coalescing;
+    }
+
+    /**
+     * Returns the current coalescing mode.
+     *
+     * @return the coalescing mode
+     */
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Returns how many stateless requests were answered by an identical request already in
+     * flight, i.e. how many upstream calls coalescing has saved.
+     *
+     * @return the number of saved calls
+     */
+    public long getCoalescedRequestCount() {
+        return completions.getSavedCount();
+    }
+
     /**
      * Sets the default maximum tokens used when no explicit value is provided.
      *
@@ -313,10 +810,19 @@ public class DeepSeekService implements Closeable {
     // -------------------------------------------------------------------------
 
     /**
-     * Releases the underlying HTTP connection pool and thread pool.
+     * Releases the underlying HTTP connection pool and thread pool, and stops background model
+     * refreshes.
      */
     @Override
     public void close() {
+        registryLock.lock();
+        try {
+            if (ownsModelRegistry) {
+                modelRegistry.close();
+            }
+        } finally {
+            registryLock.unlock();
+        }
         client.close();
     }
 
@@ -324,21 +830,227 @@ public class DeepSeekService implements Closeable {
     // Helpers
     // -------------------------------------------------------------------------
 
+    /**
+     * Sends a queued chat turn and completes {@code turn} with its result. The reply is appended
+     * under the history lock unless {@code turn} was cancelled first, so a cancelled turn's reply
+     * never lands after a later turn's message.
+     */
+    private void startChatTurnAsync(String message, String model, int maxTokens,
+                                    CompletableFuture<DeepSeekModels.ChatResponse> turn) {
+        logger.info("Sending async chat request — model: {}, maxTokens: {}", model, maxTokens);
+        List<DeepSeekModels.ChatMessage> messages;
+        lock.lock();
+        try {
+            if (turn.isDone()) {
+                return; // cancelled while starting; the next turn may already be under way
+            }
+            chatHistory.add(new EncodedChatMessage("user", message));
+            messages = buildMessagesSnapshot();
+        } finally {
+            lock.unlock();
+        }
+
+        DeepSeekModels.ChatRequest request = chatTurnRequest(model, messages, maxTokens);
+        CompletableFuture<DeepSeekModels.ChatResponse> call = wrapFailure(
+                client.sendPostRequestAsync("/chat/completions", request, DeepSeekModels.ChatResponse.class),
+                "Failed to send chat request");
+        turn.whenComplete((result, error) -> {
+            if (turn.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        call.whenComplete((response, error) -> {
+            if (error != null) {
+                turn.completeExceptionally(error);
+                return;
+            }
+            lock.lock();
+            try {
+                if (turn.isCancelled()) {
+                    return;
+                }
+                appendAssistantReply(response);
+            } finally {
+                lock.unlock();
+            }
+            turn.complete(response);
+        });
+    }
+
+    /**
+     * Starts a queued streaming chat turn; the returned future completes when the stream ends.
+     */
+    private CompletableFuture<Void> startChatStream(String message, String model, int maxTokens, StreamHandle handle) {
+        if (handle.isStopping()) {
+            handle.finish(null);
+            return CompletableFuture.completedFuture(null);
+        }
+        logger.info("Streaming async chat request — model: {}, maxTokens: {}", model, maxTokens);
+        List<DeepSeekModels.ChatMessage> messages;
+        lock.lock();
+        try {
+            chatHistory.add(new EncodedChatMessage("user", message));
+            messages = buildMessagesSnapshot();
+        } finally {
+            lock.unlock();
+        }
+
+        DeepSeekModels.ChatRequest request = chatTurnRequest(model, messages, maxTokens);
+        request.setStream(true);
+        handle.onEnd(reply -> {
+            if (!reply.isEmpty()) {
+                lock.lock();
+                try {
+                    chatHistory.add(new EncodedChatMessage("assistant", reply));
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        client.startStream("/chat/completions", request, handle);
+        return handle.completion().handle((text, error) -> null);
+    }
+
+    /**
+     * Appends the first choice of a response to history, if it carries a message.
+     */
+    private void appendAssistantReply(DeepSeekModels.ChatResponse response) {
+        if (response != null
+                && response.getChoices() != null
+                && !response.getChoices().isEmpty()
+                && response.getChoices().get(0).getMessage() != null) {
+            lock.lock();
+            try {
+                chatHistory.add(EncodedChatMessage.of(response.getChoices().get(0).getMessage()));
+                logger.debug("Chat history size: {}", chatHistory.size());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adapts a client future so that failures surface as {@link DeepSeekAPIException}, matching the
+     * blocking methods. Cancelling the returned future cancels the client future.
+     */
+    private static <T> CompletableFuture<T> wrapFailure(CompletableFuture<T> source, String message) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        source.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else {
+                Throwable cause = unwrap(error);
+                result.completeExceptionally(cause instanceof DeepSeekAPIException
+                        ? cause : apiException(message, cause));
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Adapts a client publisher so that I/O failures reach {@code onError} as
+     * {@link DeepSeekAPIException}, matching the blocking methods.
+     */
+    private static <T> Flow.Publisher<T> wrapFailure(Flow.Publisher<T> source, String message) {
+        return subscriber -> source.subscribe(new Flow.Subscriber<T>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(T item) {
+                subscriber.onNext(item);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                subscriber.onError(error instanceof IOException ? apiException(message, error) : error);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+    }
+
+    /**
+     * Wraps a client failure, carrying over the HTTP status code if the API returned one.
+     */
+    private static DeepSeekAPIException apiException(String message, Throwable cause) {
+        if (cause instanceof DeepSeekHttpException http) {
+            return new DeepSeekAPIException(message, http.getStatusCode(), cause);
+        }
+        return new DeepSeekAPIException(message, cause);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Builds the request for a chat turn. Turns are never hedged: a duplicate could not be
+     * told apart in history, and a blocking turn holds the history lock while its callback
+     * would run on another thread.
+     */
+    private static DeepSeekModels.ChatRequest chatTurnRequest(String model, List<DeepSeekModels.ChatMessage> messages,
+                                                              int maxTokens) {
+        DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest(model, messages, maxTokens);
+        request.setHedgeable(false);
+        return request;
+    }
+
+    private DeepSeekModels.ChatRequest buildCompletionRequest(String prompt, String model, int maxTokens) {
+        List<DeepSeekModels.ChatMessage> messages = buildSystemMessages();
+        messages.add(new DeepSeekModels.ChatMessage("user", prompt));
+        return new DeepSeekModels.ChatRequest(model, messages, maxTokens);
+    }
+
+    /**
+     * Returns the coalescing key for {@code request}, or {@code null} if it should be sent on its own.
+     * Requests that bypass the response cache are never coalesced: the request they would join
+     * may be answered from the cache.
+     */
+    private String coalescingKey(DeepSeekModels.ChatRequest request) throws IOException {
+        Coalescing mode = coalescing;
+        if (mode == Coalescing.OFF || request.isCacheBypass()
+                || (mode == Coalescing.DETERMINISTIC && request.getTemperature() != 0)) {
+            return null;
+        }
+        return client.requestFingerprint(request);
+    }
+
     /**
      * Returns a new list containing just the system message (if set).
      * Used by stateless completion methods.
      */
     private List<DeepSeekModels.ChatMessage> buildSystemMessages() {
         List<DeepSeekModels.ChatMessage> messages = new ArrayList<>();
-        if (systemPrompt != null && !systemPrompt.isEmpty()) {
-            messages.add(new DeepSeekModels.ChatMessage("system", systemPrompt));
+        String prompt = systemPrompt;
+        if (prompt != null && !prompt.isEmpty()) {
+            EncodedChatMessage cached = systemMessage;
+            if (cached == null || !prompt.equals(cached.getContent())) {
+                cached = new EncodedChatMessage("system", prompt);
+                systemMessage = cached;
+            }
+            messages.add(cached);
         }
         return messages;
     }
 
     /**
      * Returns a new list of [system message] + current chat history.
-     * Must be called while holding the instance lock.
+     * Must be called while holding {@link #lock}.
      */
     private List<DeepSeekModels.ChatMessage> buildMessagesSnapshot() {
         List<DeepSeekModels.ChatMessage> messages = buildSystemMessages();
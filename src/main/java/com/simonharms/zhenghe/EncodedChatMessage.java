@@ -0,0 +1,101 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * A {@link DeepSeekModels.ChatMessage} that caches its own JSON encoding.
+ *
+ * <p>{@link DeepSeekService} stores history as these so that each message is encoded once,
+ * when it enters the conversation, rather than on every turn. When a request is serialized
+ * the cached UTF-8 bytes are spliced into the body as a raw value, so building a turn's body
+ * costs a byte copy per earlier message instead of re-escaping its text.
+ *
+ * <p>The encoding is identical to what the client's {@code ObjectMapper} produces for a plain
+ * {@code ChatMessage}. Calling a setter discards the cached form, so mutating a message taken
+ * from {@link DeepSeekService#getChatHistory()} behaves as it did before caching.
+ */
+@JsonSerialize(using = EncodedChatMessage.RawSerializer.class)
+final class EncodedChatMessage extends DeepSeekModels.ChatMessage {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private volatile SerializedString encoded;
+
+    EncodedChatMessage(String role, String content) {
+        super(role, content);
+    }
+
+    /**
+     * Returns {@code message} itself if it already caches its encoding, otherwise a caching copy.
+     */
+    static EncodedChatMessage of(DeepSeekModels.ChatMessage message) {
+        if (message instanceof EncodedChatMessage encodedMessage) {
+            return encodedMessage;
+        }
+        return new EncodedChatMessage(message.getRole(), message.getContent());
+    }
+
+    @Override
+    public void setRole(String role) {
+        super.setRole(role);
+        encoded = null;
+    }
+
+    @Override
+    public void setContent(String content) {
+        super.setContent(content);
+        encoded = null;
+    }
+
+    /**
+     * Returns the cached JSON object for this message, encoding it on first use.
+     */
+    SerializableString encoded() {
+        SerializedString current = encoded;
+        if (current == null) {
+            current = encode(getRole(), getContent());
+            current.asUnquotedUTF8(); // compute and cache the UTF-8 bytes up front
+            encoded = current;
+        }
+        return current;
+    }
+
+    private static SerializedString encode(String role, String content) {
+        StringWriter out = new StringWriter(32 + (content == null ? 0 : content.length()));
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("role", role);
+            generator.writeStringField("content", content);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode chat message", e);
+        }
+        return new SerializedString(out.toString());
+    }
+
+    /**
+     * Writes the cached encoding as a raw JSON value.
+     */
+    static final class RawSerializer extends StdSerializer<EncodedChatMessage> {
+
+        RawSerializer() {
+            super(EncodedChatMessage.class);
+        }
+
+        @Override
+        public void serialize(EncodedChatMessage value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeRawValue(value.encoded());
+        }
+    }
+}
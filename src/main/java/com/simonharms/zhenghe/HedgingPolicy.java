@@ -0,0 +1,336 @@
+package com.simonharms.zhenghe;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Opt-in request hedging: if a POST has not answered within a delay derived from recent
+ * latencies, a duplicate is sent and whichever finishes first wins. The loser is cancelled
+ * through {@link okhttp3.Call#cancel()}.
+ *
+ * <p>The hedge delay is the configured percentile (95th by default) of recent latencies: the
+ * full response time for ordinary requests, and the time to the first token for streaming
+ * requests, each tracked separately. Until enough samples have been seen, the initial delay is
+ * used. The delay never drops below {@code minDelay}.
+ *
+ * <p>To bound cost, each request earns {@code maxHedgeRatio} hedge credits and each hedge
+ * spends one, with at most {@code maxHedgeBurst} credits saved up. With the default ratio of
+ * 0.05, at most about one request in twenty is duplicated however slow the API becomes.
+ *
+ * <p>Once configured with {@link DeepSeekAPIClient.Builder#hedgingPolicy(HedgingPolicy)},
+ * hedging applies to POST requests unless a request opts out with
+ * {@link DeepSeekModels.ChatRequest#setHedgeable(boolean)}. {@link DeepSeekService} opts out for
+ * its stateful chat turns, so only stateless completions ({@code generateCompletion*} and
+ * {@code streamCompletion}) are hedged. Each attempt passes through
+ * the client's rate and concurrency limiters separately.
+ *
+ * <pre>{@code
+ * HedgingPolicy hedging = HedgingPolicy.builder()
+ *         .delayPercentile(95)
+ *         .maxHedgeRatio(0.05)
+ *         .build();
+ * DeepSeekAPIClient client = DeepSeekAPIClient.builder(apiKey, baseUrl)
+ *         .hedgingPolicy(hedging)
+ *         .build();
+ * }</pre>
+ */
+public final class HedgingPolicy {
+
+    private static final long CREDIT = 1_000_000;
+
+    private final double percentile;
+    private final long initialDelayNanos;
+    private final long minDelayNanos;
+    private final long creditPerRequest;
+    private final long maxCredits;
+
+    private final LatencyWindow responseLatency;
+    private final LatencyWindow firstTokenLatency;
+    private final AtomicLong credits;
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private HedgingPolicy(Builder builder) {
+        this.percentile = builder.percentile;
+        this.initialDelayNanos = builder.initialDelay.toNanos();
+        this.minDelayNanos = builder.minDelay.toNanos();
+        this.creditPerRequest = Math.round(builder.maxHedgeRatio * CREDIT);
+        this.maxCredits = (long) builder.maxHedgeBurst * CREDIT;
+        this.responseLatency = new LatencyWindow(builder.windowSize, builder.minSamples);
+        this.firstTokenLatency = new LatencyWindow(builder.windowSize, builder.minSamples);
+        this.credits = new AtomicLong(maxCredits);
+    }
+
+    /**
+     * Returns a builder preset to the 95th percentile over the last 1,000 samples (at least 20),
+     * a 2 second initial delay, a 50 ms minimum delay, a hedge ratio of 0.05 and a burst of 10.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the current hedge delay for ordinary (non-streaming) requests.
+     *
+     * @return the delay after which a duplicate request is sent
+     */
+    public Duration getResponseDelay() {
+        return Duration.ofNanos(responseDelayNanos());
+    }
+
+    /**
+     * Returns the current hedge delay for streaming requests, measured to the first token.
+     *
+     * @return the delay after which a duplicate stream is started
+     */
+    public Duration getFirstTokenDelay() {
+        return Duration.ofNanos(firstTokenDelayNanos());
+    }
+
+    /**
+     * Returns how many duplicate requests have been sent.
+     *
+     * @return the hedge count
+     */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * Returns how many duplicate requests finished before the original.
+     *
+     * @return the number of hedges that won
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    long responseDelayNanos() {
+        return Math.max(minDelayNanos, responseLatency.percentileOr(percentile, initialDelayNanos));
+    }
+
+    long firstTokenDelayNanos() {
+        return Math.max(minDelayNanos, firstTokenLatency.percentileOr(percentile, initialDelayNanos));
+    }
+
+    void recordResponse(long latencyNanos) {
+        responseLatency.add(latencyNanos);
+    }
+
+    void recordFirstToken(long latencyNanos) {
+        firstTokenLatency.add(latencyNanos);
+    }
+
+    /**
+     * Credits one original request toward the hedge budget.
+     */
+    void onRequest() {
+        while (true) {
+            long current = credits.get();
+            long next = Math.min(maxCredits, current + creditPerRequest);
+            if (current == next || credits.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spends one hedge credit if available.
+     */
+    boolean tryHedge() {
+        while (true) {
+            long current = credits.get();
+            if (current < CREDIT) {
+                return false;
+            }
+            if (credits.compareAndSet(current, current - CREDIT)) {
+                hedges.increment();
+                return true;
+            }
+        }
+    }
+
+    void onHedgeWon() {
+        hedgeWins.increment();
+    }
+
+    /**
+     * A ring buffer of recent latencies. The percentile is recomputed every
+     * {@value #RECOMPUTE_INTERVAL} samples rather than on every request.
+     */
+    private static final class LatencyWindow {
+
+        private static final int RECOMPUTE_INTERVAL = 32;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long[] samples;
+        private final int minSamples;
+        private int next;
+        private int count;
+        private int sinceRecompute;
+        private double cachedPercentile = Double.NaN;
+        private volatile long cachedValue = -1;
+
+        LatencyWindow(int size, int minSamples) {
+            this.samples = new long[size];
+            this.minSamples = Math.min(minSamples, size);
+        }
+
+        void add(long latencyNanos) {
+            lock.lock();
+            try {
+                samples[next] = latencyNanos;
+                next = (next + 1) % samples.length;
+                if (count < samples.length) count++;
+                if (count >= minSamples && ++sinceRecompute >= RECOMPUTE_INTERVAL) {
+                    cachedValue = -1;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long percentileOr(double percentile, long fallback) {
+            long value = cachedValue;
+            if (value >= 0 && percentile == cachedPercentile) {
+                return value;
+            }
+            lock.lock();
+            try {
+                if (count < minSamples) {
+                    return fallback;
+                }
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+                value = sorted[Math.max(0, Math.min(count - 1, index))];
+                cachedPercentile = percentile;
+                cachedValue = value;
+                sinceRecompute = 0;
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link HedgingPolicy}.
+     */
+    public static final class Builder {
+
+        private double percentile = 95;
+        private int windowSize = 1_000;
+        private int minSamples = 20;
+        private Duration initialDelay = Duration.ofSeconds(2);
+        private Duration minDelay = Duration.ofMillis(50);
+        private double maxHedgeRatio = 0.05;
+        private int maxHedgeBurst = 10;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the latency percentile used as the hedge delay.
+         *
+         * @param percentile the percentile, greater than 0 and less than 100
+         * @return this builder
+         */
+        public Builder delayPercentile(double percentile) {
+            if (!(percentile > 0 && percentile < 100)) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * Sets how many recent latencies the percentile is computed over, and how many must be
+         * seen before the percentile replaces the initial delay.
+         *
+         * @param windowSize the number of samples kept, at least 1
+         * @param minSamples the number of samples required, at least 1
+         * @return this builder
+         */
+        public Builder window(int windowSize, int minSamples) {
+            if (windowSize < 1 || minSamples < 1) {
+                throw new IllegalArgumentException("windowSize and minSamples must be at least 1: "
+                        + windowSize + ", " + minSamples);
+            }
+            this.windowSize = windowSize;
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Sets the hedge delay used until enough latencies have been observed.
+         *
+         * @param initialDelay the delay, positive
+         * @return this builder
+         */
+        public Builder initialDelay(Duration initialDelay) {
+            this.initialDelay = requirePositive(initialDelay, "initialDelay");
+            return this;
+        }
+
+        /**
+         * Sets the smallest hedge delay, so that a fast API is not hedged on noise.
+         *
+         * @param minDelay the floor, positive
+         * @return this builder
+         */
+        public Builder minDelay(Duration minDelay) {
+            this.minDelay = requirePositive(minDelay, "minDelay");
+            return this;
+        }
+
+        /**
+         * Caps the long-run fraction of requests that are duplicated.
+         *
+         * @param maxHedgeRatio hedges per request, greater than 0 and at most 1
+         * @return this builder
+         */
+        public Builder maxHedgeRatio(double maxHedgeRatio) {
+            if (!(maxHedgeRatio > 0 && maxHedgeRatio <= 1)) {
+                throw new IllegalArgumentException("maxHedgeRatio must be in (0, 1]: " + maxHedgeRatio);
+            }
+            this.maxHedgeRatio = maxHedgeRatio;
+            return this;
+        }
+
+        /**
+         * Sets how many hedges may be sent back to back before the ratio applies.
+         *
+         * @param maxHedgeBurst the burst size, at least 1
+         * @return this builder
+         */
+        public Builder maxHedgeBurst(int maxHedgeBurst) {
+            if (maxHedgeBurst < 1) {
+                throw new IllegalArgumentException("maxHedgeBurst must be at least 1: " + maxHedgeBurst);
+            }
+            this.maxHedgeBurst = maxHedgeBurst;
+            return this;
+        }
+
+        /**
+         * Builds the policy.
+         *
+         * @return a new hedging policy
+         */
+        public HedgingPolicy build() {
+            return new HedgingPolicy(this);
+        }
+
+        private static Duration requirePositive(Duration duration, String name) {
+            if (duration == null || duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException(name + " must be positive: " + duration);
+            }
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.simonharms.zhenghe;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A size-bounded, in-process {@link ResponseCache} using W-TinyLFU eviction.
+ *
+ * <p>Entries are weighed by the bytes their strings occupy on the heap (one byte per character
+ * of Latin-1 text, two otherwise) plus a fixed per-entry overhead, and the total is kept under
+ * {@code maximumWeight}. New entries enter a small LRU window (1% of the weight). Entries leaving
+ * the window compete for the main region, an LRU split into probation and protected segments,
+ * against the main region's least recently used entry. The one seen less often according to a
+ * count-min frequency sketch is evicted. A prompt asked once therefore does not push out a
+ * prompt asked every minute, while a burst of new prompts still gets a chance to prove itself
+ * in the window.
+ *
+ * <p>Entries expire after their time-to-live: the request's
+ * {@link DeepSeekModels.ChatRequest#setCacheTtl(Duration)} if set, otherwise the cache's
+ * {@code expireAfterWrite} default, otherwise never. Expired entries are dropped when next read.
+ *
+ * <pre>{@code
+ * InMemoryResponseCache cache = InMemoryResponseCache.builder()
+ *         .maximumWeight(64L * 1024 * 1024)
+ *         .expireAfterWrite(Duration.ofHours(6))
+ *         .build();
+ * DeepSeekAPIClient client = DeepSeekAPIClient.builder(apiKey, baseUrl)
+ *         .responseCache(cache)
+ *         .build();
+ * }</pre>
+ */
+public final class InMemoryResponseCache implements ResponseCache {
+
+    /** Approximate heap cost of an entry beyond its strings: node, map entries, response objects. */
+    static final long ENTRY_OVERHEAD = 256;
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final long defaultTtlNanos;
+    private final boolean deterministicOnly;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Node> data = new HashMap<>();
+    private final LinkedHashMap<String, Node> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<>();
+    private final FrequencySketch sketch;
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private InMemoryResponseCache(Builder builder, LongSupplier nanoClock) {
+        this.maximumWeight = builder.maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * 4 / 5;
+        this.defaultTtlNanos = builder.expireAfterWrite == null ? 0 : builder.expireAfterWrite.toNanos();
+        this.deterministicOnly = builder.deterministicOnly;
+        this.nanoClock = nanoClock;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 22, Math.max(64, maximumWeight / 1024)));
+    }
+
+    /**
+     * Returns a builder preset to a 64 MiB bound, no default expiry, and caching of
+     * deterministic ({@code temperature} 0) requests only.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public boolean isCacheable(DeepSeekModels.ChatRequest request) {
+        return deterministicOnly ? ResponseCache.super.isCacheable(request) : !request.isCacheBypass();
+    }
+
+    @Override
+    public DeepSeekModels.ChatResponse get(String key) {
+        lock.lock();
+        try {
+            sketch.increment(key.hashCode());
+            Node node = data.get(key);
+            if (node == null) {
+                misses.increment();
+                return null;
+            }
+            if (node.expiresAtNanos - nanoClock.getAsLong() <= 0) {
+                remove(node);
+                misses.increment();
+                return null;
+            }
+            onAccess(node);
+            hits.increment();
+            return node.response;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, DeepSeekModels.ChatResponse response, Duration ttl) {
+        long ttlNanos = ttl != null ? ttl.toNanos() : defaultTtlNanos;
+        if (ttl != null && ttlNanos <= 0) {
+            invalidate(key);
+            return;
+        }
+        long weight = weigh(key, response);
+        lock.lock();
+        try {
+            Node existing = data.get(key);
+            if (existing != null) {
+                remove(existing);
+            }
+            if (weight > maximumWeight) {
+                return;
+            }
+            sketch.increment(key.hashCode());
+            long now = nanoClock.getAsLong();
+            Node node = new Node(key, response, weight, ttlNanos > 0 ? now + ttlNanos : now + Long.MAX_VALUE / 2);
+            data.put(key, node);
+            window.putLast(key, node);
+            windowWeight += weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        lock.lock();
+        try {
+            Node node = data.get(key);
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            data.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            windowWeight = 0;
+            probationWeight = 0;
+            protectedWeight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), data.size(),
+                    windowWeight + probationWeight + protectedWeight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the approximate heap bytes held by an entry.
+     */
+    static long weigh(String key, DeepSeekModels.ChatResponse response) {
+        long weight = ENTRY_OVERHEAD + stringWeight(key)
+                + stringWeight(response.getId()) + stringWeight(response.getModel());
+        if (response.getChoices() != null) {
+            for (DeepSeekModels.ChatResponse.Choice choice : response.getChoices()) {
+                if (choice != null && choice.getMessage() != null) {
+                    weight += stringWeight(choice.getMessage().getRole())
+                            + stringWeight(choice.getMessage().getContent());
+                }
+            }
+        }
+        return weight;
+    }
+
+    private static long stringWeight(String s) {
+        if (s == null) {
+            return 0;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                return 2L * s.length();
+            }
+        }
+        return s.length();
+    }
+
+    /**
+     * Moves a read entry to the most recently used end of its segment, promoting it from
+     * probation to protected.
+     */
+    private void onAccess(Node node) {
+        switch (node.segment) {
+            case WINDOW -> window.putLast(node.key, node);
+            case PROTECTED -> protectedSegment.putLast(node.key, node);
+            case PROBATION -> {
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+                node.segment = Segment.PROTECTED;
+                protectedSegment.putLast(node.key, node);
+                protectedWeight += node.weight;
+                while (protectedWeight > protectedMaximum && protectedSegment.size() > 1) {
+                    Node demoted = protectedSegment.pollFirstEntry().getValue();
+                    protectedWeight -= demoted.weight;
+                    demoted.segment = Segment.PROBATION;
+                    probation.putLast(demoted.key, demoted);
+                    probationWeight += demoted.weight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the window's overflow into probation, then evicts until the total fits, each time
+     * keeping whichever of probation's newest entry (the candidate) and its oldest (the victim)
+     * is used more often.
+     */
+    private void evict() {
+        while (windowWeight > windowMaximum && window.size() > 1) {
+            Node node = window.pollFirstEntry().getValue();
+            windowWeight -= node.weight;
+            node.segment = Segment.PROBATION;
+            probation.putLast(node.key, node);
+            probationWeight += node.weight;
+        }
+        while (windowWeight + probationWeight + protectedWeight > maximumWeight) {
+            Node evicted;
+            if (!probation.isEmpty()) {
+                Node victim = probation.firstEntry().getValue();
+                Node candidate = probation.lastEntry().getValue();
+                evicted = candidate == victim
+                        || sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())
+                        ? victim : candidate;
+            } else if (!protectedSegment.isEmpty()) {
+                evicted = protectedSegment.firstEntry().getValue();
+            } else {
+                evicted = window.firstEntry().getValue();
+            }
+            remove(evicted);
+            evictions.increment();
+        }
+    }
+
+    private void remove(Node node) {
+        data.remove(node.key);
+        switch (node.segment) {
+            case WINDOW -> {
+                window.remove(node.key);
+                windowWeight -= node.weight;
+            }
+            case PROBATION -> {
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+            }
+            case PROTECTED -> {
+                protectedSegment.remove(node.key);
+                protectedWeight -= node.weight;
+            }
+        }
+    }
+
+    private static final class Node {
+
+        final String key;
+        final DeepSeekModels.ChatResponse response;
+        final long weight;
+        final long expiresAtNanos;
+        Segment segment = Segment.WINDOW;
+
+        Node(String key, DeepSeekModels.ChatResponse response, long weight, long expiresAtNanos) {
+            this.key = key;
+            this.response = response;
+            this.weight = weight;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, four per key, that estimates how often each key was
+     * seen. Counters are halved after every {@code 10 * width} increments so that the estimate
+     * favours recent popularity.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(8, expectedEntries - 1) << 1);
+            this.table = new long[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        int frequency(int hash) {
+            int spread = spread(hash);
+            int start = (spread & 3) << 2;
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(spread, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                min = Math.min(min, count);
+            }
+            return min;
+        }
+
+        void increment(int hash) {
+            int spread = spread(hash);
+            int start = (spread & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(spread, i);
+                int offset = (start + i) << 2;
+                long counterMask = 0xfL << offset;
+                if ((table[index] & counterMask) != counterMask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Builder for {@link InMemoryResponseCache}.
+     */
+    public static final class Builder {
+
+        private long maximumWeight = 64L * 1024 * 1024;
+        private Duration expireAfterWrite;
+        private boolean deterministicOnly = true;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the bound on the approximate bytes held by the cache.
+         *
+         * @param maximumWeight the bound in bytes, positive
+         * @return this builder
+         */
+        public Builder maximumWeight(long maximumWeight) {
+            if (maximumWeight <= 0) {
+                throw new IllegalArgumentException("maximumWeight must be positive: " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Sets the default time-to-live of entries whose request sets none.
+         *
+         * @param expireAfterWrite the time-to-live, positive, or {@code null} for no expiry
+         * @return this builder
+         */
+        public Builder expireAfterWrite(Duration expireAfterWrite) {
+            if (expireAfterWrite != null && (expireAfterWrite.isNegative() || expireAfterWrite.isZero())) {
+                throw new IllegalArgumentException("expireAfterWrite must be positive: " + expireAfterWrite);
+            }
+            this.expireAfterWrite = expireAfterWrite;
+            return this;
+        }
+
+        /**
+         * Sets whether only {@code temperature} 0 requests are cached. With {@code false}, sampled
+         * answers are cached and replayed too, including stateful chat turns.
+         *
+         * @param deterministicOnly {@code false} to cache every request that is not bypassed
+         * @return this builder
+         */
+        public Builder deterministicOnly(boolean deterministicOnly) {
+            this.deterministicOnly = deterministicOnly;
+            return this;
+        }
+
+        /**
+         * Builds the cache.
+         *
+         * @return a new cache
+         */
+        public InMemoryResponseCache build() {
+            return build(System::nanoTime);
+        }
+
+        InMemoryResponseCache build(LongSupplier nanoClock) {
+            return new InMemoryResponseCache(this, nanoClock);
+        }
+    }
+}
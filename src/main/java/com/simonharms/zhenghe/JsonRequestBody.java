@@ -0,0 +1,102 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A {@link RequestBody} that serializes a value with Jackson directly into the connection's
+ * {@link BufferedSink}, so the JSON never exists as a {@code String} or a second byte array.
+ *
+ * <p>Jackson's generator encodes into an output buffer that it recycles per thread; Okio then
+ * copies from that buffer into pooled segments. The body is serialized again on every
+ * {@link #writeTo} call, which keeps it replayable for OkHttp's connection-failure retries.
+ * The length is not known up front, so HTTP/1.1 requests use chunked transfer encoding.
+ */
+final class JsonRequestBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final ObjectWriter writer;
+    private final Object value;
+
+    JsonRequestBody(ObjectMapper objectMapper, Object value) {
+        this.writer = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.value = value;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        writer.writeValue(sink.outputStream(), value);
+    }
+
+    /**
+     * Returns the value being serialized.
+     */
+    Object value() {
+        return value;
+    }
+
+    /**
+     * Renders at most {@code maxBytes} bytes of the JSON for logging. Bytes past the limit are
+     * discarded as they are produced, so memory stays bounded however large the body is.
+     */
+    String preview(int maxBytes) throws IOException {
+        CappedOutputStream out = new CappedOutputStream(maxBytes);
+        writer.writeValue(out, value);
+        String text = new String(out.bytes, 0, out.size, StandardCharsets.UTF_8);
+        return out.total > out.size ? text + "... (" + out.total + " bytes)" : text;
+    }
+
+    /**
+     * Keeps the first {@code bytes.length} bytes written and counts the rest.
+     */
+    private static final class CappedOutputStream extends OutputStream {
+
+        private final int max;
+        private byte[] bytes = new byte[256];
+        private int size;
+        private long total;
+
+        CappedOutputStream(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            total += len;
+            int kept = Math.min(len, max - size);
+            if (kept <= 0) {
+                return;
+            }
+            if (size + kept > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.min(max, Math.max(size + kept, bytes.length * 2)));
+            }
+            System.arraycopy(b, off, bytes, size, kept);
+            size += kept;
+        }
+    }
+}
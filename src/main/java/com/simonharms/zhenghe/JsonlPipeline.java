@@ -0,0 +1,597 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * An offline job that completes a JSONL file of requests into a JSONL file of responses, and
+ * can resume after a crash.
+ *
+ * <h3>Files</h3>
+ * <p>Each input line is a {@link DeepSeekModels.ChatRequest} in the API's JSON form, for
+ * example {@code {"model":"deepseek-chat","messages":[{"role":"user","content":"Hi"}]}}; blank
+ * lines are skipped. Each output line records the input line number (from 0) together with
+ * either the response or the error:
+ * <pre>
+ * {"line":0,"response":{"id":"...","choices":[...],"usage":{...}}}
+ * {"line":1,"error":"Failed to generate completion","status":400}
+ * </pre>
+ * A failed line is recorded and not retried; select the {@code error} lines to run them again.
+ *
+ * <h3>Flow</h3>
+ * <p>The input is read one line at a time, and requests are sent with
+ * {@link DeepSeekService#generateCompletionAsync(DeepSeekModels.ChatRequest)}, so the client's
+ * limiters, retries and cache apply. At most {@code maxConcurrency} requests are in flight, and
+ * the reader never gets more than {@code maxBuffered} lines ahead of the oldest unfinished one,
+ * which bounds memory for any input size. In ordered mode (the default) the output follows
+ * the input order; unordered mode writes each response as soon as it arrives.
+ *
+ * <h3>Checkpoints</h3>
+ * <p>Every {@code checkpointInterval} the output is flushed and synced, then a checkpoint file
+ * is replaced atomically. The checkpoint records how many output bytes are durable and which
+ * lines they cover. A new run on the same files truncates the output to that length and skips
+ * the covered lines, so only requests that were in flight or unflushed at the crash are sent
+ * again. The checkpoint is kept after a complete run, so running again sends nothing; pass
+ * {@code resume(false)} or delete it to start over.
+ *
+ * <pre>{@code
+ * JsonlPipeline.Progress done = JsonlPipeline.builder(service, Path.of("in.jsonl"), Path.of("out.jsonl"))
+ *         .maxConcurrency(32)
+ *         .onProgress(p -> log.info("{} lines, {}/s", p.succeeded() + p.failed(), p.linesPerSecond()))
+ *         .build()
+ *         .run();
+ * }</pre>
+ */
+public final class JsonlPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonlPipeline.class);
+
+    private final DeepSeekService service;
+    private final Path input;
+    private final Path output;
+    private final Path checkpoint;
+    private final int maxConcurrency;
+    private final int maxBuffered;
+    private final boolean ordered;
+    private final boolean resume;
+    private final long checkpointIntervalNanos;
+    private final long progressIntervalNanos;
+    private final Consumer<Progress> onProgress;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .setVisibility(PropertyAccessor.GETTER, JsonAutoDetect.Visibility.NONE)
+            .setVisibility(PropertyAccessor.IS_GETTER, JsonAutoDetect.Visibility.NONE);
+
+    private JsonlPipeline(Builder builder) {
+        this.service = builder.service;
+        this.input = builder.input;
+        this.output = builder.output;
+        this.checkpoint = builder.checkpoint != null
+                ? builder.checkpoint
+                : output.resolveSibling(output.getFileName() + ".checkpoint");
+        this.maxConcurrency = builder.maxConcurrency;
+        this.maxBuffered = builder.maxBuffered > 0 ? builder.maxBuffered : 4 * builder.maxConcurrency;
+        this.ordered = builder.ordered;
+        this.resume = builder.resume;
+        this.checkpointIntervalNanos = builder.checkpointInterval.toNanos();
+        this.progressIntervalNanos = builder.progressInterval.toNanos();
+        this.onProgress = builder.onProgress;
+    }
+
+    /**
+     * Returns a builder for a job reading {@code input} and writing {@code output}, preset to
+     * 16 requests in flight, ordered output, a checkpoint every 30 seconds next to the output
+     * file, and a progress report every 10 seconds to the log.
+     *
+     * @param service the service that sends the requests
+     * @param input   the JSONL file of requests
+     * @param output  the JSONL file of results
+     * @return a new builder
+     */
+    public static Builder builder(DeepSeekService service, Path input, Path output) {
+        if (service == null || input == null || output == null) {
+            throw new IllegalArgumentException("service, input and output must not be null");
+        }
+        return new Builder(service, input, output);
+    }
+
+    /**
+     * Runs the job to the end of the input, resuming from the checkpoint if there is one.
+     * Blocks until every line is done.
+     *
+     * @return the final progress of this run
+     * @throws InterruptedIOException if the thread is interrupted; progress so far is checkpointed
+     * @throws IOException            if a file cannot be read or written
+     */
+    public Progress run() throws IOException {
+        return new Run().execute();
+    }
+
+    /**
+     * A snapshot of a run's progress.
+     *
+     * @param succeeded   lines answered in this run
+     * @param failed      lines recorded as errors in this run
+     * @param resumed     lines skipped because an earlier run completed them
+     * @param inFlight    requests currently in flight
+     * @param totalTokens tokens used by this run's responses, as reported by the API
+     * @param elapsed     time since the run started
+     */
+    public record Progress(long succeeded, long failed, long resumed, int inFlight, long totalTokens,
+                           Duration elapsed) {
+
+        /**
+         * Returns the lines finished per second in this run.
+         *
+         * @return the line throughput
+         */
+        public double linesPerSecond() {
+            return perSecond(succeeded + failed);
+        }
+
+        /**
+         * Returns the tokens used per second in this run.
+         *
+         * @return the token throughput
+         */
+        public double tokensPerSecond() {
+            return perSecond(totalTokens);
+        }
+
+        private double perSecond(long count) {
+            long nanos = elapsed.toNanos();
+            return nanos == 0 ? 0 : count * 1e9 / nanos;
+        }
+    }
+
+    /**
+     * What a checkpoint file holds: every line below {@code watermark}, and every line in
+     * {@code completed}, is covered by the first {@code outputBytes} bytes of the output.
+     */
+    private record Checkpoint(long watermark, List<Long> completed, long outputBytes) {
+    }
+
+    /**
+     * The state of one run.
+     */
+    private final class Run {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        // finished lines at or above the watermark, with their output ("" if already written or none)
+        private final TreeMap<Long, String> done = new TreeMap<>();
+        private final long startNanos = System.nanoTime();
+        private long watermark;
+        private int inFlight;
+        private long succeeded;
+        private long failed;
+        private long resumed;
+        private long totalTokens;
+        private long nextCheckpoint;
+        private long nextProgress;
+        private boolean stopped;
+        private IOException writeFailure;
+        private FileChannel channel;
+        private OutputStream out;
+
+        Progress execute() throws IOException {
+            Checkpoint previous = resume && Files.exists(checkpoint) ? readCheckpoint() : null;
+            channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if (previous != null) {
+                    if (channel.size() < previous.outputBytes()) {
+                        throw new IOException("Output " + output + " is shorter than its checkpoint "
+                                + checkpoint + " records; delete the checkpoint to start over");
+                    }
+                    channel.truncate(previous.outputBytes());
+                    channel.position(previous.outputBytes());
+                    watermark = previous.watermark();
+                    for (long line : previous.completed()) {
+                        done.put(line, "");
+                    }
+                    logger.info("Resuming {} from line {}", input, watermark);
+                } else {
+                    channel.truncate(0);
+                }
+                out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+                nextCheckpoint = startNanos + checkpointIntervalNanos;
+                nextProgress = startNanos + progressIntervalNanos;
+                readAll();
+                lock.lock();
+                try {
+                    stopped = true;
+                    writeCheckpoint();
+                    Progress progress = progress();
+                    onProgress.accept(progress);
+                    return progress;
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                lock.lock();
+                try {
+                    stopped = true;
+                } finally {
+                    lock.unlock();
+                }
+                channel.close();
+            }
+        }
+
+        private void readAll() throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                long next = 0;
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    long line = next++;
+                    lock.lock();
+                    try {
+                        if (line < watermark || done.containsKey(line)) {
+                            resumed++;
+                            continue;
+                        }
+                        await(() -> inFlight < maxConcurrency && line - watermark < maxBuffered);
+                    } finally {
+                        lock.unlock();
+                    }
+                    submit(line, text);
+                }
+            }
+            lock.lock();
+            try {
+                await(() -> inFlight == 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void submit(long line, String text) {
+            if (text.isBlank()) {
+                finish(line, null, 0, false);
+                return;
+            }
+            DeepSeekModels.ChatRequest request;
+            try {
+                request = objectMapper.readValue(text, DeepSeekModels.ChatRequest.class);
+            } catch (JsonProcessingException e) {
+                finish(line, error(line, "Invalid request: " + e.getOriginalMessage(), -1), 0, true);
+                return;
+            }
+            lock.lock();
+            try {
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+            service.generateCompletionAsync(request).whenComplete((response, error) -> {
+                String record;
+                long tokens = 0;
+                boolean isError = error != null;
+                try {
+                    if (error == null) {
+                        ObjectNode node = objectMapper.createObjectNode().put("line", line);
+                        node.set("response", objectMapper.valueToTree(response));
+                        record = objectMapper.writeValueAsString(node);
+                        tokens = response.getUsage() == null ? 0 : response.getUsage().getTotalTokens();
+                    } else {
+                        Throwable cause = unwrap(error);
+                        int status = cause instanceof DeepSeekAPIException api ? api.getStatusCode() : -1;
+                        record = error(line, cause.getMessage(), status);
+                    }
+                } catch (IOException e) {
+                    record = error(line, "Unserializable response: " + e.getMessage(), -1);
+                    isError = true;
+                }
+                lock.lock();
+                try {
+                    inFlight--;
+                    finish(line, record, tokens, isError);
+                } finally {
+                    lock.unlock();
+                }
+            });
+        }
+
+        /**
+         * Records a finished line and writes whatever output is now in order.
+         */
+        private void finish(long line, String record, long tokens, boolean isError) {
+            lock.lock();
+            try {
+                if (stopped) {
+                    return;
+                }
+                if (record != null) {
+                    if (isError) {
+                        failed++;
+                    } else {
+                        succeeded++;
+                    }
+                }
+                totalTokens += tokens;
+                if (ordered) {
+                    done.put(line, record == null ? "" : record);
+                } else {
+                    write(record);
+                    done.put(line, "");
+                }
+                String next;
+                while ((next = done.remove(watermark)) != null) {
+                    write(next);
+                    watermark++;
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void write(String record) {
+            if (record == null || record.isEmpty() || writeFailure != null) {
+                return;
+            }
+            try {
+                out.write(record.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            } catch (IOException e) {
+                writeFailure = e;
+            }
+        }
+
+        /**
+         * Waits with {@code lock} held until {@code ready} holds, checkpointing and reporting
+         * progress when they fall due.
+         */
+        private void await(BooleanSupplier ready) throws IOException {
+            while (!ready.getAsBoolean()) {
+                if (writeFailure != null) {
+                    throw writeFailure;
+                }
+                long now = System.nanoTime();
+                if (now >= nextCheckpoint) {
+                    writeCheckpoint();
+                    nextCheckpoint = now + checkpointIntervalNanos;
+                }
+                if (now >= nextProgress) {
+                    onProgress.accept(progress());
+                    nextProgress = now + progressIntervalNanos;
+                }
+                try {
+                    changed.awaitNanos(Math.max(Math.min(nextCheckpoint, nextProgress) - now,
+                            TimeUnit.MILLISECONDS.toNanos(1)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopped = true;
+                    writeCheckpoint();
+                    throw new InterruptedIOException("Interrupted at line " + watermark + " of " + input
+                            + "; resume by running again");
+                }
+            }
+            if (writeFailure != null) {
+                throw writeFailure;
+            }
+        }
+
+        /**
+         * Makes the output durable and then records what it covers. Called with {@code lock} held.
+         */
+        private void writeCheckpoint() throws IOException {
+            out.flush();
+            channel.force(false);
+            List<Long> completed = new ArrayList<>();
+            if (!ordered) {
+                completed.addAll(done.keySet()); // written as they finished
+            }
+            ObjectNode node = objectMapper.createObjectNode()
+                    .put("watermark", watermark)
+                    .put("outputBytes", channel.position());
+            completed.forEach(node.putArray("completed")::add);
+            Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), node);
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private Checkpoint readCheckpoint() throws IOException {
+            JsonNode node = objectMapper.readTree(checkpoint.toFile());
+            List<Long> completed = new ArrayList<>();
+            node.path("completed").forEach(line -> completed.add(line.asLong()));
+            return new Checkpoint(node.path("watermark").asLong(), completed, node.path("outputBytes").asLong());
+        }
+
+        private Progress progress() {
+            return new Progress(succeeded, failed, resumed, inFlight, totalTokens,
+                    Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+
+        private String error(long line, String message, int status) {
+            ObjectNode node = objectMapper.createObjectNode().put("line", line).put("error", message);
+            if (status >= 0) {
+                node.put("status", status);
+            }
+            return node.toString();
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Builder for {@link JsonlPipeline}.
+     */
+    public static final class Builder {
+
+        private final DeepSeekService service;
+        private final Path input;
+        private final Path output;
+        private Path checkpoint;
+        private int maxConcurrency = 16;
+        private int maxBuffered;
+        private boolean ordered = true;
+        private boolean resume = true;
+        private Duration checkpointInterval = Duration.ofSeconds(30);
+        private Duration progressInterval = Duration.ofSeconds(10);
+        private Consumer<Progress> onProgress = progress -> logger.info(
+                "{} lines done ({} failed, {} resumed), {} in flight, {} lines/s, {} tokens/s",
+                progress.succeeded() + progress.failed(), progress.failed(), progress.resumed(),
+                progress.inFlight(), String.format("%.1f", progress.linesPerSecond()),
+                String.format("%.0f", progress.tokensPerSecond()));
+
+        private Builder(DeepSeekService service, Path input, Path output) {
+            this.service = service;
+            this.input = input;
+            this.output = output;
+        }
+
+        /**
+         * Sets the checkpoint file.
+         *
+         * @param checkpoint the file; defaults to the output path with {@code .checkpoint} appended
+         * @return this builder
+         */
+        public Builder checkpoint(Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests in flight.
+         *
+         * @param maxConcurrency the bound, positive
+         * @return this builder
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Sets how far the reader may get ahead of the oldest unfinished line. Defaults to four
+         * times {@code maxConcurrency}.
+         *
+         * @param maxBuffered the bound in lines, positive
+         * @return this builder
+         */
+        public Builder maxBuffered(int maxBuffered) {
+            if (maxBuffered <= 0) {
+                throw new IllegalArgumentException("maxBuffered must be positive: " + maxBuffered);
+            }
+            this.maxBuffered = maxBuffered;
+            return this;
+        }
+
+        /**
+         * Sets whether output lines follow the input order.
+         *
+         * @param ordered {@code false} to write each result as soon as it arrives
+         * @return this builder
+         */
+        public Builder ordered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * Sets whether an existing checkpoint is resumed.
+         *
+         * @param resume {@code false} to ignore the checkpoint and overwrite the output
+         * @return this builder
+         */
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Sets how often the output is synced and the checkpoint written.
+         *
+         * @param checkpointInterval the interval, positive
+         * @return this builder
+         */
+        public Builder checkpointInterval(Duration checkpointInterval) {
+            this.checkpointInterval = positive("checkpointInterval", checkpointInterval);
+            return this;
+        }
+
+        /**
+         * Sets how often progress is reported.
+         *
+         * @param progressInterval the interval, positive
+         * @return this builder
+         */
+        public Builder progressInterval(Duration progressInterval) {
+            this.progressInterval = positive("progressInterval", progressInterval);
+            return this;
+        }
+
+        /**
+         * Sets the receiver of progress reports, called periodically and once at the end of the
+         * run. Defaults to an INFO log line.
+         *
+         * @param onProgress the receiver
+         * @return this builder
+         */
+        public Builder onProgress(Consumer<Progress> onProgress) {
+            if (onProgress == null) {
+                throw new IllegalArgumentException("onProgress must not be null");
+            }
+            this.onProgress = onProgress;
+            return this;
+        }
+
+        /**
+         * Builds the job. Nothing is read until {@link JsonlPipeline#run()}.
+         *
+         * @return the job
+         */
+        public JsonlPipeline build() {
+            return new JsonlPipeline(this);
+        }
+
+        private static Duration positive(String name, Duration value) {
+            if (value == null || value.isNegative() || value.isZero()) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,937 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A persistent {@link ResponseCache} that keeps responses in memory-mapped files, so a restarted
+ * process starts with the answers it had before.
+ *
+ * <h3>Layout</h3>
+ * <p>Entries are appended to a log split into fixed-size segment files ({@code 00000001.seg},
+ * ...), each mapped into memory in full. A record holds the SHA-256 of its key, an expiry time,
+ * and the response's JSON compressed with Deflate, protected by a CRC32C. Removing an entry
+ * appends a tombstone. Lookups go through an open-addressing hash index held in a direct buffer
+ * outside the Java heap (16 bytes per slot, at most half full). The heap holds only a small
+ * object per segment, however many entries there are.
+ *
+ * <h3>Reads</h3>
+ * <p>A hit inflates the compressed bytes straight from the mapping, without copying them onto
+ * the heap first, and decodes the JSON into a new {@link DeepSeekModels.ChatResponse}. Readers
+ * run concurrently; writers and compaction take an exclusive lock.
+ *
+ * <h3>Recovery</h3>
+ * <p>On open, segments are scanned in order to rebuild the index. A record is written before its
+ * length field, which marks it as present, so a record torn by a crash has length 0 or fails
+ * its checksum. The scan stops there, and later appends overwrite it.
+ * {@link #close()} flushes the mappings to disk; between flushes (every compaction interval)
+ * an operating system crash can lose recent entries, which for a cache only means extra misses.
+ *
+ * <h3>Compaction and eviction</h3>
+ * <p>A background task rewrites sealed segments whose live data has dropped below half,
+ * copying their live, unexpired records to the end of the log and deleting the file. Tombstones
+ * are not live data; one is carried forward only while an older segment may still hold the put
+ * it shadows and no newer put has replaced it. When the log exceeds {@code maximumSize}, the
+ * oldest segment is dropped whole (FIFO eviction).
+ *
+ * <pre>{@code
+ * MappedResponseCache cache = MappedResponseCache.builder(Path.of("/var/cache/deepseek"))
+ *         .maximumSize(4L * 1024 * 1024 * 1024)
+ *         .expireAfterWrite(Duration.ofDays(7))
+ *         .build();
+ * DeepSeekAPIClient client = DeepSeekAPIClient.builder(apiKey, baseUrl)
+ *         .responseCache(cache)
+ *         .build();
+ * // ...
+ * cache.close();
+ * }</pre>
+ *
+ * <p>Only one cache may have a directory open at a time. {@link Builder#build()} takes an
+ * exclusive lock on a {@code lock} file in the directory and fails if another process, or
+ * another cache in this one, holds it; {@link #close()} releases it.
+ */
+public final class MappedResponseCache implements ResponseCache, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedResponseCache.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_FILE = "lock";
+    private static final byte PUT = 1;
+    private static final byte TOMBSTONE = 2;
+    private static final int KEY_BYTES = 32;
+
+    // record layout: length (of everything after it) | crc | expiresAt | key | type | rawLength | data
+    private static final int CRC_OFFSET = 4;
+    private static final int EXPIRES_OFFSET = 8;
+    private static final int KEY_OFFSET = 16;
+    private static final int TYPE_OFFSET = KEY_OFFSET + KEY_BYTES;
+    private static final int RAW_LENGTH_OFFSET = TYPE_OFFSET + 1;
+    private static final int HEADER_BYTES = RAW_LENGTH_OFFSET + 4;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maximumSize;
+    private final long defaultTtlMillis;
+    private final boolean deterministicOnly;
+    private final LongSupplier clock;
+    private final ObjectMapper objectMapper;
+    private final FileChannel lockChannel;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final OffHeapIndex index = new OffHeapIndex(1024);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ScheduledExecutorService compactor;
+    private Segment active;
+    private boolean closed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private MappedResponseCache(Builder builder, LongSupplier clock) throws IOException {
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.maximumSize = builder.maximumSize;
+        this.defaultTtlMillis = builder.expireAfterWrite == null ? 0 : builder.expireAfterWrite.toMillis();
+        this.deterministicOnly = builder.deterministicOnly;
+        this.clock = clock;
+        this.objectMapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+        Files.createDirectories(directory);
+        this.lockChannel = lockDirectory(directory);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (builder.compactionInterval == null) {
+            this.compactor = null;
+        } else {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "zhenghe-cache-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long millis = builder.compactionInterval.toMillis();
+            compactor.scheduleWithFixedDelay(this::compactQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns a builder for a cache stored in {@code directory}, preset to 64 MiB segments, a
+     * 1 GiB bound, no default expiry, compaction every minute, and caching of deterministic
+     * ({@code temperature} 0) requests only.
+     *
+     * @param directory the directory holding the segment files; created if missing
+     * @return a new builder
+     */
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    @Override
+    public boolean isCacheable(DeepSeekModels.ChatRequest request) {
+        return deterministicOnly ? ResponseCache.super.isCacheable(request) : !request.isCacheBypass();
+    }
+
+    @Override
+    public DeepSeekModels.ChatResponse get(String key) {
+        byte[] hash = hash(key);
+        lock.readLock().lock();
+        try {
+            long location = closed ? -1 : index.get(hash, this::hasKey);
+            if (location < 0) {
+                misses.increment();
+                return null;
+            }
+            ByteBuffer buffer = segments.get(segmentOf(location)).buffer;
+            int offset = offsetOf(location);
+            if (buffer.getLong(offset + EXPIRES_OFFSET) <= clock.getAsLong()) {
+                misses.increment();
+                return null;
+            }
+            DeepSeekModels.ChatResponse response = decode(buffer, offset);
+            hits.increment();
+            return response;
+        } catch (IOException | DataFormatException e) {
+            logger.warn("Discarding unreadable cache entry: {}", e.toString());
+            misses.increment();
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, DeepSeekModels.ChatResponse response, Duration ttl) {
+        long ttlMillis = ttl != null ? ttl.toMillis() : defaultTtlMillis;
+        if (ttl != null && ttlMillis <= 0) {
+            invalidate(key);
+            return;
+        }
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(response);
+        } catch (IOException e) {
+            logger.warn("Not caching a response that cannot be serialized: {}", e.toString());
+            return;
+        }
+        long expiresAt = ttlMillis > 0 ? clock.getAsLong() + ttlMillis : Long.MAX_VALUE;
+        byte[] hash = hash(key);
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            byte[] data = compress(json);
+            if (HEADER_BYTES + data.length > segmentSize) {
+                return;
+            }
+            long location = append(hash, expiresAt, PUT, json.length, data);
+            release(index.put(hash, segmentOf(location), offsetOf(location), this::hasKey));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        byte[] hash = hash(key);
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long previous = index.remove(hash, this::hasKey);
+            if (previous >= 0) {
+                release(previous);
+                append(hash, 0, TOMBSTONE, 0, new byte[0]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                deleteSegment(segment);
+            }
+            index.clear();
+            active = openSegment(1, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Stats stats() {
+        lock.readLock().lock();
+        try {
+            long weight = 0;
+            for (Segment segment : segments.values()) {
+                weight += segment.liveBytes;
+            }
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), index.size(), weight);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops background compaction, flushes every segment to disk and releases the files.
+     * Later lookups miss and later writes are ignored.
+     */
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            segments.clear();
+            index.release();
+            deflater.end();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close cache segments in {}: {}", directory, e.toString());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites every sealed segment whose live data has fallen below half of its used space,
+     * dropping dead and expired records, and flushes the active segment.
+     */
+    void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment != active && segment.liveBytes * 2 < segment.writePosition) {
+                    compact(segment);
+                }
+            }
+            active.buffer.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cache compaction in {} failed: {}", directory, e.toString());
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        long now = clock.getAsLong();
+        // older segments may still hold puts that a tombstone here shadows
+        boolean oldest = segment.id == segments.firstKey();
+        ByteBuffer buffer = segment.buffer;
+        int moved = 0;
+        for (int offset = 0; offset < segment.writePosition; offset += 4 + buffer.getInt(offset)) {
+            byte[] hash = keyAt(buffer, offset);
+            if (buffer.get(offset + TYPE_OFFSET) == TOMBSTONE) {
+                // a key in the index was put again after this tombstone
+                if (!oldest && index.get(hash, this::hasKey) < 0) {
+                    append(hash, 0, TOMBSTONE, 0, new byte[0]);
+                }
+                continue;
+            }
+            if (!isCurrent(segment, offset)) {
+                continue;
+            }
+            int recordOffset = offset;
+            if (buffer.getLong(offset + EXPIRES_OFFSET) <= now) {
+                index.remove(hash, (s, o) -> s == segment.id && o == recordOffset);
+                if (!oldest) {
+                    append(hash, 0, TOMBSTONE, 0, new byte[0]);
+                }
+                continue;
+            }
+            byte[] data = new byte[buffer.getInt(offset) - (HEADER_BYTES - 4)];
+            buffer.get(offset + HEADER_BYTES, data);
+            long location = append(hash, buffer.getLong(offset + EXPIRES_OFFSET), PUT,
+                    buffer.getInt(offset + RAW_LENGTH_OFFSET), data);
+            index.put(hash, segmentOf(location), offsetOf(location), this::hasKey);
+            moved++;
+        }
+        deleteSegment(segment);
+        logger.debug("Compacted cache segment {}: {} live entries moved", segment.id, moved);
+    }
+
+    private boolean isCurrent(Segment segment, int offset) {
+        byte[] hash = keyAt(segment.buffer, offset);
+        long location = index.get(hash, this::hasKey);
+        return location >= 0 && segmentOf(location) == segment.id && offsetOf(location) == offset;
+    }
+
+    /**
+     * Accounts for the record a new write superseded, if any.
+     */
+    private void release(long previous) {
+        if (previous >= 0) {
+            Segment segment = segments.get(segmentOf(previous));
+            if (segment != null) {
+                segment.liveBytes -= 4 + segment.buffer.getInt(offsetOf(previous));
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, rolling to a new segment (and evicting the oldest
+     * if the log is over its bound) when it does not fit. Returns the record's location.
+     */
+    private long append(byte[] hash, long expiresAt, byte type, int rawLength, byte[] data) throws IOException {
+        int recordBytes = HEADER_BYTES + data.length;
+        if (active.writePosition + recordBytes > segmentSize) {
+            roll();
+        }
+        ByteBuffer buffer = active.buffer;
+        int offset = active.writePosition;
+        buffer.putLong(offset + EXPIRES_OFFSET, expiresAt);
+        buffer.put(offset + KEY_OFFSET, hash);
+        buffer.put(offset + TYPE_OFFSET, type);
+        buffer.putInt(offset + RAW_LENGTH_OFFSET, rawLength);
+        buffer.put(offset + HEADER_BYTES, data);
+        int length = recordBytes - 4;
+        buffer.putInt(offset + CRC_OFFSET, crc(buffer, offset, length));
+        buffer.putInt(offset, length); // written last: marks the record as complete
+        active.writePosition += recordBytes;
+        if (type == PUT) {
+            active.liveBytes += recordBytes;
+        }
+        return location(active.id, offset);
+    }
+
+    private void roll() throws IOException {
+        active.buffer.force();
+        active = openSegment(active.id + 1, true);
+        while ((long) segments.size() * segmentSize > maximumSize && segments.size() > 1) {
+            evict(segments.firstEntry().getValue());
+        }
+    }
+
+    private void evict(Segment segment) throws IOException {
+        ByteBuffer buffer = segment.buffer;
+        int evicted = 0;
+        for (int offset = 0; offset < segment.writePosition; offset += 4 + buffer.getInt(offset)) {
+            int recordOffset = offset;
+            if (buffer.get(offset + TYPE_OFFSET) == PUT
+                    && index.remove(keyAt(buffer, offset), (s, o) -> s == segment.id && o == recordOffset) >= 0) {
+                evicted++;
+            }
+        }
+        evictions.add(evicted);
+        deleteSegment(segment);
+        logger.debug("Evicted cache segment {} with {} live entries", segment.id, evicted);
+    }
+
+    private void deleteSegment(Segment segment) throws IOException {
+        segments.remove(segment.id);
+        segment.channel.close();
+        Files.deleteIfExists(segment.path);
+    }
+
+    /**
+     * Opens the existing segments and rebuilds the index from them.
+     */
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            ids.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                        } catch (NumberFormatException e) {
+                            logger.warn("Ignoring unexpected file {} in cache directory {}", name, directory);
+                        }
+                    });
+        }
+        ids.sort(null);
+        long now = clock.getAsLong();
+        int entries = 0;
+        for (int id : ids) {
+            Segment segment = openSegment(id, false);
+            entries += scan(segment, now);
+        }
+        active = segments.isEmpty() ? openSegment(1, true) : segments.lastEntry().getValue();
+        if (!ids.isEmpty()) {
+            logger.info("Recovered {} cache entries from {} segments in {}", entries, ids.size(), directory);
+        }
+    }
+
+    /**
+     * Replays a segment's records into the index, stopping at the first incomplete or corrupt
+     * record and truncating the segment there.
+     */
+    private int scan(Segment segment, long now) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        int entries = 0;
+        while (offset + HEADER_BYTES <= segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length < HEADER_BYTES - 4 || offset + 4 + length > segmentSize
+                    || buffer.getInt(offset + CRC_OFFSET) != crc(buffer, offset, length)) {
+                if (length != 0) {
+                    logger.warn("Truncating cache segment {} at a torn record (offset {})", segment.id, offset);
+                    buffer.putInt(offset, 0);
+                }
+                break;
+            }
+            byte[] hash = keyAt(buffer, offset);
+            release(index.remove(hash, this::hasKey));
+            if (buffer.get(offset + TYPE_OFFSET) == PUT && buffer.getLong(offset + EXPIRES_OFFSET) > now) {
+                index.put(hash, segment.id, offset, this::hasKey);
+                segment.liveBytes += 4 + length;
+                entries++;
+            }
+            offset += 4 + length;
+        }
+        segment.writePosition = offset;
+        return entries;
+    }
+
+    /**
+     * Takes the exclusive lock on the directory's lock file, which is held until {@link #close()}.
+     */
+    private static FileChannel lockDirectory(Path directory) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() != null) {
+                return channel;
+            }
+        } catch (OverlappingFileLockException e) {
+            // held by another cache in this process
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        throw new IOException("Cache directory " + directory + " is already in use by another cache");
+    }
+
+    private Segment openSegment(int id, boolean create) throws IOException {
+        Path path = directory.resolve(String.format("%08d%s", id, SEGMENT_SUFFIX));
+        FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        Segment segment = new Segment(id, path, channel, buffer);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private DeepSeekModels.ChatResponse decode(ByteBuffer buffer, int offset) throws IOException, DataFormatException {
+        int length = buffer.getInt(offset);
+        byte[] json = new byte[buffer.getInt(offset + RAW_LENGTH_OFFSET)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.slice(offset + HEADER_BYTES, length - (HEADER_BYTES - 4)));
+            int read = 0;
+            while (read < json.length) {
+                int n = inflater.inflate(json, read, json.length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("Truncated cache entry");
+                }
+                read += n;
+            }
+        } finally {
+            inflater.end();
+        }
+        return objectMapper.readValue(json, DeepSeekModels.ChatResponse.class);
+    }
+
+    private byte[] compress(byte[] json) {
+        deflater.reset();
+        deflater.setInput(json);
+        deflater.finish();
+        byte[] out = new byte[Math.max(64, json.length / 2)];
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + EXPIRES_OFFSET, length - (EXPIRES_OFFSET - 4)));
+        return (int) crc.getValue();
+    }
+
+    private boolean hasKey(int segmentId, int offset, byte[] hash) {
+        ByteBuffer buffer = segments.get(segmentId).buffer;
+        return buffer.slice(offset + KEY_OFFSET, KEY_BYTES).equals(ByteBuffer.wrap(hash));
+    }
+
+    private static byte[] keyAt(ByteBuffer buffer, int offset) {
+        byte[] hash = new byte[KEY_BYTES];
+        buffer.get(offset + KEY_OFFSET, hash);
+        return hash;
+    }
+
+    private static byte[] hash(String key) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static long location(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private static final class Segment {
+
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        long liveBytes;
+
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Checks whether the record at a location has the given key hash.
+     */
+    @FunctionalInterface
+    interface KeyCheck {
+        boolean matches(int segmentId, int offset, byte[] hash);
+    }
+
+    /**
+     * Checks a location alone, for removing the entry that points at a specific record.
+     */
+    @FunctionalInterface
+    interface LocationCheck extends KeyCheck {
+        boolean matches(int segmentId, int offset);
+
+        @Override
+        default boolean matches(int segmentId, int offset, byte[] hash) {
+            return matches(segmentId, offset);
+        }
+    }
+
+    /**
+     * A linear-probing hash table in a direct buffer, mapping the first 8 bytes of a key hash to
+     * a record location. Tags can collide, so every match is confirmed against the full hash
+     * stored in the record. Deletion shifts later entries back instead of leaving tombstones.
+     */
+    static final class OffHeapIndex {
+
+        private static final int SLOT_BYTES = 16;
+
+        private ByteBuffer table;
+        private int capacity;
+        private int size;
+
+        OffHeapIndex(int initialCapacity) {
+            allocate(Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1));
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(byte[] hash, KeyCheck check) {
+            long tag = tag(hash);
+            for (int slot = home(tag); ; slot = next(slot)) {
+                long stored = table.getLong(slot * SLOT_BYTES);
+                if (stored == 0) {
+                    return -1;
+                }
+                if (stored == tag && check.matches(segmentAt(slot), offsetAt(slot), hash)) {
+                    return location(segmentAt(slot), offsetAt(slot));
+                }
+            }
+        }
+
+        /**
+         * Points {@code hash} at a new location, returning the previous location or -1.
+         */
+        long put(byte[] hash, int segmentId, int offset, KeyCheck check) {
+            long tag = tag(hash);
+            int slot = home(tag);
+            while (true) {
+                long stored = table.getLong(slot * SLOT_BYTES);
+                if (stored == 0) {
+                    break;
+                }
+                if (stored == tag && check.matches(segmentAt(slot), offsetAt(slot), hash)) {
+                    long previous = location(segmentAt(slot), offsetAt(slot));
+                    write(slot, tag, segmentId, offset);
+                    return previous;
+                }
+                slot = next(slot);
+            }
+            write(slot, tag, segmentId, offset);
+            if (++size * 2 > capacity) {
+                resize();
+            }
+            return -1;
+        }
+
+        /**
+         * Removes {@code hash} if the check accepts its location, returning that location or -1.
+         */
+        long remove(byte[] hash, KeyCheck check) {
+            long tag = tag(hash);
+            for (int slot = home(tag); ; slot = next(slot)) {
+                long stored = table.getLong(slot * SLOT_BYTES);
+                if (stored == 0) {
+                    return -1;
+                }
+                if (stored == tag && check.matches(segmentAt(slot), offsetAt(slot), hash)) {
+                    long previous = location(segmentAt(slot), offsetAt(slot));
+                    shiftBack(slot);
+                    size--;
+                    return previous;
+                }
+            }
+        }
+
+        long remove(byte[] hash, LocationCheck check) {
+            return remove(hash, (KeyCheck) check);
+        }
+
+        void clear() {
+            allocate(capacity);
+            size = 0;
+        }
+
+        void release() {
+            table = ByteBuffer.allocateDirect(0);
+            capacity = 0;
+            size = 0;
+        }
+
+        private void shiftBack(int hole) {
+            int slot = hole;
+            while (true) {
+                slot = next(slot);
+                long stored = table.getLong(slot * SLOT_BYTES);
+                if (stored == 0) {
+                    break;
+                }
+                int home = home(stored);
+                // move the entry into the hole unless its home lies cyclically in (hole, slot]
+                boolean stays = hole <= slot ? home > hole && home <= slot : home > hole || home <= slot;
+                if (!stays) {
+                    write(hole, stored, segmentAt(slot), offsetAt(slot));
+                    hole = slot;
+                }
+            }
+            table.putLong(hole * SLOT_BYTES, 0);
+        }
+
+        private void resize() {
+            ByteBuffer old = table;
+            int oldCapacity = capacity;
+            allocate(capacity * 2);
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                long tag = old.getLong(slot * SLOT_BYTES);
+                if (tag != 0) {
+                    int target = home(tag);
+                    while (table.getLong(target * SLOT_BYTES) != 0) {
+                        target = next(target);
+                    }
+                    write(target, tag, old.getInt(slot * SLOT_BYTES + 8), old.getInt(slot * SLOT_BYTES + 12));
+                }
+            }
+        }
+
+        private void allocate(int slots) {
+            table = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+            capacity = slots;
+        }
+
+        private void write(int slot, long tag, int segmentId, int offset) {
+            table.putLong(slot * SLOT_BYTES, tag);
+            table.putInt(slot * SLOT_BYTES + 8, segmentId);
+            table.putInt(slot * SLOT_BYTES + 12, offset);
+        }
+
+        private int segmentAt(int slot) {
+            return table.getInt(slot * SLOT_BYTES + 8);
+        }
+
+        private int offsetAt(int slot) {
+            return table.getInt(slot * SLOT_BYTES + 12);
+        }
+
+        private int home(long tag) {
+            return (int) (tag ^ (tag >>> 32)) & (capacity - 1);
+        }
+
+        private int next(int slot) {
+            return (slot + 1) & (capacity - 1);
+        }
+
+        private static long tag(byte[] hash) {
+            long tag = ByteBuffer.wrap(hash).getLong();
+            return tag == 0 ? 1 : tag;
+        }
+    }
+
+    /**
+     * Builder for {@link MappedResponseCache}.
+     */
+    public static final class Builder {
+
+        private final Path directory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private long maximumSize = 1024L * 1024 * 1024;
+        private Duration expireAfterWrite;
+        private Duration compactionInterval = Duration.ofMinutes(1);
+        private boolean deterministicOnly = true;
+
+        private Builder(Path directory) {
+            if (directory == null) {
+                throw new IllegalArgumentException("directory must not be null");
+            }
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the size of each segment file. Responses that do not fit in one segment after
+         * compression are not cached.
+         *
+         * @param segmentSize the size in bytes, at least 4096
+         * @return this builder
+         */
+        public Builder segmentSize(int segmentSize) {
+            if (segmentSize < 4096) {
+                throw new IllegalArgumentException("segmentSize must be at least 4096: " + segmentSize);
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Sets the bound on the total size of the segment files. The oldest segment is dropped
+         * when a new one would exceed it.
+         *
+         * @param maximumSize the bound in bytes, positive
+         * @return this builder
+         */
+        public Builder maximumSize(long maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets the default time-to-live of entries whose request sets none. Expiry uses the
+         * wall clock, so it carries across restarts.
+         *
+         * @param expireAfterWrite the time-to-live, positive, or {@code null} for no expiry
+         * @return this builder
+         */
+        public Builder expireAfterWrite(Duration expireAfterWrite) {
+            if (expireAfterWrite != null && (expireAfterWrite.isNegative() || expireAfterWrite.isZero())) {
+                throw new IllegalArgumentException("expireAfterWrite must be positive: " + expireAfterWrite);
+            }
+            this.expireAfterWrite = expireAfterWrite;
+            return this;
+        }
+
+        /**
+         * Sets how often the background task compacts segments and flushes the active one.
+         *
+         * @param compactionInterval the interval, positive, or {@code null} to disable background compaction
+         * @return this builder
+         */
+        public Builder compactionInterval(Duration compactionInterval) {
+            if (compactionInterval != null && (compactionInterval.isNegative() || compactionInterval.isZero())) {
+                throw new IllegalArgumentException("compactionInterval must be positive: " + compactionInterval);
+            }
+            this.compactionInterval = compactionInterval;
+            return this;
+        }
+
+        /**
+         * Sets whether only {@code temperature} 0 requests are cached.
+         *
+         * @param deterministicOnly {@code false} to cache every request that is not bypassed
+         * @return this builder
+         */
+        public Builder deterministicOnly(boolean deterministicOnly) {
+            this.deterministicOnly = deterministicOnly;
+            return this;
+        }
+
+        /**
+         * Opens the cache, recovering any entries already in the directory.
+         *
+         * @return the opened cache
+         * @throws IOException if the directory or its segment files cannot be opened, or another
+         *                     cache has the directory open
+         */
+        public MappedResponseCache build() throws IOException {
+            return build(System::currentTimeMillis);
+        }
+
+        MappedResponseCache build(LongSupplier millisClock) throws IOException {
+            if (maximumSize < segmentSize) {
+                throw new IllegalArgumentException("maximumSize " + maximumSize + " is smaller than segmentSize " + segmentSize);
+            }
+            return new MappedResponseCache(this, millisClock);
+        }
+    }
+}
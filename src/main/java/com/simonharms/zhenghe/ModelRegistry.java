@@ -0,0 +1,281 @@
+package com.simonharms.zhenghe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A cached copy of the {@code GET /models} catalogue, refreshed in the background.
+ *
+ * <p>The first lookup fetches the catalogue. Every later lookup reads an immutable snapshot
+ * from a volatile field without locking or I/O, while a background thread fetches a fresh
+ * copy every {@code refreshInterval} (stale-while-revalidate). If a refresh fails, the last
+ * good catalogue keeps being served, and the refresh is retried with exponential backoff from
+ * one second up to the refresh interval.
+ *
+ * <p>{@link DeepSeekService#getModels()} reads through a registry; use
+ * {@link DeepSeekService#getModelRegistry()} for lookups by id.
+ *
+ * <pre>{@code
+ * ModelRegistry models = service.getModelRegistry();
+ * if (!models.hasModel(requestedModel)) {
+ *     throw new IllegalArgumentException("Unknown model: " + requestedModel);
+ * }
+ * }</pre>
+ */
+public final class ModelRegistry implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelRegistry.class);
+    private static final long INITIAL_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RequestCoalescer.IOSupplier<DeepSeekModels.ModelResponse> fetcher;
+    private final long refreshIntervalNanos;
+    private final LongSupplier nanoClock;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private final LongAdder refreshFailures = new LongAdder();
+    private volatile Snapshot snapshot;
+    private long retryNanos = INITIAL_RETRY_NANOS;
+
+    private record Snapshot(List<DeepSeekModels.ModelData> models,
+                            Map<String, DeepSeekModels.ModelData> byId,
+                            long fetchedAt) {
+    }
+
+    private ModelRegistry(RequestCoalescer.IOSupplier<DeepSeekModels.ModelResponse> fetcher,
+                          long refreshIntervalNanos, LongSupplier nanoClock) {
+        this.fetcher = fetcher;
+        this.refreshIntervalNanos = refreshIntervalNanos;
+        this.nanoClock = nanoClock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "zhenghe-model-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a builder for a registry that fetches from {@code client}, preset to refresh every
+     * 10 minutes.
+     *
+     * @param client the client used for {@code GET /models}
+     * @return a new builder
+     */
+    public static Builder builder(DeepSeekAPIClient client) {
+        if (client == null) {
+            throw new IllegalArgumentException("client must not be null");
+        }
+        return new Builder(client);
+    }
+
+    /**
+     * Returns the models in the catalogue, fetching it on first use.
+     *
+     * @return an unmodifiable list of models
+     * @throws DeepSeekAPIException if no catalogue has been fetched yet and fetching it fails
+     */
+    public List<DeepSeekModels.ModelData> getModels() throws DeepSeekAPIException {
+        return current().models();
+    }
+
+    /**
+     * Returns the model with the given id, or {@code null} if the catalogue does not list it.
+     *
+     * @param id the model id, e.g. {@code "deepseek-chat"}
+     * @return the model metadata, or {@code null}
+     * @throws DeepSeekAPIException if no catalogue has been fetched yet and fetching it fails
+     */
+    public DeepSeekModels.ModelData getModel(String id) throws DeepSeekAPIException {
+        return current().byId().get(id);
+    }
+
+    /**
+     * Returns whether the catalogue lists a model with the given id.
+     *
+     * @param id the model id, e.g. {@code "deepseek-chat"}
+     * @return {@code true} if the model is available
+     * @throws DeepSeekAPIException if no catalogue has been fetched yet and fetching it fails
+     */
+    public boolean hasModel(String id) throws DeepSeekAPIException {
+        return current().byId().containsKey(id);
+    }
+
+    /**
+     * Fetches the catalogue now, replacing the cached copy. If the fetch fails, the cached copy
+     * is kept.
+     *
+     * @return the fresh list of models
+     * @throws DeepSeekAPIException if the fetch fails
+     */
+    public List<DeepSeekModels.ModelData> refresh() throws DeepSeekAPIException {
+        loadLock.lock();
+        try {
+            return load().models();
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Returns how long ago the cached catalogue was fetched, or {@code null} if it never was.
+     *
+     * @return the age of the catalogue, or {@code null}
+     */
+    public Duration getAge() {
+        Snapshot current = snapshot;
+        return current == null ? null : Duration.ofNanos(nanoClock.getAsLong() - current.fetchedAt());
+    }
+
+    /**
+     * Returns whether the cached catalogue is older than the refresh interval, which means the
+     * last background refreshes failed.
+     *
+     * @return {@code true} if the catalogue is stale
+     */
+    public boolean isStale() {
+        Snapshot current = snapshot;
+        return current != null && nanoClock.getAsLong() - current.fetchedAt() > refreshIntervalNanos;
+    }
+
+    /**
+     * Returns the number of failed fetches, including background refreshes.
+     *
+     * @return the failure count
+     */
+    public long getRefreshFailureCount() {
+        return refreshFailures.sum();
+    }
+
+    /**
+     * Stops background refreshes. Lookups keep serving the last fetched catalogue.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private Snapshot current() throws DeepSeekAPIException {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        loadLock.lock();
+        try {
+            current = snapshot;
+            return current != null ? current : load();
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Fetches and publishes a new snapshot; the first success starts background refreshes.
+     * Must be called with {@code loadLock} held.
+     */
+    private Snapshot load() throws DeepSeekAPIException {
+        boolean first = snapshot == null;
+        try {
+            DeepSeekModels.ModelResponse response = fetcher.get();
+            List<DeepSeekModels.ModelData> models =
+                    response.getData() == null ? List.of() : List.copyOf(response.getData());
+            Map<String, DeepSeekModels.ModelData> byId = new HashMap<>();
+            for (DeepSeekModels.ModelData model : models) {
+                if (model.getId() != null) {
+                    byId.put(model.getId(), model);
+                }
+            }
+            Snapshot fresh = new Snapshot(models, Map.copyOf(byId), nanoClock.getAsLong());
+            snapshot = fresh;
+            retryNanos = INITIAL_RETRY_NANOS;
+            if (first) {
+                scheduleRefresh(refreshIntervalNanos);
+            }
+            return fresh;
+        } catch (IOException | RuntimeException e) {
+            refreshFailures.increment();
+            if (!first) {
+                logger.warn("Failed to refresh the model catalogue; serving the cached copy: {}", e.toString());
+            }
+            if (e instanceof DeepSeekHttpException http) {
+                throw new DeepSeekAPIException("Failed to fetch models", http.getStatusCode(), e);
+            }
+            throw new DeepSeekAPIException("Failed to fetch models", e);
+        }
+    }
+
+    private void refreshInBackground() {
+        loadLock.lock();
+        try {
+            load();
+            scheduleRefresh(refreshIntervalNanos);
+        } catch (DeepSeekAPIException e) {
+            scheduleRefresh(retryNanos);
+            retryNanos = Math.min(retryNanos * 2, refreshIntervalNanos);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    private void scheduleRefresh(long delayNanos) {
+        try {
+            scheduler.schedule(this::refreshInBackground, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Builder for {@link ModelRegistry}.
+     */
+    public static final class Builder {
+
+        private final DeepSeekAPIClient client;
+        private Duration refreshInterval = Duration.ofMinutes(10);
+
+        private Builder(DeepSeekAPIClient client) {
+            this.client = client;
+        }
+
+        /**
+         * Sets how often the catalogue is fetched in the background.
+         *
+         * @param refreshInterval the interval, positive
+         * @return this builder
+         */
+        public Builder refreshInterval(Duration refreshInterval) {
+            if (refreshInterval == null || refreshInterval.isNegative() || refreshInterval.isZero()) {
+                throw new IllegalArgumentException("refreshInterval must be positive: " + refreshInterval);
+            }
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        /**
+         * Builds the registry. Nothing is fetched until the first lookup.
+         *
+         * @return a new registry
+         */
+        public ModelRegistry build() {
+            return build(() -> client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class),
+                    System::nanoTime);
+        }
+
+        ModelRegistry build(RequestCoalescer.IOSupplier<DeepSeekModels.ModelResponse> fetcher,
+                            LongSupplier nanoClock) {
+            return new ModelRegistry(fetcher, refreshInterval.toNanos(), nanoClock);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-phase network timings of every HTTP call, collected with an OkHttp {@link EventListener}.
+ *
+ * <p>Install with {@link DeepSeekAPIClient.Builder#networkMetrics(NetworkMetrics)}. Each call is
+ * attributed to its endpoint and (for chat requests) model, and split into the {@link Phase}s
+ * below, so a slow {@code generateCompletion} shows whether the time went to DNS, connecting,
+ * TLS, uploading the request, waiting for the server or downloading the response. Connection
+ * reuse and request and response body sizes are counted too.
+ *
+ * <p>Values are recorded into lock-free {@link Histogram}s (nanoseconds for phases, bytes for
+ * sizes) and read with {@link #snapshot()}, which returns plain immutable values that can be
+ * exported to any metrics library. When no {@code NetworkMetrics} is installed the client uses
+ * OkHttp's no-op listener, so there is no overhead.
+ */
+public final class NetworkMetrics {
+
+    /**
+     * A phase of an HTTP call. A call that is retried, redirected or fails over to another
+     * address records its connection and exchange phases once per attempt.
+     */
+    public enum Phase {
+        /** Resolving the host name; absent when the address is cached or the connection reused. */
+        DNS,
+        /** Opening the connection, including the TLS handshake; absent when a connection is reused. */
+        CONNECT,
+        /** The TLS handshake alone. */
+        TLS,
+        /** Sending the request headers and body. */
+        REQUEST_UPLOAD,
+        /** From the end of the request to the first byte of the response headers: server think time. */
+        SERVER_WAIT,
+        /** Reading the response body, which for a stream is the whole stream. */
+        RESPONSE_DOWNLOAD,
+        /** The whole call, from start to end or failure. */
+        TOTAL
+    }
+
+    /**
+     * The statistics of one endpoint and model at the time of {@link #snapshot()}.
+     *
+     * @param endpoint           the API path, e.g. {@code "/chat/completions"}
+     * @param model              the model requested, or {@code null} for requests without one
+     * @param calls              the calls that ended, successfully or not
+     * @param failures           the calls that failed with an I/O error (HTTP error statuses are not failures)
+     * @param newConnections     connections opened for these calls
+     * @param reusedConnections  connections taken from the pool
+     * @param phases             nanoseconds spent in each phase
+     * @param requestBytes       request body sizes
+     * @param responseBytes      response body sizes
+     */
+    public record EndpointStats(String endpoint, String model, long calls, long failures,
+                                long newConnections, long reusedConnections,
+                                Map<Phase, Histogram.Snapshot> phases,
+                                Histogram.Snapshot requestBytes, Histogram.Snapshot responseBytes) {
+
+        /**
+         * Returns the nanoseconds spent in {@code phase}.
+         *
+         * @param phase the phase
+         * @return the phase's histogram snapshot
+         */
+        public Histogram.Snapshot phase(Phase phase) {
+            return phases.get(phase);
+        }
+    }
+
+    /**
+     * Tags a request with the endpoint and model it is counted under.
+     */
+    record Target(String endpoint, String model) {
+    }
+
+    private static final class Stats {
+        final EnumMap<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+        final Histogram requestBytes = new Histogram();
+        final Histogram responseBytes = new Histogram();
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder newConnections = new LongAdder();
+        final LongAdder reusedConnections = new LongAdder();
+
+        Stats() {
+            for (Phase phase : Phase.values()) {
+                phases.put(phase, new Histogram());
+            }
+        }
+
+        void record(Phase phase, long nanos) {
+            phases.get(phase).record(nanos);
+        }
+    }
+
+    private final ConcurrentHashMap<Target, Stats> stats = new ConcurrentHashMap<>();
+    private final LongSupplier nanoClock;
+
+    private NetworkMetrics(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Creates empty metrics.
+     *
+     * @return a new {@link NetworkMetrics}
+     */
+    public static NetworkMetrics create() {
+        return new NetworkMetrics(System::nanoTime);
+    }
+
+    static NetworkMetrics create(LongSupplier nanoClock) {
+        return new NetworkMetrics(nanoClock);
+    }
+
+    /**
+     * Returns the statistics of every endpoint and model seen so far, sorted by endpoint and model.
+     *
+     * @return an immutable list of snapshots
+     */
+    public List<EndpointStats> snapshot() {
+        List<EndpointStats> result = new ArrayList<>();
+        stats.forEach((target, s) -> result.add(snapshot(target, s)));
+        result.sort(Comparator.comparing(EndpointStats::endpoint)
+                .thenComparing(EndpointStats::model, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return List.copyOf(result);
+    }
+
+    /**
+     * Returns the statistics of one endpoint and model, or {@code null} if none were recorded.
+     *
+     * @param endpoint the API path, e.g. {@code "/chat/completions"}
+     * @param model    the model, or {@code null} for requests without one
+     * @return the snapshot
+     */
+    public EndpointStats snapshot(String endpoint, String model) {
+        Target target = new Target(endpoint, model);
+        Stats s = stats.get(target);
+        return s == null ? null : snapshot(target, s);
+    }
+
+    private static EndpointStats snapshot(Target target, Stats s) {
+        EnumMap<Phase, Histogram.Snapshot> phases = new EnumMap<>(Phase.class);
+        s.phases.forEach((phase, histogram) -> phases.put(phase, histogram.snapshot()));
+        return new EndpointStats(target.endpoint(), target.model(), s.calls.sum(), s.failures.sum(),
+                s.newConnections.sum(), s.reusedConnections.sum(), Collections.unmodifiableMap(phases),
+                s.requestBytes.snapshot(), s.responseBytes.snapshot());
+    }
+
+    /**
+     * Returns the listener for a new call; used as the client's {@link EventListener.Factory}.
+     */
+    EventListener listenerFor(Call call) {
+        Request request = call.request();
+        Target target = request.tag(Target.class);
+        if (target == null) {
+            target = new Target(request.url().encodedPath(), null);
+        }
+        return new CallListener(stats.computeIfAbsent(target, t -> new Stats()));
+    }
+
+    /**
+     * Times the phases of one call. OkHttp delivers a call's events one at a time.
+     */
+    private final class CallListener extends EventListener {
+
+        private final Stats stats;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+        private long requestEnd;
+        private long responseBodyStart;
+        private boolean connecting;
+        private boolean requestSent;
+
+        CallListener(Stats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            stats.record(Phase.DNS, nanoClock.getAsLong() - dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = nanoClock.getAsLong();
+            connecting = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            stats.record(Phase.TLS, nanoClock.getAsLong() - secureConnectStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            stats.record(Phase.CONNECT, nanoClock.getAsLong() - connectStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            (connecting ? stats.newConnections : stats.reusedConnections).increment();
+            connecting = false;
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = nanoClock.getAsLong();
+            requestSent = false;
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestEnd = nanoClock.getAsLong();
+            requestSent = true;
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestEnd = nanoClock.getAsLong();
+            stats.requestBytes.record(byteCount);
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            long now = nanoClock.getAsLong();
+            if (requestSent) {
+                stats.record(Phase.REQUEST_UPLOAD, requestEnd - requestStart);
+                stats.record(Phase.SERVER_WAIT, now - requestEnd);
+                requestSent = false;
+            }
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            responseBodyStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            stats.record(Phase.RESPONSE_DOWNLOAD, nanoClock.getAsLong() - responseBodyStart);
+            stats.responseBytes.record(byteCount);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            stats.record(Phase.TOTAL, nanoClock.getAsLong() - callStart);
+            stats.calls.increment();
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            stats.record(Phase.TOTAL, nanoClock.getAsLong() - callStart);
+            stats.calls.increment();
+            stats.failures.increment();
+        }
+    }
+}
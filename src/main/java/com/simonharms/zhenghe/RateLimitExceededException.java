@@ -0,0 +1,35 @@
+package com.simonharms.zhenghe;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown by {@link DeepSeekAPIClient} when a client-side limit has no capacity for a request:
+ * a {@link RateLimiter} configured with {@link RateLimiter.OnLimit#FAIL_FAST}, or a
+ * {@link ConcurrencyLimiter} whose queue is full or whose maximum wait expired. The request
+ * was not sent.
+ */
+public class RateLimitExceededException extends IOException {
+
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a new exception.
+     *
+     * @param message    the detail message
+     * @param retryAfter how long until the request would have fit, or {@code null} if unknown
+     */
+    public RateLimitExceededException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns how long until the request would have fit within the limits.
+     *
+     * @return the estimated wait, or {@code null} if unknown
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,392 @@
+package com.simonharms.zhenghe;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side requests-per-minute and tokens-per-minute limiter.
+ *
+ * <p>Each limit is a bucket that refills continuously and holds at most one minute's worth of
+ * capacity. A chat request is charged one request plus an estimate of its tokens — the prompt
+ * size (using DeepSeek's published ratios of about 0.3 tokens per ASCII character and 0.6 per
+ * other character) plus {@code max_tokens} — before it is sent. Once the response arrives the
+ * charge is corrected to the {@code usage.total_tokens} the API reports, so capacity reserved
+ * for unused completion tokens is handed back. Failed requests keep their request charge but
+ * return their tokens. Each retry made by a {@link RetryPolicy} and each hedged duplicate is
+ * charged as a request of its own.
+ *
+ * <p>When a limit is reached, {@link #acquire} blocks, {@link #tryAcquire} returns
+ * {@code null}, and {@link #acquireAsync} returns a future that completes once capacity is
+ * available. {@link DeepSeekAPIClient} uses the behaviour chosen with
+ * {@link Builder#onLimit(OnLimit)}; async requests never block a thread.
+ *
+ * <p>Each bucket is a single {@link AtomicLong} updated by compare-and-set (the generic cell
+ * rate algorithm), so the limiter takes no locks and an acquisition costs two CAS operations.
+ *
+ * <pre>{@code
+ * RateLimiter limiter = RateLimiter.builder()
+ *         .requestsPerMinute(500)
+ *         .tokensPerMinute(1_000_000)
+ *         .build();
+ * DeepSeekAPIClient client = DeepSeekAPIClient.builder(apiKey, baseUrl)
+ *         .rateLimiter(limiter)
+ *         .build();
+ * }</pre>
+ */
+public final class RateLimiter {
+
+    /**
+     * What {@link DeepSeekAPIClient} does with a request that would exceed a limit.
+     */
+    public enum OnLimit {
+        /** Wait until capacity is available; async requests wait without blocking a thread. */
+        BLOCK,
+        /** Fail the request immediately with a {@link RateLimitExceededException}. */
+        FAIL_FAST
+    }
+
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Bucket requests;
+    private final Bucket tokens;
+    private final OnLimit onLimit;
+    private final LongSupplier nanoClock;
+
+    private final LongAdder throttled = new LongAdder();
+
+    private RateLimiter(Builder builder, LongSupplier nanoClock) {
+        this.requests = builder.requestsPerMinute > 0 ? new Bucket(builder.requestsPerMinute, nanoClock) : null;
+        this.tokens = builder.tokensPerMinute > 0 ? new Bucket(builder.tokensPerMinute, nanoClock) : null;
+        this.onLimit = builder.onLimit;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns a builder with no limits and {@link OnLimit#BLOCK}.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the behaviour used by {@link DeepSeekAPIClient} when a limit is reached.
+     *
+     * @return the configured behaviour
+     */
+    public OnLimit getOnLimit() {
+        return onLimit;
+    }
+
+    /**
+     * Returns how many acquisitions had to wait or were rejected.
+     *
+     * @return the throttled acquisition count
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * Reserves one request and {@code estimatedTokens} tokens, waiting as long as needed.
+     *
+     * @param estimatedTokens tokens to charge up front
+     * @return the permit, used to correct the token charge later
+     * @throws InterruptedException if interrupted while waiting; the reservation is returned
+     */
+    public Permit acquire(long estimatedTokens) throws InterruptedException {
+        Permit permit = new Permit(estimatedTokens);
+        long waitNanos = reserve(estimatedTokens);
+        if (waitNanos > 0) {
+            throttled.increment();
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                permit.cancel();
+                throw e;
+            }
+        }
+        return permit;
+    }
+
+    /**
+     * Reserves one request and {@code estimatedTokens} tokens only if both are available now.
+     *
+     * @param estimatedTokens tokens to charge up front
+     * @return the permit, or {@code null} if a limit would be exceeded
+     */
+    public Permit tryAcquire(long estimatedTokens) {
+        return tryReserve(estimatedTokens) == 0 ? new Permit(estimatedTokens) : null;
+    }
+
+    /**
+     * Reserves one request and {@code estimatedTokens} tokens and returns a future that
+     * completes when the reservation becomes usable. No thread waits in the meantime.
+     * Cancelling the future returns the reservation.
+     *
+     * @param estimatedTokens tokens to charge up front
+     * @return a future completed with the permit
+     */
+    public CompletableFuture<Permit> acquireAsync(long estimatedTokens) {
+        Permit permit = new Permit(estimatedTokens);
+        long waitNanos = reserve(estimatedTokens);
+        if (waitNanos <= 0) {
+            return CompletableFuture.completedFuture(permit);
+        }
+        throttled.increment();
+        CompletableFuture<Permit> future = new CompletableFuture<>();
+        future.completeAsync(() -> permit, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                permit.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the time until {@code estimatedTokens} could be acquired without waiting.
+     */
+    Duration timeUntilAvailable(long estimatedTokens) {
+        long now = nanoClock.getAsLong();
+        long wait = 0;
+        if (requests != null) wait = Math.max(wait, requests.waitNanos(1, now));
+        if (tokens != null) wait = Math.max(wait, tokens.waitNanos(estimatedTokens, now));
+        return Duration.ofNanos(wait);
+    }
+
+    /**
+     * Estimates the tokens a request body will consume: the prompt size plus {@code max_tokens}
+     * for chat requests, zero for anything else.
+     */
+    static long estimateTokens(Object requestBody) {
+        if (!(requestBody instanceof DeepSeekModels.ChatRequest request)) {
+            return 0;
+        }
+        long tenths = 0;
+        List<DeepSeekModels.ChatMessage> messages = request.getMessages();
+        if (messages != null) {
+            for (DeepSeekModels.ChatMessage message : messages) {
+                tenths += 40; // per-message framing
+                String content = message == null ? null : message.getContent();
+                if (content == null) continue;
+                for (int i = 0; i < content.length(); i++) {
+                    tenths += content.charAt(i) < 0x80 ? 3 : 6;
+                }
+            }
+        }
+        return (tenths + 9) / 10 + Math.max(0, request.getMaxTokens());
+    }
+
+    private long reserve(long tokenCount) {
+        long now = nanoClock.getAsLong();
+        long wait = 0;
+        if (requests != null) wait = Math.max(wait, requests.reserve(1, now));
+        if (tokens != null) wait = Math.max(wait, tokens.reserve(tokenCount, now));
+        return wait;
+    }
+
+    /**
+     * Reserves capacity in both buckets or neither. Returns 0 on success, otherwise the wait
+     * that would have been needed.
+     */
+    private long tryReserve(long tokenCount) {
+        long now = nanoClock.getAsLong();
+        if (requests != null) {
+            long wait = requests.tryReserve(1, now);
+            if (wait > 0) {
+                throttled.increment();
+                return wait;
+            }
+        }
+        if (tokens != null) {
+            long wait = tokens.tryReserve(tokenCount, now);
+            if (wait > 0) {
+                if (requests != null) requests.adjust(-1);
+                throttled.increment();
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A reservation of one request and an estimated number of tokens.
+     */
+    public final class Permit {
+
+        private final long estimatedTokens;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Permit(long estimatedTokens) {
+            this.estimatedTokens = estimatedTokens;
+        }
+
+        /**
+         * Returns the tokens charged when the permit was acquired.
+         *
+         * @return the estimated token count
+         */
+        public long getEstimatedTokens() {
+            return estimatedTokens;
+        }
+
+        /**
+         * Replaces the estimated token charge with the actual count. Only the first call has
+         * an effect.
+         *
+         * @param actualTokens tokens actually consumed, e.g. {@code usage.total_tokens};
+         *                     {@code 0} for a request that failed
+         */
+        public void settle(long actualTokens) {
+            if (settled.compareAndSet(false, true) && tokens != null && actualTokens != estimatedTokens) {
+                tokens.adjust(actualTokens - estimatedTokens);
+            }
+        }
+
+        private void cancel() {
+            if (settled.compareAndSet(false, true)) {
+                if (requests != null) requests.adjust(-1);
+                if (tokens != null) tokens.adjust(-estimatedTokens);
+            }
+        }
+    }
+
+    /**
+     * A one-minute bucket tracked as a theoretical arrival time ({@code tat}): the instant at
+     * which the bucket would be completely refilled. Charging {@code n} units moves it forward
+     * by {@code n} emission intervals; a charge fits without waiting while the result is at
+     * most one window ahead of now.
+     */
+    private static final class Bucket {
+
+        private final long capacity;
+        private final AtomicLong tat;
+
+        Bucket(long capacity, LongSupplier nanoClock) {
+            this.capacity = capacity;
+            this.tat = new AtomicLong(nanoClock.getAsLong());
+        }
+
+        private long cost(long units) {
+            return units <= Long.MAX_VALUE / WINDOW_NANOS
+                    ? units * WINDOW_NANOS / capacity
+                    : (long) ((double) units * WINDOW_NANOS / capacity);
+        }
+
+        long waitNanos(long units, long now) {
+            long next = Math.max(tat.get(), now) + cost(units);
+            return Math.max(0, next - WINDOW_NANOS - now);
+        }
+
+        long reserve(long units, long now) {
+            long cost = cost(units);
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + cost;
+                if (tat.compareAndSet(current, next)) {
+                    return Math.max(0, next - WINDOW_NANOS - now);
+                }
+            }
+        }
+
+        long tryReserve(long units, long now) {
+            long cost = cost(units);
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + cost;
+                long wait = next - WINDOW_NANOS - now;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        void adjust(long units) {
+            long delta = units >= 0 ? cost(units) : -cost(-units);
+            tat.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Builder for {@link RateLimiter}.
+     */
+    public static final class Builder {
+
+        private long requestsPerMinute;
+        private long tokensPerMinute;
+        private OnLimit onLimit = OnLimit.BLOCK;
+
+        private Builder() {
+        }
+
+        /**
+         * Limits requests per minute. Unlimited unless set.
+         *
+         * @param requestsPerMinute the limit, at least 1
+         * @return this builder
+         */
+        public Builder requestsPerMinute(long requestsPerMinute) {
+            if (requestsPerMinute < 1) {
+                throw new IllegalArgumentException("requestsPerMinute must be at least 1: " + requestsPerMinute);
+            }
+            this.requestsPerMinute = requestsPerMinute;
+            return this;
+        }
+
+        /**
+         * Limits tokens (prompt plus completion) per minute. Unlimited unless set.
+         *
+         * @param tokensPerMinute the limit, at least 1
+         * @return this builder
+         */
+        public Builder tokensPerMinute(long tokensPerMinute) {
+            if (tokensPerMinute < 1) {
+                throw new IllegalArgumentException("tokensPerMinute must be at least 1: " + tokensPerMinute);
+            }
+            this.tokensPerMinute = tokensPerMinute;
+            return this;
+        }
+
+        /**
+         * Sets what {@link DeepSeekAPIClient} does when a limit is reached. Defaults to
+         * {@link OnLimit#BLOCK}.
+         *
+         * @param onLimit the behaviour
+         * @return this builder
+         */
+        public Builder onLimit(OnLimit onLimit) {
+            if (onLimit == null) {
+                throw new IllegalArgumentException("onLimit must not be null");
+            }
+            this.onLimit = onLimit;
+            return this;
+        }
+
+        /**
+         * Builds the limiter.
+         *
+         * @return a new rate limiter
+         */
+        public RateLimiter build() {
+            return new RateLimiter(this, System::nanoTime);
+        }
+
+        /**
+         * Builds the limiter with a custom clock. Package-private for testing.
+         */
+        RateLimiter build(LongSupplier nanoClock) {
+            return new RateLimiter(this, nanoClock);
+        }
+    }
+}
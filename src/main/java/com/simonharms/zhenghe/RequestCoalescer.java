@@ -0,0 +1,309 @@
+package com.simonharms.zhenghe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of identical requests: while a request with a given key is in
+ * flight, further requests with the same key wait for its result instead of being sent.
+ *
+ * <p>Keys come from {@link DeepSeekAPIClient#requestFingerprint(Object)}, so two requests share
+ * a flight only if they serialize to the same bytes. A flight is forgotten as soon as it
+ * completes; this is not a cache. Blocking and async callers of the same key share one flight.
+ * An async flight's upstream call is cancelled only once every caller waiting on it has
+ * cancelled.
+ *
+ * <p>Streams are coalesced separately. The first caller runs the stream and buffers its tokens;
+ * callers that attach later receive the tokens produced so far and then follow the live stream,
+ * each on its own thread.
+ *
+ * @param <V> the response type
+ */
+final class RequestCoalescer<V> {
+
+    /**
+     * A blocking call that produces a response.
+     */
+    @FunctionalInterface
+    interface IOSupplier<V> {
+        V get() throws IOException;
+    }
+
+    /**
+     * A blocking streaming call that delivers tokens to a consumer.
+     */
+    @FunctionalInterface
+    interface StreamCall {
+        void run(Consumer<String> onToken) throws IOException;
+    }
+
+    private final ConcurrentHashMap<String, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SharedStream> streams = new ConcurrentHashMap<>();
+    private final LongAdder saved = new LongAdder();
+
+    /**
+     * Returns how many requests were served by another caller's flight instead of being sent.
+     */
+    long getSavedCount() {
+        return saved.sum();
+    }
+
+    /**
+     * Runs {@code call} on the calling thread, or waits for the identical call already in flight.
+     */
+    V execute(String key, IOSupplier<V> call) throws IOException {
+        Flight<V> flight = new Flight<>(key);
+        Flight<V> existing = join(flight);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            V value = call.get();
+            flight.result.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Starts {@code call}, or attaches to the identical call already in flight. Cancelling the
+     * returned future detaches this caller; the call itself is cancelled when no caller is left.
+     */
+    CompletableFuture<V> executeAsync(String key, Supplier<CompletableFuture<V>> call) {
+        Flight<V> flight = new Flight<>(key);
+        Flight<V> existing = join(flight);
+        if (existing != null) {
+            return attach(existing);
+        }
+        CompletableFuture<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        flight.upstream = upstream;
+        upstream.whenComplete((value, error) -> {
+            flights.remove(key, flight);
+            if (error == null) {
+                flight.result.complete(value);
+            } else {
+                flight.result.completeExceptionally(error);
+            }
+        });
+        return attach(flight);
+    }
+
+    /**
+     * Runs {@code call}, delivering its tokens to {@code onToken}, or replays and follows the
+     * identical stream already in progress. Either way {@code onToken} is called on the calling
+     * thread and this method returns when the stream ends.
+     */
+    void stream(String key, StreamCall call, Consumer<String> onToken) throws IOException {
+        SharedStream shared = new SharedStream();
+        SharedStream existing = streams.putIfAbsent(key, shared);
+        if (existing != null) {
+            saved.increment();
+            existing.follow(onToken);
+            return;
+        }
+        Throwable failure = null;
+        try {
+            call.run(token -> {
+                shared.publish(token);
+                onToken.accept(token);
+            });
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            streams.remove(key, shared);
+            shared.finish(failure);
+        }
+    }
+
+    /**
+     * Registers {@code flight} as the flight for its key, or joins the live flight already
+     * registered. Returns {@code null} if {@code flight} is now the leader.
+     */
+    private Flight<V> join(Flight<V> flight) {
+        while (true) {
+            Flight<V> existing = flights.putIfAbsent(flight.key, flight);
+            if (existing == null) {
+                return null;
+            }
+            if (existing.enter()) {
+                saved.increment();
+                return existing;
+            }
+            // every caller of that flight cancelled; replace it
+            flights.remove(flight.key, existing);
+        }
+    }
+
+    private CompletableFuture<V> attach(Flight<V> flight) {
+        CompletableFuture<V> copy = flight.result.copy();
+        copy.whenComplete((value, error) -> {
+            if (copy.isCancelled()) {
+                leave(flight);
+            }
+        });
+        return copy;
+    }
+
+    private void leave(Flight<V> flight) {
+        if (flight.callers.decrementAndGet() == 0) {
+            flights.remove(flight.key, flight);
+            Future<?> upstream = flight.upstream;
+            if (upstream != null) {
+                upstream.cancel(true);
+            }
+        }
+    }
+
+    private V await(Flight<V> flight) throws IOException {
+        try {
+            return flight.result.get();
+        } catch (InterruptedException e) {
+            leave(flight);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+        } catch (CancellationException e) {
+            throw new IOException("Canceled", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static IOException rethrow(Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * One in-flight request and the number of callers still waiting for it.
+     */
+    private static final class Flight<V> {
+
+        final String key;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger callers = new AtomicInteger(1);
+        volatile Future<?> upstream;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        boolean enter() {
+            while (true) {
+                int current = callers.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (callers.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The tokens of a stream in progress, buffered so that late followers can replay them.
+     */
+    private static final class SharedStream {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final List<String> tokens = new ArrayList<>();
+        private boolean done;
+        private Throwable failure;
+
+        void publish(String token) {
+            lock.lock();
+            try {
+                tokens.add(token);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void finish(Throwable failure) {
+            lock.lock();
+            try {
+                this.done = true;
+                this.failure = failure;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Delivers every token so far and then each new one, returning when the stream ends or
+         * rethrowing the stream's failure. Tokens are delivered outside the lock; no token is
+         * published after {@link #finish}, so the batch read together with {@code done} is the last.
+         */
+        void follow(Consumer<String> onToken) throws IOException {
+            int next = 0;
+            while (true) {
+                List<String> batch;
+                boolean finished;
+                Throwable error;
+                lock.lock();
+                try {
+                    while (next == tokens.size() && !done) {
+                        changed.await();
+                    }
+                    batch = new ArrayList<>(tokens.subList(next, tokens.size()));
+                    finished = done;
+                    error = failure;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while following a coalesced stream");
+                } finally {
+                    lock.unlock();
+                }
+                next += batch.size();
+                batch.forEach(onToken);
+                if (finished) {
+                    if (error != null) {
+                        throw rethrow(error);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
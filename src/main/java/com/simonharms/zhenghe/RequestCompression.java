@@ -0,0 +1,281 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.DeflaterSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Opt-in compression of large request bodies sent to {@code /chat/completions}.
+ *
+ * <p>Bodies of at least {@code minBytes} are compressed and sent with a
+ * {@code Content-Encoding} header; smaller bodies are sent as-is. If the server rejects a
+ * compressed body with {@code 415 Unsupported Media Type}, the request is resent uncompressed
+ * and compression stays off for the rest of the client's lifetime. A {@code 400 Bad Request}
+ * is treated the same way when the uncompressed resend succeeds; otherwise the 400 was about
+ * the request itself and compression stays on.
+ *
+ * <p>Configure with {@link DeepSeekAPIClient.Builder#requestCompression(RequestCompression)}.
+ * The same instance accumulates byte counters that show how much upload was saved. To tell
+ * whether a body of unknown length qualifies, at most {@code minBytes} of it are serialized
+ * into memory first; a body that qualifies is then serialized straight into the compressor, so
+ * only the compressed bytes are held in memory.
+ *
+ * <pre>{@code
+ * RequestCompression compression = RequestCompression.gzip(32 * 1024, 6);
+ * DeepSeekAPIClient client = DeepSeekAPIClient.builder(apiKey, baseUrl)
+ *         .requestCompression(compression)
+ *         .build();
+ * // ...
+ * long saved = compression.getUncompressedBytes() - compression.getCompressedBytes();
+ * }</pre>
+ */
+public final class RequestCompression {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestCompression.class);
+    private static final String COMPRESSIBLE_PATH = "/chat/completions";
+
+    private final String coding;
+    private final int minBytes;
+    private final int level;
+    private volatile boolean rejectedByServer;
+
+    private final LongAdder compressedRequests = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    private RequestCompression(String coding, int minBytes, int level) {
+        if (minBytes < 0) {
+            throw new IllegalArgumentException("minBytes must not be negative: " + minBytes);
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level must be between 1 and 9: " + level);
+        }
+        this.coding = coding;
+        this.minBytes = minBytes;
+        this.level = level;
+    }
+
+    /**
+     * Compresses bodies with {@code Content-Encoding: gzip}.
+     *
+     * @param minBytes smallest body size, in bytes, that is compressed
+     * @param level    deflate level from 1 (fastest) to 9 (smallest)
+     * @return the compression setting
+     */
+    public static RequestCompression gzip(int minBytes, int level) {
+        return new RequestCompression("gzip", minBytes, level);
+    }
+
+    /**
+     * Compresses bodies with {@code Content-Encoding: deflate} (zlib format).
+     *
+     * @param minBytes smallest body size, in bytes, that is compressed
+     * @param level    deflate level from 1 (fastest) to 9 (smallest)
+     * @return the compression setting
+     */
+    public static RequestCompression deflate(int minBytes, int level) {
+        return new RequestCompression("deflate", minBytes, level);
+    }
+
+    /**
+     * Returns the {@code Content-Encoding} used for compressed bodies.
+     *
+     * @return {@code "gzip"} or {@code "deflate"}
+     */
+    public String getCoding() {
+        return coding;
+    }
+
+    /**
+     * Returns the number of requests sent compressed and accepted by the server.
+     *
+     * @return the compressed request count
+     */
+    public long getCompressedRequestCount() {
+        return compressedRequests.sum();
+    }
+
+    /**
+     * Returns the total size of the compressed requests before compression.
+     *
+     * @return raw bytes of compressed requests
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    /**
+     * Returns the total size of the compressed requests as sent.
+     *
+     * @return compressed bytes sent
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * Returns whether the server rejected a compressed body, which turns compression off.
+     *
+     * @return {@code true} once a compressed request has been rejected
+     */
+    public boolean isRejectedByServer() {
+        return rejectedByServer;
+    }
+
+    /**
+     * Compresses the request body if it qualifies and falls back to an uncompressed retry
+     * if the server does not accept the encoding.
+     */
+    Response intercept(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (rejectedByServer
+                || body == null
+                || body.isOneShot()
+                || request.header("Content-Encoding") != null
+                || !request.url().encodedPath().endsWith(COMPRESSIBLE_PATH)) {
+            return chain.proceed(request);
+        }
+
+        MediaType contentType = body.contentType();
+        long length = body.contentLength();
+        if (length >= 0) {
+            if (length < minBytes) {
+                return chain.proceed(request);
+            }
+        } else if (minBytes > 0) {
+            ByteString small = readBelow(body, minBytes);
+            if (small != null) {
+                return chain.proceed(request.newBuilder()
+                        .method(request.method(), RequestBody.create(small, contentType))
+                        .build());
+            }
+        }
+
+        CountingSink counted = compress(body);
+        ByteString compressed = counted.compressed.readByteString();
+        Response response = chain.proceed(request.newBuilder()
+                .header("Content-Encoding", coding)
+                .method(request.method(), RequestBody.create(compressed, contentType))
+                .build());
+
+        int code = response.code();
+        if (code == 415 || code == 400) {
+            response.close();
+            Response plain = chain.proceed(request);
+            if (code == 415 || plain.isSuccessful()) {
+                rejectedByServer = true;
+                logger.warn("Server rejected {}-encoded request body (HTTP {}); disabling request compression",
+                        coding, code);
+            }
+            return plain;
+        }
+
+        compressedRequests.increment();
+        uncompressedBytes.add(counted.bytes);
+        compressedBytes.add(compressed.size());
+        return response;
+    }
+
+    /**
+     * Serializes {@code body} and returns it if it is shorter than {@code limit} bytes, or
+     * returns {@code null} as soon as it reaches the limit.
+     */
+    private static ByteString readBelow(RequestBody body, long limit) throws IOException {
+        LimitSink limited = new LimitSink(limit);
+        try (BufferedSink sink = Okio.buffer(limited)) {
+            body.writeTo(sink);
+        } catch (IOException e) {
+            if (limited.reached) {
+                return null;
+            }
+            throw e;
+        }
+        return limited.buffer.readByteString();
+    }
+
+    /**
+     * Serializes {@code body} straight into the compressor.
+     */
+    private CountingSink compress(RequestBody body) throws IOException {
+        Buffer compressed = new Buffer();
+        Sink compressor;
+        if ("gzip".equals(coding)) {
+            GzipSink gzip = new GzipSink(compressed);
+            gzip.deflater().setLevel(level);
+            compressor = gzip;
+        } else {
+            compressor = new DeflaterSink(compressed, new Deflater(level));
+        }
+        CountingSink counting = new CountingSink(compressor, compressed);
+        try (BufferedSink sink = Okio.buffer(counting)) {
+            body.writeTo(sink);
+        }
+        return counting;
+    }
+
+    /**
+     * Counts the uncompressed bytes written through to the compressor.
+     */
+    private static final class CountingSink extends ForwardingSink {
+
+        final Buffer compressed;
+        long bytes;
+
+        CountingSink(Sink compressor, Buffer compressed) {
+            super(compressor);
+            this.compressed = compressed;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            bytes += byteCount;
+            super.write(source, byteCount);
+        }
+    }
+
+    /**
+     * Collects bytes until there are {@code limit} of them, then fails the write.
+     */
+    private static final class LimitSink extends ForwardingSink {
+
+        final Buffer buffer;
+        private final long limit;
+        boolean reached;
+
+        LimitSink(long limit) {
+            this(new Buffer(), limit);
+        }
+
+        private LimitSink(Buffer buffer, long limit) {
+            super(buffer);
+            this.buffer = buffer;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            if (buffer.size() >= limit) {
+                reached = true;
+                throw new IOException("Body reached " + limit + " bytes");
+            }
+        }
+    }
+}
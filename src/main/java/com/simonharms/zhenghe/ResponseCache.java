@@ -0,0 +1,94 @@
+package com.simonharms.zhenghe;
+
+import java.time.Duration;
+
+/**
+ * A cache of {@code /chat/completions} responses, consulted by {@link DeepSeekAPIClient} before
+ * a request is sent. Configure with {@link DeepSeekAPIClient.Builder#responseCache(ResponseCache)}.
+ *
+ * <p>Keys are the hex SHA-256 of the request's canonical JSON: the body that would be sent,
+ * without the {@code stream} flag, so a streamed and a non-streamed request for the same
+ * messages and parameters share an entry. A cached response is returned as is to blocking and
+ * async callers, and replayed as a sequence of tokens to streaming callers. Hits do not pass
+ * through the rate limiter, the concurrency limiter or any interceptor.
+ *
+ * <p>By default only requests with {@code temperature} 0 are cached, since a sampled answer is
+ * not meant to be repeated; override {@link #isCacheable} to change that. A single request
+ * can skip the cache with {@link DeepSeekModels.ChatRequest#setCacheBypass(boolean)} and can set
+ * its own time-to-live with {@link DeepSeekModels.ChatRequest#setCacheTtl(Duration)}.
+ *
+ * <p>Implementations must be thread-safe. Cached responses are shared between callers and
+ * should be treated as read-only.
+ */
+public interface ResponseCache {
+
+    /**
+     * Returns the cached response for {@code key}, or {@code null} if there is none or it has
+     * expired. Counts a hit or a miss.
+     *
+     * @param key the request key
+     * @return the cached response, or {@code null}
+     */
+    DeepSeekModels.ChatResponse get(String key);
+
+    /**
+     * Stores {@code response} under {@code key}, replacing any previous entry.
+     *
+     * @param key      the request key
+     * @param response the response to cache
+     * @param ttl      how long the entry stays valid, or {@code null} for the cache's default
+     */
+    void put(String key, DeepSeekModels.ChatResponse response, Duration ttl);
+
+    /**
+     * Removes the entry for {@code key}, if any.
+     *
+     * @param key the request key
+     */
+    void invalidate(String key);
+
+    /**
+     * Removes every entry.
+     */
+    void invalidateAll();
+
+    /**
+     * Returns a snapshot of the cache's counters.
+     *
+     * @return the current statistics
+     */
+    Stats stats();
+
+    /**
+     * Returns whether responses to {@code request} may be cached. The default accepts requests
+     * with {@code temperature} 0 that are not bypassed.
+     *
+     * @param request the request about to be sent
+     * @return {@code true} to consult and fill the cache for this request
+     */
+    default boolean isCacheable(DeepSeekModels.ChatRequest request) {
+        return !request.isCacheBypass() && request.getTemperature() == 0;
+    }
+
+    /**
+     * Cache counters.
+     *
+     * @param hitCount      lookups that found a live entry
+     * @param missCount     lookups that found nothing or an expired entry
+     * @param evictionCount entries removed to stay within the size bound
+     * @param entryCount    entries currently held
+     * @param weight        approximate bytes currently held
+     */
+    record Stats(long hitCount, long missCount, long evictionCount, long entryCount, long weight) {
+
+        /**
+         * Returns the fraction of lookups that were hits, or 0 if there were none.
+         *
+         * @return the hit rate between 0 and 1
+         */
+        public double hitRate() {
+            long lookups = hitCount + missCount;
+            return lookups == 0 ? 0 : (double) hitCount / lookups;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retries requests that fail with a transient error, using full-jitter exponential backoff.
+ *
+ * <p>A request is retried when the connection fails or the API answers 408, 429, 500, 502, 503
+ * or 504; rejections by an open {@link CircuitBreaker} or by a client-side limit
+ * ({@link RateLimitExceededException}) are not retried. Before retry {@code n}
+ * (counting from 1) the policy waits a uniformly random delay between zero and
+ * {@code min(maxDelay, baseDelay * 2^(n-1))}, so that many clients throttled at the same
+ * moment do not come back in lockstep. If the response carries a
+ * {@code Retry-After} header, that delay is used instead. Retrying stops after
+ * {@code maxAttempts} attempts, or earlier if the next wait would exceed the total time budget;
+ * the last response or exception is then returned to the caller unchanged.
+ *
+ * <p>Retries happen before a response body is handed to the caller, which for streaming
+ * requests means before the first token is delivered. A stream that breaks after it has
+ * started is never retried, so tokens are not delivered twice.
+ *
+ * <p>Configure with {@link DeepSeekAPIClient.Builder#retryPolicy(RetryPolicy)}:
+ *
+ * <pre>{@code
+ * RetryPolicy retries = RetryPolicy.builder()
+ *         .maxAttempts(5)
+ *         .baseDelay(Duration.ofMillis(500))
+ *         .maxDelay(Duration.ofSeconds(20))
+ *         .maxElapsed(Duration.ofMinutes(1))
+ *         .build();
+ * DeepSeekAPIClient client = DeepSeekAPIClient.builder(apiKey, baseUrl)
+ *         .retryPolicy(retries)
+ *         .build();
+ * }</pre>
+ */
+public final class RetryPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final long maxElapsedNanos;
+
+    private final LongAdder retries = new LongAdder();
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayNanos = builder.baseDelay.toNanos();
+        this.maxDelayNanos = builder.maxDelay.toNanos();
+        this.maxElapsedNanos = builder.maxElapsed.toNanos();
+    }
+
+    /**
+     * Returns a builder preset to 3 attempts, a 500 ms base delay, a 30 s maximum delay and a
+     * 2 minute total budget.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the maximum number of attempts, including the first.
+     *
+     * @return the attempt limit
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the number of retries performed so far by clients using this policy.
+     *
+     * @return the retry count
+     */
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    /**
+     * Returns whether {@code statusCode} indicates a transient failure that may succeed on retry.
+     */
+    static boolean isRetryableStatus(int statusCode) {
+        return switch (statusCode) {
+            case 408, 429, 500, 502, 503, 504 -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Parses a {@code Retry-After} header given either as delay-seconds or as an HTTP-date.
+     *
+     * @return the delay (never negative), or {@code null} if the header is absent or malformed
+     */
+    static Duration parseRetryAfter(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        String value = header.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds < 0 ? null : Duration.ofSeconds(seconds);
+        } catch (NumberFormatException e) {
+            // not delay-seconds; try HTTP-date below
+        }
+        try {
+            Instant at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            Duration delay = Duration.between(Instant.now(), at);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the upper bound of the backoff window before retry {@code retry} (counting from 1).
+     */
+    long backoffCeilingNanos(int retry) {
+        int shift = Math.min(retry - 1, 62);
+        long ceiling = baseDelayNanos << shift;
+        return ceiling < 0 || (ceiling >> shift) != baseDelayNanos ? maxDelayNanos : Math.min(ceiling, maxDelayNanos);
+    }
+
+    /**
+     * Performs the request, retrying transient failures as described in the class comment.
+     */
+    Response intercept(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        long start = System.nanoTime();
+
+        for (int attempt = 1; ; attempt++) {
+            Response response = null;
+            IOException failure = null;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            boolean retryable = response != null
+                    ? isRetryableStatus(response.code())
+                    : !chain.call().isCanceled() && !(failure instanceof CircuitBreakerOpenException)
+                            && !(failure instanceof RateLimitExceededException);
+            if (!retryable || attempt >= maxAttempts) {
+                return responseOrThrow(response, failure);
+            }
+
+            Duration retryAfter = response != null ? parseRetryAfter(response.header("Retry-After")) : null;
+            long delayNanos = retryAfter != null
+                    ? retryAfter.toNanos()
+                    : ThreadLocalRandom.current().nextLong(backoffCeilingNanos(attempt) + 1);
+            if (System.nanoTime() - start + delayNanos > maxElapsedNanos) {
+                logger.debug("Not retrying {} {}: next delay of {} ms exceeds the retry budget",
+                        request.method(), request.url(), TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                return responseOrThrow(response, failure);
+            }
+
+            logger.warn("{} {} failed ({}); retry {} of {} in {} ms",
+                    request.method(), request.url(),
+                    response != null ? "HTTP " + response.code() : failure.toString(),
+                    attempt, maxAttempts - 1, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+            if (response != null) {
+                response.close();
+            }
+            sleep(delayNanos);
+            if (chain.call().isCanceled()) {
+                throw new IOException("Canceled");
+            }
+            retries.increment();
+        }
+    }
+
+    private static Response responseOrThrow(Response response, IOException failure) throws IOException {
+        if (response == null) {
+            throw failure;
+        }
+        return response;
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Builder for {@link RetryPolicy}.
+     */
+    public static final class Builder {
+
+        private int maxAttempts = 3;
+        private Duration baseDelay = Duration.ofMillis(500);
+        private Duration maxDelay = Duration.ofSeconds(30);
+        private Duration maxElapsed = Duration.ofMinutes(2);
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum number of attempts, including the first. {@code 1} disables retries.
+         *
+         * @param maxAttempts the attempt limit, at least 1
+         * @return this builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the backoff window before the first retry; it doubles with each further retry.
+         *
+         * @param baseDelay the initial backoff ceiling, positive
+         * @return this builder
+         */
+        public Builder baseDelay(Duration baseDelay) {
+            this.baseDelay = requirePositive(baseDelay, "baseDelay");
+            return this;
+        }
+
+        /**
+         * Caps the backoff window. Does not cap delays requested through {@code Retry-After}.
+         *
+         * @param maxDelay the largest backoff ceiling, positive
+         * @return this builder
+         */
+        public Builder maxDelay(Duration maxDelay) {
+            this.maxDelay = requirePositive(maxDelay, "maxDelay");
+            return this;
+        }
+
+        /**
+         * Sets the total time budget measured from the first attempt. A retry whose delay would
+         * end past the budget is not made.
+         *
+         * @param maxElapsed the total budget, positive
+         * @return this builder
+         */
+        public Builder maxElapsed(Duration maxElapsed) {
+            this.maxElapsed = requirePositive(maxElapsed, "maxElapsed");
+            return this;
+        }
+
+        /**
+         * Builds the policy.
+         *
+         * @return a new retry policy
+         */
+        public RetryPolicy build() {
+            if (maxDelay.compareTo(baseDelay) < 0) {
+                throw new IllegalArgumentException("maxDelay " + maxDelay + " is shorter than baseDelay " + baseDelay);
+            }
+            return new RetryPolicy(this);
+        }
+
+        private static Duration requirePositive(Duration duration, String name) {
+            if (duration == null || duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException(name + " must be positive: " + duration);
+            }
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.simonharms.zhenghe;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pull-based parser for a {@code text/event-stream} body, following the WHATWG
+ * server-sent events specification.
+ *
+ * <p>Lines are scanned directly in the Okio buffer; field names are matched as bytes and
+ * {@code data} values are copied into a single byte array that is reused for every event,
+ * so reading an event allocates nothing on the common path. The data is raw UTF-8 and is
+ * only decoded on request ({@link #dataAsString()}), never with the platform charset.
+ *
+ * <p>Supported: multi-line {@code data:} fields (joined with {@code \n}), {@code event:},
+ * {@code id:} and {@code retry:} fields, comment lines starting with {@code :}, and
+ * {@code \n}, {@code \r\n} or {@code \r} line endings. As the specification requires, an
+ * event that is not terminated by a blank line before the end of the stream is discarded.
+ *
+ * <p>Not thread-safe. The accessors describe the event most recently returned by
+ * {@link #next()} and are overwritten by the following call.
+ */
+final class ServerSentEventReader {
+
+    private static final ByteString LINE_TERMINATORS = ByteString.encodeUtf8("\r\n");
+    private static final ByteString UTF8_BOM = ByteString.decodeHex("efbbbf");
+    private static final ByteString DATA = ByteString.encodeUtf8("data");
+    private static final ByteString EVENT = ByteString.encodeUtf8("event");
+    private static final ByteString ID = ByteString.encodeUtf8("id");
+    private static final ByteString RETRY = ByteString.encodeUtf8("retry");
+
+    private final BufferedSource source;
+    private final Buffer buffer;
+
+    private byte[] data = new byte[1024];
+    private int dataLength;
+    private String eventType;
+    private String lastEventId;
+    private long retryMillis = -1;
+    private boolean started;
+    private boolean skipLeadingLf;
+
+    ServerSentEventReader(BufferedSource source) {
+        this.source = source;
+        this.buffer = source.getBuffer();
+    }
+
+    /**
+     * Reads up to and including the next complete event.
+     *
+     * @return {@code true} if an event was read, {@code false} at the end of the stream
+     * @throws IOException if reading the underlying source fails
+     */
+    boolean next() throws IOException {
+        if (!started) {
+            started = true;
+            if (source.rangeEquals(0, UTF8_BOM)) {
+                source.skip(UTF8_BOM.size());
+            }
+        }
+
+        dataLength = 0;
+        eventType = null;
+        while (true) {
+            long lineLength = nextLineLength();
+            if (lineLength < 0) {
+                return false;
+            }
+            if (lineLength == 0) {
+                consumeTerminator();
+                if (dataLength > 0) {
+                    dataLength--; // drop the trailing \n appended after the last data line
+                    return true;
+                }
+                eventType = null;
+                continue;
+            }
+            processField(lineLength);
+            consumeTerminator();
+        }
+    }
+
+    /**
+     * Returns the event type, or {@code null} for the default {@code "message"} type.
+     */
+    String eventType() {
+        return eventType;
+    }
+
+    /**
+     * Returns the last event ID seen on the stream, which persists across events.
+     */
+    String lastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * Returns the reconnection time requested by the server, or {@code -1} if none was sent.
+     */
+    long retryMillis() {
+        return retryMillis;
+    }
+
+    /**
+     * Returns the reused buffer holding the UTF-8 data of the current event.
+     * Only the first {@link #dataLength()} bytes are valid.
+     */
+    byte[] data() {
+        return data;
+    }
+
+    int dataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Returns whether the current event's data is exactly the given bytes.
+     */
+    boolean dataEquals(ByteString expected) {
+        return expected.size() == dataLength && expected.rangeEquals(0, data, 0, dataLength);
+    }
+
+    /**
+     * Decodes the current event's data as UTF-8. Allocates; intended for diagnostics.
+     */
+    String dataAsString() {
+        return new String(data, 0, dataLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffers the next line and returns its length excluding the terminator,
+     * or {@code -1} if the stream ends before a terminator.
+     */
+    private long nextLineLength() throws IOException {
+        if (skipLeadingLf) {
+            skipLeadingLf = false;
+            if (source.request(1) && buffer.getByte(0) == '\n') {
+                buffer.skip(1);
+            }
+        }
+        return source.indexOfElement(LINE_TERMINATORS);
+    }
+
+    private void consumeTerminator() throws IOException {
+        if (buffer.readByte() == '\r') {
+            skipLeadingLf = true;
+        }
+    }
+
+    private void processField(long lineLength) throws IOException {
+        if (buffer.getByte(0) == ':') {
+            buffer.skip(lineLength); // comment
+            return;
+        }
+
+        long colon = buffer.indexOf((byte) ':', 0, lineLength);
+        long nameLength = colon == -1 ? lineLength : colon;
+        long valueStart = colon == -1 ? lineLength : colon + 1;
+        if (valueStart < lineLength && buffer.getByte(valueStart) == ' ') {
+            valueStart++;
+        }
+        int valueLength = (int) (lineLength - valueStart);
+
+        if (fieldIs(DATA, nameLength)) {
+            buffer.skip(valueStart);
+            appendData(valueLength);
+        } else if (fieldIs(EVENT, nameLength)) {
+            buffer.skip(valueStart);
+            eventType = buffer.readUtf8(valueLength);
+        } else if (fieldIs(ID, nameLength)) {
+            buffer.skip(valueStart);
+            String id = buffer.readUtf8(valueLength);
+            if (id.indexOf('\0') == -1) {
+                lastEventId = id;
+            }
+        } else if (fieldIs(RETRY, nameLength)) {
+            buffer.skip(valueStart);
+            retryMillis = parseRetry(valueLength);
+        } else {
+            buffer.skip(lineLength);
+        }
+    }
+
+    private boolean fieldIs(ByteString name, long nameLength) {
+        return nameLength == name.size() && buffer.rangeEquals(0, name);
+    }
+
+    private void appendData(int valueLength) throws IOException {
+        int required = dataLength + valueLength + 1;
+        if (required > data.length) {
+            data = Arrays.copyOf(data, Math.max(required, data.length * 2));
+        }
+        int offset = dataLength;
+        int end = dataLength + valueLength;
+        while (offset < end) {
+            offset += buffer.read(data, offset, end - offset);
+        }
+        data[end] = '\n';
+        dataLength = required;
+    }
+
+    /**
+     * Parses an ASCII-digit retry value, keeping the previous value if it is not a number.
+     */
+    private long parseRetry(int valueLength) throws IOException {
+        long value = 0;
+        boolean valid = valueLength > 0;
+        for (int i = 0; i < valueLength; i++) {
+            byte b = buffer.readByte();
+            if (b < '0' || b > '9') {
+                valid = false;
+            } else if (valid) {
+                value = value * 10 + (b - '0');
+            }
+        }
+        return valid ? value : retryMillis;
+    }
+}
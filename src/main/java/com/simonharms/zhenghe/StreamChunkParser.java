@@ -0,0 +1,205 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Extracts {@code choices[0].delta.content}, {@code choices[0].finish_reason} and {@code usage} from a
+ * streaming chat completion chunk without binding it to {@link DeepSeekModels.ChatStreamChunk}.
+ *
+ * <p>The chunk is walked token by token with a Jackson {@link JsonParser}. Fields that the
+ * fast path does not understand (for example {@code tool_calls} in a delta) make it fall
+ * back to full binding through the {@link ObjectMapper}, so the extracted values are always
+ * the same as those of {@link DeepSeekModels.ChatStreamChunk#getContent()}.
+ *
+ * <p>Malformed chunks are reported through the return value of {@link #parse}; no exception
+ * is thrown on the normal path. Not thread-safe — use one instance per stream.
+ */
+final class StreamChunkParser {
+
+    private final ObjectMapper objectMapper;
+
+    private String content;
+    private String finishReason;
+    private DeepSeekModels.ChatResponse.Usage usage;
+    private boolean boundFully;
+
+    StreamChunkParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Parses one chunk, replacing the values from the previous call.
+     *
+     * @param data   buffer holding the chunk's UTF-8 JSON
+     * @param length number of valid bytes in {@code data}
+     * @return {@code false} if the chunk is not valid JSON of the expected shape
+     */
+    boolean parse(byte[] data, int length) {
+        content = null;
+        finishReason = null;
+        usage = null;
+        boundFully = false;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(data, 0, length)) {
+            if (readChunk(parser)) {
+                return true;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return bindFully(data, length);
+    }
+
+    /**
+     * Returns the content delta of the first choice, or {@code null} if the chunk has none.
+     */
+    String content() {
+        return content;
+    }
+
+    /**
+     * Returns the finish reason of the first choice, or {@code null} if the stream continues.
+     */
+    String finishReason() {
+        return finishReason;
+    }
+
+    /**
+     * Returns the token usage, or {@code null} unless this is the final chunk of the stream.
+     */
+    DeepSeekModels.ChatResponse.Usage usage() {
+        return usage;
+    }
+
+    /**
+     * Returns whether the last chunk needed full binding instead of the fast path.
+     */
+    boolean boundFully() {
+        return boundFully;
+    }
+
+    private boolean bindFully(byte[] data, int length) {
+        content = null;
+        finishReason = null;
+        usage = null;
+        boundFully = true;
+
+        DeepSeekModels.ChatStreamChunk chunk;
+        try {
+            chunk = objectMapper.readValue(data, 0, length, DeepSeekModels.ChatStreamChunk.class);
+        } catch (IOException e) {
+            return false;
+        }
+        content = chunk.getContent();
+        usage = chunk.getUsage();
+        List<DeepSeekModels.ChatStreamChunk.StreamChoice> choices = chunk.getChoices();
+        if (choices != null && !choices.isEmpty() && choices.get(0) != null) {
+            finishReason = choices.get(0).getFinishReason();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the top-level chunk object. Returns {@code false} if full binding is needed.
+     */
+    private boolean readChunk(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "choices" -> {
+                    if (!readChoices(parser)) return false;
+                }
+                case "usage" -> {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        usage = objectMapper.readValue(parser, DeepSeekModels.ChatResponse.Usage.class);
+                    } else if (parser.currentToken() != JsonToken.VALUE_NULL) {
+                        return false;
+                    }
+                }
+                case "id", "object", "created", "model", "system_fingerprint" -> parser.skipChildren();
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean readChoices(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return true;
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            return false;
+        }
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (first) {
+                first = false;
+                if (parser.currentToken() != JsonToken.VALUE_NULL && !readChoice(parser)) {
+                    return false;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    private boolean readChoice(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "delta" -> {
+                    if (!readDelta(parser)) return false;
+                }
+                case "finish_reason" -> finishReason = value == JsonToken.VALUE_NULL ? null : parser.getText();
+                case "index", "logprobs" -> parser.skipChildren();
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean readDelta(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return true;
+        }
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "content" -> {
+                    if (value == JsonToken.VALUE_STRING) {
+                        content = parser.getText();
+                    } else if (value != JsonToken.VALUE_NULL) {
+                        return false;
+                    }
+                }
+                case "role", "reasoning_content" -> parser.skipChildren();
+                default -> {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package com.simonharms.zhenghe;
+
+/**
+ * One chunk of a streamed chat completion, as published by
+ * {@link DeepSeekAPIClient#publishStreamingPostRequest(String, Object)}.
+ *
+ * <p>Most events carry only a content delta. The last choice chunk carries the finish reason,
+ * and the API's final chunk carries the token usage of the whole stream; either may arrive
+ * without content.
+ *
+ * @param content      the content delta, or {@code null} if this chunk has none
+ * @param finishReason why generation stopped (e.g. {@code "stop"}, {@code "length"}), or
+ *                     {@code null} while the stream continues
+ * @param usage        the token usage of the stream, or {@code null} except on the final chunk
+ */
+public record StreamEvent(String content, String finishReason, DeepSeekModels.ChatResponse.Usage usage) {
+
+    /**
+     * Returns whether this event carries a non-empty content delta.
+     *
+     * @return {@code true} if there is content
+     */
+    public boolean hasContent() {
+        return content != null && !content.isEmpty();
+    }
+}
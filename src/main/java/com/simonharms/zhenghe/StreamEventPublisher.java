@@ -0,0 +1,172 @@
+package com.simonharms.zhenghe;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cold {@link Flow.Publisher} of {@link StreamEvent}s: each subscriber gets its own
+ * {@link Source}, opened when it first requests an event.
+ *
+ * <p>Events are read from the source only while the subscriber has outstanding demand. Reading
+ * happens in a drain task on {@code executor}; while demand is zero no task runs and nothing is
+ * read, so an HTTP stream stays unread in the socket and TCP flow control pushes back on the
+ * server. At most one drain task runs per subscription, so signals to the subscriber are
+ * serialized. Cancelling aborts the source, which unblocks a drain waiting on the network.
+ */
+final class StreamEventPublisher implements Flow.Publisher<StreamEvent> {
+
+    /**
+     * A sequence of events read on demand. Only the drain task calls {@link #next} and
+     * {@link #close}; {@link #abort} may be called from any thread.
+     */
+    interface Source {
+
+        /**
+         * Returns the next event, blocking until it arrives, or {@code null} at the end.
+         */
+        StreamEvent next() throws IOException;
+
+        /**
+         * Aborts a blocked {@link #next} from another thread.
+         */
+        void abort();
+
+        /**
+         * Releases the source; {@code completed} is {@code true} if it was read to the end.
+         */
+        void close(boolean completed);
+    }
+
+    /**
+     * Opens a source for a new subscriber.
+     */
+    @FunctionalInterface
+    interface SourceFactory {
+        Source open() throws IOException;
+    }
+
+    private final Executor executor;
+    private final SourceFactory factory;
+
+    StreamEventPublisher(Executor executor, SourceFactory factory) {
+        this.executor = executor;
+        this.factory = factory;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super StreamEvent> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class Subscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super StreamEvent> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile Source source;
+        private volatile Throwable invalidRequest;
+        private volatile boolean done;
+
+        Subscription(Flow.Subscriber<? super StreamEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("request must be positive: " + n);
+                cancelled = true;
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Source current = source;
+            if (current != null) {
+                current.abort();
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    cancelled = true;
+                    if (!done) {
+                        done = true;
+                        subscriber.onError(new IOException("Client is closed", e));
+                    }
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                if (!done) {
+                    drainOnce();
+                }
+                scheduled.set(false);
+                boolean more = !done && (cancelled || demand.get() > 0);
+                if (!more || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void drainOnce() {
+            try {
+                while (!cancelled && demand.get() > 0) {
+                    if (source == null) {
+                        source = factory.open();
+                        if (cancelled) {
+                            break;
+                        }
+                    }
+                    StreamEvent event = source.next();
+                    if (event == null) {
+                        finish(true);
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(event);
+                }
+                if (cancelled) {
+                    finish(false);
+                    if (invalidRequest != null) {
+                        subscriber.onError(invalidRequest);
+                    }
+                }
+            } catch (Throwable t) {
+                finish(false);
+                if (!cancelled || invalidRequest != null) {
+                    subscriber.onError(invalidRequest != null ? invalidRequest : t);
+                }
+            }
+        }
+
+        private void finish(boolean completed) {
+            done = true;
+            Source current = source;
+            if (current != null) {
+                current.close(completed);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.Call;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A streaming completion running in the background, returned by
+ * {@link DeepSeekAPIClient#openStreamingPostRequest} and the {@code Async} streaming methods of
+ * {@link DeepSeekService}.
+ *
+ * <p>The stream ends in one of three ways (see {@link Outcome}): the server finishes it, the
+ * stop condition matches the text received so far, or {@link #cancel()} is called. In the latter
+ * two cases the underlying HTTP call is cancelled at once, so no more tokens are generated or
+ * paid for, and {@link #completion()} still completes normally with the partial text. Only a
+ * failed request completes it exceptionally.
+ *
+ * <p>Instances are thread-safe. Tokens are delivered on a dispatcher thread, one at a time.
+ */
+public final class StreamHandle {
+
+    /**
+     * How a stream ended.
+     */
+    public enum Outcome {
+        /** The server finished the stream. */
+        COMPLETED,
+        /** The stop condition matched and the stream was cut short. */
+        STOPPED,
+        /** {@link #cancel()} was called before the stream finished. */
+        CANCELLED
+    }
+
+    /**
+     * Unwinds the stream reader once the stream has been stopped or cancelled.
+     */
+    static final class Interrupted extends RuntimeException {
+        Interrupted() {
+            super("Stream stopped", null, false, false);
+        }
+    }
+
+    private final Consumer<String> onToken;
+    private final Predicate<CharSequence> stopWhen;
+    private final UnaryOperator<Throwable> failureMapper;
+    private final StringBuilder text = new StringBuilder();
+    private final AtomicReference<Outcome> stopping = new AtomicReference<>();
+    private final AtomicReference<Call> call = new AtomicReference<>();
+    private final CompletableFuture<String> completion = new CompletableFuture<>();
+    private volatile Outcome outcome;
+    private volatile Consumer<String> onEnd;
+
+    StreamHandle(Consumer<String> onToken, Predicate<CharSequence> stopWhen, UnaryOperator<Throwable> failureMapper) {
+        if (onToken == null) {
+            throw new IllegalArgumentException("onToken must not be null");
+        }
+        this.onToken = onToken;
+        this.stopWhen = stopWhen;
+        this.failureMapper = failureMapper;
+    }
+
+    /**
+     * Stops the stream and cancels its HTTP call. Tokens already delivered are kept in
+     * {@link #getText()}. Has no effect once the stream has ended.
+     */
+    public void cancel() {
+        if (stopping.compareAndSet(null, Outcome.CANCELLED)) {
+            Call current = call.get();
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns whether {@link #cancel()} was called or the stop condition matched.
+     *
+     * @return {@code true} once the stream is being cut short
+     */
+    public boolean isStopping() {
+        return stopping.get() != null;
+    }
+
+    /**
+     * Returns whether the stream has ended, in any way.
+     *
+     * @return {@code true} once {@link #completion()} is done
+     */
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * Returns how the stream ended, or {@code null} while it is running or if it failed.
+     *
+     * @return the outcome
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns the text received so far.
+     *
+     * @return the concatenated content tokens
+     */
+    public String getText() {
+        synchronized (text) {
+            return text.toString();
+        }
+    }
+
+    /**
+     * Returns a future completed with the full (or, if stopped or cancelled, partial) text when
+     * the stream ends, or failed if the request failed. Cancelling the returned future does not
+     * cancel the stream; use {@link #cancel()}.
+     *
+     * @return a future of the streamed text
+     */
+    public CompletableFuture<String> completion() {
+        return completion.copy();
+    }
+
+    /**
+     * Sets a callback run with the text when the stream ends without failing, before
+     * {@link #completion()} completes.
+     */
+    void onEnd(Consumer<String> callback) {
+        onEnd = callback;
+    }
+
+    /**
+     * Registers the call to cancel, cancelling it right away if the stream is already stopping.
+     */
+    void bind(Call current) {
+        call.set(current);
+        if (stopping.get() != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Delivers a token and evaluates the stop condition, throwing {@link Interrupted} once the
+     * stream is stopping so that the reader stops without waiting for the next chunk.
+     */
+    void accept(String token) {
+        if (stopping.get() != null) {
+            throw new Interrupted();
+        }
+        onToken.accept(token);
+        boolean stop;
+        synchronized (text) {
+            text.append(token);
+            stop = stopWhen != null && stopWhen.test(text);
+        }
+        if (stop && stopping.compareAndSet(null, Outcome.STOPPED)) {
+            Call current = call.get();
+            if (current != null) {
+                current.cancel();
+            }
+            throw new Interrupted();
+        }
+    }
+
+    /**
+     * Ends the stream: normally if it finished or was cut short, exceptionally otherwise.
+     * A failure after {@link #cancel()} is the cancelled call's and is not reported.
+     */
+    void finish(Throwable failure) {
+        Outcome stopped = stopping.get();
+        if (failure != null && stopped == null) {
+            completion.completeExceptionally(failureMapper == null ? failure : failureMapper.apply(failure));
+            return;
+        }
+        String result = getText();
+        Consumer<String> callback = onEnd;
+        if (callback != null) {
+            callback.accept(result);
+        }
+        outcome = stopped != null ? stopped : Outcome.COMPLETED;
+        completion.complete(result);
+    }
+}
@@ -0,0 +1,267 @@
+package com.simonharms.zhenghe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency metrics for streaming completions, aggregated per model.
+ *
+ * <p>Install with {@link DeepSeekAPIClient.Builder#streamMetrics(StreamMetrics)}. Every stream
+ * that receives a successful response is timed from the start of the request:
+ * <ul>
+ *   <li>time to the response headers,</li>
+ *   <li>time to the first content token,</li>
+ *   <li>the gap between each pair of consecutive tokens,</li>
+ *   <li>tokens per second after the first token, and</li>
+ *   <li>the total duration.</li>
+ * </ul>
+ * Durations are recorded in nanoseconds into lock-free {@link Histogram}s, so per-token overhead
+ * is one clock read and a few atomic increments. Tokens are counted as content chunks, which the
+ * API sends one token at a time. Duration and tokens per second are only aggregated for streams
+ * read to the end, so cancelled streams do not skew them; all streams reach the
+ * {@linkplain Builder#listener listener}.
+ */
+public final class StreamMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamMetrics.class);
+
+    /**
+     * The timings of one stream, passed to the listener when the stream ends.
+     *
+     * @param model            the model requested
+     * @param timeToHeaders    from the start of the request to the response headers
+     * @param timeToFirstToken from the start of the request to the first content token, or
+     *                         {@code null} if none arrived
+     * @param maxInterTokenGap the longest gap between two consecutive tokens ({@link Duration#ZERO}
+     *                         with fewer than two tokens)
+     * @param duration         from the start of the request to the end of the stream
+     * @param tokens           the number of content tokens received
+     * @param tokensPerSecond  the rate of tokens after the first, or 0 with fewer than two tokens
+     * @param completed        whether the stream was read to the end rather than cut short
+     */
+    public record Timing(String model, Duration timeToHeaders, Duration timeToFirstToken,
+                         Duration maxInterTokenGap, Duration duration, int tokens,
+                         double tokensPerSecond, boolean completed) {
+    }
+
+    /**
+     * The aggregated timings of one model's streams. Durations are in nanoseconds.
+     */
+    public static final class ModelStats {
+
+        private final Histogram timeToHeaders = new Histogram();
+        private final Histogram timeToFirstToken = new Histogram();
+        private final Histogram interTokenGap = new Histogram();
+        private final Histogram duration = new Histogram();
+        private final Histogram tokensPerSecond = new Histogram();
+        private final LongAdder streams = new LongAdder();
+        private final LongAdder completedStreams = new LongAdder();
+
+        private ModelStats() {
+        }
+
+        /** @return nanoseconds from the start of the request to the response headers */
+        public Histogram getTimeToHeaders() {
+            return timeToHeaders;
+        }
+
+        /** @return nanoseconds from the start of the request to the first content token */
+        public Histogram getTimeToFirstToken() {
+            return timeToFirstToken;
+        }
+
+        /** @return nanoseconds between consecutive content tokens, across all streams */
+        public Histogram getInterTokenGap() {
+            return interTokenGap;
+        }
+
+        /** @return nanoseconds from the start of the request to the end, for completed streams */
+        public Histogram getDuration() {
+            return duration;
+        }
+
+        /** @return tokens per second after the first token, rounded, for completed streams */
+        public Histogram getTokensPerSecond() {
+            return tokensPerSecond;
+        }
+
+        /** @return the number of streams timed, including those cut short */
+        public long getStreamCount() {
+            return streams.sum();
+        }
+
+        /** @return the number of streams read to the end */
+        public long getCompletedStreamCount() {
+            return completedStreams.sum();
+        }
+    }
+
+    private final ConcurrentHashMap<String, ModelStats> models = new ConcurrentHashMap<>();
+    private final Consumer<Timing> listener;
+    private final LongSupplier nanoClock;
+
+    private StreamMetrics(Builder builder, LongSupplier nanoClock) {
+        this.listener = builder.listener;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Returns a builder with no listener.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the models that have been streamed from.
+     *
+     * @return an unmodifiable view of the model names
+     */
+    public Set<String> getModels() {
+        return Collections.unmodifiableSet(models.keySet());
+    }
+
+    /**
+     * Returns the aggregated timings for {@code model}, or {@code null} if it has not been streamed from.
+     *
+     * @param model the model name
+     * @return the model's statistics
+     */
+    public ModelStats getStats(String model) {
+        return models.get(model);
+    }
+
+    /**
+     * Starts timing a stream for the model named in {@code requestBody}.
+     */
+    Stream start(Object requestBody) {
+        String model = requestBody instanceof DeepSeekModels.ChatRequest request && request.getModel() != null
+                ? request.getModel() : "unknown";
+        return new Stream(model, models.computeIfAbsent(model, m -> new ModelStats()));
+    }
+
+    /**
+     * The timer for one stream. Used by a single thread at a time.
+     */
+    final class Stream {
+
+        private final String model;
+        private final ModelStats stats;
+        private final long start;
+        private boolean responded;
+        private long headers;
+        private long firstToken;
+        private long lastToken;
+        private long maxGap;
+        private int tokens;
+
+        private Stream(String model, ModelStats stats) {
+            this.model = model;
+            this.stats = stats;
+            this.start = nanoClock.getAsLong();
+        }
+
+        /**
+         * Returns the clock reading to pass to {@link #token(long)}.
+         */
+        long now() {
+            return nanoClock.getAsLong();
+        }
+
+        void headers() {
+            responded = true;
+            headers = nanoClock.getAsLong();
+            stats.timeToHeaders.record(headers - start);
+        }
+
+        /**
+         * Counts a content token that arrived at {@code at}.
+         */
+        void token(long at) {
+            if (tokens++ == 0) {
+                firstToken = at;
+                stats.timeToFirstToken.record(at - start);
+            } else {
+                long gap = at - lastToken;
+                stats.interTokenGap.record(gap);
+                maxGap = Math.max(maxGap, gap);
+            }
+            lastToken = at;
+        }
+
+        /**
+         * Ends the stream, recording its totals and notifying the listener. Does nothing if the
+         * response headers never arrived.
+         */
+        void finish(boolean completed) {
+            if (!responded) {
+                return;
+            }
+            long end = nanoClock.getAsLong();
+            double rate = tokens > 1 && lastToken - firstToken > 0
+                    ? (tokens - 1) * 1e9 / (lastToken - firstToken) : 0;
+            stats.streams.increment();
+            if (completed) {
+                stats.completedStreams.increment();
+                stats.duration.record(end - start);
+                stats.tokensPerSecond.record(Math.round(rate));
+            }
+            if (listener != null) {
+                Timing timing = new Timing(model, Duration.ofNanos(headers - start),
+                        tokens == 0 ? null : Duration.ofNanos(firstToken - start),
+                        Duration.ofNanos(maxGap), Duration.ofNanos(end - start), tokens, rate, completed);
+                try {
+                    listener.accept(timing);
+                } catch (RuntimeException e) {
+                    logger.warn("Stream metrics listener failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link StreamMetrics}.
+     */
+    public static final class Builder {
+
+        private Consumer<Timing> listener;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets a callback that receives each stream's {@link Timing} when it ends, on the thread
+         * that read the stream. Exceptions it throws are logged and otherwise ignored.
+         *
+         * @param listener the callback, or {@code null} for none
+         * @return this builder
+         */
+        public Builder listener(Consumer<Timing> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Creates the metrics.
+         *
+         * @return a new {@link StreamMetrics}
+         */
+        public StreamMetrics build() {
+            return new StreamMetrics(this, System::nanoTime);
+        }
+
+        StreamMetrics build(LongSupplier nanoClock) {
+            return new StreamMetrics(this, nanoClock);
+        }
+    }
+}
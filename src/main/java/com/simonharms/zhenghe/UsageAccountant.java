@@ -0,0 +1,298 @@
+package com.simonharms.zhenghe;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Live token usage, aggregated per model, per API key and per caller-supplied tag.
+ *
+ * <p>Install with {@link DeepSeekAPIClient.Builder#usageAccountant(UsageAccountant)}; one
+ * accountant can be shared by several clients. Every response the API bills for is recorded from
+ * its {@code usage} object: blocking, async and hedged calls, and streams through their final
+ * usage chunk (the client asks for it with {@code stream_options.include_usage}). Answers served
+ * from a {@link ResponseCache} are not billed and not recorded. Tag requests with
+ * {@link DeepSeekModels.ChatRequest#setUsageTag(String)} to attribute them to a tenant, feature or job.
+ *
+ * <p>Counters are {@link LongAdder}s, so recording from many threads does not contend. Besides
+ * cumulative totals, each entry keeps a ring of per-slot counters over a rolling window (one
+ * minute by default) from which {@link Totals} reports current rates, suitable for autoscaling or
+ * quota decisions. {@link #snapshotAndReset()} reads and clears the totals in one pass, so
+ * periodic exports neither lose nor double-count usage.
+ *
+ * <p>API keys are identified by a masked form such as {@code "sk-...abcd"}; the key itself is
+ * never stored.
+ */
+public final class UsageAccountant {
+
+    static final Duration DEFAULT_RATE_WINDOW = Duration.ofMinutes(1);
+    private static final int SLOTS = 60;
+
+    /**
+     * Usage totals of one model, key or tag, with rates over the rolling window.
+     *
+     * @param requests                  billed requests
+     * @param promptTokens              prompt tokens, including those served from the API's prompt cache
+     * @param completionTokens          completion tokens
+     * @param cachedPromptTokens        prompt tokens that hit the API's prompt cache
+     * @param requestsPerSecond         requests per second over the rate window
+     * @param promptTokensPerSecond     prompt tokens per second over the rate window
+     * @param completionTokensPerSecond completion tokens per second over the rate window
+     */
+    public record Totals(long requests, long promptTokens, long completionTokens, long cachedPromptTokens,
+                         double requestsPerSecond, double promptTokensPerSecond,
+                         double completionTokensPerSecond) {
+
+        /**
+         * Returns prompt plus completion tokens.
+         *
+         * @return the total tokens
+         */
+        public long totalTokens() {
+            return promptTokens + completionTokens;
+        }
+
+        /**
+         * Returns prompt plus completion tokens per second over the rate window.
+         *
+         * @return the total token rate
+         */
+        public double tokensPerSecond() {
+            return promptTokensPerSecond + completionTokensPerSecond;
+        }
+    }
+
+    /**
+     * Usage at the time of {@link #snapshot()}.
+     *
+     * @param total    across everything recorded
+     * @param byModel  per model
+     * @param byApiKey per masked API key
+     * @param byTag    per usage tag; untagged requests are only counted in the other views
+     */
+    public record Snapshot(Totals total, Map<String, Totals> byModel, Map<String, Totals> byApiKey,
+                           Map<String, Totals> byTag) {
+    }
+
+    private final long slotNanos;
+    private final LongSupplier nanoClock;
+    private final Counters total;
+    private final ConcurrentHashMap<String, Counters> byModel = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counters> byApiKey = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counters> byTag = new ConcurrentHashMap<>();
+
+    private UsageAccountant(Builder builder, LongSupplier nanoClock) {
+        this.slotNanos = Math.max(1, builder.rateWindow.toNanos() / SLOTS);
+        this.nanoClock = nanoClock;
+        this.total = new Counters();
+    }
+
+    /**
+     * Returns a builder with a one-minute rate window.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Records the usage of one billed response. Does nothing if {@code usage} is {@code null}.
+     *
+     * @param model    the model that answered, or {@code null} if unknown
+     * @param apiKeyId the masked API key (see {@link #maskApiKey(String)}), or {@code null}
+     * @param tag      the caller's usage tag, or {@code null}
+     * @param usage    the response's usage
+     */
+    public void record(String model, String apiKeyId, String tag, DeepSeekModels.ChatResponse.Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        long slot = nanoClock.getAsLong() / slotNanos;
+        long prompt = usage.getPromptTokens();
+        long completion = usage.getCompletionTokens();
+        long cached = usage.getPromptCacheHitTokens();
+        total.add(slot, prompt, completion, cached);
+        counters(byModel, model == null ? "unknown" : model).add(slot, prompt, completion, cached);
+        counters(byApiKey, apiKeyId == null ? "unknown" : apiKeyId).add(slot, prompt, completion, cached);
+        if (tag != null) {
+            counters(byTag, tag).add(slot, prompt, completion, cached);
+        }
+    }
+
+    /**
+     * Returns the usage recorded so far.
+     *
+     * @return a snapshot of all views
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Returns the usage recorded since the last reset and clears the cumulative totals. Usage
+     * recorded concurrently lands in either this snapshot or the next, never both. Rates are not
+     * affected.
+     *
+     * @return a snapshot of all views
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    /**
+     * Clears the cumulative totals. Rates are not affected.
+     */
+    public void reset() {
+        snapshot(true);
+    }
+
+    /**
+     * Returns a loggable identifier for {@code apiKey} that does not reveal it: its first three
+     * and last four characters.
+     *
+     * @param apiKey the API key
+     * @return the masked key, e.g. {@code "sk-...abcd"}
+     */
+    public static String maskApiKey(String apiKey) {
+        if (apiKey == null || apiKey.length() < 12) {
+            return "****";
+        }
+        return apiKey.substring(0, 3) + "..." + apiKey.substring(apiKey.length() - 4);
+    }
+
+    private Counters counters(ConcurrentHashMap<String, Counters> view, String key) {
+        Counters counters = view.get(key);
+        return counters != null ? counters : view.computeIfAbsent(key, k -> new Counters());
+    }
+
+    private Snapshot snapshot(boolean reset) {
+        long slot = nanoClock.getAsLong() / slotNanos;
+        return new Snapshot(total.totals(slot, reset), totals(byModel, slot, reset),
+                totals(byApiKey, slot, reset), totals(byTag, slot, reset));
+    }
+
+    private Map<String, Totals> totals(ConcurrentHashMap<String, Counters> view, long slot, boolean reset) {
+        Map<String, Totals> result = new HashMap<>();
+        view.forEach((key, counters) -> result.put(key, counters.totals(slot, reset)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Cumulative counters plus a ring of {@value #SLOTS} slots covering the rate window. A slot is
+     * cleared the first time it is written in a new period; readers skip slots from older periods.
+     */
+    private final class Counters {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder prompt = new LongAdder();
+        private final LongAdder completion = new LongAdder();
+        private final LongAdder cached = new LongAdder();
+        private final Slot[] ring = new Slot[SLOTS];
+
+        Counters() {
+            for (int i = 0; i < SLOTS; i++) {
+                ring[i] = new Slot();
+            }
+        }
+
+        void add(long slot, long promptTokens, long completionTokens, long cachedTokens) {
+            requests.increment();
+            prompt.add(promptTokens);
+            completion.add(completionTokens);
+            cached.add(cachedTokens);
+            Slot current = ring[(int) Math.floorMod(slot, (long) SLOTS)];
+            if (current.period != slot) {
+                current.rollTo(slot);
+            }
+            current.requests.increment();
+            current.prompt.add(promptTokens);
+            current.completion.add(completionTokens);
+        }
+
+        Totals totals(long slot, boolean reset) {
+            long windowRequests = 0;
+            long windowPrompt = 0;
+            long windowCompletion = 0;
+            for (Slot s : ring) {
+                long age = slot - s.period;
+                if (age >= 0 && age < SLOTS) {
+                    windowRequests += s.requests.sum();
+                    windowPrompt += s.prompt.sum();
+                    windowCompletion += s.completion.sum();
+                }
+            }
+            double seconds = SLOTS * slotNanos / 1e9;
+            return new Totals(
+                    reset ? requests.sumThenReset() : requests.sum(),
+                    reset ? prompt.sumThenReset() : prompt.sum(),
+                    reset ? completion.sumThenReset() : completion.sum(),
+                    reset ? cached.sumThenReset() : cached.sum(),
+                    windowRequests / seconds, windowPrompt / seconds, windowCompletion / seconds);
+        }
+    }
+
+    private static final class Slot {
+
+        private volatile long period = Long.MIN_VALUE;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder prompt = new LongAdder();
+        private final LongAdder completion = new LongAdder();
+
+        /**
+         * Clears the slot for a new period. Runs once per slot per period, so the lock is
+         * almost never contended.
+         */
+        synchronized void rollTo(long newPeriod) {
+            if (period != newPeriod) {
+                requests.reset();
+                prompt.reset();
+                completion.reset();
+                period = newPeriod;
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link UsageAccountant}.
+     */
+    public static final class Builder {
+
+        private Duration rateWindow = DEFAULT_RATE_WINDOW;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the rolling window that rates are averaged over. It is divided into 60 slots, so
+         * rates move in steps of one sixtieth of the window.
+         *
+         * @param rateWindow the window, at least one second
+         * @return this builder
+         */
+        public Builder rateWindow(Duration rateWindow) {
+            if (rateWindow == null || rateWindow.compareTo(Duration.ofSeconds(1)) < 0) {
+                throw new IllegalArgumentException("rateWindow must be at least 1 second: " + rateWindow);
+            }
+            this.rateWindow = rateWindow;
+            return this;
+        }
+
+        /**
+         * Creates the accountant.
+         *
+         * @return a new {@link UsageAccountant}
+         */
+        public UsageAccountant build() {
+            return new UsageAccountant(this, System::nanoTime);
+        }
+
+        UsageAccountant build(LongSupplier nanoClock) {
+            return new UsageAccountant(this, nanoClock);
+        }
+    }
+}
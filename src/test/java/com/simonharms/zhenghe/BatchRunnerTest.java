@@ -0,0 +1,219 @@
+package com.simonharms.zhenghe;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchRunnerTest {
+
+    private final Map<String, CompletableFuture<DeepSeekModels.ChatResponse>> calls = new ConcurrentHashMap<>();
+
+    private static DeepSeekModels.ChatResponse response(String content) {
+        DeepSeekModels.ChatResponse.Choice choice = new DeepSeekModels.ChatResponse.Choice();
+        choice.setMessage(new DeepSeekModels.ChatMessage("assistant", content));
+        DeepSeekModels.ChatResponse response = new DeepSeekModels.ChatResponse();
+        response.setChoices(List.of(choice));
+        return response;
+    }
+
+    private CompletableFuture<DeepSeekModels.ChatResponse> call(String prompt) {
+        CompletableFuture<DeepSeekModels.ChatResponse> future = new CompletableFuture<>();
+        calls.put(prompt, future);
+        return future;
+    }
+
+    /**
+     * A source that counts how many prompts have been read.
+     */
+    private static Iterator<String> counting(int size, AtomicInteger read) {
+        return IntStream.range(0, size).mapToObj(i -> {
+            read.incrementAndGet();
+            return "p" + i;
+        }).iterator();
+    }
+
+    @Test
+    void returnsResultsInInputOrder_whenRequestsFinishOutOfOrder() {
+        BatchRunner runner = new BatchRunner(List.of("a", "b", "c").iterator(), this::call, 3, 3, () -> Integer.MAX_VALUE);
+
+        assertTrue(runner.hasNext());
+        assertEquals(3, calls.size());
+        calls.get("c").complete(response("C"));
+        calls.get("b").complete(response("B"));
+        calls.get("a").complete(response("A"));
+
+        List<String> results = new ArrayList<>();
+        runner.forEachRemaining(r -> results.add(r.index() + ":" + r.getMessage()));
+        assertEquals(List.of("0:A", "1:B", "2:C"), results);
+    }
+
+    @Test
+    void boundsRequestsInFlight_andRefillsAsTheyComplete() {
+        AtomicInteger read = new AtomicInteger();
+        BatchRunner runner = new BatchRunner(counting(100, read), this::call, 4, 8, () -> Integer.MAX_VALUE);
+
+        runner.hasNext();
+        assertEquals(4, runner.inFlight());
+        assertEquals(4, read.get());
+
+        calls.get("p1").complete(response("1"));
+        calls.get("p2").complete(response("2"));
+        assertEquals(2, runner.inFlight());
+        assertEquals(4, read.get()); // the source is only read on the caller's thread
+
+        runner.hasNext();
+        assertEquals(4, runner.inFlight());
+        assertEquals(6, read.get());
+    }
+
+    @Test
+    void stopsReadingTheSourceWhenTheBufferIsFull() {
+        AtomicInteger read = new AtomicInteger();
+        BatchRunner runner = new BatchRunner(counting(1000, read), this::call, 4, 8, () -> Integer.MAX_VALUE);
+
+        runner.hasNext();
+        // everything but the head finishes; the caller has not read anything yet
+        for (int round = 0; round < 5; round++) {
+            calls.forEach((prompt, future) -> {
+                if (!prompt.equals("p0")) {
+                    future.complete(response(prompt));
+                }
+            });
+            runner.hasNext();
+        }
+
+        assertEquals(8, read.get());
+        assertEquals(1, runner.inFlight());
+    }
+
+    @Test
+    void followsTheConcurrencyLimitersCurrentLimit() {
+        AtomicInteger limit = new AtomicInteger(2);
+        BatchRunner runner = new BatchRunner(counting(100, new AtomicInteger()), this::call, 8, 16, limit::get);
+
+        runner.hasNext();
+        assertEquals(2, runner.inFlight());
+
+        limit.set(5);
+        calls.get("p0").complete(response("0"));
+        runner.hasNext();
+        assertEquals(5, runner.inFlight());
+    }
+
+    @Test
+    void next_waitsForTheHead_andRefillsAsRequestsComplete() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        BatchRunner runner = new BatchRunner(counting(10, read), this::call, 2, 4, () -> Integer.MAX_VALUE);
+        runner.hasNext();
+        CompletableFuture<BatchResult> first = CompletableFuture.supplyAsync(runner::next);
+
+        calls.get("p1").complete(response("1"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!calls.containsKey("p2") && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(calls.containsKey("p2"), "the waiting caller did not refill the freed slot");
+        assertFalse(first.isDone());
+
+        calls.get("p0").complete(response("0"));
+        assertEquals("0", first.get(5, TimeUnit.SECONDS).getMessage());
+    }
+
+    @Test
+    void maxConcurrencyOne_neverEndsEarly_whenRequestsCompleteOnOtherThreads() {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int run = 0; run < 50; run++) {
+                BatchRunner runner = new BatchRunner(counting(500, new AtomicInteger()),
+                        prompt -> CompletableFuture.supplyAsync(() -> response(prompt), pool),
+                        1, 4, () -> Integer.MAX_VALUE);
+                int count = 0;
+                while (runner.hasNext()) {
+                    assertEquals(count, runner.next().index());
+                    count++;
+                }
+                assertEquals(500, count);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void reportsFailuresPerItemWithoutStoppingTheBatch() {
+        BatchRunner runner = new BatchRunner(List.of("a", "b", "c").iterator(), prompt -> switch (prompt) {
+            case "a" -> CompletableFuture.completedFuture(response("A"));
+            case "b" -> CompletableFuture.failedFuture(new DeepSeekAPIException("boom", 500));
+            default -> throw new IllegalStateException("bad prompt");
+        }, 2, 4, () -> Integer.MAX_VALUE);
+
+        List<BatchResult> results = new ArrayList<>();
+        runner.forEachRemaining(results::add);
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(500, results.get(1).error().getStatusCode());
+        assertNull(results.get(1).response());
+        assertInstanceOf(IllegalStateException.class, results.get(2).error().getCause());
+    }
+
+    @Test
+    void close_cancelsRequestsInFlightAndStopsTheBatch() {
+        BatchRunner runner = new BatchRunner(counting(100, new AtomicInteger()), this::call, 4, 4, () -> Integer.MAX_VALUE);
+        runner.hasNext();
+
+        runner.close();
+
+        assertTrue(calls.values().stream().allMatch(CompletableFuture::isCancelled));
+        assertFalse(runner.hasNext());
+        assertEquals(4, calls.size());
+    }
+
+    @Test
+    void service_completeAll_sendsEachPromptWithTheBatchOptions() throws Exception {
+        DeepSeekAPIClient client = mock(DeepSeekAPIClient.class);
+        List<DeepSeekModels.ChatRequest> sent = new ArrayList<>();
+        when(client.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenAnswer(invocation -> {
+                    DeepSeekModels.ChatRequest request = invocation.getArgument(1);
+                    synchronized (sent) {
+                        sent.add(request);
+                    }
+                    String prompt = request.getMessages().get(request.getMessages().size() - 1).getContent();
+                    if (prompt.equals("fail")) {
+                        return CompletableFuture.failedFuture(new IOException("network error"));
+                    }
+                    return CompletableFuture.supplyAsync(() -> response(prompt.toUpperCase()),
+                            CompletableFuture.delayedExecutor(prompt.length(), TimeUnit.MILLISECONDS));
+                });
+        BatchOptions options = BatchOptions.builder("deepseek-chat").maxTokens(16).temperature(0).maxConcurrency(2).build();
+
+        try (DeepSeekService service = new DeepSeekService(client, 100);
+             Stream<BatchResult> results = service.completeAll(List.of("slowest", "a", "fail", "mid"), options)) {
+            List<String> messages = results.map(r -> r.isSuccess() ? r.getMessage() : r.error().getMessage()).toList();
+
+            assertEquals(List.of("SLOWEST", "A", "Failed to generate completion", "MID"), messages);
+        }
+        assertEquals(4, sent.size());
+        assertTrue(sent.stream().allMatch(r -> r.getMaxTokens() == 16 && r.getTemperature() == 0
+                && r.getModel().equals("deepseek-chat")));
+    }
+}
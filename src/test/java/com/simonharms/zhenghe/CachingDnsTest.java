@@ -0,0 +1,76 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.Dns;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingDnsTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private volatile boolean failing;
+
+    private final Dns delegate = hostname -> {
+        lookups.incrementAndGet();
+        if (failing) {
+            throw new UnknownHostException(hostname);
+        }
+        return List.of(InetAddress.getByAddress(hostname, new byte[] {10, 0, 0, (byte) lookups.get()}));
+    };
+
+    private final CachingDns dns = new CachingDns(delegate, Duration.ofSeconds(30), clock::get);
+
+    @Test
+    void lookup_withinTtl_isServedFromCache() throws Exception {
+        List<InetAddress> first = dns.lookup("api.deepseek.com");
+        clock.addAndGet(Duration.ofSeconds(29).toNanos());
+
+        assertSame(first, dns.lookup("api.deepseek.com"));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void lookup_afterTtl_resolvesAgain() throws Exception {
+        List<InetAddress> first = dns.lookup("api.deepseek.com");
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+
+        List<InetAddress> second = dns.lookup("api.deepseek.com");
+
+        assertEquals(2, lookups.get());
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void lookup_failedRefresh_servesExpiredAddresses() throws Exception {
+        List<InetAddress> first = dns.lookup("api.deepseek.com");
+        clock.addAndGet(Duration.ofMinutes(5).toNanos());
+        failing = true;
+
+        assertEquals(first, dns.lookup("api.deepseek.com"));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void lookup_failureWithoutCachedEntry_throws() {
+        failing = true;
+
+        assertThrows(UnknownHostException.class, () -> dns.lookup("api.deepseek.com"));
+    }
+
+    @Test
+    void lookup_cachesHostsIndependently() throws Exception {
+        dns.lookup("a.example");
+        dns.lookup("b.example");
+        dns.lookup("a.example");
+
+        assertEquals(2, lookups.get());
+    }
+}
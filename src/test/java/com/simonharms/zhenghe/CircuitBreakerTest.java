@@ -0,0 +1,204 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static final String MODELS_JSON = "{\"object\":\"list\",\"data\":[]}";
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> transitions = new ArrayList<>();
+
+    private CircuitBreaker.Builder breaker() {
+        return CircuitBreaker.builder()
+                .windowSize(10)
+                .minimumCalls(4)
+                .failureRateThreshold(50)
+                .slowCallRateThreshold(50)
+                .slowCallDuration(Duration.ofSeconds(5))
+                .openDuration(Duration.ofSeconds(30))
+                .halfOpenProbes(2)
+                .listener((from, to) -> transitions.add(from + "->" + to));
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failed, long durationNanos) throws IOException {
+        breaker.record(breaker.acquirePermission(), failed, durationNanos);
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() throws Exception {
+        CircuitBreaker breaker = breaker().build(clock::get);
+
+        call(breaker, false, 0);
+        call(breaker, true, 0);
+        call(breaker, false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState()); // below minimumCalls
+
+        call(breaker, true, 0);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    void slowCallsAreNotCountedByDefault() throws Exception {
+        CircuitBreaker breaker = CircuitBreaker.builder().windowSize(10).minimumCalls(4).build(clock::get);
+
+        for (int i = 0; i < 10; i++) {
+            call(breaker, false, 600 * SECOND);
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getSlowCallRate());
+    }
+
+    @Test
+    void opensWhenSlowCallRateReachesThreshold() throws Exception {
+        CircuitBreaker breaker = breaker().build(clock::get);
+
+        call(breaker, false, 6 * SECOND);
+        call(breaker, false, 0);
+        call(breaker, false, 6 * SECOND);
+        call(breaker, false, 0);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void slidingWindowForgetsOldFailures() throws Exception {
+        CircuitBreaker breaker = breaker().windowSize(4).failureRateThreshold(75).build(clock::get);
+
+        call(breaker, true, 0);
+        call(breaker, true, 0);
+        call(breaker, false, 0);
+        call(breaker, false, 0);
+        call(breaker, false, 0);
+        call(breaker, true, 0);
+
+        // window holds [false, false, false, true]
+        assertEquals(25.0, breaker.getFailureRate());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void openRejectsUntilOpenDurationElapses() throws Exception {
+        CircuitBreaker breaker = breaker().minimumCalls(1).build(clock::get);
+        call(breaker, true, 0);
+
+        clock.addAndGet(10 * SECOND);
+        CircuitBreakerOpenException e = assertThrows(CircuitBreakerOpenException.class, breaker::acquirePermission);
+        assertEquals(Duration.ofSeconds(20), e.getRetryAfter());
+
+        clock.addAndGet(20 * SECOND);
+        assertDoesNotThrow(breaker::acquirePermission);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpen_limitsProbesAndClosesWhenTheySucceed() throws Exception {
+        CircuitBreaker breaker = breaker().minimumCalls(1).build(clock::get);
+        call(breaker, true, 0);
+        clock.addAndGet(30 * SECOND);
+
+        int first = breaker.acquirePermission();
+        int second = breaker.acquirePermission();
+        assertThrows(CircuitBreakerOpenException.class, breaker::acquirePermission);
+
+        breaker.record(first, false, 0);
+        breaker.record(second, false, 0);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    void halfOpen_reopensWhenProbesFail() throws Exception {
+        CircuitBreaker breaker = breaker().minimumCalls(1).build(clock::get);
+        call(breaker, true, 0);
+        clock.addAndGet(30 * SECOND);
+
+        call(breaker, true, 0);
+        call(breaker, false, 0);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreakerOpenException.class, breaker::acquirePermission);
+    }
+
+    @Test
+    void halfOpen_releasedProbeFreesItsSlot() throws Exception {
+        CircuitBreaker breaker = breaker().minimumCalls(1).halfOpenProbes(1).build(clock::get);
+        call(breaker, true, 0);
+        clock.addAndGet(30 * SECOND);
+
+        breaker.release(breaker.acquirePermission());
+
+        assertDoesNotThrow(breaker::acquirePermission);
+    }
+
+    @Test
+    void stragglersFromClosedStateAreNotCountedAsProbes() throws Exception {
+        CircuitBreaker breaker = breaker().minimumCalls(1).halfOpenProbes(1).build(clock::get);
+        int straggler = breaker.acquirePermission();
+        call(breaker, true, 0);
+        clock.addAndGet(30 * SECOND);
+        int probe = breaker.acquirePermission();
+
+        breaker.record(straggler, true, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.record(probe, false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void client_failsFastWhileOpenAndServiceWrapsRejection() throws Exception {
+        CircuitBreaker breaker = CircuitBreaker.builder()
+                .windowSize(4)
+                .minimumCalls(2)
+                .openDuration(Duration.ofMinutes(1))
+                .build();
+        try (MockWebServer server = new MockWebServer()) {
+            for (int i = 0; i < 2; i++) {
+                server.enqueue(new MockResponse().setResponseCode(503));
+            }
+            server.enqueue(new MockResponse().setBody(MODELS_JSON));
+            server.start();
+            String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl)
+                    .retryPolicy(RetryPolicy.builder().maxAttempts(5).baseDelay(Duration.ofMillis(1)).build())
+                    .circuitBreaker(breaker)
+                    .build()) {
+                // the breaker opens after the second 503 and stops the retries
+                assertThrows(CircuitBreakerOpenException.class, () ->
+                        client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class));
+                assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+                DeepSeekService service = new DeepSeekService(client, 2048);
+                DeepSeekAPIException e = assertThrows(DeepSeekAPIException.class, service::getModels);
+                assertInstanceOf(CircuitBreakerOpenException.class, e.getCause());
+            }
+            assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    void builder_rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().failureRateThreshold(0));
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().slowCallRateThreshold(101));
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().windowSize(0));
+        assertThrows(IllegalArgumentException.class, () -> CircuitBreaker.builder().openDuration(Duration.ZERO));
+    }
+}
@@ -0,0 +1,257 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyLimiterTest {
+
+    private static final String MODELS_JSON = "{\"object\":\"list\",\"data\":[]}";
+
+    @Test
+    void acquire_grantsUpToLimitThenQueues() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().initialLimit(2).build();
+
+        ConcurrencyLimiter.Slot first = limiter.acquire();
+        limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Slot> third = limiter.acquireAsync();
+
+        assertFalse(third.isDone());
+        assertEquals(1, limiter.getQueued());
+
+        first.release();
+
+        assertNotNull(third.get(5, TimeUnit.SECONDS));
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    void acquire_waitExpires_rejects() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+                .initialLimit(1)
+                .maxWait(Duration.ofMillis(50))
+                .build();
+        assertDoesNotThrow(limiter::acquire);
+
+        assertThrows(RateLimitExceededException.class, limiter::acquire);
+        assertEquals(1, limiter.getRejectedCount());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    void acquire_queueFull_rejectsImmediately() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().initialLimit(1).maxQueued(0).build();
+        limiter.acquire();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> limiter.acquireAsync().get());
+        assertInstanceOf(RateLimitExceededException.class, e.getCause());
+    }
+
+    @Test
+    void cancelledWaiter_leavesQueue() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().initialLimit(1).build();
+        ConcurrencyLimiter.Slot slot = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Slot> waiter = limiter.acquireAsync();
+
+        waiter.cancel(false);
+        slot.release();
+
+        assertEquals(0, limiter.getQueued());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void overload_decreasesOncePerRound() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().initialLimit(10).backoffRatio(0.5).build();
+        List<ConcurrencyLimiter.Slot> slots = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            slots.add(limiter.acquire());
+        }
+
+        for (ConcurrencyLimiter.Slot slot : slots) {
+            slot.onResponse(429);
+            slot.release();
+        }
+
+        assertEquals(5, limiter.getLimit());
+        assertEquals(10, limiter.getOverloadCount());
+    }
+
+    @Test
+    void successUnderLoad_increasesLimit() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().initialLimit(4).maxLimit(5).build();
+
+        // one fully used round of 4 adds about one; the second round hits maxLimit
+        for (int round = 0; round < 3; round++) {
+            List<ConcurrencyLimiter.Slot> slots = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                slots.add(limiter.acquire());
+            }
+            for (ConcurrencyLimiter.Slot slot : slots) {
+                slot.onResponse(200);
+                slot.release();
+            }
+        }
+
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    void successWhileMostlyIdle_keepsLimit() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().initialLimit(10).build();
+
+        ConcurrencyLimiter.Slot slot = limiter.acquire();
+        slot.onResponse(200);
+        slot.release();
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    void slowResponse_countsAsOverloadWhenThresholdSet() throws Exception {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+                .initialLimit(10)
+                .latencyThreshold(Duration.ofMillis(1))
+                .build();
+
+        ConcurrencyLimiter.Slot slot = limiter.acquire();
+        Thread.sleep(5);
+        slot.onResponse(200);
+        slot.release();
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void builder_rejectsInconsistentBounds() {
+        assertThrows(IllegalArgumentException.class, () -> ConcurrencyLimiter.builder().initialLimit(0));
+        assertThrows(IllegalArgumentException.class, () -> ConcurrencyLimiter.builder().backoffRatio(1.0));
+        assertThrows(IllegalArgumentException.class, () -> ConcurrencyLimiter.builder()
+                .minLimit(10).maxLimit(5).build());
+        assertThrows(IllegalArgumentException.class, () -> ConcurrencyLimiter.builder()
+                .initialLimit(300).build());
+    }
+
+    @Test
+    void client_retriedOverloadShrinksLimit() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setResponseCode(429));
+            server.enqueue(new MockResponse().setResponseCode(503));
+            server.enqueue(new MockResponse().setBody(MODELS_JSON));
+            server.start();
+            String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+            ConcurrencyLimiter limiter = ConcurrencyLimiter.builder().initialLimit(10).backoffRatio(0.5).build();
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl)
+                    .retryPolicy(RetryPolicy.builder().baseDelay(Duration.ofMillis(1)).build())
+                    .concurrencyLimiter(limiter)
+                    .build()) {
+                assertNotNull(client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class));
+            }
+
+            // the retries are hidden from the caller but not from the limiter
+            assertEquals(3, server.getRequestCount());
+            assertEquals(2, limiter.getOverloadCount());
+            assertEquals(2, limiter.getLimit());
+            assertEquals(0, limiter.getInFlight());
+        }
+    }
+
+    /**
+     * Simulates a server whose capacity drops from 16 to 4 concurrent requests. Requests above
+     * capacity are answered with 429. The limiter should first grow to use the capacity and
+     * then shrink to fit the new capacity, after which 429s become rare.
+     */
+    @Test
+    void client_convergesAfterCapacityDrop() throws Exception {
+        AtomicInteger capacity = new AtomicInteger(16);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger throttledResponses = new AtomicInteger();
+
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                    int now = active.incrementAndGet();
+                    try {
+                        if (now > capacity.get()) {
+                            throttledResponses.incrementAndGet();
+                            return new MockResponse().setResponseCode(429);
+                        }
+                        Thread.sleep(10);
+                        return new MockResponse().setBody(MODELS_JSON);
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                }
+            });
+            server.start();
+            String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+            ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+                    .initialLimit(2)
+                    .maxLimit(64)
+                    .backoffRatio(0.75)
+                    .build();
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl)
+                    .concurrencyLimiter(limiter)
+                    .build();
+                 ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+
+                runLoad(client, callers, 32, 600);
+                int limitAtFullCapacity = limiter.getLimit();
+                assertTrue(limitAtFullCapacity >= 8, "limit should grow toward capacity 16: " + limitAtFullCapacity);
+
+                capacity.set(4);
+                runLoad(client, callers, 32, 600);
+                int limitAfterDrop = limiter.getLimit();
+                assertTrue(limitAfterDrop <= 12 && limitAfterDrop <= limitAtFullCapacity / 2,
+                        "limit should shrink toward capacity 4: " + limitAtFullCapacity + " -> " + limitAfterDrop);
+
+                throttledResponses.set(0);
+                runLoad(client, callers, 32, 300);
+                assertTrue(throttledResponses.get() < 45,
+                        "429s should be rare once converged: " + throttledResponses.get() + " of 300");
+            }
+            assertEquals(0, limiter.getInFlight());
+        }
+    }
+
+    private static void runLoad(DeepSeekAPIClient client, ExecutorService callers, int threads, int requests)
+            throws Exception {
+        AtomicInteger remaining = new AtomicInteger(requests);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(callers.submit(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    try {
+                        client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class);
+                    } catch (IOException e) {
+                        // 429s are expected while the limiter adapts
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -5,19 +5,29 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class DeepSeekAPIClientTest {
 
@@ -136,6 +146,17 @@ class DeepSeekAPIClientTest {
         assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
     }
 
+    @Test
+    void sendPostRequest_sendsSerializedRequestBody() throws Exception {
+        server.enqueue(new MockResponse().setBody(chatResponseJson("ok")).setResponseCode(200));
+
+        client.sendPostRequest("/chat/completions", chatRequest("鄭和"), DeepSeekModels.ChatResponse.class);
+
+        String sent = server.takeRequest().getBody().readUtf8();
+        assertTrue(sent.contains("\"content\":\"鄭和\""), sent);
+        assertTrue(sent.contains("\"model\":\"deepseek-chat\""), sent);
+    }
+
     @Test
     void sendPostRequest_serverError_throwsIOException() {
         server.enqueue(new MockResponse().setResponseCode(429).setBody("{\"error\":\"rate limited\"}"));
@@ -148,6 +169,236 @@ class DeepSeekAPIClientTest {
                 client.sendPostRequest("/chat/completions", requestBody, DeepSeekModels.ChatResponse.class));
     }
 
+    @Test
+    void sendPostRequest_errorBody_isTruncatedInExceptionMessage() {
+        String hugeError = "x".repeat((int) DeepSeekAPIClient.MAX_ERROR_BODY_BYTES * 4);
+        server.enqueue(new MockResponse().setResponseCode(400).setBody(hugeError));
+
+        IOException e = assertThrows(IOException.class, () ->
+                client.sendPostRequest("/chat/completions", chatRequest("Hi"), DeepSeekModels.ChatResponse.class));
+
+        assertTrue(e.getMessage().endsWith("(truncated)"));
+        assertTrue(e.getMessage().length() < DeepSeekAPIClient.MAX_ERROR_BODY_BYTES + 100);
+    }
+
+    @Test
+    void sendPostRequest_decodesMultiByteContentFromStream() throws Exception {
+        String content = "鄭和下西洋".repeat(20_000);
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .addHeader("Content-Type", "application/json")
+                .setBody(chatResponseJson(content)));
+
+        DeepSeekModels.ChatResponse response =
+                client.sendPostRequest("/chat/completions", chatRequest("Hi"), DeepSeekModels.ChatResponse.class);
+
+        assertEquals(content, response.getMessage());
+    }
+
+    @Test
+    void sendPostRequest_largeResponse_allocatesLessThanStringDecoding() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        String body = chatResponseJson("a".repeat(2_000_000));
+        ObjectMapper mapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        OkHttpClient rawClient = new OkHttpClient();
+        long threadId = Thread.currentThread().threadId();
+
+        long streamed = Long.MAX_VALUE;
+        long buffered = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody(body));
+            long before = threads.getThreadAllocatedBytes(threadId);
+            client.sendPostRequest("/chat/completions", chatRequest("Hi"), DeepSeekModels.ChatResponse.class);
+            streamed = Math.min(streamed, threads.getThreadAllocatedBytes(threadId) - before);
+
+            // The previous implementation: materialize the body as a String, then parse it
+            server.enqueue(new MockResponse().setResponseCode(200).setBody(body));
+            before = threads.getThreadAllocatedBytes(threadId);
+            try (okhttp3.Response response = rawClient.newCall(
+                    new okhttp3.Request.Builder().url(server.url("/chat/completions")).build()).execute()) {
+                mapper.readValue(response.body().string(), DeepSeekModels.ChatResponse.class);
+            }
+            buffered = Math.min(buffered, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        assertTrue(streamed < buffered,
+                "Streaming decode allocated " + streamed + " bytes vs " + buffered + " for String decode");
+    }
+
+    @Test
+    void requestFingerprint_isStableAndDependsOnContent() throws Exception {
+        DeepSeekModels.ChatRequest a = new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", "Hi")), 100);
+        DeepSeekModels.ChatRequest b = new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new EncodedChatMessage("user", "Hi")), 100);
+        DeepSeekModels.ChatRequest c = new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", "Hi")), 101);
+
+        assertEquals(64, client.requestFingerprint(a).length());
+        assertEquals(client.requestFingerprint(a), client.requestFingerprint(b));
+        assertNotEquals(client.requestFingerprint(a), client.requestFingerprint(c));
+    }
+
+    // --- POST (async) ---
+
+    @Test
+    void sendPostRequestAsync_success_completesWithDeserializedObject() throws Exception {
+        String json = """
+                {"id":"resp-async","object":"chat.completion","created":0,"model":"deepseek-chat",
+                 "choices":[{"index":0,"finish_reason":"stop",
+                   "message":{"role":"assistant","content":"Async hello"}}]}
+                """;
+        server.enqueue(new MockResponse().setBody(json).setResponseCode(200)
+                .addHeader("Content-Type", "application/json"));
+
+        CompletableFuture<DeepSeekModels.ChatResponse> future = client.sendPostRequestAsync(
+                "/chat/completions", chatRequest("Hi"), DeepSeekModels.ChatResponse.class);
+
+        DeepSeekModels.ChatResponse response = future.get(5, TimeUnit.SECONDS);
+        assertEquals("resp-async", response.getId());
+        assertEquals("Async hello", response.getMessage());
+        assertEquals("Bearer test-key", server.takeRequest().getHeader("Authorization"));
+    }
+
+    @Test
+    void sendPostRequestAsync_serverError_completesExceptionallyWithIOException() {
+        server.enqueue(new MockResponse().setResponseCode(503).setBody("unavailable"));
+
+        CompletableFuture<DeepSeekModels.ChatResponse> future = client.sendPostRequestAsync(
+                "/chat/completions", chatRequest("Hi"), DeepSeekModels.ChatResponse.class);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    @Test
+    void sendPostRequestAsync_cancel_cancelsCall() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+        CompletableFuture<DeepSeekModels.ChatResponse> future = client.sendPostRequestAsync(
+                "/chat/completions", chatRequest("Hi"), DeepSeekModels.ChatResponse.class);
+        server.takeRequest(5, TimeUnit.SECONDS);
+        future.cancel(true);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.httpClient().dispatcher().runningCallsCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.httpClient().dispatcher().runningCallsCount());
+    }
+
+    // --- Builder ---
+
+    @Test
+    void builder_appliesDispatcherLimits() {
+        try (DeepSeekAPIClient built = DeepSeekAPIClient.builder("k", "http://localhost")
+                .maxRequests(200)
+                .maxRequestsPerHost(150)
+                .build()) {
+            assertEquals(200, built.httpClient().dispatcher().getMaxRequests());
+            assertEquals(150, built.httpClient().dispatcher().getMaxRequestsPerHost());
+        }
+    }
+
+    @Test
+    void builder_defaultsDoNotThrottleSingleHost() {
+        try (DeepSeekAPIClient built = new DeepSeekAPIClient("k", "http://localhost")) {
+            assertEquals(DeepSeekAPIClient.DEFAULT_MAX_REQUESTS_PER_HOST,
+                    built.httpClient().dispatcher().getMaxRequestsPerHost());
+        }
+    }
+
+    @Test
+    void builder_rejectsNonPositiveLimits() {
+        assertThrows(IllegalArgumentException.class, () ->
+                DeepSeekAPIClient.builder("k", "http://localhost").maxRequestsPerHost(0));
+    }
+
+    @Test
+    void builder_appliesConnectionSettings() {
+        try (DeepSeekAPIClient built = DeepSeekAPIClient.builder("k", "http://localhost")
+                .preferHttp2(false)
+                .pingInterval(Duration.ofSeconds(15))
+                .dnsCacheTtl(Duration.ofMinutes(1))
+                .build()) {
+            assertEquals(List.of(Protocol.HTTP_1_1), built.httpClient().protocols());
+            assertEquals(15_000, built.httpClient().pingIntervalMillis());
+            assertInstanceOf(CachingDns.class, built.httpClient().dns());
+        }
+    }
+
+    @Test
+    void builder_rejectsNonPositiveDurations() {
+        DeepSeekAPIClient.Builder builder = DeepSeekAPIClient.builder("k", "http://localhost");
+        assertThrows(IllegalArgumentException.class, () -> builder.keepWarm(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> builder.connectionPool(5, null));
+        assertThrows(IllegalArgumentException.class, () -> builder.connectionPool(-1, Duration.ofMinutes(1)));
+    }
+
+    // --- Warm-up ---
+
+    @Test
+    void warmUp_opensRequestedNumberOfConnections() throws Exception {
+        int connections = 4;
+        CountDownLatch allArrived = new CountDownLatch(connections);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                allArrived.countDown();
+                allArrived.await(5, TimeUnit.SECONDS);
+                return new MockResponse().setBody("{\"object\":\"list\",\"data\":[]}");
+            }
+        });
+        String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+        try (DeepSeekAPIClient built = DeepSeekAPIClient.builder("test-key", baseUrl)
+                .connectionPool(connections, Duration.ofMinutes(1))
+                .build()) {
+            assertEquals(connections, built.warmUp(connections));
+            assertEquals(connections, server.getRequestCount());
+            assertEquals(connections, built.httpClient().connectionPool().connectionCount());
+
+            RecordedRequest request = server.takeRequest();
+            assertEquals("GET", request.getMethod());
+            assertEquals("/models", request.getPath());
+            assertEquals("Bearer test-key", request.getHeader("Authorization"));
+        }
+    }
+
+    @Test
+    void warmUp_countsOnlySuccessfulResponses() {
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        assertEquals(1, client.warmUp(2));
+    }
+
+    @Test
+    void keepWarm_pingsModelsEndpointUntilClosed() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("{}");
+            }
+        });
+        String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+        DeepSeekAPIClient pinging = DeepSeekAPIClient.builder("test-key", baseUrl)
+                .keepWarm(Duration.ofMillis(20))
+                .build();
+        try {
+            assertEquals("/models", server.takeRequest(5, TimeUnit.SECONDS).getPath());
+            assertEquals("/models", server.takeRequest(5, TimeUnit.SECONDS).getPath());
+        } finally {
+            pinging.close();
+        }
+    }
+
     // --- Streaming ---
 
     @Test
@@ -227,4 +478,48 @@ class DeepSeekAPIClientTest {
         assertEquals(1, callCount.get(), "Consumer should only be called for chunks with content");
         assertEquals("Hi", collected.toString());
     }
+
+    @Test
+    void sendStreamingPostRequest_decodesUtf8AndMultiLineEvents() throws Exception {
+        String sseBody =
+                ": keep-alive comment\n\n" +
+                "id: 1\n" +
+                "data: {\"id\":\"c1\",\"model\":\"deepseek-chat\",\n" +
+                "data: \"choices\":[{\"index\":0,\"delta\":{\"content\":\"鄭和\"}}]}\n\n" +
+                "data: {\"id\":\"c2\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"下西洋\"}}]}\r\n\r\n" +
+                "data: [DONE]\n\n";
+        server.enqueue(new MockResponse().setBody(sseBody).setResponseCode(200)
+                .addHeader("Content-Type", "text/event-stream"));
+
+        StringBuilder collected = new StringBuilder();
+        client.sendStreamingPostRequest("/chat/completions", chatRequest("Hi"), collected::append);
+
+        assertEquals("鄭和下西洋", collected.toString());
+    }
+
+    @Test
+    void sendStreamingPostRequest_consumerException_propagates() {
+        String sseBody = "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"x\"}}]}\n\n";
+        server.enqueue(new MockResponse().setBody(sseBody).setResponseCode(200)
+                .addHeader("Content-Type", "text/event-stream"));
+
+        assertThrows(IllegalStateException.class, () ->
+                client.sendStreamingPostRequest("/chat/completions", chatRequest("Hi"), token -> {
+                    throw new IllegalStateException("consumer failed");
+                }));
+    }
+
+    // --- helpers ---
+
+    private static String chatResponseJson(String content) {
+        return "{\"id\":\"r\",\"object\":\"chat.completion\",\"created\":0,\"model\":\"deepseek-chat\","
+                + "\"choices\":[{\"index\":0,\"finish_reason\":\"stop\","
+                + "\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"}}]}";
+    }
+
+    private static DeepSeekModels.ChatRequest chatRequest(String content) {
+        List<DeepSeekModels.ChatMessage> messages = new ArrayList<>();
+        messages.add(new DeepSeekModels.ChatMessage("user", content));
+        return new DeepSeekModels.ChatRequest("deepseek-chat", messages, 10);
+    }
 }
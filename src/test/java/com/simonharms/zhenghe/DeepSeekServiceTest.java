@@ -8,6 +8,9 @@ import org.mockito.Mockito;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -125,6 +128,26 @@ class DeepSeekServiceTest {
                 service.sendChatRequest("Hello", "deepseek-chat"));
     }
 
+    @Test
+    void sendChatRequest_httpError_propagatesStatusCode() throws Exception {
+        when(mockClient.sendPostRequest(anyString(), any(), any()))
+                .thenThrow(new DeepSeekHttpException("POST request failed [429]: slow down", 429, null));
+
+        DeepSeekAPIException e = assertThrows(DeepSeekAPIException.class, () ->
+                service.sendChatRequest("Hello", "deepseek-chat"));
+        assertEquals(429, e.getStatusCode());
+    }
+
+    @Test
+    void generateCompletionAsync_httpError_propagatesStatusCode() {
+        when(mockClient.sendPostRequestAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new DeepSeekHttpException("bad", 400, null)));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () ->
+                service.generateCompletionAsync("Hi", "deepseek-chat").get(5, TimeUnit.SECONDS));
+        assertEquals(400, ((DeepSeekAPIException) e.getCause()).getStatusCode());
+    }
+
     @Test
     void sendChatRequest_multiTurn_accumulatesHistory() throws Exception {
         when(mockClient.sendPostRequest(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
@@ -137,6 +160,29 @@ class DeepSeekServiceTest {
         assertEquals(4, service.getChatHistory().size());
     }
 
+    @Test
+    void sendChatRequest_reusesEncodedHistoryMessagesAcrossTurns() throws Exception {
+        when(mockClient.sendPostRequest(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(buildChatResponse("First reply"))
+                .thenReturn(buildChatResponse("Second reply"));
+
+        service.sendChatRequest("First question", "deepseek-chat");
+        service.sendChatRequest("Second question", "deepseek-chat");
+
+        ArgumentCaptor<DeepSeekModels.ChatRequest> captor =
+                ArgumentCaptor.forClass(DeepSeekModels.ChatRequest.class);
+        verify(mockClient, times(2)).sendPostRequest(eq("/chat/completions"), captor.capture(), any());
+        List<DeepSeekModels.ChatMessage> first = captor.getAllValues().get(0).getMessages();
+        List<DeepSeekModels.ChatMessage> second = captor.getAllValues().get(1).getMessages();
+
+        // System prompt and the first user message are the same cached instances on turn two
+        assertSame(first.get(0), second.get(0));
+        assertSame(first.get(1), second.get(1));
+        for (DeepSeekModels.ChatMessage message : second) {
+            assertInstanceOf(EncodedChatMessage.class, message);
+        }
+    }
+
     // --- system prompt ---
 
     @Test
@@ -290,6 +336,161 @@ class DeepSeekServiceTest {
         assertTrue(service.getChatHistory().isEmpty());
     }
 
+    @Test
+    void generateCompletionAsync_coalescesIdenticalDeterministicRequests() throws Exception {
+        CompletableFuture<DeepSeekModels.ChatResponse> upstream = new CompletableFuture<>();
+        when(mockClient.requestFingerprint(any())).thenReturn("same");
+        when(mockClient.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(upstream);
+
+        CompletableFuture<DeepSeekModels.ChatResponse> first = service.generateCompletionAsync(deterministicRequest());
+        CompletableFuture<DeepSeekModels.ChatResponse> second = service.generateCompletionAsync(deterministicRequest());
+        upstream.complete(buildChatResponse("shared"));
+
+        assertEquals("shared", first.get(5, TimeUnit.SECONDS).getMessage());
+        assertEquals("shared", second.get(5, TimeUnit.SECONDS).getMessage());
+        verify(mockClient, times(1)).sendPostRequestAsync(anyString(), any(), any());
+        assertEquals(1, service.getCoalescedRequestCount());
+    }
+
+    @Test
+    void generateCompletionAsync_cacheBypassRequestDoesNotJoinACachedLeader() throws Exception {
+        CompletableFuture<DeepSeekModels.ChatResponse> cached = new CompletableFuture<>();
+        when(mockClient.requestFingerprint(any())).thenReturn("same");
+        when(mockClient.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(cached, CompletableFuture.completedFuture(buildChatResponse("fresh")));
+
+        CompletableFuture<DeepSeekModels.ChatResponse> leader = service.generateCompletionAsync(deterministicRequest());
+        DeepSeekModels.ChatRequest bypass = deterministicRequest();
+        bypass.setCacheBypass(true);
+        CompletableFuture<DeepSeekModels.ChatResponse> follower = service.generateCompletionAsync(bypass);
+        cached.complete(buildChatResponse("cached"));
+
+        assertEquals("cached", leader.get(5, TimeUnit.SECONDS).getMessage());
+        assertEquals("fresh", follower.get(5, TimeUnit.SECONDS).getMessage());
+        verify(mockClient, times(2)).sendPostRequestAsync(anyString(), any(), any());
+        assertEquals(0, service.getCoalescedRequestCount());
+    }
+
+    @Test
+    void generateCompletionAsync_doesNotCoalesceSampledRequestsByDefault() throws Exception {
+        when(mockClient.requestFingerprint(any())).thenReturn("same");
+        when(mockClient.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(new CompletableFuture<>());
+
+        service.generateCompletionAsync("Summarize", "deepseek-chat");
+        service.generateCompletionAsync("Summarize", "deepseek-chat");
+        assertEquals(0, service.getCoalescedRequestCount());
+
+        service.setCoalescing(DeepSeekService.Coalescing.ALL);
+        service.generateCompletionAsync("Summarize", "deepseek-chat");
+        service.generateCompletionAsync("Summarize", "deepseek-chat");
+
+        verify(mockClient, times(3)).sendPostRequestAsync(anyString(), any(), any());
+        assertEquals(1, service.getCoalescedRequestCount());
+    }
+
+    @Test
+    void streamCompletion_deliversTokensWithoutTouchingHistory() throws Exception {
+        doAnswer(invocation -> {
+            DeepSeekModels.ChatRequest request = invocation.getArgument(1);
+            assertTrue(request.isStream());
+            Consumer<String> onToken = invocation.getArgument(2);
+            onToken.accept("Hello");
+            onToken.accept(" world");
+            return null;
+        }).when(mockClient).sendStreamingPostRequest(eq("/chat/completions"), any(), any());
+
+        StringBuilder collected = new StringBuilder();
+        service.streamCompletion("Hi", "deepseek-chat", collected::append);
+
+        assertEquals("Hello world", collected.toString());
+        assertTrue(service.getChatHistory().isEmpty());
+    }
+
+    // --- async ---
+
+    @Test
+    void generateCompletionAsync_completesWithResponse() throws Exception {
+        when(mockClient.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(CompletableFuture.completedFuture(buildChatResponse("async result")));
+
+        DeepSeekModels.ChatResponse result =
+                service.generateCompletionAsync("Hi", "deepseek-chat").get(5, TimeUnit.SECONDS);
+
+        assertEquals("async result", result.getMessage());
+        assertTrue(service.getChatHistory().isEmpty());
+    }
+
+    @Test
+    void generateCompletionAsync_clientFails_completesWithDeepSeekAPIException() {
+        when(mockClient.sendPostRequestAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("boom")));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () ->
+                service.generateCompletionAsync("Hi", "deepseek-chat").get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DeepSeekAPIException.class, e.getCause());
+        assertInstanceOf(IOException.class, e.getCause().getCause());
+    }
+
+    @Test
+    void sendChatRequestAsync_turnsRunInOrderAndUpdateHistory() throws Exception {
+        CompletableFuture<DeepSeekModels.ChatResponse> first = new CompletableFuture<>();
+        when(mockClient.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(first)
+                .thenReturn(CompletableFuture.completedFuture(buildChatResponse("Second reply")));
+
+        CompletableFuture<DeepSeekModels.ChatResponse> turn1 = service.sendChatRequestAsync("One", "deepseek-chat");
+        CompletableFuture<DeepSeekModels.ChatResponse> turn2 = service.sendChatRequestAsync("Two", "deepseek-chat");
+
+        // The second turn must not start until the first one has finished
+        verify(mockClient, times(1)).sendPostRequestAsync(anyString(), any(), any());
+        first.complete(buildChatResponse("First reply"));
+        turn2.get(5, TimeUnit.SECONDS);
+
+        assertEquals("First reply", turn1.get().getMessage());
+        List<DeepSeekModels.ChatMessage> history = service.getChatHistory();
+        assertEquals(4, history.size());
+        assertEquals("One", history.get(0).getContent());
+        assertEquals("First reply", history.get(1).getContent());
+        assertEquals("Two", history.get(2).getContent());
+        assertEquals("Second reply", history.get(3).getContent());
+    }
+
+    @Test
+    void sendChatRequestAsync_cancelledMidFlight_cancelsTheCallAndKeepsHistoryInOrder() throws Exception {
+        CompletableFuture<DeepSeekModels.ChatResponse> first = new CompletableFuture<>();
+        when(mockClient.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(first)
+                .thenReturn(CompletableFuture.completedFuture(buildChatResponse("Second reply")));
+
+        CompletableFuture<DeepSeekModels.ChatResponse> turn1 = service.sendChatRequestAsync("One", "deepseek-chat");
+        turn1.cancel(true);
+        CompletableFuture<DeepSeekModels.ChatResponse> turn2 = service.sendChatRequestAsync("Two", "deepseek-chat");
+        turn2.get(5, TimeUnit.SECONDS);
+        first.complete(buildChatResponse("Stale reply"));
+
+        assertTrue(first.isCancelled());
+        assertEquals(List.of("One", "Two", "Second reply"),
+                service.getChatHistory().stream().map(DeepSeekModels.ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void sendChatRequestAsync_cancelledWhileQueued_neverStarts() throws Exception {
+        CompletableFuture<DeepSeekModels.ChatResponse> first = new CompletableFuture<>();
+        when(mockClient.sendPostRequestAsync(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenReturn(first);
+
+        CompletableFuture<DeepSeekModels.ChatResponse> turn1 = service.sendChatRequestAsync("One", "deepseek-chat");
+        service.sendChatRequestAsync("Two", "deepseek-chat").cancel(true);
+        first.complete(buildChatResponse("First reply"));
+        turn1.get(5, TimeUnit.SECONDS);
+
+        verify(mockClient, times(1)).sendPostRequestAsync(anyString(), any(), any());
+        assertEquals(List.of("One", "First reply"),
+                service.getChatHistory().stream().map(DeepSeekModels.ChatMessage::getContent).toList());
+    }
+
     // --- defaultMaxTokens ---
 
     @Test
@@ -308,6 +509,13 @@ class DeepSeekServiceTest {
 
     // --- helpers ---
 
+    private static DeepSeekModels.ChatRequest deterministicRequest() {
+        DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest("deepseek-chat",
+                new ArrayList<>(List.of(new DeepSeekModels.ChatMessage("user", "Summarize"))), 100);
+        request.setTemperature(0);
+        return request;
+    }
+
     private DeepSeekModels.ChatResponse buildChatResponse(String content) {
         DeepSeekModels.ChatMessage msg = new DeepSeekModels.ChatMessage("assistant", content);
 
@@ -0,0 +1,110 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test for the blocking API on virtual threads against a local MockWebServer.
+ *
+ * <p>Runs 1,000 concurrent callers by default. Each caller keeps a socket open on both
+ * the client and the server side, so 10,000 callers need a file descriptor limit above
+ * 20,000: {@code ulimit -n 65536 && mvn test -Dzhenghe.virtualThreadCallers=10000}.
+ */
+class DeepSeekServiceVirtualThreadTest {
+
+    private static final String RESPONSE_JSON = """
+            {"id":"r","object":"chat.completion","created":0,"model":"deepseek-chat",
+             "choices":[{"index":0,"finish_reason":"stop",
+               "message":{"role":"assistant","content":"ok"}}]}
+            """;
+
+    private final int callers = Integer.getInteger("zhenghe.virtualThreadCallers", 1_000);
+    private final CountDownLatch allArrived = new CountDownLatch(callers);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private MockWebServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                // Hold every response until all callers are blocked on the API at the same time
+                peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                allArrived.countDown();
+                allArrived.await(1, TimeUnit.MINUTES);
+                inFlight.decrementAndGet();
+                return new MockResponse().setBody(RESPONSE_JSON).setResponseCode(200)
+                        .addHeader("Content-Type", "application/json");
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void blockingCompletions_onVirtualThreads_needOnlyAHandfulOfCarrierThreads() throws Exception {
+        String baseUrl = server.url("").toString().replaceAll("/$", "");
+        Set<String> carriers = ConcurrentHashMap.newKeySet();
+
+        DeepSeekAPIClient client = DeepSeekAPIClient.builder("test-key", baseUrl)
+                .virtualThreads(true)
+                .build();
+        try (DeepSeekService service = new DeepSeekService(client, 16);
+             ExecutorService callerThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            List<Future<String>> results = new ArrayList<>(callers);
+            for (int i = 0; i < callers; i++) {
+                String prompt = "prompt " + i;
+                results.add(callerThreads.submit(() -> {
+                    carriers.add(carrierName());
+                    String reply = service.generateCompletion(prompt, "deepseek-chat").getMessage();
+                    carriers.add(carrierName());
+                    return reply;
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals("ok", result.get(2, TimeUnit.MINUTES));
+            }
+        }
+
+        assertEquals(callers, server.getRequestCount());
+        assertEquals(callers, peakInFlight.get(), "All callers should have been in flight at once");
+        int handful = Math.max(8, Runtime.getRuntime().availableProcessors());
+        assertTrue(carriers.size() <= handful,
+                callers + " blocking callers used " + carriers.size() + " carrier threads: " + carriers);
+    }
+
+    /**
+     * Extracts the carrier from a virtual thread's string form,
+     * e.g. {@code VirtualThread[#42]/runnable@ForkJoinPool-1-worker-3}.
+     */
+    private static String carrierName() {
+        String name = Thread.currentThread().toString();
+        return name.substring(name.indexOf('@') + 1);
+    }
+}
@@ -0,0 +1,93 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Per-turn cost of writing a chat request body, with the history held as plain
+ * {@link DeepSeekModels.ChatMessage}s (re-encoded every turn) or as {@link EncodedChatMessage}s
+ * (only the turn's two new messages are encoded). Reports the time and allocation of one turn
+ * at several history lengths; the encoded history allocates the cached bytes of its new
+ * messages, and in exchange its time grows far more slowly with the history. Excluded from
+ * {@code mvn test}; run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class EncodedChatMessageBenchmarkTest {
+
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog. 鄭和下西洋. ".repeat(10);
+    private static final int[] HISTORY_TURNS = {10, 100, 1_000, 5_000};
+    private static final int WARMUP_WRITES = 200;
+    private static final int MEASURED_TURNS = 20;
+
+    private final ObjectMapper mapper =
+            new ObjectMapper().setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    private com.sun.management.ThreadMXBean threads;
+
+    @Test
+    void perTurnBodyWrite_plainVersusEncodedHistory() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        measure(100, DeepSeekModels.ChatMessage::new);
+        measure(100, EncodedChatMessage::new);
+
+        System.out.printf("%-8s %14s %14s %14s %14s%n",
+                "turns", "plain us", "plain bytes", "encoded us", "encoded bytes");
+        for (int turns : HISTORY_TURNS) {
+            long[] plain = measure(turns, DeepSeekModels.ChatMessage::new);
+            long[] encoded = measure(turns, EncodedChatMessage::new);
+            System.out.printf("%-8d %14.1f %14d %14.1f %14d%n",
+                    turns, plain[0] / 1000.0, plain[1], encoded[0] / 1000.0, encoded[1]);
+        }
+    }
+
+    /**
+     * Grows a history to {@code turns} turns, then adds {@link #MEASURED_TURNS} more and writes
+     * the request body after each one. Returns the lowest time (ns) and allocation (bytes) of a
+     * turn.
+     */
+    private long[] measure(int turns, BiFunction<String, String, DeepSeekModels.ChatMessage> message)
+            throws Exception {
+        List<DeepSeekModels.ChatMessage> history = new ArrayList<>();
+        for (int turn = 0; turn < turns; turn++) {
+            history.add(message.apply("user", TEXT + turn));
+            history.add(message.apply("assistant", TEXT + turn));
+        }
+        BufferedSink sink = Okio.buffer(Okio.blackhole());
+        for (int i = 0; i < WARMUP_WRITES; i++) {
+            writeTurn(history, sink);
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long nanos = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        for (int turn = turns; turn < turns + MEASURED_TURNS; turn++) {
+            history.add(message.apply("user", TEXT + turn));
+            history.add(message.apply("assistant", TEXT + turn));
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            writeTurn(history, sink);
+            nanos = Math.min(nanos, System.nanoTime() - start);
+            bytes = Math.min(bytes, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        return new long[] {nanos, bytes};
+    }
+
+    private void writeTurn(List<DeepSeekModels.ChatMessage> history, BufferedSink sink) throws Exception {
+        new JsonRequestBody(mapper, new DeepSeekModels.ChatRequest("deepseek-chat", history, 10)).writeTo(sink);
+        sink.flush();
+    }
+}
@@ -0,0 +1,102 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncodedChatMessageTest {
+
+    private ObjectMapper mapper;
+
+    @BeforeEach
+    void setUp() {
+        mapper = new ObjectMapper().setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    }
+
+    @Test
+    void serialize_matchesPlainChatMessage() throws Exception {
+        String content = "Quotes \" backslash \\ newline \n tab \t 鄭和 \u0001";
+
+        assertEquals(mapper.writeValueAsString(new DeepSeekModels.ChatMessage("user", content)),
+                mapper.writeValueAsString(new EncodedChatMessage("user", content)));
+        assertEquals(mapper.writeValueAsString(new DeepSeekModels.ChatMessage("assistant", null)),
+                mapper.writeValueAsString(new EncodedChatMessage("assistant", null)));
+    }
+
+    @Test
+    void serialize_requestWithEncodedHistory_matchesPlainRequest() throws Exception {
+        List<DeepSeekModels.ChatMessage> plain = new ArrayList<>();
+        List<DeepSeekModels.ChatMessage> encoded = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            plain.add(new DeepSeekModels.ChatMessage(i % 2 == 0 ? "user" : "assistant", "message " + i));
+            encoded.add(new EncodedChatMessage(i % 2 == 0 ? "user" : "assistant", "message " + i));
+        }
+
+        assertEquals(
+                mapper.writeValueAsString(new DeepSeekModels.ChatRequest("deepseek-chat", plain, 10)),
+                mapper.writeValueAsString(new DeepSeekModels.ChatRequest("deepseek-chat", encoded, 10)));
+    }
+
+    @Test
+    void encoded_isComputedOnceAndReused() {
+        EncodedChatMessage message = new EncodedChatMessage("user", "Hi");
+
+        assertSame(message.encoded(), message.encoded());
+    }
+
+    @Test
+    void setContent_invalidatesCachedEncoding() throws Exception {
+        EncodedChatMessage message = new EncodedChatMessage("user", "before");
+        message.encoded();
+
+        message.setContent("after");
+
+        assertEquals("{\"role\":\"user\",\"content\":\"after\"}", mapper.writeValueAsString(message));
+    }
+
+    @Test
+    void of_returnsSameInstanceForEncodedMessages() {
+        EncodedChatMessage message = new EncodedChatMessage("user", "Hi");
+
+        assertSame(message, EncodedChatMessage.of(message));
+        assertEquals("Hi", EncodedChatMessage.of(new DeepSeekModels.ChatMessage("user", "Hi")).getContent());
+    }
+
+    @Test
+    void setRole_invalidatesCachedEncoding() throws Exception {
+        EncodedChatMessage message = new EncodedChatMessage("user", "Hi");
+        Object before = message.encoded();
+
+        message.setRole("assistant");
+
+        assertNotSame(before, message.encoded());
+        assertEquals("{\"role\":\"assistant\",\"content\":\"Hi\"}", mapper.writeValueAsString(message));
+    }
+
+    @Test
+    void writingLaterTurns_reusesTheEncodingOfEarlierMessages() throws Exception {
+        List<DeepSeekModels.ChatMessage> history = new ArrayList<>();
+        List<Object> encodings = new ArrayList<>();
+        BufferedSink sink = Okio.buffer(Okio.blackhole());
+        for (int turn = 0; turn < 50; turn++) {
+            history.add(new EncodedChatMessage("user", "question " + turn));
+            history.add(new EncodedChatMessage("assistant", "answer " + turn));
+            new JsonRequestBody(mapper, new DeepSeekModels.ChatRequest("deepseek-chat", history, 10)).writeTo(sink);
+            encodings.add(((EncodedChatMessage) history.get(2 * turn)).encoded());
+            encodings.add(((EncodedChatMessage) history.get(2 * turn + 1)).encoded());
+        }
+
+        for (int i = 0; i < history.size(); i++) {
+            assertSame(encodings.get(i), ((EncodedChatMessage) history.get(i)).encoded(), "message " + i + " was re-encoded");
+        }
+    }
+}
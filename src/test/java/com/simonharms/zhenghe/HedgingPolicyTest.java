@@ -0,0 +1,229 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgingPolicyTest {
+
+    private static final String MODELS_JSON = "{\"object\":\"list\",\"data\":[]}";
+    private static final String SSE_BODY =
+            "data: {\"id\":\"c1\",\"model\":\"deepseek-chat\",\"choices\":[{\"index\":0,\"finish_reason\":null,\"delta\":{\"content\":\"Hello\"}}]}\n\n" +
+            "data: {\"id\":\"c2\",\"model\":\"deepseek-chat\",\"choices\":[{\"index\":0,\"finish_reason\":null,\"delta\":{\"content\":\" world\"}}]}\n\n" +
+            "data: [DONE]\n\n";
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static HedgingPolicy fastPolicy() {
+        return HedgingPolicy.builder()
+                .initialDelay(Duration.ofMillis(100))
+                .minDelay(Duration.ofMillis(1))
+                .maxHedgeRatio(1)
+                .build();
+    }
+
+    private static String baseUrl(MockWebServer server) {
+        return server.url("").toString().replaceAll("/$", "");
+    }
+
+    @Test
+    void delayUsesInitialValueUntilEnoughSamplesThenPercentile() {
+        HedgingPolicy policy = HedgingPolicy.builder()
+                .window(100, 10)
+                .delayPercentile(90)
+                .initialDelay(Duration.ofSeconds(2))
+                .minDelay(Duration.ofMillis(5))
+                .build();
+
+        for (int i = 1; i < 10; i++) {
+            policy.recordResponse(i * 10 * MILLI);
+        }
+        assertEquals(Duration.ofSeconds(2), policy.getResponseDelay());
+
+        policy.recordResponse(100 * MILLI);
+        assertEquals(Duration.ofMillis(90), policy.getResponseDelay());
+        // first-token latencies are tracked separately
+        assertEquals(Duration.ofSeconds(2), policy.getFirstTokenDelay());
+    }
+
+    @Test
+    void delayNeverDropsBelowMinimum() {
+        HedgingPolicy policy = HedgingPolicy.builder()
+                .window(10, 1)
+                .minDelay(Duration.ofMillis(50))
+                .build();
+
+        policy.recordFirstToken(MILLI);
+
+        assertEquals(Duration.ofMillis(50), policy.getFirstTokenDelay());
+    }
+
+    @Test
+    void hedgeBudgetCapsHedgeRate() {
+        HedgingPolicy policy = HedgingPolicy.builder()
+                .maxHedgeRatio(0.25)
+                .maxHedgeBurst(1)
+                .build();
+
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+
+        for (int i = 0; i < 3; i++) {
+            policy.onRequest();
+            assertFalse(policy.tryHedge());
+        }
+        policy.onRequest();
+        assertTrue(policy.tryHedge());
+        assertEquals(2, policy.getHedgeCount());
+    }
+
+    @Test
+    void client_slowResponseIsHedgedAndLoserCancelled() throws Exception {
+        HedgingPolicy policy = fastPolicy();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(MODELS_JSON).setHeadersDelay(3, TimeUnit.SECONDS));
+            server.enqueue(new MockResponse().setBody(MODELS_JSON));
+            server.start();
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl(server))
+                    .hedgingPolicy(policy)
+                    .build()) {
+                long start = System.nanoTime();
+                DeepSeekModels.ModelResponse response = client.sendPostRequest(
+                        "/chat/completions", Map.of("prompt", "hi"), DeepSeekModels.ModelResponse.class);
+
+                assertNotNull(response);
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                // whichever attempt reached the server second got the fast response
+                assertEquals(1, policy.getHedgeCount());
+                assertEquals(2, server.getRequestCount());
+
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+                while (client.httpClient().dispatcher().runningCallsCount() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(0, client.httpClient().dispatcher().runningCallsCount());
+            }
+        }
+    }
+
+    @Test
+    void client_fastResponseIsNotHedged() throws Exception {
+        HedgingPolicy policy = HedgingPolicy.builder()
+                .initialDelay(Duration.ofSeconds(2))
+                .build();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(MODELS_JSON));
+            server.start();
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl(server))
+                    .hedgingPolicy(policy)
+                    .build()) {
+                assertNotNull(client.sendPostRequestAsync(
+                        "/chat/completions", Map.of("prompt", "hi"), DeepSeekModels.ModelResponse.class).get());
+            }
+            assertEquals(0, policy.getHedgeCount());
+            assertEquals(1, server.getRequestCount());
+        }
+    }
+
+    @Test
+    void client_failsWithFirstFailureWhenEveryAttemptFails() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setResponseCode(400).setBody("bad").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+            server.enqueue(new MockResponse().setResponseCode(500).setBody("oops").setHeadersDelay(600, TimeUnit.MILLISECONDS));
+            server.start();
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl(server))
+                    .hedgingPolicy(fastPolicy())
+                    .build()) {
+                DeepSeekHttpException e = assertThrows(DeepSeekHttpException.class, () -> client.sendPostRequest(
+                        "/chat/completions", Map.of("prompt", "hi"), DeepSeekModels.ModelResponse.class));
+                assertEquals(400, e.getStatusCode());
+            }
+            assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    void client_streamWithoutFirstTokenIsHedgedAndTokensDeliveredOnce() throws Exception {
+        HedgingPolicy policy = fastPolicy();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(SSE_BODY).setHeadersDelay(3, TimeUnit.SECONDS));
+            server.enqueue(new MockResponse().setBody(SSE_BODY));
+            server.start();
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl(server))
+                    .hedgingPolicy(policy)
+                    .build()) {
+                List<String> tokens = new CopyOnWriteArrayList<>();
+                long start = System.nanoTime();
+                client.sendStreamingPostRequest("/chat/completions", Map.of("stream", true), tokens::add);
+
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                assertEquals(List.of("Hello", " world"), tokens);
+                assertEquals(1, policy.getHedgeCount());
+            }
+        }
+    }
+
+    @Test
+    void service_chatStreamIsNotHedged_andItsCallbackCanReadHistory() throws Exception {
+        HedgingPolicy policy = fastPolicy();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(SSE_BODY).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+            server.start();
+
+            try (DeepSeekService service = new DeepSeekService(DeepSeekAPIClient.builder("k", baseUrl(server))
+                    .hedgingPolicy(policy)
+                    .build(), 100)) {
+                service.setSystemPrompt(null);
+                List<Integer> historySizes = new CopyOnWriteArrayList<>();
+
+                assertTimeoutPreemptively(Duration.ofSeconds(5), () -> service.streamChatRequest("hi", "deepseek-chat",
+                        100, token -> historySizes.add(service.getChatHistory().size())));
+
+                assertEquals(List.of(1, 1), historySizes);
+                assertEquals(2, service.getChatHistory().size());
+                assertEquals(0, policy.getHedgeCount());
+                assertEquals(1, server.getRequestCount());
+            }
+        }
+    }
+
+    @Test
+    void service_statelessCompletionIsStillHedged() throws Exception {
+        HedgingPolicy policy = fastPolicy();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(SSE_BODY).setHeadersDelay(3, TimeUnit.SECONDS));
+            server.enqueue(new MockResponse().setBody(SSE_BODY));
+            server.start();
+
+            try (DeepSeekService service = new DeepSeekService(DeepSeekAPIClient.builder("k", baseUrl(server))
+                    .hedgingPolicy(policy)
+                    .build(), 100)) {
+                StringBuilder text = new StringBuilder();
+                service.streamCompletion("hi", "deepseek-chat", text::append);
+
+                assertEquals("Hello world", text.toString());
+                assertEquals(1, policy.getHedgeCount());
+            }
+        }
+    }
+
+    @Test
+    void builder_rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().delayPercentile(100));
+        assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().maxHedgeRatio(0));
+        assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().maxHedgeBurst(0));
+        assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().window(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> HedgingPolicy.builder().minDelay(Duration.ZERO));
+    }
+}
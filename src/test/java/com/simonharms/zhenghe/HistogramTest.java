@@ -0,0 +1,86 @@
+package com.simonharms.zhenghe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void bucketOf_isExactForSmallValuesAndWithinThreePercentAbove() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, Histogram.midpointOf(Histogram.bucketOf(value)));
+        }
+        for (long value : new long[] {32, 33, 1_000, 123_456_789, 3_600_000_000_000L, Long.MAX_VALUE}) {
+            long midpoint = Histogram.midpointOf(Histogram.bucketOf(value));
+            assertEquals(value, midpoint, value * 0.03, "value " + value);
+        }
+        assertTrue(Histogram.bucketOf(Long.MAX_VALUE) < (64 - 5) * 32);
+    }
+
+    @Test
+    void bucketOf_isMonotonic() {
+        int previous = -1;
+        for (long value = 0; value < 100_000; value += 7) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    void getValueAtPercentile_tracksTheDistribution() {
+        Histogram histogram = new Histogram();
+        IntStream.rangeClosed(1, 1_000).forEach(i -> histogram.record(i * 1_000L));
+
+        assertEquals(1_000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 1e-9);
+        assertEquals(500_000, histogram.getValueAtPercentile(50), 15_000);
+        assertEquals(990_000, histogram.getValueAtPercentile(99), 30_000);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        assertEquals(1_000, histogram.getValueAtPercentile(0), 30);
+    }
+
+    @Test
+    void snapshot_isNotAffectedByLaterRecording() {
+        Histogram histogram = new Histogram();
+        histogram.record(10);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+
+        histogram.record(1_000);
+
+        assertEquals(1, snapshot.getCount());
+        assertEquals(10, snapshot.getMax());
+        assertEquals(10, snapshot.getValueAtPercentile(99));
+        assertEquals(2, histogram.snapshot().getCount());
+    }
+
+    @Test
+    void emptyHistogram_reportsZero() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    void record_clampsNegativeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    void getValueAtPercentile_rejectsOutOfRange() {
+        Histogram histogram = new Histogram();
+
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(101));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(Double.NaN));
+    }
+}
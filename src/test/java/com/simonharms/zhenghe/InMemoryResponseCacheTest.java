@@ -0,0 +1,210 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryResponseCacheTest {
+
+    private static final String CHAT_JSON = """
+            {"id":"r1","object":"chat.completion","created":0,"model":"deepseek-chat",
+             "choices":[{"index":0,"finish_reason":"stop",
+               "message":{"role":"assistant","content":"Paris is the capital."}}]}""";
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private static DeepSeekModels.ChatResponse response(String content) {
+        DeepSeekModels.ChatResponse.Choice choice = new DeepSeekModels.ChatResponse.Choice();
+        choice.setMessage(new DeepSeekModels.ChatMessage("assistant", content));
+        DeepSeekModels.ChatResponse response = new DeepSeekModels.ChatResponse();
+        response.setChoices(List.of(choice));
+        return response;
+    }
+
+    private static DeepSeekModels.ChatRequest request(String prompt, double temperature) {
+        DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", prompt)), 100);
+        request.setTemperature(temperature);
+        return request;
+    }
+
+    @Test
+    void getAndPut_countHitsAndMisses() {
+        InMemoryResponseCache cache = InMemoryResponseCache.builder().build(clock::get);
+
+        assertNull(cache.get("k"));
+        cache.put("k", response("answer"), null);
+        assertEquals("answer", cache.get("k").getMessage());
+
+        ResponseCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(1, stats.entryCount());
+        assertEquals(0.5, stats.hitRate());
+        assertEquals(InMemoryResponseCache.weigh("k", response("answer")), stats.weight());
+    }
+
+    @Test
+    void entriesExpireAfterTheirTtl() {
+        InMemoryResponseCache cache = InMemoryResponseCache.builder()
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .build(clock::get);
+
+        cache.put("default", response("a"), null);
+        cache.put("short", response("b"), Duration.ofMinutes(1));
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertNull(cache.get("short"));
+        assertNotNull(cache.get("default"));
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        assertNull(cache.get("default"));
+        assertEquals(0, cache.stats().entryCount());
+    }
+
+    @Test
+    void weightCountsContentBytes() {
+        long latin = InMemoryResponseCache.weigh("k", response("x".repeat(1000)));
+        long cjk = InMemoryResponseCache.weigh("k", response("中".repeat(1000)));
+
+        assertEquals(InMemoryResponseCache.ENTRY_OVERHEAD + 1 + "assistant".length() + 1000, latin);
+        assertEquals(latin + 1000, cjk);
+    }
+
+    @Test
+    void staysWithinMaximumWeight() {
+        long entryWeight = InMemoryResponseCache.weigh("key-00", response("x".repeat(1000)));
+        InMemoryResponseCache cache = InMemoryResponseCache.builder()
+                .maximumWeight(entryWeight * 10)
+                .build(clock::get);
+
+        for (int i = 0; i < 50; i++) {
+            cache.put(String.format("key-%02d", i), response("x".repeat(1000)), null);
+        }
+
+        ResponseCache.Stats stats = cache.stats();
+        assertTrue(stats.weight() <= entryWeight * 10);
+        assertEquals(10, stats.entryCount());
+        assertEquals(40, stats.evictionCount());
+    }
+
+    @Test
+    void frequentlyReadEntriesSurviveAScanOfOneOffEntries() {
+        long entryWeight = InMemoryResponseCache.weigh("hot-0", response("x".repeat(1000)));
+        InMemoryResponseCache cache = InMemoryResponseCache.builder()
+                .maximumWeight(entryWeight * 20)
+                .build(clock::get);
+
+        for (int i = 0; i < 5; i++) {
+            cache.put("hot-" + i, response("x".repeat(1000)), null);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 5; i++) {
+                assertNotNull(cache.get("hot-" + i));
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            cache.put(String.format("cold-%03d", i), response("x".repeat(1000)), null);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get("hot-" + i), "hot-" + i + " was evicted");
+        }
+    }
+
+    @Test
+    void oversizedEntriesAreNotCached() {
+        InMemoryResponseCache cache = InMemoryResponseCache.builder().maximumWeight(512).build(clock::get);
+
+        cache.put("k", response("x".repeat(1000)), null);
+
+        assertNull(cache.get("k"));
+        assertEquals(0, cache.stats().weight());
+    }
+
+    @Test
+    void isCacheable_defaultsToDeterministicRequestsThatAreNotBypassed() {
+        InMemoryResponseCache deterministic = InMemoryResponseCache.builder().build();
+        InMemoryResponseCache all = InMemoryResponseCache.builder().deterministicOnly(false).build();
+        DeepSeekModels.ChatRequest bypassed = request("q", 0);
+        bypassed.setCacheBypass(true);
+
+        assertTrue(deterministic.isCacheable(request("q", 0)));
+        assertFalse(deterministic.isCacheable(request("q", 1)));
+        assertFalse(deterministic.isCacheable(bypassed));
+        assertTrue(all.isCacheable(request("q", 1)));
+        assertFalse(all.isCacheable(bypassed));
+    }
+
+    @Test
+    void client_servesRepeatedRequestsAndStreamsFromCache() throws Exception {
+        InMemoryResponseCache cache = InMemoryResponseCache.builder().build();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(CHAT_JSON));
+            server.enqueue(new MockResponse().setBody(CHAT_JSON));
+            server.enqueue(new MockResponse().setBody(CHAT_JSON));
+            server.start();
+            String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl)
+                    .responseCache(cache)
+                    .build()) {
+                DeepSeekModels.ChatResponse first = client.sendPostRequest("/chat/completions",
+                        request("Capital of France?", 0), DeepSeekModels.ChatResponse.class);
+                DeepSeekModels.ChatResponse second = client.sendPostRequestAsync("/chat/completions",
+                        request("Capital of France?", 0), DeepSeekModels.ChatResponse.class).get(5, TimeUnit.SECONDS);
+                assertEquals(first.getMessage(), second.getMessage());
+                assertEquals(1, server.getRequestCount());
+
+                DeepSeekModels.ChatRequest streaming = request("Capital of France?", 0);
+                streaming.setStream(true);
+                List<String> tokens = new ArrayList<>();
+                client.sendStreamingPostRequest("/chat/completions", streaming, tokens::add);
+                assertEquals(List.of("Paris ", "is ", "the ", "capital."), tokens);
+                assertEquals(1, server.getRequestCount());
+
+                DeepSeekModels.ChatRequest bypassed = request("Capital of France?", 0);
+                bypassed.setCacheBypass(true);
+                client.sendPostRequest("/chat/completions", bypassed, DeepSeekModels.ChatResponse.class);
+                client.sendPostRequest("/chat/completions", request("Capital of France?", 0.7),
+                        DeepSeekModels.ChatResponse.class);
+                assertEquals(3, server.getRequestCount());
+            }
+        }
+        assertEquals(2, cache.stats().hitCount());
+    }
+
+    @Test
+    void client_cachesCompletedStreams() throws Exception {
+        InMemoryResponseCache cache = InMemoryResponseCache.builder().build();
+        String sse = "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hello\"}}]}\n\n"
+                + "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\" world\"}}]}\n\n"
+                + "data: [DONE]\n\n";
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(sse));
+            server.start();
+            String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl)
+                    .responseCache(cache)
+                    .build()) {
+                DeepSeekModels.ChatRequest streaming = request("Greet", 0);
+                streaming.setStream(true);
+                client.sendStreamingPostRequest("/chat/completions", streaming, token -> { });
+
+                DeepSeekModels.ChatResponse cached = client.sendPostRequest("/chat/completions",
+                        request("Greet", 0), DeepSeekModels.ChatResponse.class);
+                assertEquals("Hello world", cached.getMessage());
+                assertEquals(1, server.getRequestCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okio.Buffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonRequestBodyTest {
+
+    private ObjectMapper mapper;
+
+    @BeforeEach
+    void setUp() {
+        mapper = new ObjectMapper().setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    }
+
+    @Test
+    void writeTo_producesSameJsonAsWriteValueAsString() throws Exception {
+        DeepSeekModels.ChatRequest request = chatRequest("鄭和 sailed to Java");
+        Buffer sink = new Buffer();
+
+        new JsonRequestBody(mapper, request).writeTo(sink);
+
+        assertEquals(mapper.writeValueAsString(request), sink.readUtf8());
+    }
+
+    @Test
+    void writeTo_isRepeatableAndLeavesSinkOpen() throws Exception {
+        JsonRequestBody body = new JsonRequestBody(mapper, chatRequest("Hi"));
+        Buffer sink = new Buffer();
+
+        body.writeTo(sink);
+        long once = sink.size();
+        body.writeTo(sink);
+
+        assertEquals(once * 2, sink.size());
+        assertFalse(body.isOneShot());
+    }
+
+    @Test
+    void contentType_isJsonWithUnknownLength() {
+        JsonRequestBody body = new JsonRequestBody(mapper, chatRequest("Hi"));
+
+        assertEquals("application/json", body.contentType().toString());
+        assertEquals(-1, body.contentLength());
+    }
+
+    @Test
+    void preview_smallBody_isComplete() throws Exception {
+        DeepSeekModels.ChatRequest request = chatRequest("Hi");
+
+        assertEquals(mapper.writeValueAsString(request), new JsonRequestBody(mapper, request).preview(4096));
+    }
+
+    @Test
+    void preview_largeBody_isCappedAndReportsTotalSize() throws Exception {
+        DeepSeekModels.ChatRequest request = chatRequest("x".repeat(100_000));
+        int total = mapper.writeValueAsBytes(request).length;
+
+        String preview = new JsonRequestBody(mapper, request).preview(100);
+
+        assertTrue(preview.endsWith("... (" + total + " bytes)"), preview);
+        assertTrue(preview.length() < 150);
+    }
+
+    private static DeepSeekModels.ChatRequest chatRequest(String content) {
+        return new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", content)), 100);
+    }
+}
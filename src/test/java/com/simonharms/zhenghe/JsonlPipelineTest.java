@@ -0,0 +1,225 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonlPipelineTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private DeepSeekService service;
+    private Path input;
+    private Path output;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    JsonNode body = MAPPER.readTree(request.getBody().readUtf8());
+                    String prompt = body.path("messages").get(0).path("content").asText();
+                    if (prompt.equals("bad")) {
+                        return new MockResponse().setResponseCode(400).setBody("{\"error\":{\"message\":\"bad prompt\"}}");
+                    }
+                    // later prompts answer sooner, so responses arrive out of order
+                    long delay = Math.max(0, 40 - 4L * Integer.parseInt(prompt.replaceAll("\\D", "0")));
+                    return new MockResponse()
+                            .setBodyDelay(delay, TimeUnit.MILLISECONDS)
+                            .setBody("{\"id\":\"r\",\"model\":\"deepseek-chat\",\"choices\":[{\"index\":0,"
+                                    + "\"finish_reason\":\"stop\",\"message\":{\"role\":\"assistant\",\"content\":\""
+                                    + prompt.toUpperCase() + "\"}}],\"usage\":{\"prompt_tokens\":3,"
+                                    + "\"completion_tokens\":2,\"total_tokens\":5}}");
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(500);
+                }
+            }
+        });
+        server.start();
+        String baseUrl = server.url("").toString().replaceAll("/$", "");
+        service = new DeepSeekService(DeepSeekAPIClient.builder("k", baseUrl).build(), 100);
+        input = directory.resolve("in.jsonl");
+        output = directory.resolve("out.jsonl");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        service.close();
+        server.close();
+    }
+
+    private static String request(String prompt) {
+        return "{\"model\":\"deepseek-chat\",\"max_tokens\":10,\"messages\":[{\"role\":\"user\",\"content\":\""
+                + prompt + "\"}]}";
+    }
+
+    private void writeInput(List<String> prompts) throws IOException {
+        Files.write(input, prompts.stream().map(JsonlPipelineTest::request).toList(), StandardCharsets.UTF_8);
+    }
+
+    private List<JsonNode> readOutput() throws IOException {
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(output, StandardCharsets.UTF_8)) {
+            lines.add(MAPPER.readTree(line));
+        }
+        return lines;
+    }
+
+    private static List<String> prompts(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "p" + i).toList();
+    }
+
+    @Test
+    void run_writesOneResultPerLineInInputOrder() throws IOException {
+        List<String> prompts = new ArrayList<>(prompts(0, 10));
+        prompts.set(4, "bad");
+        writeInput(prompts);
+        Files.writeString(input, "\nnot json\n", StandardOpenOption.APPEND);
+        List<JsonlPipeline.Progress> reports = new ArrayList<>();
+
+        JsonlPipeline.Progress progress = JsonlPipeline.builder(service, input, output)
+                .maxConcurrency(4)
+                .onProgress(reports::add)
+                .build()
+                .run();
+
+        List<JsonNode> lines = readOutput();
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 11L),
+                lines.stream().map(l -> l.get("line").asLong()).toList());
+        assertEquals("P3", lines.get(3).at("/response/choices/0/message/content").asText());
+        assertEquals(400, lines.get(4).get("status").asInt());
+        assertTrue(lines.get(10).get("error").asText().startsWith("Invalid request"));
+
+        assertEquals(9, progress.succeeded());
+        assertEquals(2, progress.failed());
+        assertEquals(45, progress.totalTokens());
+        assertEquals(0, progress.inFlight());
+        assertEquals(progress, reports.get(reports.size() - 1));
+        assertEquals(10, server.getRequestCount());
+    }
+
+    @Test
+    void run_unordered_writesEveryResult() throws IOException {
+        writeInput(prompts(0, 20));
+
+        JsonlPipeline.builder(service, input, output).maxConcurrency(8).ordered(false).build().run();
+
+        assertEquals(IntStream.range(0, 20).boxed().collect(Collectors.toSet()),
+                readOutput().stream().map(l -> l.get("line").asInt()).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void run_resumesFromTheCheckpointWithoutResendingCompletedLines() throws IOException {
+        writeInput(prompts(0, 5));
+        JsonlPipeline.builder(service, input, output).build().run();
+        assertEquals(5, server.getRequestCount());
+
+        // more input arrives, and a crash left half a line after the checkpointed output
+        Files.write(input, prompts(5, 10).stream().map(JsonlPipelineTest::request).toList(),
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        Files.writeString(output, "{\"line\":5,\"resp", StandardOpenOption.APPEND);
+
+        JsonlPipeline.Progress progress = JsonlPipeline.builder(service, input, output).build().run();
+
+        assertEquals(10, server.getRequestCount());
+        assertEquals(5, progress.resumed());
+        assertEquals(5, progress.succeeded());
+        List<JsonNode> lines = readOutput();
+        assertEquals(10, lines.size());
+        assertEquals("P9", lines.get(9).at("/response/choices/0/message/content").asText());
+
+        JsonlPipeline.builder(service, input, output).build().run();
+        assertEquals(10, server.getRequestCount());
+        assertEquals(10, readOutput().size());
+    }
+
+    @Test
+    void run_unordered_resumesLinesCompletedAheadOfTheWatermark() throws IOException {
+        writeInput(prompts(0, 12));
+        Path checkpoint = directory.resolve("job.checkpoint");
+        // lines 0-2 plus 5 and 7 were written before the crash
+        StringBuilder written = new StringBuilder();
+        for (int line : new int[] {0, 1, 2, 5, 7}) {
+            written.append("{\"line\":").append(line).append(",\"response\":{}}\n");
+        }
+        Files.writeString(output, written + "{\"line\":9,\"resp");
+        Files.writeString(checkpoint, "{\"watermark\":3,\"completed\":[5,7],\"outputBytes\":"
+                + written.toString().getBytes(StandardCharsets.UTF_8).length + "}");
+
+        JsonlPipeline.Progress progress = JsonlPipeline.builder(service, input, output)
+                .checkpoint(checkpoint)
+                .ordered(false)
+                .build()
+                .run();
+
+        assertEquals(7, server.getRequestCount());
+        assertEquals(5, progress.resumed());
+        assertEquals(IntStream.range(0, 12).boxed().collect(Collectors.toSet()),
+                readOutput().stream().map(l -> l.get("line").asInt()).collect(Collectors.toSet()));
+        assertEquals(12, readOutput().size());
+    }
+
+    @Test
+    void run_withoutResume_startsOver() throws IOException {
+        writeInput(prompts(0, 3));
+        JsonlPipeline.builder(service, input, output).build().run();
+
+        JsonlPipeline.builder(service, input, output).resume(false).build().run();
+
+        assertEquals(6, server.getRequestCount());
+        assertEquals(3, readOutput().size());
+    }
+
+    @Test
+    void run_finalCheckpointCoversTheWholeOutput() throws Exception {
+        writeInput(prompts(0, 30));
+        Path checkpoint = directory.resolve("out.jsonl.checkpoint");
+
+        JsonlPipeline.builder(service, input, output)
+                .maxConcurrency(2)
+                .checkpointInterval(Duration.ofMillis(20))
+                .onProgress(p -> { })
+                .build()
+                .run();
+
+        JsonNode state = MAPPER.readTree(checkpoint.toFile());
+        assertEquals(30, state.get("watermark").asLong());
+        assertEquals(Files.size(output), state.get("outputBytes").asLong());
+    }
+
+    @Test
+    void builder_rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> JsonlPipeline.builder(null, input, output));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonlPipeline.builder(service, input, output).maxConcurrency(0));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonlPipeline.builder(service, input, output).checkpointInterval(Duration.ZERO));
+    }
+}
@@ -0,0 +1,287 @@
+package com.simonharms.zhenghe;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedResponseCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    private static DeepSeekModels.ChatResponse response(String content) {
+        DeepSeekModels.ChatResponse.Choice choice = new DeepSeekModels.ChatResponse.Choice();
+        choice.setMessage(new DeepSeekModels.ChatMessage("assistant", content));
+        choice.setFinishReason("stop");
+        DeepSeekModels.ChatResponse response = new DeepSeekModels.ChatResponse();
+        response.setModel("deepseek-chat");
+        response.setChoices(List.of(choice));
+        return response;
+    }
+
+    private MappedResponseCache open(int segmentSize, long maximumSize) throws IOException {
+        return MappedResponseCache.builder(directory)
+                .segmentSize(segmentSize)
+                .maximumSize(maximumSize)
+                .compactionInterval(null)
+                .build(clock::get);
+    }
+
+    @Test
+    void getAndPut_roundTripResponses() throws IOException {
+        try (MappedResponseCache cache = open(64 * 1024, 1024 * 1024)) {
+            assertNull(cache.get("k"));
+            cache.put("k", response("Paris is the capital."), null);
+
+            DeepSeekModels.ChatResponse cached = cache.get("k");
+            assertEquals("Paris is the capital.", cached.getMessage());
+            assertEquals("deepseek-chat", cached.getModel());
+            assertEquals("stop", cached.getChoices().get(0).getFinishReason());
+
+            cache.put("k", response("Lyon"), null);
+            assertEquals("Lyon", cache.get("k").getMessage());
+
+            ResponseCache.Stats stats = cache.stats();
+            assertEquals(2, stats.hitCount());
+            assertEquals(1, stats.missCount());
+            assertEquals(1, stats.entryCount());
+        }
+    }
+
+    @Test
+    void entriesSurviveARestart() throws IOException {
+        try (MappedResponseCache cache = open(64 * 1024, 1024 * 1024)) {
+            for (int i = 0; i < 100; i++) {
+                cache.put("key-" + i, response("answer " + i), null);
+            }
+            cache.put("key-7", response("replaced"), null);
+            cache.invalidate("key-8");
+        }
+
+        try (MappedResponseCache cache = open(64 * 1024, 1024 * 1024)) {
+            assertEquals(99, cache.stats().entryCount());
+            assertEquals("answer 3", cache.get("key-3").getMessage());
+            assertEquals("replaced", cache.get("key-7").getMessage());
+            assertNull(cache.get("key-8"));
+        }
+    }
+
+    @Test
+    void recovery_stopsAtATornRecord() throws IOException {
+        try (MappedResponseCache cache = open(64 * 1024, 1024 * 1024)) {
+            cache.put("first", response("kept"), null);
+            cache.put("second", response("torn by a crash"), null);
+        }
+        Path segment = directory.resolve("00000001.seg");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            int second = 4 + length.getInt(0);
+            // flip a byte inside the second record's compressed data
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, second + 60);
+            b.put(0, (byte) ~b.get(0)).rewind();
+            channel.write(b, second + 60);
+        }
+
+        try (MappedResponseCache cache = open(64 * 1024, 1024 * 1024)) {
+            assertEquals("kept", cache.get("first").getMessage());
+            assertNull(cache.get("second"));
+
+            cache.put("third", response("written after recovery"), null);
+        }
+        try (MappedResponseCache cache = open(64 * 1024, 1024 * 1024)) {
+            assertEquals("written after recovery", cache.get("third").getMessage());
+            assertEquals(2, cache.stats().entryCount());
+        }
+    }
+
+    @Test
+    void entriesExpireByWallClock_evenAcrossRestarts() throws IOException {
+        try (MappedResponseCache cache = MappedResponseCache.builder(directory)
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .segmentSize(64 * 1024)
+                .compactionInterval(null)
+                .build(clock::get)) {
+            cache.put("default", response("a"), null);
+            cache.put("short", response("b"), Duration.ofMinutes(1));
+            cache.put("gone", response("c"), Duration.ZERO);
+
+            clock.addAndGet(TimeUnit.MINUTES.toMillis(2));
+            assertNull(cache.get("short"));
+            assertNotNull(cache.get("default"));
+            assertNull(cache.get("gone"));
+        }
+
+        clock.addAndGet(TimeUnit.MINUTES.toMillis(10));
+        try (MappedResponseCache cache = open(64 * 1024, 1024 * 1024)) {
+            assertNull(cache.get("default"));
+            assertEquals(0, cache.stats().entryCount());
+        }
+    }
+
+    @Test
+    void staysWithinMaximumSize_byDroppingTheOldestSegment() throws IOException {
+        try (MappedResponseCache cache = open(8 * 1024, 32 * 1024)) {
+            for (int i = 0; i < 500; i++) {
+                cache.put("key-" + i, response("answer number " + i + " " + "x".repeat(i % 50)), null);
+            }
+
+            assertTrue(cache.segmentCount() <= 4);
+            ResponseCache.Stats stats = cache.stats();
+            assertTrue(stats.evictionCount() > 0);
+            assertEquals(500, stats.entryCount() + stats.evictionCount());
+            assertNull(cache.get("key-0"));
+            assertNotNull(cache.get("key-499"));
+        }
+        try (var files = Files.list(directory)) {
+            assertTrue(files.filter(file -> file.toString().endsWith(".seg")).count() <= 4);
+        }
+    }
+
+    @Test
+    void compaction_reclaimsOverwrittenEntriesAndKeepsInvalidations() throws IOException {
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            cache.put("stable", response("kept through compaction"), null);
+            cache.put("deleted", response("must stay deleted"), null);
+            for (int i = 0; i < 200; i++) {
+                cache.put("hot", response("version " + i), null);
+            }
+            cache.invalidate("deleted");
+            for (int i = 0; i < 100; i++) {
+                cache.put("hot", response("version " + (200 + i)), null);
+            }
+            int before = cache.segmentCount();
+
+            cache.compact();
+
+            assertTrue(cache.segmentCount() < before, cache.segmentCount() + " >= " + before);
+            assertEquals("kept through compaction", cache.get("stable").getMessage());
+            assertEquals("version 299", cache.get("hot").getMessage());
+            assertNull(cache.get("deleted"));
+        }
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            assertEquals("kept through compaction", cache.get("stable").getMessage());
+            assertEquals("version 299", cache.get("hot").getMessage());
+            assertNull(cache.get("deleted"));
+            assertEquals(2, cache.stats().entryCount());
+        }
+    }
+
+    @Test
+    void compaction_doesNotCarryATombstonePastANewerPut() throws IOException {
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            cache.put("revived", response("first"), null);
+            // fill the first segment with live entries, so only the tombstone's segment is compacted
+            for (int i = 0; cache.segmentCount() == 1; i++) {
+                cache.put("stable-" + i, response("answer " + i), null);
+            }
+            cache.invalidate("revived");
+            for (int i = 0; i < 200; i++) {
+                cache.put("hot", response("version " + i), null);
+            }
+            // the new put stays in the active segment, which compaction leaves in place
+            cache.put("revived", response("second"), null);
+
+            cache.compact();
+            assertEquals("second", cache.get("revived").getMessage());
+        }
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            assertEquals("second", cache.get("revived").getMessage());
+        }
+    }
+
+    @Test
+    void compaction_reclaimsSegmentsHoldingOnlyTombstones() throws IOException {
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            for (int i = 0; i < 200; i++) {
+                cache.put("key-" + i, response("answer " + i), null);
+            }
+            for (int i = 0; i < 200; i++) {
+                cache.invalidate("key-" + i);
+            }
+            assertEquals(0, cache.stats().weight());
+
+            cache.compact();
+
+            assertEquals(1, cache.segmentCount());
+        }
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            assertEquals(0, cache.stats().entryCount());
+        }
+    }
+
+    @Test
+    void directoryCanOnlyBeOpenedOnce() throws IOException {
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            cache.put("key", response("answer"), null);
+            IOException e = assertThrows(IOException.class, () -> open(8 * 1024, 1024 * 1024));
+            assertTrue(e.getMessage().contains("already in use"), e.getMessage());
+        }
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            assertEquals("answer", cache.get("key").getMessage());
+        }
+    }
+
+    @Test
+    void invalidateAll_removesEverythingOnDisk() throws IOException {
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            for (int i = 0; i < 200; i++) {
+                cache.put("key-" + i, response("answer " + i), null);
+            }
+            cache.invalidateAll();
+            assertEquals(0, cache.stats().entryCount());
+            assertEquals(1, cache.segmentCount());
+        }
+        try (MappedResponseCache cache = open(8 * 1024, 1024 * 1024)) {
+            assertNull(cache.get("key-1"));
+            assertEquals(0, cache.stats().entryCount());
+        }
+    }
+
+    @Test
+    void index_growsAndRemovesWithoutLosingCollidingEntries() throws IOException {
+        try (MappedResponseCache cache = open(1024 * 1024, 16 * 1024 * 1024)) {
+            for (int i = 0; i < 5000; i++) {
+                cache.put("key-" + i, response(Integer.toString(i)), null);
+            }
+            for (int i = 0; i < 5000; i += 2) {
+                cache.invalidate("key-" + i);
+            }
+            assertEquals(2500, cache.stats().entryCount());
+            for (int i = 0; i < 5000; i++) {
+                DeepSeekModels.ChatResponse cached = cache.get("key-" + i);
+                if (i % 2 == 0) {
+                    assertNull(cached, "key-" + i);
+                } else {
+                    assertEquals(Integer.toString(i), cached.getMessage());
+                }
+            }
+        }
+    }
+
+    @Test
+    void builder_rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> MappedResponseCache.builder(null));
+        assertThrows(IllegalArgumentException.class, () -> MappedResponseCache.builder(directory).segmentSize(100));
+        assertThrows(IllegalArgumentException.class, () -> MappedResponseCache.builder(directory).maximumSize(0));
+        assertThrows(IllegalArgumentException.class,
+                () -> MappedResponseCache.builder(directory).expireAfterWrite(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class,
+                () -> MappedResponseCache.builder(directory).segmentSize(1 << 20).maximumSize(4096).build());
+    }
+}
@@ -0,0 +1,165 @@
+package com.simonharms.zhenghe;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ModelRegistryTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final Deque<Object> responses = new ArrayDeque<>();
+
+    private static DeepSeekModels.ModelResponse catalogue(String... ids) {
+        DeepSeekModels.ModelResponse response = new DeepSeekModels.ModelResponse();
+        response.setData(Arrays.stream(ids).map(id -> {
+            DeepSeekModels.ModelData model = new DeepSeekModels.ModelData();
+            model.setId(id);
+            return model;
+        }).toList());
+        return response;
+    }
+
+    private DeepSeekModels.ModelResponse fetch() throws IOException {
+        fetches.incrementAndGet();
+        Object next = responses.size() > 1 ? responses.poll() : responses.peek();
+        if (next instanceof IOException e) {
+            throw e;
+        }
+        return (DeepSeekModels.ModelResponse) next;
+    }
+
+    private ModelRegistry registry(Duration refreshInterval) {
+        return ModelRegistry.builder(mock(DeepSeekAPIClient.class))
+                .refreshInterval(refreshInterval)
+                .build(this::fetch, clock::get);
+    }
+
+    @Test
+    void lookups_fetchOnceAndServeFromTheSnapshot() throws Exception {
+        responses.add(catalogue("deepseek-chat", "deepseek-reasoner"));
+        try (ModelRegistry registry = registry(Duration.ofMinutes(10))) {
+            assertNull(registry.getAge());
+
+            assertTrue(registry.hasModel("deepseek-chat"));
+            assertFalse(registry.hasModel("gpt-4"));
+            assertEquals("deepseek-reasoner", registry.getModel("deepseek-reasoner").getId());
+            assertEquals(2, registry.getModels().size());
+
+            assertEquals(1, fetches.get());
+            assertFalse(registry.isStale());
+        }
+    }
+
+    @Test
+    void refresh_replacesTheSnapshot_andKeepsItWhenTheFetchFails() throws Exception {
+        responses.add(catalogue("deepseek-chat"));
+        responses.add(catalogue("deepseek-chat", "deepseek-reasoner"));
+        responses.add(new IOException("API down"));
+        try (ModelRegistry registry = registry(Duration.ofMinutes(10))) {
+            assertFalse(registry.hasModel("deepseek-reasoner"));
+
+            registry.refresh();
+            assertTrue(registry.hasModel("deepseek-reasoner"));
+
+            clock.addAndGet(Duration.ofMinutes(11).toNanos());
+            assertThrows(DeepSeekAPIException.class, registry::refresh);
+            assertTrue(registry.hasModel("deepseek-reasoner"));
+            assertTrue(registry.isStale());
+            assertEquals(Duration.ofMinutes(11), registry.getAge());
+            assertEquals(1, registry.getRefreshFailureCount());
+        }
+    }
+
+    @Test
+    void firstFetchFailure_throwsAndIsRetriedOnTheNextLookup() throws Exception {
+        responses.add(new IOException("API down"));
+        responses.add(catalogue("deepseek-chat"));
+        try (ModelRegistry registry = registry(Duration.ofMinutes(10))) {
+            DeepSeekAPIException e = assertThrows(DeepSeekAPIException.class, registry::getModels);
+            assertInstanceOf(IOException.class, e.getCause());
+
+            assertTrue(registry.hasModel("deepseek-chat"));
+            assertEquals(2, fetches.get());
+        }
+    }
+
+    @Test
+    void refreshesInTheBackground() throws Exception {
+        responses.add(catalogue("deepseek-chat"));
+        responses.add(catalogue("deepseek-chat", "deepseek-reasoner"));
+        try (ModelRegistry registry = registry(Duration.ofMillis(20))) {
+            assertFalse(registry.hasModel("deepseek-reasoner"));
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (!registry.hasModel("deepseek-reasoner") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(registry.hasModel("deepseek-reasoner"));
+        }
+    }
+
+    @Test
+    void builder_rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> ModelRegistry.builder(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> ModelRegistry.builder(mock(DeepSeekAPIClient.class)).refreshInterval(Duration.ZERO));
+    }
+
+    @Test
+    void service_getModelsReadsThroughTheRegistry() throws Exception {
+        DeepSeekAPIClient client = mock(DeepSeekAPIClient.class);
+        when(client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class))
+                .thenReturn(catalogue("deepseek-chat"));
+        try (DeepSeekService service = new DeepSeekService(client, 100)) {
+            assertEquals(List.of("deepseek-chat"),
+                    service.getModels().stream().map(DeepSeekModels.ModelData::getId).toList());
+            service.getModels();
+            assertTrue(service.getModelRegistry().hasModel("deepseek-chat"));
+
+            verify(client, times(1))
+                    .sendGetRequest("/models", DeepSeekModels.ModelResponse.class);
+        }
+    }
+
+    @Test
+    void service_registryIsNotBlockedByAChatTurnInFlight() throws Exception {
+        DeepSeekAPIClient client = mock(DeepSeekAPIClient.class);
+        CountDownLatch sent = new CountDownLatch(1);
+        CountDownLatch answer = new CountDownLatch(1);
+        when(client.sendPostRequest(eq("/chat/completions"), any(), eq(DeepSeekModels.ChatResponse.class)))
+                .thenAnswer(invocation -> {
+                    sent.countDown();
+                    answer.await();
+                    throw new IOException("turn abandoned");
+                });
+        when(client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class))
+                .thenReturn(catalogue("deepseek-chat"));
+        DeepSeekService service = new DeepSeekService(client, 100);
+        CompletableFuture<Void> turn = CompletableFuture.runAsync(() ->
+                assertThrows(DeepSeekAPIException.class, () -> service.sendChatRequest("hi", "deepseek-chat", 10)));
+        try {
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+            assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+                assertEquals(1, service.getModels().size());
+                service.close();
+            });
+        } finally {
+            answer.countDown();
+        }
+        turn.get(5, TimeUnit.SECONDS);
+    }
+}
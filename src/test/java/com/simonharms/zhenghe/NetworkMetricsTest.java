@@ -0,0 +1,110 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NetworkMetricsTest {
+
+    private static final String CHAT_RESPONSE = "{\"id\":\"r\",\"model\":\"deepseek-chat\",\"choices\":[{\"index\":0,"
+            + "\"finish_reason\":\"stop\",\"message\":{\"role\":\"assistant\",\"content\":\"hi\"}}]}";
+
+    private MockWebServer server;
+    private NetworkMetrics metrics;
+    private DeepSeekAPIClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        metrics = NetworkMetrics.create();
+        client = DeepSeekAPIClient.builder("k", server.url("").toString().replaceAll("/$", ""))
+                .networkMetrics(metrics)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private static DeepSeekModels.ChatRequest request(String model) {
+        return new DeepSeekModels.ChatRequest(model, List.of(new DeepSeekModels.ChatMessage("user", "hello")), 10);
+    }
+
+    @Test
+    void postRequests_recordPhasesPerEndpointAndModel() throws Exception {
+        server.enqueue(new MockResponse().setHeadersDelay(50, TimeUnit.MILLISECONDS).setBody(CHAT_RESPONSE));
+        server.enqueue(new MockResponse().setBody(CHAT_RESPONSE));
+        server.enqueue(new MockResponse().setBody(CHAT_RESPONSE));
+
+        client.sendPostRequest("/chat/completions", request("deepseek-chat"), DeepSeekModels.ChatResponse.class);
+        client.sendPostRequest("/chat/completions", request("deepseek-chat"), DeepSeekModels.ChatResponse.class);
+        client.sendPostRequest("/chat/completions", request("deepseek-reasoner"), DeepSeekModels.ChatResponse.class);
+
+        NetworkMetrics.EndpointStats chat = metrics.snapshot("/chat/completions", "deepseek-chat");
+        assertEquals(2, chat.calls());
+        assertEquals(0, chat.failures());
+        assertEquals(1, chat.newConnections());
+        assertEquals(1, chat.reusedConnections());
+        assertEquals(1, chat.phase(NetworkMetrics.Phase.CONNECT).getCount());
+        assertEquals(2, chat.phase(NetworkMetrics.Phase.REQUEST_UPLOAD).getCount());
+        assertTrue(chat.phase(NetworkMetrics.Phase.SERVER_WAIT).getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(2, chat.phase(NetworkMetrics.Phase.RESPONSE_DOWNLOAD).getCount());
+        assertEquals(CHAT_RESPONSE.length(), chat.responseBytes().getMax());
+        assertTrue(chat.requestBytes().getMax() > 0);
+        assertTrue(chat.phase(NetworkMetrics.Phase.TOTAL).getMax() >= chat.phase(NetworkMetrics.Phase.SERVER_WAIT).getMax());
+
+        assertEquals(List.of("deepseek-chat", "deepseek-reasoner"),
+                metrics.snapshot().stream().map(NetworkMetrics.EndpointStats::model).toList());
+    }
+
+    @Test
+    void getRequests_areCountedWithoutAModel() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"object\":\"list\",\"data\":[]}"));
+
+        client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class);
+
+        NetworkMetrics.EndpointStats models = metrics.snapshot("/models", null);
+        assertEquals(1, models.calls());
+        assertEquals(0, models.requestBytes().getCount());
+    }
+
+    @Test
+    void failedCalls_areCounted() {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+
+        assertThrows(IOException.class, () -> client.sendPostRequest("/chat/completions", request("deepseek-chat"),
+                DeepSeekModels.ChatResponse.class));
+
+        NetworkMetrics.EndpointStats chat = metrics.snapshot("/chat/completions", "deepseek-chat");
+        assertEquals(1, chat.calls());
+        assertEquals(1, chat.failures());
+        assertEquals(1, chat.phase(NetworkMetrics.Phase.TOTAL).getCount());
+    }
+
+    @Test
+    void snapshot_isImmutableAndDetached() throws Exception {
+        server.enqueue(new MockResponse().setBody(CHAT_RESPONSE));
+        client.sendPostRequest("/chat/completions", request("deepseek-chat"), DeepSeekModels.ChatResponse.class);
+        NetworkMetrics.EndpointStats before = metrics.snapshot("/chat/completions", "deepseek-chat");
+
+        server.enqueue(new MockResponse().setBody(CHAT_RESPONSE));
+        client.sendPostRequest("/chat/completions", request("deepseek-chat"), DeepSeekModels.ChatResponse.class);
+
+        assertEquals(1, before.phase(NetworkMetrics.Phase.TOTAL).getCount());
+        assertThrows(UnsupportedOperationException.class, () -> before.phases().clear());
+        assertNull(metrics.snapshot("/chat/completions", "other"));
+    }
+}
@@ -0,0 +1,246 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    private RateLimiter limiter(long rpm, long tpm) {
+        return RateLimiter.builder().requestsPerMinute(rpm).tokensPerMinute(tpm).build(clock::get);
+    }
+
+    private static DeepSeekModels.ChatRequest chatRequest(String content, int maxTokens) {
+        return new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", content)), maxTokens);
+    }
+
+    @Test
+    void tryAcquire_allowsBurstUpToRequestsPerMinute() {
+        RateLimiter limiter = limiter(3, 1_000_000);
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(limiter.tryAcquire(10));
+        }
+        assertNull(limiter.tryAcquire(10));
+        assertEquals(1, limiter.getThrottledCount());
+    }
+
+    @Test
+    void tryAcquire_refillsContinuously() {
+        RateLimiter limiter = limiter(60, 1_000_000);
+        for (int i = 0; i < 60; i++) {
+            assertNotNull(limiter.tryAcquire(0));
+        }
+        assertNull(limiter.tryAcquire(0));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+        assertNotNull(limiter.tryAcquire(0));
+        assertNull(limiter.tryAcquire(0));
+    }
+
+    @Test
+    void tryAcquire_rejectsWhenTokensExhaustedWithoutChargingRequest() {
+        RateLimiter limiter = limiter(2, 1_000);
+
+        assertNotNull(limiter.tryAcquire(900));
+        assertNull(limiter.tryAcquire(200));
+        // the rejected attempt must not have consumed the second request slot
+        assertNotNull(limiter.tryAcquire(100));
+    }
+
+    @Test
+    void settle_returnsUnusedTokens() {
+        RateLimiter limiter = limiter(100, 1_000);
+
+        RateLimiter.Permit permit = limiter.tryAcquire(1_000);
+        assertNull(limiter.tryAcquire(500));
+
+        permit.settle(400);
+
+        assertNotNull(limiter.tryAcquire(600));
+        assertNull(limiter.tryAcquire(1));
+    }
+
+    @Test
+    void settle_chargesExtraTokensAndOnlyAppliesOnce() {
+        RateLimiter limiter = limiter(100, 1_000);
+
+        RateLimiter.Permit permit = limiter.tryAcquire(100);
+        permit.settle(600);
+        permit.settle(0);
+
+        assertNotNull(limiter.tryAcquire(400));
+        assertNull(limiter.tryAcquire(1));
+    }
+
+    @Test
+    void timeUntilAvailable_reportsWait() {
+        RateLimiter limiter = limiter(60, 1_000_000);
+        for (int i = 0; i < 60; i++) {
+            limiter.tryAcquire(0);
+        }
+
+        assertEquals(Duration.ofSeconds(1), limiter.timeUntilAvailable(0));
+    }
+
+    @Test
+    void acquireAsync_completesAfterWaitWithoutBlocking() throws Exception {
+        RateLimiter limiter = RateLimiter.builder().requestsPerMinute(600).build();
+        for (int i = 0; i < 600; i++) {
+            assertTrue(limiter.acquireAsync(0).isDone());
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<RateLimiter.Permit> waiting = limiter.acquireAsync(0);
+        assertFalse(waiting.isDone());
+        assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    void acquire_blocksUntilCapacity() throws Exception {
+        RateLimiter limiter = RateLimiter.builder().requestsPerMinute(600).build();
+        for (int i = 0; i < 600; i++) {
+            limiter.acquire(0);
+        }
+
+        long start = System.nanoTime();
+        limiter.acquire(0);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    void concurrentAcquisitions_neverExceedCapacity() throws Exception {
+        RateLimiter limiter = limiter(1_000, 1_000_000_000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(() -> {
+                    int granted = 0;
+                    for (int i = 0; i < 500; i++) {
+                        if (limiter.tryAcquire(1) != null) granted++;
+                    }
+                    return granted;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            assertEquals(1_000, total);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void estimateTokens_countsPromptAndMaxTokens() {
+        assertEquals(0, RateLimiter.estimateTokens(null));
+        // 4 framing + 10 ASCII chars * 0.3 = 7, plus max_tokens
+        assertEquals(107, RateLimiter.estimateTokens(chatRequest("0123456789", 100)));
+        // 4 framing + 10 CJK chars * 0.6 = 10, plus max_tokens
+        assertEquals(110, RateLimiter.estimateTokens(chatRequest("你好你好你好你好你好", 100)));
+    }
+
+    @Test
+    void client_failFast_rejectsWithoutSendingAndCorrectsFromUsage() throws Exception {
+        RateLimiter limiter = RateLimiter.builder()
+                .tokensPerMinute(200)
+                .onLimit(RateLimiter.OnLimit.FAIL_FAST)
+                .build();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setBody(
+                    "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"ok\"}}],\"usage\":{\"total_tokens\":20}}"));
+            server.enqueue(new MockResponse().setBody("{\"choices\":[]}"));
+            server.start();
+            String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", baseUrl).rateLimiter(limiter).build()) {
+                // estimate 150 + 7 fits; the actual usage of 20 is charged afterwards
+                client.sendPostRequest("/chat/completions", chatRequest("0123456789", 150),
+                        DeepSeekModels.ChatResponse.class);
+                // 157 more tokens only fit because the first charge was corrected from 157 to 20
+                client.sendPostRequest("/chat/completions", chatRequest("0123456789", 150),
+                        DeepSeekModels.ChatResponse.class);
+
+                RateLimitExceededException e = assertThrows(RateLimitExceededException.class, () ->
+                        client.sendPostRequest("/chat/completions", chatRequest("0123456789", 150),
+                                DeepSeekModels.ChatResponse.class));
+                assertTrue(e.getRetryAfter().compareTo(Duration.ZERO) > 0);
+
+                ExecutionException async = assertThrows(ExecutionException.class, () ->
+                        client.sendPostRequestAsync("/chat/completions", chatRequest("0123456789", 150),
+                                DeepSeekModels.ChatResponse.class).get(5, TimeUnit.SECONDS));
+                assertInstanceOf(RateLimitExceededException.class, async.getCause());
+            }
+            assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    void client_chargesEveryRetryAndHedgeAttempt() throws Exception {
+        RateLimiter limiter = RateLimiter.builder()
+                .requestsPerMinute(5)
+                .onLimit(RateLimiter.OnLimit.FAIL_FAST)
+                .build();
+        RetryPolicy retries = RetryPolicy.builder().baseDelay(Duration.ofMillis(1)).build();
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+            server.enqueue(new MockResponse().setBody("{\"choices\":[]}"));
+            server.enqueue(new MockResponse().setBody("{\"choices\":[]}").setHeadersDelay(3, TimeUnit.SECONDS));
+            server.enqueue(new MockResponse().setBody("{\"choices\":[]}"));
+            server.enqueue(new MockResponse().setResponseCode(503));
+            server.start();
+            String baseUrl = server.url("").toString().replaceAll("/$", "");
+
+            try (DeepSeekAPIClient retrying = DeepSeekAPIClient.builder("k", baseUrl)
+                    .rateLimiter(limiter)
+                    .retryPolicy(retries)
+                    .build();
+                 DeepSeekAPIClient hedging = DeepSeekAPIClient.builder("k", baseUrl)
+                         .rateLimiter(limiter)
+                         .hedgingPolicy(HedgingPolicy.builder()
+                                 .initialDelay(Duration.ofMillis(100))
+                                 .maxHedgeRatio(1)
+                                 .build())
+                         .build()) {
+                // a 503 and its retry take two requests
+                retrying.sendPostRequest("/chat/completions", chatRequest("hi", 10), DeepSeekModels.ChatResponse.class);
+                // the slow attempt and its hedge take the other two
+                hedging.sendPostRequest("/chat/completions", chatRequest("hi", 10), DeepSeekModels.ChatResponse.class);
+                assertEquals(4, server.getRequestCount());
+
+                // the last request goes to a 503; its retry is rejected by the limiter and not retried again
+                assertThrows(RateLimitExceededException.class, () -> retrying.sendPostRequest(
+                        "/chat/completions", chatRequest("hi", 10), DeepSeekModels.ChatResponse.class));
+                assertEquals(2, retries.getRetryCount());
+            }
+            assertEquals(5, server.getRequestCount());
+        }
+    }
+
+    @Test
+    void builder_rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> RateLimiter.builder().requestsPerMinute(0));
+        assertThrows(IllegalArgumentException.class, () -> RateLimiter.builder().tokensPerMinute(-1));
+        assertThrows(IllegalArgumentException.class, () -> RateLimiter.builder().onLimit(null));
+    }
+}
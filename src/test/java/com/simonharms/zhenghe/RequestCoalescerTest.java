@@ -0,0 +1,169 @@
+package com.simonharms.zhenghe;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCoalescerTest {
+
+    private final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+
+    @Test
+    void execute_concurrentIdenticalCallsShareOneResult() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> leader = executor.submit(() -> coalescer.execute("k", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "answer";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> follower = executor.submit(() -> coalescer.execute("k", () -> {
+                calls.incrementAndGet();
+                return "other";
+            }));
+            waitForSaved(1);
+            release.countDown();
+
+            assertEquals("answer", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("answer", follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescer.getSavedCount());
+    }
+
+    @Test
+    void execute_afterCompletionSendsAgain() throws Exception {
+        assertEquals("a", coalescer.execute("k", () -> "a"));
+        assertEquals("b", coalescer.execute("k", () -> "b"));
+        assertEquals(0, coalescer.getSavedCount());
+    }
+
+    @Test
+    void execute_followerReceivesLeaderFailure() throws Exception {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> leader = coalescer.executeAsync("k", () -> upstream);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> follower = executor.submit(() -> coalescer.execute("k", () -> "unused"));
+            waitForSaved(1);
+            upstream.completeExceptionally(new DeepSeekHttpException("bad", 400, null));
+
+            Exception e = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(DeepSeekHttpException.class, e.getCause());
+        }
+        assertTrue(leader.isCompletedExceptionally());
+    }
+
+    @Test
+    void executeAsync_upstreamCancelledOnlyWhenEveryCallerCancels() {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = coalescer.executeAsync("k", () -> upstream);
+        CompletableFuture<String> second = coalescer.executeAsync("k", () -> fail("not sent twice"));
+
+        first.cancel(true);
+        assertFalse(upstream.isCancelled());
+
+        second.cancel(true);
+        assertTrue(upstream.isCancelled());
+
+        // a new caller starts a fresh flight
+        CompletableFuture<String> third = coalescer.executeAsync("k", () -> CompletableFuture.completedFuture("fresh"));
+        assertEquals("fresh", third.join());
+    }
+
+    @Test
+    void stream_followerReplaysBufferedTokensThenFollowsLiveStream() throws Exception {
+        CountDownLatch firstTokens = new CountDownLatch(1);
+        CountDownLatch rest = new CountDownLatch(1);
+        List<String> leaderTokens = new CopyOnWriteArrayList<>();
+        List<String> followerTokens = new CopyOnWriteArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?> leader = executor.submit(() -> {
+                coalescer.stream("k", onToken -> {
+                    onToken.accept("a");
+                    onToken.accept("b");
+                    firstTokens.countDown();
+                    await(rest);
+                    onToken.accept("c");
+                }, leaderTokens::add);
+                return null;
+            });
+            assertTrue(firstTokens.await(5, TimeUnit.SECONDS));
+            Future<?> follower = executor.submit(() -> {
+                coalescer.stream("k", onToken -> fail("not streamed twice"), followerTokens::add);
+                return null;
+            });
+            waitForSaved(1);
+            rest.countDown();
+
+            leader.get(5, TimeUnit.SECONDS);
+            follower.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("a", "b", "c"), leaderTokens);
+        assertEquals(List.of("a", "b", "c"), followerTokens);
+    }
+
+    @Test
+    void stream_followerReceivesFailure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch fail = new CountDownLatch(1);
+        List<String> followerTokens = new CopyOnWriteArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?> leader = executor.submit(() -> {
+                coalescer.stream("k", onToken -> {
+                    onToken.accept("a");
+                    started.countDown();
+                    await(fail);
+                    throw new IOException("connection reset");
+                }, token -> { });
+                return null;
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<?> follower = executor.submit(() -> {
+                coalescer.stream("k", onToken -> { }, followerTokens::add);
+                return null;
+            });
+            waitForSaved(1);
+            fail.countDown();
+
+            assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+            Exception e = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertEquals("connection reset", e.getCause().getMessage());
+        }
+        assertEquals(List.of("a"), followerTokens);
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void waitForSaved(long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (coalescer.getSavedCount() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, coalescer.getSavedCount());
+    }
+}
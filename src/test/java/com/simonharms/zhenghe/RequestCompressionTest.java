@@ -0,0 +1,199 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.InflaterSource;
+import okio.Okio;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCompressionTest {
+
+    private static final String RESPONSE_JSON = """
+            {"id":"r","object":"chat.completion","created":0,"model":"deepseek-chat",
+             "choices":[{"index":0,"finish_reason":"stop",
+               "message":{"role":"assistant","content":"ok"}}]}
+            """;
+
+    private MockWebServer server;
+    private String baseUrl;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        baseUrl = server.url("").toString().replaceAll("/$", "");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void largeBody_isGzippedAndDecodesToOriginalJson() throws Exception {
+        RequestCompression compression = RequestCompression.gzip(1024, 6);
+        server.enqueue(new MockResponse().setBody(RESPONSE_JSON));
+
+        try (DeepSeekAPIClient client = client(compression)) {
+            client.sendPostRequest("/chat/completions", chatRequest(4096), DeepSeekModels.ChatResponse.class);
+        }
+
+        RecordedRequest recorded = server.takeRequest();
+        assertEquals("gzip", recorded.getHeader("Content-Encoding"));
+        String json = Okio.buffer(new GzipSource(recorded.getBody())).readUtf8();
+        assertTrue(json.contains("\"model\":\"deepseek-chat\""));
+        assertTrue(json.contains("鄭和 sailed to Java. 鄭和 sailed to Java."));
+
+        assertEquals(1, compression.getCompressedRequestCount());
+        assertEquals(json.getBytes(StandardCharsets.UTF_8).length, compression.getUncompressedBytes());
+        assertEquals(recorded.getBodySize(), compression.getCompressedBytes());
+        assertTrue(compression.getCompressedBytes() < compression.getUncompressedBytes());
+    }
+
+    @Test
+    void largeBody_deflateCoding_decodesToOriginalJson() throws Exception {
+        server.enqueue(new MockResponse().setBody(RESPONSE_JSON));
+
+        try (DeepSeekAPIClient client = client(RequestCompression.deflate(1024, 9))) {
+            client.sendPostRequest("/chat/completions", chatRequest(4096), DeepSeekModels.ChatResponse.class);
+        }
+
+        RecordedRequest recorded = server.takeRequest();
+        assertEquals("deflate", recorded.getHeader("Content-Encoding"));
+        String json = Okio.buffer(new InflaterSource(recorded.getBody(), new Inflater())).readUtf8();
+        assertTrue(json.startsWith("{\"messages\""));
+    }
+
+    @Test
+    void smallBody_isSentUncompressed() throws Exception {
+        RequestCompression compression = RequestCompression.gzip(64 * 1024, 6);
+        server.enqueue(new MockResponse().setBody(RESPONSE_JSON));
+
+        try (DeepSeekAPIClient client = client(compression)) {
+            client.sendPostRequest("/chat/completions", chatRequest(10), DeepSeekModels.ChatResponse.class);
+        }
+
+        RecordedRequest recorded = server.takeRequest();
+        assertNull(recorded.getHeader("Content-Encoding"));
+        assertTrue(recorded.getBody().readUtf8().startsWith("{"));
+        assertEquals(0, compression.getCompressedRequestCount());
+    }
+
+    @Test
+    void unsupportedMediaType_retriesUncompressedAndStaysOff() throws Exception {
+        RequestCompression compression = RequestCompression.gzip(1024, 6);
+        server.enqueue(new MockResponse().setResponseCode(415));
+        server.enqueue(new MockResponse().setBody(RESPONSE_JSON));
+        server.enqueue(new MockResponse().setBody(RESPONSE_JSON));
+
+        try (DeepSeekAPIClient client = client(compression)) {
+            DeepSeekModels.ChatResponse response = client.sendPostRequest(
+                    "/chat/completions", chatRequest(4096), DeepSeekModels.ChatResponse.class);
+            assertEquals("ok", response.getMessage());
+            client.sendPostRequest("/chat/completions", chatRequest(4096), DeepSeekModels.ChatResponse.class);
+        }
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        RecordedRequest retry = server.takeRequest();
+        assertNull(retry.getHeader("Content-Encoding"));
+        assertTrue(retry.getBody().readUtf8().startsWith("{"));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        assertTrue(compression.isRejectedByServer());
+        assertEquals(0, compression.getCompressedRequestCount());
+    }
+
+    @Test
+    void badRequest_retriesUncompressed_andStaysOffWhenThatSucceeds() throws Exception {
+        RequestCompression compression = RequestCompression.gzip(1024, 6);
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.enqueue(new MockResponse().setBody(RESPONSE_JSON));
+
+        try (DeepSeekAPIClient client = client(compression)) {
+            DeepSeekModels.ChatResponse response = client.sendPostRequest(
+                    "/chat/completions", chatRequest(4096), DeepSeekModels.ChatResponse.class);
+            assertEquals("ok", response.getMessage());
+        }
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        assertTrue(compression.isRejectedByServer());
+    }
+
+    @Test
+    void badRequest_forTheRequestItself_keepsCompressionOn() throws Exception {
+        RequestCompression compression = RequestCompression.gzip(1024, 6);
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":{\"message\":\"bad\"}}"));
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":{\"message\":\"bad\"}}"));
+
+        try (DeepSeekAPIClient client = client(compression)) {
+            DeepSeekHttpException e = assertThrows(DeepSeekHttpException.class, () -> client.sendPostRequest(
+                    "/chat/completions", chatRequest(4096), DeepSeekModels.ChatResponse.class));
+            assertEquals(400, e.getStatusCode());
+        }
+
+        assertEquals(2, server.getRequestCount());
+        assertFalse(compression.isRejectedByServer());
+    }
+
+    @Test
+    void knownLengthBody_belowMinBytes_isSentUntouched() throws Exception {
+        server.enqueue(new MockResponse().setBody(RESPONSE_JSON));
+        OkHttpClient http = new OkHttpClient.Builder()
+                .addInterceptor(RequestCompression.gzip(1024, 6)::intercept)
+                .build();
+
+        try (Response response = http.newCall(new Request.Builder().url(baseUrl + "/chat/completions")
+                .post(RequestBody.create("{}", MediaType.parse("application/json"))).build()).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        RecordedRequest recorded = server.takeRequest();
+        assertNull(recorded.getHeader("Content-Encoding"));
+        assertEquals("2", recorded.getHeader("Content-Length"));
+    }
+
+    @Test
+    void streamingRequest_isCompressedToo() throws Exception {
+        server.enqueue(new MockResponse().setBody("data: [DONE]\n\n").addHeader("Content-Type", "text/event-stream"));
+
+        try (DeepSeekAPIClient client = client(RequestCompression.gzip(1024, 1))) {
+            DeepSeekModels.ChatRequest request = chatRequest(4096);
+            request.setStream(true);
+            client.sendStreamingPostRequest("/chat/completions", request, token -> {});
+        }
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    void invalidLevel_isRejected() {
+        assertThrows(IllegalArgumentException.class, () -> RequestCompression.gzip(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> RequestCompression.deflate(-1, 6));
+    }
+
+    private DeepSeekAPIClient client(RequestCompression compression) {
+        return DeepSeekAPIClient.builder("test-key", baseUrl).requestCompression(compression).build();
+    }
+
+    private static DeepSeekModels.ChatRequest chatRequest(int repeats) {
+        return new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", "鄭和 sailed to Java. ".repeat(repeats))), 100);
+    }
+}
@@ -0,0 +1,202 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    private static final String MODELS_JSON = "{\"object\":\"list\",\"data\":[]}";
+
+    private MockWebServer server;
+    private String baseUrl;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        baseUrl = server.url("").toString().replaceAll("/$", "");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private static RetryPolicy fastPolicy(int maxAttempts) {
+        return RetryPolicy.builder()
+                .maxAttempts(maxAttempts)
+                .baseDelay(Duration.ofMillis(1))
+                .maxDelay(Duration.ofMillis(5))
+                .build();
+    }
+
+    private DeepSeekAPIClient client(RetryPolicy policy) {
+        return DeepSeekAPIClient.builder("test-key", baseUrl).retryPolicy(policy).build();
+    }
+
+    @Test
+    void retryableStatus_isRetriedUntilSuccess() throws Exception {
+        RetryPolicy policy = fastPolicy(3);
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(429));
+        server.enqueue(new MockResponse().setBody(MODELS_JSON));
+
+        try (DeepSeekAPIClient client = client(policy)) {
+            assertNotNull(client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class));
+        }
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, policy.getRetryCount());
+    }
+
+    @Test
+    void clientError_isNotRetried() {
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("bad request"));
+
+        try (DeepSeekAPIClient client = client(fastPolicy(3))) {
+            DeepSeekHttpException e = assertThrows(DeepSeekHttpException.class, () ->
+                    client.sendPostRequest("/chat/completions", "{}", DeepSeekModels.ChatResponse.class));
+            assertEquals(400, e.getStatusCode());
+            assertFalse(e.isRetryable());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void exhaustedAttempts_surfaceLastStatusAndRetryAfter() {
+        for (int i = 0; i < 2; i++) {
+            server.enqueue(new MockResponse().setResponseCode(429).addHeader("Retry-After", "0"));
+        }
+
+        try (DeepSeekAPIClient client = client(fastPolicy(2))) {
+            DeepSeekHttpException e = assertThrows(DeepSeekHttpException.class, () ->
+                    client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class));
+            assertEquals(429, e.getStatusCode());
+            assertEquals(Duration.ZERO, e.getRetryAfter());
+            assertTrue(e.isRetryable());
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    void retryAfter_delaysNextAttempt() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).addHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody(MODELS_JSON));
+
+        long start = System.nanoTime();
+        try (DeepSeekAPIClient client = client(fastPolicy(2))) {
+            client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class);
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(950));
+    }
+
+    @Test
+    void retryAfterBeyondBudget_returnsImmediately() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .maxAttempts(5)
+                .baseDelay(Duration.ofMillis(1))
+                .maxElapsed(Duration.ofSeconds(2))
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(503).addHeader("Retry-After", "60"));
+
+        long start = System.nanoTime();
+        try (DeepSeekAPIClient client = client(policy)) {
+            DeepSeekHttpException e = assertThrows(DeepSeekHttpException.class, () ->
+                    client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class));
+            assertEquals(Duration.ofSeconds(60), e.getRetryAfter());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void connectionFailure_isRetried() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        server.enqueue(new MockResponse().setBody(MODELS_JSON));
+
+        try (DeepSeekAPIClient client = client(fastPolicy(4))) {
+            assertNotNull(client.sendGetRequest("/models", DeepSeekModels.ModelResponse.class));
+        }
+    }
+
+    @Test
+    void streaming_isRetriedBeforeFirstToken() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse()
+                .setBody("data: {\"choices\":[{\"delta\":{\"content\":\"Hi\"}}]}\n\ndata: [DONE]\n\n")
+                .addHeader("Content-Type", "text/event-stream"));
+
+        List<String> tokens = new ArrayList<>();
+        try (DeepSeekAPIClient client = client(fastPolicy(3))) {
+            client.sendStreamingPostRequest("/chat/completions", "{}", tokens::add);
+        }
+        assertEquals(List.of("Hi"), tokens);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    void streaming_isNotRetriedAfterBodyStarts() {
+        server.enqueue(new MockResponse()
+                .setBody("data: {\"choices\":[{\"delta\":{\"content\":\"Hi\"}}]}\n\n" + "x".repeat(64 * 1024))
+                .addHeader("Content-Type", "text/event-stream")
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        server.enqueue(new MockResponse().setBody("data: [DONE]\n\n"));
+
+        List<String> tokens = new ArrayList<>();
+        try (DeepSeekAPIClient client = client(fastPolicy(3))) {
+            assertThrows(IOException.class, () ->
+                    client.sendStreamingPostRequest("/chat/completions", "{}", tokens::add));
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void backoffCeiling_doublesAndIsCapped() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .baseDelay(Duration.ofMillis(100))
+                .maxDelay(Duration.ofSeconds(1))
+                .build();
+
+        assertEquals(Duration.ofMillis(100).toNanos(), policy.backoffCeilingNanos(1));
+        assertEquals(Duration.ofMillis(200).toNanos(), policy.backoffCeilingNanos(2));
+        assertEquals(Duration.ofMillis(800).toNanos(), policy.backoffCeilingNanos(4));
+        assertEquals(Duration.ofSeconds(1).toNanos(), policy.backoffCeilingNanos(5));
+        assertEquals(Duration.ofSeconds(1).toNanos(), policy.backoffCeilingNanos(100));
+    }
+
+    @Test
+    void parseRetryAfter_acceptsSecondsAndHttpDates() {
+        assertEquals(Duration.ofSeconds(7), RetryPolicy.parseRetryAfter(" 7 "));
+        assertNull(RetryPolicy.parseRetryAfter(null));
+        assertNull(RetryPolicy.parseRetryAfter("soon"));
+        assertNull(RetryPolicy.parseRetryAfter("-3"));
+        assertEquals(Duration.ZERO, RetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+
+        String future = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30));
+        Duration delay = RetryPolicy.parseRetryAfter(future);
+        assertTrue(delay.compareTo(Duration.ofSeconds(25)) > 0 && delay.compareTo(Duration.ofSeconds(31)) < 0);
+    }
+
+    @Test
+    void builder_rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> RetryPolicy.builder().maxAttempts(0));
+        assertThrows(IllegalArgumentException.class, () -> RetryPolicy.builder().baseDelay(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> RetryPolicy.builder()
+                .baseDelay(Duration.ofSeconds(2)).maxDelay(Duration.ofSeconds(1)).build());
+    }
+}
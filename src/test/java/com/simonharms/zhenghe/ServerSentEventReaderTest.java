@@ -0,0 +1,149 @@
+package com.simonharms.zhenghe;
+
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerSentEventReaderTest {
+
+    @Test
+    void next_readsSingleDataEvents() throws Exception {
+        ServerSentEventReader reader = reader("data: first\n\ndata: second\n\n");
+
+        assertTrue(reader.next());
+        assertEquals("first", reader.dataAsString());
+        assertTrue(reader.next());
+        assertEquals("second", reader.dataAsString());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void next_joinsMultiLineDataWithNewlines() throws Exception {
+        ServerSentEventReader reader = reader("data: {\"a\":\ndata: 1}\n\n");
+
+        assertTrue(reader.next());
+        assertEquals("{\"a\":\n1}", reader.dataAsString());
+    }
+
+    @Test
+    void next_ignoresCommentLines() throws Exception {
+        ServerSentEventReader reader = reader(": keep-alive\n\n: another\ndata: x\n\n");
+
+        assertTrue(reader.next());
+        assertEquals("x", reader.dataAsString());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void next_parsesEventIdAndRetryFields() throws Exception {
+        ServerSentEventReader reader = reader("event: update\nid: 42\nretry: 1500\ndata: x\n\ndata: y\n\n");
+
+        assertTrue(reader.next());
+        assertEquals("update", reader.eventType());
+        assertEquals("42", reader.lastEventId());
+        assertEquals(1500, reader.retryMillis());
+
+        assertTrue(reader.next());
+        assertNull(reader.eventType(), "event type resets between events");
+        assertEquals("42", reader.lastEventId(), "last event id persists between events");
+    }
+
+    @Test
+    void next_stripsOnlyOneLeadingSpaceAndAcceptsMissingSpace() throws Exception {
+        ServerSentEventReader reader = reader("data:no-space\n\ndata:  two-spaces\n\n");
+
+        assertTrue(reader.next());
+        assertEquals("no-space", reader.dataAsString());
+        assertTrue(reader.next());
+        assertEquals(" two-spaces", reader.dataAsString());
+    }
+
+    @Test
+    void next_handlesCrLfAndCrLineEndings() throws Exception {
+        ServerSentEventReader reader = reader("data: crlf\r\n\r\ndata: cr\r\rdata: mixed\r\n\n");
+
+        assertTrue(reader.next());
+        assertEquals("crlf", reader.dataAsString());
+        assertTrue(reader.next());
+        assertEquals("cr", reader.dataAsString());
+        assertTrue(reader.next());
+        assertEquals("mixed", reader.dataAsString());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void next_dispatchesEmptyDataFieldButNotEventsWithoutData() throws Exception {
+        ServerSentEventReader reader = reader("event: ignored\n\ndata\n\n");
+
+        assertTrue(reader.next());
+        assertEquals(0, reader.dataLength());
+        assertNull(reader.eventType());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void next_discardsUnterminatedEventAtEndOfStream() throws Exception {
+        ServerSentEventReader reader = reader("data: complete\n\ndata: partial\n");
+
+        assertTrue(reader.next());
+        assertEquals("complete", reader.dataAsString());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void next_skipsLeadingByteOrderMark() throws Exception {
+        Buffer source = new Buffer().write(ByteString.decodeHex("efbbbf")).writeUtf8("data: x\n\n");
+        ServerSentEventReader reader = new ServerSentEventReader(source);
+
+        assertTrue(reader.next());
+        assertEquals("x", reader.dataAsString());
+    }
+
+    @Test
+    void next_keepsDataAsUtf8Bytes() throws Exception {
+        ServerSentEventReader reader = reader("data: 鄭和\n\n");
+
+        assertTrue(reader.next());
+        byte[] expected = "鄭和".getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, reader.dataLength());
+        assertTrue(ByteString.of(expected).rangeEquals(0, reader.data(), 0, reader.dataLength()));
+        assertEquals("鄭和", reader.dataAsString());
+    }
+
+    @Test
+    void next_reusesDataBufferAcrossEvents() throws Exception {
+        ServerSentEventReader reader = reader("data: one\n\ndata: two\n\n");
+
+        assertTrue(reader.next());
+        byte[] first = reader.data();
+        assertTrue(reader.next());
+        assertSame(first, reader.data());
+    }
+
+    @Test
+    void next_growsDataBufferForLargeEvents() throws Exception {
+        String large = "x".repeat(100_000);
+        ServerSentEventReader reader = reader("data: " + large + "\n\n");
+
+        assertTrue(reader.next());
+        assertEquals(large, reader.dataAsString());
+    }
+
+    @Test
+    void dataEquals_matchesExactBytesOnly() throws Exception {
+        ServerSentEventReader reader = reader("data: [DONE]\n\ndata: [DONE]x\n\n");
+
+        assertTrue(reader.next());
+        assertTrue(reader.dataEquals(ByteString.encodeUtf8("[DONE]")));
+        assertTrue(reader.next());
+        assertFalse(reader.dataEquals(ByteString.encodeUtf8("[DONE]")));
+    }
+
+    private static ServerSentEventReader reader(String body) {
+        return new ServerSentEventReader(new Buffer().writeUtf8(body));
+    }
+}
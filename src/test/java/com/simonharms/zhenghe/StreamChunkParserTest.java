@@ -0,0 +1,129 @@
+package com.simonharms.zhenghe;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamChunkParserTest {
+
+    private StreamChunkParser parser;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper mapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        parser = new StreamChunkParser(mapper);
+    }
+
+    @Test
+    void parse_extractsContentOnFastPath() {
+        assertTrue(parse("""
+                {"id":"c1","object":"chat.completion.chunk","created":1,"model":"deepseek-chat",
+                 "choices":[{"index":0,"delta":{"content":"Hello"},"logprobs":null,"finish_reason":null}]}
+                """));
+
+        assertEquals("Hello", parser.content());
+        assertNull(parser.finishReason());
+        assertFalse(parser.boundFully());
+    }
+
+    @Test
+    void parse_extractsFinishReason() {
+        assertTrue(parse("{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}"));
+
+        assertNull(parser.content());
+        assertEquals("stop", parser.finishReason());
+    }
+
+    @Test
+    void parse_roleAnnouncementChunk_hasNoContent() {
+        assertTrue(parse("{\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":null}}]}"));
+
+        assertNull(parser.content());
+        assertFalse(parser.boundFully());
+    }
+
+    @Test
+    void parse_onlyFirstChoiceIsRead() {
+        assertTrue(parse("{\"choices\":[{\"delta\":{\"content\":\"a\"}},{\"delta\":{\"tool_calls\":[],\"content\":\"b\"}}]}"));
+
+        assertEquals("a", parser.content());
+        assertFalse(parser.boundFully());
+    }
+
+    @Test
+    void parse_decodesUtf8Content() {
+        assertTrue(parse("{\"choices\":[{\"delta\":{\"content\":\"鄭和\\n\"}}]}"));
+
+        assertEquals("鄭和\n", parser.content());
+    }
+
+    @Test
+    void parse_toolCalls_fallsBackToFullBinding() {
+        assertTrue(parse("""
+                {"choices":[{"index":0,"delta":{"content":"x","tool_calls":[{"id":"t1"}]},"finish_reason":"tool_calls"}]}
+                """));
+
+        assertTrue(parser.boundFully());
+        assertEquals("x", parser.content());
+        assertEquals("tool_calls", parser.finishReason());
+    }
+
+    @Test
+    void parse_unknownTopLevelField_fallsBackToFullBinding() {
+        assertTrue(parse("{\"novel\":{\"a\":1},\"choices\":[{\"delta\":{\"content\":\"y\"}}]}"));
+
+        assertTrue(parser.boundFully());
+        assertEquals("y", parser.content());
+    }
+
+    @Test
+    void parse_resetsValuesBetweenChunks() {
+        assertTrue(parse("{\"choices\":[{\"delta\":{\"content\":\"x\"},\"finish_reason\":\"stop\"}]}"));
+        assertTrue(parse("{\"choices\":[]}"));
+
+        assertNull(parser.content());
+        assertNull(parser.finishReason());
+    }
+
+    @Test
+    void parse_extractsUsageOnFastPath() {
+        assertTrue(parse("""
+                {"choices":[],"usage":{"prompt_tokens":5,"completion_tokens":7,"total_tokens":12}}
+                """));
+
+        assertFalse(parser.boundFully());
+        assertNull(parser.content());
+        assertEquals(12, parser.usage().getTotalTokens());
+
+        assertTrue(parse("{\"choices\":[{\"delta\":{\"content\":\"a\"}}],\"usage\":null}"));
+        assertNull(parser.usage());
+    }
+
+    @Test
+    void parse_malformedJson_returnsFalse() {
+        assertFalse(parse("{\"choices\":[{\"delta\":"));
+        assertFalse(parse("not json"));
+    }
+
+    @Test
+    void parse_respectsLengthOfReusedBuffer() {
+        byte[] buffer = "{\"choices\":[{\"delta\":{\"content\":\"z\"}}]}GARBAGE".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(parser.parse(buffer, buffer.length - "GARBAGE".length()));
+        assertEquals("z", parser.content());
+    }
+
+    private boolean parse(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, bytes.length);
+    }
+}
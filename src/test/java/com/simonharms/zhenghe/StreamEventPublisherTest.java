@@ -0,0 +1,213 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamEventPublisherTest {
+
+    private static final StreamEvent END = new StreamEvent(null, null, null);
+
+    private ExecutorService executor;
+    private MockWebServer server;
+    private DeepSeekAPIClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = new MockWebServer();
+        server.start();
+        client = DeepSeekAPIClient.builder("k", server.url("").toString().replaceAll("/$", "")).build();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * A source fed by the test; {@link #next} blocks until an event is offered.
+     */
+    private static final class QueueSource implements StreamEventPublisher.Source {
+        final BlockingQueue<StreamEvent> queue = new LinkedBlockingQueue<>();
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final CompletableFuture<Boolean> closed = new CompletableFuture<>();
+
+        @Override
+        public StreamEvent next() throws IOException {
+            reads.incrementAndGet();
+            try {
+                StreamEvent event = queue.take();
+                if (aborted.get()) throw new IOException("Canceled");
+                return event == END ? null : event;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void abort() {
+            aborted.set(true);
+            queue.add(END);
+        }
+
+        @Override
+        public void close(boolean completed) {
+            closed.complete(completed);
+        }
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<StreamEvent> {
+        final BlockingQueue<StreamEvent> events = new LinkedBlockingQueue<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(StreamEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+
+        StreamEvent take() throws InterruptedException {
+            StreamEvent event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event, "no event delivered");
+            return event;
+        }
+
+        Throwable awaitError() throws Exception {
+            try {
+                done.get(5, TimeUnit.SECONDS);
+            } catch (java.util.concurrent.ExecutionException e) {
+                return e.getCause();
+            }
+            return fail("expected onError");
+        }
+    }
+
+    private static StreamEvent token(String content) {
+        return new StreamEvent(content, null, null);
+    }
+
+    @Test
+    void subscribe_readsOnlyAsFarAsDemand() throws Exception {
+        QueueSource source = new QueueSource();
+        source.queue.addAll(List.of(token("a"), token("b"), token("c"), END));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new StreamEventPublisher(executor, () -> source).subscribe(subscriber);
+        assertEquals(0, source.reads.get());
+
+        subscriber.subscription.request(1);
+        assertEquals("a", subscriber.take().content());
+        Thread.sleep(50);
+        assertEquals(1, source.reads.get());
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.done.get(5, TimeUnit.SECONDS);
+        assertEquals("b", subscriber.take().content());
+        assertEquals("c", subscriber.take().content());
+        assertTrue(source.closed.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancel_abortsABlockedRead() throws Exception {
+        QueueSource source = new QueueSource();
+        source.queue.add(token("a"));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new StreamEventPublisher(executor, () -> source).subscribe(subscriber);
+
+        subscriber.subscription.request(5);
+        subscriber.take();
+        subscriber.subscription.cancel();
+
+        assertFalse(source.closed.get(5, TimeUnit.SECONDS));
+        assertTrue(source.aborted.get());
+        assertFalse(subscriber.done.isDone());
+    }
+
+    @Test
+    void request_nonPositive_signalsError() throws Exception {
+        QueueSource source = new QueueSource();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new StreamEventPublisher(executor, () -> source).subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertInstanceOf(IllegalArgumentException.class, subscriber.awaitError());
+        assertEquals(0, source.reads.get());
+    }
+
+    @Test
+    void publishStreamingPostRequest_deliversContentFinishReasonAndUsage() throws Exception {
+        server.enqueue(new MockResponse().addHeader("Content-Type", "text/event-stream").setBody(
+                "data: {\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"}}]}\n\n"
+                + "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hi\"}}]}\n\n"
+                + "data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n"
+                + "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":4,\"completion_tokens\":1,\"total_tokens\":5}}\n\n"
+                + "data: [DONE]\n\n"));
+        DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", "hello")), 10);
+        request.setStream(true);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        client.publishStreamingPostRequest("/chat/completions", request).subscribe(subscriber);
+        assertEquals(0, server.getRequestCount());
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.done.get(5, TimeUnit.SECONDS);
+
+        assertEquals("Hi", subscriber.take().content());
+        assertEquals("stop", subscriber.take().finishReason());
+        assertEquals(5, subscriber.take().usage().getTotalTokens());
+        assertTrue(subscriber.events.isEmpty());
+    }
+
+    @Test
+    void publishCompletion_httpError_signalsApiExceptionWithStatus() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setBody("{\"error\":{\"message\":\"slow down\"}}"));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        try (DeepSeekService service = new DeepSeekService(client, 10)) {
+            service.publishCompletion("hello", "deepseek-chat").subscribe(subscriber);
+            subscriber.subscription.request(1);
+
+            DeepSeekAPIException error = assertInstanceOf(DeepSeekAPIException.class, subscriber.awaitError());
+            assertEquals(429, error.getStatusCode());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamHandleTest {
+
+    private MockWebServer server;
+    private DeepSeekAPIClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = DeepSeekAPIClient.builder("k", server.url("").toString().replaceAll("/$", "")).build();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private static String chunk(String content) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + content + "\"}}]}\n\n";
+    }
+
+    /**
+     * A stream of {@code count} tokens that takes about {@code count} × 100 ms to send.
+     */
+    private void enqueueSlowStream(int count) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            body.append(chunk("t" + i + " "));
+        }
+        body.append("data: [DONE]\n\n");
+        int chunkBytes = chunk("t0 ").length();
+        server.enqueue(new MockResponse()
+                .addHeader("Content-Type", "text/event-stream")
+                .setBody(body.toString())
+                .throttleBody(chunkBytes, 100, TimeUnit.MILLISECONDS));
+    }
+
+    private static DeepSeekModels.ChatRequest streamRequest() {
+        DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest("deepseek-chat",
+                List.of(new DeepSeekModels.ChatMessage("user", "count")), 100);
+        request.setStream(true);
+        return request;
+    }
+
+    @Test
+    void openStreamingPostRequest_readsToTheEnd() throws Exception {
+        server.enqueue(new MockResponse().addHeader("Content-Type", "text/event-stream")
+                .setBody(chunk("a") + chunk("b") + "data: [DONE]\n\n"));
+        StringBuilder tokens = new StringBuilder();
+
+        StreamHandle handle = client.openStreamingPostRequest("/chat/completions", streamRequest(), tokens::append, null);
+
+        assertEquals("ab", handle.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(StreamHandle.Outcome.COMPLETED, handle.getOutcome());
+        assertEquals("ab", tokens.toString());
+    }
+
+    @Test
+    void stopCondition_cancelsTheCallAsSoonAsItMatches() throws Exception {
+        enqueueSlowStream(50);
+        StringBuilder tokens = new StringBuilder();
+        long start = System.nanoTime();
+
+        StreamHandle handle = client.openStreamingPostRequest("/chat/completions", streamRequest(), tokens::append,
+                text -> text.toString().contains("t2"));
+
+        assertEquals("t0 t1 t2 ", handle.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3), "stream was read to the end");
+        assertEquals(StreamHandle.Outcome.STOPPED, handle.getOutcome());
+        assertEquals("t0 t1 t2 ", tokens.toString());
+    }
+
+    @Test
+    void cancel_endsTheStreamWithThePartialText() throws Exception {
+        enqueueSlowStream(50);
+        CountDownLatch firstToken = new CountDownLatch(1);
+
+        StreamHandle handle = client.openStreamingPostRequest("/chat/completions", streamRequest(),
+                token -> firstToken.countDown(), null);
+        assertTrue(firstToken.await(5, TimeUnit.SECONDS));
+        handle.cancel();
+
+        String text = handle.completion().get(5, TimeUnit.SECONDS);
+        assertTrue(text.startsWith("t0 "));
+        assertTrue(text.length() < 20);
+        assertEquals(StreamHandle.Outcome.CANCELLED, handle.getOutcome());
+        assertEquals(text, handle.getText());
+    }
+
+    @Test
+    void httpError_failsTheCompletion() {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("{\"error\":{\"message\":\"boom\"}}"));
+
+        StreamHandle handle = client.openStreamingPostRequest("/chat/completions", streamRequest(), t -> { }, null);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> handle.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(500, assertInstanceOf(DeepSeekHttpException.class, e.getCause()).getStatusCode());
+        assertNull(handle.getOutcome());
+    }
+
+    @Test
+    void streamChatRequestAsync_recordsThePartialReplyInHistory() throws Exception {
+        enqueueSlowStream(50);
+        DeepSeekService service = new DeepSeekService(client, 100);
+        service.setSystemPrompt(null);
+
+        StreamHandle handle = service.streamChatRequestAsync("count", "deepseek-chat", t -> { },
+                text -> text.toString().contains("t1"));
+        handle.completion().get(5, TimeUnit.SECONDS);
+
+        List<DeepSeekModels.ChatMessage> history = service.getChatHistory();
+        assertEquals("user", history.get(0).getRole());
+        assertEquals("assistant", history.get(1).getRole());
+        assertEquals("t0 t1 ", history.get(1).getContent());
+    }
+
+    @Test
+    void streamChatRequestAsync_cancelledBeforeItStarts_leavesHistoryUnchanged() throws Exception {
+        enqueueSlowStream(10);
+        DeepSeekService service = new DeepSeekService(client, 100);
+        service.setSystemPrompt(null);
+
+        StreamHandle first = service.streamChatRequestAsync("first", "deepseek-chat", t -> { }, null);
+        StreamHandle second = service.streamChatRequestAsync("second", "deepseek-chat", t -> { }, null);
+        second.cancel();
+
+        assertEquals("", second.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(StreamHandle.Outcome.CANCELLED, second.getOutcome());
+        first.completion().get(5, TimeUnit.SECONDS);
+        assertEquals(1, server.getRequestCount());
+        assertEquals(List.of("user", "assistant"),
+                service.getChatHistory().stream().map(DeepSeekModels.ChatMessage::getRole).toList());
+    }
+}
@@ -0,0 +1,126 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamMetricsTest {
+
+    private final AtomicLong clock = new AtomicLong(-1_000_000_000L);
+    private final List<StreamMetrics.Timing> timings = new ArrayList<>();
+    private final StreamMetrics metrics = StreamMetrics.builder().listener(timings::add).build(clock::get);
+
+    private static DeepSeekModels.ChatRequest request(String model) {
+        DeepSeekModels.ChatRequest request = new DeepSeekModels.ChatRequest(model,
+                List.of(new DeepSeekModels.ChatMessage("user", "hi")), 10);
+        request.setStream(true);
+        return request;
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    void stream_recordsEachPhasePerModel() {
+        StreamMetrics.Stream stream = metrics.start(request("deepseek-chat"));
+        advance(100);
+        stream.headers();
+        advance(150);
+        stream.token(stream.now());
+        for (int i = 0; i < 4; i++) {
+            advance(i == 2 ? 90 : 30);
+            stream.token(stream.now());
+        }
+        advance(10);
+        stream.finish(true);
+
+        StreamMetrics.Timing timing = timings.get(0);
+        assertEquals("deepseek-chat", timing.model());
+        assertEquals(Duration.ofMillis(100), timing.timeToHeaders());
+        assertEquals(Duration.ofMillis(250), timing.timeToFirstToken());
+        assertEquals(Duration.ofMillis(90), timing.maxInterTokenGap());
+        assertEquals(Duration.ofMillis(440), timing.duration());
+        assertEquals(5, timing.tokens());
+        assertEquals(4 / 0.18, timing.tokensPerSecond(), 1e-6);
+        assertTrue(timing.completed());
+
+        StreamMetrics.ModelStats stats = metrics.getStats("deepseek-chat");
+        assertEquals(1, stats.getCompletedStreamCount());
+        assertEquals(4, stats.getInterTokenGap().getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(90), stats.getInterTokenGap().getMax());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), stats.getTimeToFirstToken().getValueAtPercentile(50),
+                TimeUnit.MILLISECONDS.toNanos(8));
+        assertEquals(22, stats.getTokensPerSecond().getMax());
+        assertEquals(Set.of("deepseek-chat"), metrics.getModels());
+        assertNull(metrics.getStats("deepseek-reasoner"));
+    }
+
+    @Test
+    void stream_cutShort_isReportedButNotAggregatedAsComplete() {
+        StreamMetrics.Stream stream = metrics.start(request("deepseek-chat"));
+        advance(50);
+        stream.headers();
+        advance(10);
+        stream.finish(false);
+
+        assertFalse(timings.get(0).completed());
+        assertNull(timings.get(0).timeToFirstToken());
+        assertEquals(0, timings.get(0).tokensPerSecond());
+        StreamMetrics.ModelStats stats = metrics.getStats("deepseek-chat");
+        assertEquals(1, stats.getStreamCount());
+        assertEquals(0, stats.getCompletedStreamCount());
+        assertEquals(0, stats.getDuration().getCount());
+    }
+
+    @Test
+    void stream_withoutResponse_isNotRecorded() {
+        metrics.start(request("deepseek-chat")).finish(false);
+
+        assertTrue(timings.isEmpty());
+        assertEquals(0, metrics.getStats("deepseek-chat").getStreamCount());
+    }
+
+    @Test
+    void listenerFailure_doesNotBreakTheStream() {
+        StreamMetrics failing = StreamMetrics.builder().listener(t -> { throw new IllegalStateException(); }).build();
+        StreamMetrics.Stream stream = failing.start(request("deepseek-chat"));
+        stream.headers();
+
+        assertDoesNotThrow(() -> stream.finish(true));
+    }
+
+    @Test
+    void client_timesStreamingRequests() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().addHeader("Content-Type", "text/event-stream").setBody(
+                    "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}\n\n"
+                    + "data: {\"choices\":[{\"delta\":{\"content\":\"a\"}}]}\n\n"
+                    + "data: {\"choices\":[{\"delta\":{\"content\":\"b\"}}]}\n\n"
+                    + "data: [DONE]\n\n"));
+            server.start();
+            List<StreamMetrics.Timing> seen = new ArrayList<>();
+            StreamMetrics real = StreamMetrics.builder().listener(seen::add).build();
+            try (DeepSeekAPIClient client = DeepSeekAPIClient.builder("k", server.url("").toString().replaceAll("/$", ""))
+                    .streamMetrics(real)
+                    .build()) {
+                client.sendStreamingPostRequest("/chat/completions", request("deepseek-chat"), t -> { });
+            }
+
+            assertEquals(1, seen.size());
+            assertEquals(2, seen.get(0).tokens());
+            assertTrue(seen.get(0).completed());
+            assertTrue(seen.get(0).timeToFirstToken().compareTo(seen.get(0).timeToHeaders()) >= 0);
+            assertEquals(1, real.getStats("deepseek-chat").getInterTokenGap().getCount());
+        }
+    }
+}
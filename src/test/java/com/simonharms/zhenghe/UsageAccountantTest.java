@@ -0,0 +1,136 @@
+package com.simonharms.zhenghe;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UsageAccountantTest {
+
+    private static DeepSeekModels.ChatResponse.Usage usage(int prompt, int completion, int cached) {
+        DeepSeekModels.ChatResponse.Usage usage = new DeepSeekModels.ChatResponse.Usage();
+        usage.setPromptTokens(prompt);
+        usage.setCompletionTokens(completion);
+        usage.setTotalTokens(prompt + completion);
+        usage.setPromptCacheHitTokens(cached);
+        return usage;
+    }
+
+    @Test
+    void record_aggregatesPerModelKeyAndTag() {
+        UsageAccountant accountant = UsageAccountant.builder().build(() -> 0);
+
+        accountant.record("deepseek-chat", "sk-...aaaa", "search", usage(100, 20, 64));
+        accountant.record("deepseek-chat", "sk-...bbbb", null, usage(50, 10, 0));
+        accountant.record("deepseek-reasoner", "sk-...aaaa", "search", usage(10, 5, 0));
+        accountant.record("deepseek-chat", "sk-...aaaa", null, null);
+
+        UsageAccountant.Snapshot snapshot = accountant.snapshot();
+        assertEquals(3, snapshot.total().requests());
+        assertEquals(160, snapshot.total().promptTokens());
+        assertEquals(35, snapshot.total().completionTokens());
+        assertEquals(64, snapshot.total().cachedPromptTokens());
+        assertEquals(195, snapshot.total().totalTokens());
+        assertEquals(150, snapshot.byModel().get("deepseek-chat").promptTokens());
+        assertEquals(1, snapshot.byModel().get("deepseek-reasoner").requests());
+        assertEquals(135, snapshot.byApiKey().get("sk-...aaaa").totalTokens());
+        assertEquals(60, snapshot.byApiKey().get("sk-...bbbb").totalTokens());
+        assertEquals(1, snapshot.byTag().size());
+        assertEquals(2, snapshot.byTag().get("search").requests());
+    }
+
+    @Test
+    void snapshotAndReset_clearsTotalsButNotRates() {
+        UsageAccountant accountant = UsageAccountant.builder().rateWindow(Duration.ofSeconds(60)).build(() -> 0);
+        accountant.record("deepseek-chat", "k", null, usage(600, 120, 0));
+
+        UsageAccountant.Snapshot first = accountant.snapshotAndReset();
+        UsageAccountant.Snapshot second = accountant.snapshot();
+
+        assertEquals(720, first.total().totalTokens());
+        assertEquals(0, second.total().requests());
+        assertEquals(0, second.byModel().get("deepseek-chat").totalTokens());
+        assertEquals(12.0, second.total().tokensPerSecond(), 1e-9);
+    }
+
+    @Test
+    void rates_coverOnlyTheRollingWindow() {
+        AtomicLong now = new AtomicLong();
+        UsageAccountant accountant = UsageAccountant.builder().rateWindow(Duration.ofSeconds(60)).build(now::get);
+
+        accountant.record("deepseek-chat", "k", null, usage(60, 60, 0));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        accountant.record("deepseek-chat", "k", null, usage(60, 0, 0));
+
+        UsageAccountant.Totals total = accountant.snapshot().total();
+        assertEquals(2 / 60.0, total.requestsPerSecond(), 1e-9);
+        assertEquals(2.0, total.promptTokensPerSecond(), 1e-9);
+        assertEquals(1.0, total.completionTokensPerSecond(), 1e-9);
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(45));
+        total = accountant.snapshot().total();
+        assertEquals(1.0, total.promptTokensPerSecond(), 1e-9);
+        assertEquals(0.0, total.completionTokensPerSecond(), 1e-9);
+        assertEquals(2, total.requests());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        accountant.record("deepseek-chat", "k", null, usage(6, 0, 0));
+        assertEquals(0.1, accountant.snapshot().total().promptTokensPerSecond(), 1e-9);
+    }
+
+    @Test
+    void maskApiKey_hidesTheMiddleOfTheKey() {
+        assertEquals("sk-...cdef", UsageAccountant.maskApiKey("sk-0123456789abcdef"));
+        assertEquals("****", UsageAccountant.maskApiKey("short"));
+        assertEquals("****", UsageAccountant.maskApiKey(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> UsageAccountant.builder().rateWindow(Duration.ofMillis(10)));
+    }
+
+    @Test
+    void client_recordsPostsAndStreams() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.start();
+            UsageAccountant accountant = UsageAccountant.builder().build();
+            DeepSeekAPIClient client = DeepSeekAPIClient.builder("sk-0123456789abcdef",
+                    server.url("").toString().replaceAll("/$", "")).usageAccountant(accountant).build();
+            server.enqueue(new MockResponse().addHeader("Content-Type", "application/json").setBody(
+                    "{\"model\":\"deepseek-chat\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"hi\"}}],"
+                            + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3,\"total_tokens\":15,"
+                            + "\"prompt_cache_hit_tokens\":8,\"prompt_cache_miss_tokens\":4}}"));
+            server.enqueue(new MockResponse().addHeader("Content-Type", "text/event-stream").setBody(
+                    "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"a\"}}]}\n\n"
+                            + "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":20,\"completion_tokens\":1,\"total_tokens\":21}}\n\n"
+                            + "data: [DONE]\n\n"));
+            try {
+                DeepSeekModels.ChatRequest post = new DeepSeekModels.ChatRequest("deepseek-chat",
+                        List.of(new DeepSeekModels.ChatMessage("user", "hi")), 100);
+                post.setUsageTag("tenant-a");
+                client.sendPostRequest("/chat/completions", post, DeepSeekModels.ChatResponse.class);
+
+                DeepSeekModels.ChatRequest stream = new DeepSeekModels.ChatRequest("deepseek-chat",
+                        List.of(new DeepSeekModels.ChatMessage("user", "a")), 100);
+                stream.setStream(true);
+                client.sendStreamingPostRequest("/chat/completions", stream, token -> { });
+            } finally {
+                client.close();
+            }
+
+            assertFalse(server.takeRequest().getBody().readUtf8().contains("usage_tag"));
+            assertTrue(server.takeRequest().getBody().readUtf8().contains("\"stream_options\":{\"include_usage\":true}"));
+            UsageAccountant.Snapshot snapshot = accountant.snapshot();
+            assertEquals(2, snapshot.total().requests());
+            assertEquals(32, snapshot.total().promptTokens());
+            assertEquals(4, snapshot.total().completionTokens());
+            assertEquals(8, snapshot.total().cachedPromptTokens());
+            assertEquals(15, snapshot.byTag().get("tenant-a").totalTokens());
+            assertEquals(36, snapshot.byApiKey().get("sk-...cdef").totalTokens());
+        }
+    }
+}